@@ -10,6 +10,8 @@ public final class Abbreviation implements Comparable<Abbreviation> {
   private SplitString text;
   private int index;
   private ArrayList<Expansion> expansions;
+  // the snapshot the abbreviation was found in, which its id belongs to
+  private Model model;
 
   /**
    *
@@ -50,12 +52,28 @@ public final class Abbreviation implements Comparable<Abbreviation> {
 
   public int getIndex() { return index; }
 
+  /**
+   * Gets where the abbreviation starts in its text.
+   * @return            The index of the first character of the abbreviation, as used by String.substring
+   */
+  public int getStart() { return text.getWordStart(index); }
+
+  /**
+   * Gets where the abbreviation ends in its text.
+   * @return            The index just after the last character of the abbreviation
+   */
+  public int getEnd() { return text.getWordEnd(index); }
+
   public ArrayList<Expansion> getExpansions() { return expansions; }
 
   public void setId(int id) { this.id = id; }
 
   public void setExpansions(ArrayList<Expansion> expansions) { this.expansions = expansions; }
 
+  Model getModel() { return model; }
+
+  void setModel(Model model) { this.model = model; }
+
   /**
    * Gets the Expansion object with the highest confidence value.
    * @return            An Expansion object
@@ -0,0 +1,460 @@
+package atea;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The expansions of an abbreviation and the word counts of its examples, precomputed per expansion.
+ * Instances are immutable once built. Adding an example creates a new instance which shares every
+ * count the example did not change, so readers holding the old instance are never affected. An
+ * example with a weight is counted as that many identical examples.
+ *
+ * How ambiguous the abbreviation is, as the share of the examples of its most used expansion, is
+ * worked out when an instance is built so predictions can skip scoring when the context would not
+ * change the outcome.
+ *
+ * The word counts can also be read from a KeywordTable outside the heap, so that only the expansions
+ * and their totals of each abbreviation are on the heap. Examples added after such statistics were
+ * loaded are counted on the heap on top of the table.
+ */
+final class AbbreviationStatistics {
+  // The keys of a KeywordTable which are not word counts. Counts about the abbreviation as a whole are
+  // under the ABBREVIATION expansion id, including a count for every word used with any expansion.
+  private static final int ABBREVIATION = Integer.MIN_VALUE;
+  private static final long EXAMPLES = 1;
+  private static final long WORDS = 2;
+  private static final long EXPANSIONS = 3;
+  private static final long VOCABULARY = 4;
+  private static final long LOADED = 5;
+  private static final long EXPANSION_IDS = 16;
+
+  private final String abbrWord;
+  private final Expansion[] expansions;
+  private final int[] exampleCounts;
+  private final int[] wordTotals;
+  private final int exampleTotal;
+  private final int dominantIndex;
+  private final int loadedExampleId;
+  private final WordCounts wordCounts;
+  // the table holding the rest of the word counts, or null if they are all in wordCounts
+  private final KeywordTable table;
+  private final int abbrId;
+  private final int vocabularySize;
+
+  private AbbreviationStatistics(String abbrWord, Expansion[] expansions, int[] exampleCounts,
+                                 int[] wordTotals, int loadedExampleId, WordCounts wordCounts) {
+    this(abbrWord, expansions, exampleCounts, wordTotals, loadedExampleId, wordCounts, null, -1, wordCounts.size());
+  }
+
+  private AbbreviationStatistics(String abbrWord, Expansion[] expansions, int[] exampleCounts,
+                                 int[] wordTotals, int loadedExampleId, WordCounts wordCounts,
+                                 KeywordTable table, int abbrId, int vocabularySize) {
+    this.abbrWord = abbrWord;
+    this.expansions = expansions;
+    this.exampleCounts = exampleCounts;
+    this.wordTotals = wordTotals;
+    this.loadedExampleId = loadedExampleId;
+    this.wordCounts = wordCounts;
+    this.table = table;
+    this.abbrId = abbrId;
+    this.vocabularySize = vocabularySize;
+
+    int total = 0;
+    int dominant = -1;
+    for(int i=0; i<exampleCounts.length; i++) {
+      total += exampleCounts[i];
+      if(exampleCounts[i] > 0 && (dominant == -1 || exampleCounts[i] > exampleCounts[dominant])) {
+        dominant = i;
+      }
+    }
+    this.exampleTotal = total;
+    this.dominantIndex = dominant;
+  }
+
+  /**
+   * Counts the keywords of a set of examples.
+   * @param abbr        The abbreviation the examples are for. Occurrences of it are not counted.
+   * @param expansions  The expansions of the abbreviation
+   * @param examples    The examples of the abbreviation, ordered by id
+   * @param commonWords Lower case words which are not counted
+   * @return            The statistics of the examples
+   */
+  static AbbreviationStatistics fromExamples(String abbr, ArrayList<Expansion> expansions,
+                                             ArrayList<Example> examples, Set<String> commonWords) {
+    ArrayList<Expansion> known = new ArrayList<>();
+    for(Expansion expansion : expansions) {
+      known.add(new Expansion(expansion.getId(), expansion.getValue()));
+    }
+    // examples may reference expansions which are no longer linked to the abbreviation
+    for(Example example : examples) {
+      if(indexOf(known, example.getExpansionId()) == -1) {
+        known.add(new Expansion(example.getExpansionId(), ""));
+      }
+    }
+
+    int[] exampleCounts = new int[known.size()];
+    int[] wordTotals = new int[known.size()];
+    HashMap<String, int[]> wordCounts = new HashMap<>();
+    String abbrWord = normalize(abbr);
+    int loadedExampleId = -1;
+
+    for(Example example : examples) {
+      int index = indexOf(known, example.getExpansionId());
+      int weight = example.getWeight();
+      exampleCounts[index] += weight;
+      loadedExampleId = Math.max(loadedExampleId, example.getId());
+
+      for(String word : keywords(example.getWords(), abbrWord, commonWords)) {
+        wordCounts.computeIfAbsent(word, k -> new int[known.size()])[index] += weight;
+        wordTotals[index] += weight;
+      }
+    }
+
+    return new AbbreviationStatistics(abbrWord, known.toArray(new Expansion[0]), exampleCounts,
+            wordTotals, loadedExampleId, WordCounts.of(wordCounts));
+  }
+
+  /**
+   * Creates statistics from counts already made, such as by ModelBuilder.
+   * @param abbr            The abbreviation the counts are for
+   * @param expansions      The expansions of the abbreviation
+   * @param expansionIds    The id of the expansion each position of the count arrays is for
+   * @param exampleCounts   The weight of the examples of each expansion
+   * @param wordTotals      The number of keywords counted for each expansion
+   * @param wordCounts      The counts of each keyword for each expansion. Arrays may be shorter than
+   *                        expansionIds, with missing counts being 0.
+   * @param loadedExampleId The largest id of the examples counted
+   * @return                The statistics
+   */
+  static AbbreviationStatistics fromCounts(String abbr, ArrayList<Expansion> expansions, int[] expansionIds,
+                                           int[] exampleCounts, int[] wordTotals,
+                                           HashMap<String, int[]> wordCounts, int loadedExampleId) {
+    ArrayList<Expansion> known = new ArrayList<>();
+    for(Expansion expansion : expansions) {
+      known.add(new Expansion(expansion.getId(), expansion.getValue()));
+    }
+    int[] positions = new int[expansionIds.length];
+    for(int i=0; i<expansionIds.length; i++) {
+      positions[i] = indexOf(known, expansionIds[i]);
+      if(positions[i] == -1) {
+        positions[i] = known.size();
+        known.add(new Expansion(expansionIds[i], ""));
+      }
+    }
+
+    int[] knownExampleCounts = new int[known.size()];
+    int[] knownWordTotals = new int[known.size()];
+    for(int i=0; i<expansionIds.length; i++) {
+      knownExampleCounts[positions[i]] = exampleCounts[i];
+      knownWordTotals[positions[i]] = wordTotals[i];
+    }
+    WordCounts knownWordCounts = WordCounts.EMPTY;
+    for(Map.Entry<String, int[]> word : wordCounts.entrySet()) {
+      int[] counts = new int[known.size()];
+      for(int i=0; i<word.getValue().length; i++) {
+        counts[positions[i]] = word.getValue()[i];
+      }
+      knownWordCounts = knownWordCounts.with(word.getKey(), counts);
+    }
+
+    return new AbbreviationStatistics(normalize(abbr), known.toArray(new Expansion[0]), knownExampleCounts,
+            knownWordTotals, loadedExampleId, knownWordCounts);
+  }
+
+  /**
+   * Creates statistics whose word counts are read from a KeywordTable written by writeTo. Only the
+   * expansions and their totals are copied onto the heap.
+   * @param abbr        The abbreviation the counts are for
+   * @param abbrId      The id of the abbreviation
+   * @param expansions  The expansions of the abbreviation
+   * @param table       The table
+   * @return            The statistics, with no examples if the table has none for the abbreviation
+   */
+  static AbbreviationStatistics fromTable(String abbr, int abbrId, ArrayList<Expansion> expansions,
+                                          KeywordTable table) {
+    ArrayList<Expansion> known = new ArrayList<>();
+    for(Expansion expansion : expansions) {
+      known.add(new Expansion(expansion.getId(), expansion.getValue()));
+    }
+    long counted = table.get(abbrId, ABBREVIATION, EXPANSIONS);
+    for(int i=0; i<counted; i++) {
+      // ids are stored plus 1, since an id of 0 would be a count of 0
+      int expansionId = (int) (table.get(abbrId, ABBREVIATION, EXPANSION_IDS + i) - 1);
+      if(indexOf(known, expansionId) == -1) {
+        known.add(new Expansion(expansionId, ""));
+      }
+    }
+
+    int[] exampleCounts = new int[known.size()];
+    int[] wordTotals = new int[known.size()];
+    for(int i=0; i<known.size(); i++) {
+      exampleCounts[i] = (int) table.get(abbrId, known.get(i).getId(), EXAMPLES);
+      wordTotals[i] = (int) table.get(abbrId, known.get(i).getId(), WORDS);
+    }
+
+    return new AbbreviationStatistics(normalize(abbr), known.toArray(new Expansion[0]), exampleCounts,
+            wordTotals, (int) table.get(abbrId, ABBREVIATION, LOADED) - 1, WordCounts.EMPTY, table, abbrId,
+            (int) table.get(abbrId, ABBREVIATION, VOCABULARY));
+  }
+
+  /**
+   * Counts how many entries writeTo puts in a table.
+   */
+  long getTableEntries() {
+    long[] entries = {5 + expansions.length * 3L};
+    wordCounts.forEach((word, counts) -> {
+      entries[0]++;
+      for(int count : counts) {
+        if(count != 0) {
+          entries[0]++;
+        }
+      }
+    });
+
+    return entries[0];
+  }
+
+  /**
+   * Puts every count of these statistics in a KeywordTable, to be read back by fromTable.
+   * @param table   The table
+   * @param abbrId  The id of the abbreviation
+   */
+  void writeTo(KeywordTable table, int abbrId) {
+    if(this.table != null) {
+      throw new IllegalStateException("Statistics read from a keyword table cannot be written to one.");
+    }
+
+    table.put(abbrId, ABBREVIATION, EXPANSIONS, expansions.length);
+    table.put(abbrId, ABBREVIATION, VOCABULARY, wordCounts.size());
+    table.put(abbrId, ABBREVIATION, LOADED, loadedExampleId + 1L);
+    for(int i=0; i<expansions.length; i++) {
+      table.put(abbrId, ABBREVIATION, EXPANSION_IDS + i, expansions[i].getId() + 1L);
+      table.put(abbrId, expansions[i].getId(), EXAMPLES, exampleCounts[i]);
+      table.put(abbrId, expansions[i].getId(), WORDS, wordTotals[i]);
+    }
+    wordCounts.forEach((word, counts) -> {
+      long hash = KeywordTable.hash(word);
+      long total = 0;
+      for(int i=0; i<counts.length; i++) {
+        table.put(abbrId, expansions[i].getId(), hash, counts[i]);
+        total += counts[i];
+      }
+      // a word counted with a weight of 0 is still part of the vocabulary
+      table.put(abbrId, ABBREVIATION, hash, Math.max(total, 1));
+    });
+  }
+
+  /**
+   * Creates a copy of these statistics with one more example counted. Examples which were read from
+   * the database when the statistics were loaded are ignored, so an example may safely be applied to
+   * statistics loaded after it was inserted. Examples added afterwards may arrive in any order.
+   * @param example     The example to add
+   * @param expansion   The value of the expansion of the example, used if the expansion is new
+   * @param commonWords Lower case words which are not counted
+   * @return            The new statistics, or this object if the example is already counted
+   */
+  AbbreviationStatistics withExample(Example example, String expansion, Set<String> commonWords) {
+    if(example.getId() != -1 && example.getId() <= loadedExampleId) {
+      return this;
+    }
+
+    Expansion[] newExpansions = expansions;
+    int index = indexOf(example.getExpansionId());
+    if(index == -1) {
+      index = expansions.length;
+      newExpansions = Arrays.copyOf(expansions, expansions.length + 1);
+      newExpansions[index] = new Expansion(example.getExpansionId(), expansion);
+    }
+
+    int[] newExampleCounts = Arrays.copyOf(exampleCounts, newExpansions.length);
+    int[] newWordTotals = Arrays.copyOf(wordTotals, newExpansions.length);
+    int weight = example.getWeight();
+    newExampleCounts[index] += weight;
+
+    // only the count arrays of words in the example and the trie nodes leading to them are copied,
+    // the rest are shared, so the cost does not grow with the vocabulary
+    HashMap<String, int[]> copied = new HashMap<>();
+    int vocabulary = vocabularySize;
+    for(String word : keywords(example.getWords(), abbrWord, commonWords)) {
+      int[] counts = copied.get(word);
+      if(counts == null) {
+        int[] shared = wordCounts.get(word);
+        if(shared == null) {
+          counts = new int[newExpansions.length];
+          // words first used since a table was written add to its vocabulary
+          if(!isCounted(word)) {
+            vocabulary++;
+          }
+        } else {
+          counts = Arrays.copyOf(shared, Math.max(shared.length, newExpansions.length));
+        }
+        copied.put(word, counts);
+      }
+      counts[index] += weight;
+      newWordTotals[index] += weight;
+    }
+    WordCounts newWordCounts = wordCounts;
+    for(Map.Entry<String, int[]> word : copied.entrySet()) {
+      newWordCounts = newWordCounts.with(word.getKey(), word.getValue());
+    }
+
+    return new AbbreviationStatistics(abbrWord, newExpansions, newExampleCounts, newWordTotals,
+            loadedExampleId, newWordCounts, table, abbrId, vocabulary);
+  }
+
+  /**
+   * Splits the CSV formatted words of an example into normalized keywords.
+   * @param csv         The words of the example
+   * @param abbrWord    The normalized abbreviation, which is not a keyword
+   * @param commonWords Lower case words which are not keywords
+   * @return            The keywords
+   */
+  static ArrayList<String> keywords(String csv, String abbrWord, Set<String> commonWords) {
+    ArrayList<String> keywords = new ArrayList<>();
+    for(String word : csv.split(",")) {
+      if(word.isEmpty()) {
+        continue;
+      }
+      word = normalize(word);
+      if(!word.equals(abbrWord) && !commonWords.contains(word)) {
+        keywords.add(word);
+      }
+    }
+
+    return keywords;
+  }
+
+  private static int indexOf(ArrayList<Expansion> expansions, int expansionId) {
+    for(int i=0; i<expansions.size(); i++) {
+      if(expansions.get(i).getId() == expansionId) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Normalizes a word so that counts are case insensitive.
+   * @param word  The word to normalize
+   * @return      The normalized word
+   */
+  static String normalize(String word) {
+    return word.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Gets the position of an expansion in the arrays returned by this class.
+   * @param expansionId The id of the expansion
+   * @return            The position of the expansion, or -1 if it is unknown
+   */
+  int indexOf(int expansionId) {
+    for(int i=0; i<expansions.length; i++) {
+      if(expansions[i].getId() == expansionId) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Creates new Expansion objects for every known expansion of the abbreviation.
+   * @return  An ArrayList of Expansion objects with no confidence set
+   */
+  ArrayList<Expansion> getExpansions() {
+    ArrayList<Expansion> copies = new ArrayList<>(expansions.length);
+    for(Expansion expansion : expansions) {
+      copies.add(new Expansion(expansion.getId(), expansion.getValue()));
+    }
+
+    return copies;
+  }
+
+  int getExpansionCount() { return expansions.length; }
+
+  int getExampleTotal() { return exampleTotal; }
+
+  int getExampleCount(int index) { return exampleCounts[index]; }
+
+  /**
+   * Gets the position of the expansion with the most examples.
+   * @return  The position, or -1 if there are no examples
+   */
+  int getDominantIndex() { return dominantIndex; }
+
+  /**
+   * Gets the share of the examples which are of the expansion with the most examples. 1 means the
+   * abbreviation has only ever been used one way.
+   * @return  The share, or 0 if there are no examples
+   */
+  double getDominantShare() {
+    return dominantIndex == -1 ? 0 : (double) exampleCounts[dominantIndex] / exampleTotal;
+  }
+
+  int getWordTotal(int index) { return wordTotals[index]; }
+
+  int getLoadedExampleId() { return loadedExampleId; }
+
+  int getVocabularySize() { return vocabularySize; }
+
+  /**
+   * Determines if a word was used in any example.
+   * @param word  A normalized word
+   * @return      True if the word has a count for any expansion
+   */
+  boolean isCounted(String word) {
+    return wordCounts.containsKey(word)
+            || table != null && table.get(abbrId, ABBREVIATION, KeywordTable.hash(word)) != 0;
+  }
+
+  /**
+   * Gets how many times a word was used in the examples of an expansion, without allocating.
+   * @param word  A normalized word
+   * @param index The position of the expansion
+   * @return      The number of times the word was used
+   */
+  int getWordCount(String word, int index) {
+    int[] counts = wordCounts.get(word);
+    int count = counts == null ? 0 : getWordCount(counts, index);
+    if(table != null) {
+      count += (int) table.get(abbrId, expansions[index].getId(), KeywordTable.hash(word));
+    }
+
+    return count;
+  }
+
+  /**
+   * Gets how many times a word was used in the examples of an expansion.
+   * @param counts  The counts of a word returned by getWordCounts
+   * @param index   The position of the expansion
+   * @return        The number of times the word was used
+   */
+  static int getWordCount(int[] counts, int index) {
+    return index < counts.length ? counts[index] : 0;
+  }
+
+  /**
+   * Gets how many times a word was used in the examples of each expansion. Arrays of words which
+   * were not used with recently added expansions may be shorter than getExpansionCount(), so read
+   * them with getWordCount.
+   * @param word  A normalized word
+   * @return      The count for each expansion indexed by position, or null if the word was never used
+   */
+  int[] getWordCounts(String word) {
+    if(table == null || !isCounted(word)) {
+      return wordCounts.get(word);
+    }
+
+    int[] counts = new int[expansions.length];
+    for(int i=0; i<counts.length; i++) {
+      counts[i] = getWordCount(word, i);
+    }
+
+    return counts;
+  }
+}
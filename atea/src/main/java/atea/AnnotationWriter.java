@@ -0,0 +1,210 @@
+package atea;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes the abbreviations found in documents as NDJSON, one line per document:
+ *
+ *   {"document":"a.txt","abbreviations":[{"value":"IT","start":4,"end":6,
+ *     "expansions":[{"value":"information technology","confidence":0.912345},...]}]}
+ *
+ * start and end are character offsets into the document as used by String.substring. Expansions are
+ * in the order Atea ranked them. An expansion with the value "" is the chance that the word is not an
+ * abbreviation.
+ *
+ * Text is encoded to UTF-8 straight into a buffer which is written to the stream when full, so no
+ * strings are built along the way. Not safe for use by several threads at once.
+ */
+public final class AnnotationWriter implements AutoCloseable {
+  private static final int BUFFER_SIZE = 8192;
+  private static final byte[] HEX = "0123456789abcdef".getBytes();
+  // confidences are written with six decimal places
+  private static final long SCALE = 1_000_000;
+
+  private final OutputStream out;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int count;
+
+  /**
+   *
+   * @param out The stream to write to
+   */
+  public AnnotationWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Writes the line for one document.
+   * @param document  An id for the document, such as its file name, or null for none
+   * @param abbrs     The abbreviations found in the document by Atea.predictAbbreviations
+   * @throws IOException
+   */
+  public void write(String document, List<Abbreviation> abbrs) throws IOException {
+    ascii("{\"document\":");
+    if(document == null) {
+      ascii("null");
+    } else {
+      string(document);
+    }
+
+    ascii(",\"abbreviations\":[");
+    for(int i=0; i<abbrs.size(); i++) {
+      Abbreviation abbr = abbrs.get(i);
+      if(i > 0) {
+        put(',');
+      }
+
+      ascii("{\"value\":");
+      string(abbr.getValue());
+      ascii(",\"start\":");
+      number(abbr.getStart());
+      ascii(",\"end\":");
+      number(abbr.getEnd());
+
+      ascii(",\"expansions\":[");
+      List<Expansion> expansions = abbr.getExpansions();
+      for(int e=0; e<expansions.size(); e++) {
+        if(e > 0) {
+          put(',');
+        }
+        ascii("{\"value\":");
+        string(expansions.get(e).getValue());
+        ascii(",\"confidence\":");
+        decimal(expansions.get(e).getConfidence());
+        put('}');
+      }
+      ascii("]}");
+    }
+    ascii("]}\n");
+  }
+
+  private void put(int b) throws IOException {
+    if(count == buffer.length) {
+      flushBuffer();
+    }
+    buffer[count++] = (byte) b;
+  }
+
+  /**
+   * Writes text known to be ASCII and to need no escaping.
+   */
+  private void ascii(String text) throws IOException {
+    for(int i=0; i<text.length(); i++) {
+      put(text.charAt(i));
+    }
+  }
+
+  /**
+   * Writes a JSON string, escaping it and encoding it to UTF-8.
+   */
+  private void string(String value) throws IOException {
+    put('"');
+    for(int i=0; i<value.length(); i++) {
+      char c = value.charAt(i);
+      if(c == '"' || c == '\\') {
+        put('\\');
+        put(c);
+      } else if(c == '\n') {
+        put('\\');
+        put('n');
+      } else if(c == '\r') {
+        put('\\');
+        put('r');
+      } else if(c == '\t') {
+        put('\\');
+        put('t');
+      } else if(c < 0x20) {
+        put('\\');
+        put('u');
+        put('0');
+        put('0');
+        put(HEX[c >> 4]);
+        put(HEX[c & 0xf]);
+      } else if(c < 0x80) {
+        put(c);
+      } else if(c < 0x800) {
+        put(0xc0 | (c >> 6));
+        put(0x80 | (c & 0x3f));
+      } else if(Character.isHighSurrogate(c) && i + 1 < value.length()
+              && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, value.charAt(++i));
+        put(0xf0 | (cp >> 18));
+        put(0x80 | ((cp >> 12) & 0x3f));
+        put(0x80 | ((cp >> 6) & 0x3f));
+        put(0x80 | (cp & 0x3f));
+      } else if(Character.isSurrogate(c)) {
+        // an unpaired surrogate cannot be encoded, write the replacement character instead
+        put(0xef);
+        put(0xbf);
+        put(0xbd);
+      } else {
+        put(0xe0 | (c >> 12));
+        put(0x80 | ((c >> 6) & 0x3f));
+        put(0x80 | (c & 0x3f));
+      }
+    }
+    put('"');
+  }
+
+  private void number(long value) throws IOException {
+    if(value < 0) {
+      put('-');
+      value = -value;
+    }
+
+    long divisor = 1;
+    while(divisor <= value / 10) {
+      divisor *= 10;
+    }
+    for(; divisor > 0; divisor /= 10) {
+      put('0' + (int) (value / divisor % 10));
+    }
+  }
+
+  /**
+   * Writes a number rounded to six decimal places. Values JSON cannot hold are written as null.
+   */
+  private void decimal(double value) throws IOException {
+    if(Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= Long.MAX_VALUE / SCALE) {
+      ascii("null");
+      return;
+    }
+
+    long scaled = Math.round(Math.abs(value) * SCALE);
+    if(value < 0 && scaled != 0) {
+      put('-');
+    }
+    number(scaled / SCALE);
+    put('.');
+    long fraction = scaled % SCALE;
+    for(long digit = SCALE / 10; digit > 0; digit /= 10) {
+      put('0' + (int) (fraction / digit % 10));
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    out.write(buffer, 0, count);
+    count = 0;
+  }
+
+  /**
+   * Writes everything buffered to the stream and flushes it.
+   * @throws IOException
+   */
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  /**
+   * Flushes and closes the stream.
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+    out.close();
+  }
+}
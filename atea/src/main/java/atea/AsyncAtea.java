@@ -0,0 +1,153 @@
+package atea;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * A non-blocking front end to Atea. Every method returns immediately. Predictions run on virtual
+ * threads, and no more than a fixed number of documents are processed at once no matter how many
+ * are submitted, so callers never need a thread of their own per document in flight.
+ */
+public final class AsyncAtea implements AutoCloseable {
+  private final Atea atea;
+  private final int maxConcurrentDocuments;
+  private final Semaphore documents;
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+  /**
+   *
+   * @param atea                    The Atea object to make predictions with
+   * @param maxConcurrentDocuments  The most documents that may be processed at the same time
+   */
+  public AsyncAtea(Atea atea, int maxConcurrentDocuments) {
+    if(maxConcurrentDocuments < 1) {
+      throw new IllegalArgumentException("maxConcurrentDocuments must be at least 1.");
+    }
+
+    this.atea = atea;
+    this.maxConcurrentDocuments = maxConcurrentDocuments;
+    this.documents = new Semaphore(maxConcurrentDocuments, true);
+  }
+
+  public int getMaxConcurrentDocuments() { return maxConcurrentDocuments; }
+
+  /**
+   * Asynchronously finds all words in a String of text that ATEA believes to be an abbreviation.
+   * @param text  The text to look for abbreviations in
+   * @return      A CompletableFuture completed with the result of Atea.predictAbbreviations, or
+   *              completed exceptionally with the SQLException it threw
+   */
+  public CompletableFuture<ArrayList<Abbreviation>> predictAbbreviations(String text) {
+    return submit(() -> atea.predictAbbreviations(text));
+  }
+
+  /**
+   * Asynchronously expands the abbreviations in a String of text.
+   * @param text  The text to look for abbreviations in
+   * @return      A CompletableFuture completed with the expanded text
+   */
+  public CompletableFuture<String> expand(String text) {
+    return submit(() -> atea.expand(text));
+  }
+
+  /**
+   * Asynchronously explains the abbreviations in a String of text.
+   * @param text  The text to look for abbreviations in
+   * @return      A CompletableFuture completed with the explained text
+   */
+  public CompletableFuture<String> explain(String text) {
+    return submit(() -> atea.explain(text));
+  }
+
+  /**
+   * Predicts the abbreviations in every document of a stream. Documents are only requested from
+   * texts as results are requested by the subscriber, and at most maxConcurrentDocuments of them are
+   * processed or waiting to be delivered at a time. Results are delivered in the order the documents
+   * arrived.
+   * @param texts The documents to look for abbreviations in
+   * @return      A Publisher of the result for each document
+   */
+  public Flow.Publisher<ArrayList<Abbreviation>> predictAbbreviations(Flow.Publisher<String> texts) {
+    return new PredictionPublisher<>(texts, this::predictAbbreviations, maxConcurrentDocuments);
+  }
+
+  /**
+   * Expands the abbreviations in every document of a stream, with the same backpressure and
+   * ordering as predictAbbreviations(Flow.Publisher).
+   * @param texts The documents to expand
+   * @return      A Publisher of each expanded document
+   */
+  public Flow.Publisher<String> expand(Flow.Publisher<String> texts) {
+    return new PredictionPublisher<>(texts, this::expand, maxConcurrentDocuments);
+  }
+
+  /**
+   * Explains the abbreviations in every document of a stream, with the same backpressure and
+   * ordering as predictAbbreviations(Flow.Publisher).
+   * @param texts The documents to explain
+   * @return      A Publisher of each explained document
+   */
+  public Flow.Publisher<String> explain(Flow.Publisher<String> texts) {
+    return new PredictionPublisher<>(texts, this::explain, maxConcurrentDocuments);
+  }
+
+  private <R> CompletableFuture<R> submit(QueryExecutor.Query<R> work) {
+    CompletableFuture<R> result = new CompletableFuture<>();
+    executor.execute(() -> {
+      try {
+        documents.acquire();
+      }
+      catch(InterruptedException ex) {
+        result.completeExceptionally(ex);
+        return;
+      }
+
+      try {
+        result.complete(work.call());
+      }
+      catch(Throwable ex) {
+        result.completeExceptionally(ex);
+      }
+      finally {
+        documents.release();
+      }
+    });
+
+    return result;
+  }
+
+  /**
+   * Stops accepting new documents. Documents already submitted are still processed.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  /**
+   * A Publisher which applies an asynchronous function to every item of another Publisher.
+   * @param <R> The type of the results
+   */
+  private static final class PredictionPublisher<R> implements Flow.Publisher<R> {
+    private final Flow.Publisher<String> texts;
+    private final Function<String, CompletableFuture<R>> function;
+    private final int maxConcurrentDocuments;
+
+    PredictionPublisher(Flow.Publisher<String> texts, Function<String, CompletableFuture<R>> function,
+                        int maxConcurrentDocuments) {
+      this.texts = texts;
+      this.function = function;
+      this.maxConcurrentDocuments = maxConcurrentDocuments;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super R> subscriber) {
+      texts.subscribe(new PredictionSubscription<>(subscriber, function, maxConcurrentDocuments));
+    }
+  }
+}
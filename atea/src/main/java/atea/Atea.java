@@ -1,9 +1,16 @@
 package atea;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
 /**
  * Atea - Abbreviated Text Expansion Algorithm
@@ -14,29 +21,287 @@ import java.util.Arrays;
  */
 public final class Atea {
 
-  private final Database db;
-  private String[] commonWords;
+  // the current snapshot, replaced by swap
+  private volatile String[] commonWords;
+  private volatile Model model;
+  private volatile Scorer scorer;
+  private Scorer keywordScorer;
+  private volatile QueryExecutor queries = QueryExecutor.CALLING_THREAD;
+  private volatile boolean warm;
+  private volatile Tokenizer tokenizer = Tokenizer.ASCII;
+  private volatile double unambiguousShare = 0.99;
 
   /**
    *
-   * @param db        A Database object
+   * @param db        The Storage holding the abbreviations and examples, such as a LocalStorage
    * @throws SQLException
    */
-  public Atea(Database db) throws SQLException {
-    this.db = db;
-    construct();
+  public Atea(Storage db) throws SQLException {
+    construct(db);
   }
 
   public Atea(String host, String username, String password) throws SQLException {
-    this.db = new Database(host, username, password);
-    construct();
+    construct(new Database(host, username, password));
   }
 
-  private void construct() throws SQLException {
+  private void construct(Storage db) throws SQLException {
     String[] words = null;
     words = db.getCommonWords();
 
     commonWords = words;
+    model = new Model(db, commonWords);
+    keywordScorer = this::weightedKeywordScores;
+    scorer = keywordScorer;
+  }
+
+  Model getModel() { return model; }
+
+  /**
+   * Takes a reference to the current model for the length of a request, so the storage it reads
+   * from is not released until the request is done. Every call must be paired with a release.
+   */
+  private Model acquire() {
+    while(true) {
+      Model model = this.model;
+      // a model released by a swap is no longer current, so the next read finds the new one
+      if(model.retain()) {
+        return model;
+      }
+    }
+  }
+
+  /**
+   * Gets the model an abbreviation was found with, so a request keeps using one snapshot even if
+   * a swap happens part way through it.
+   */
+  private Model modelOf(Abbreviation abbr) {
+    return abbr.getModel() != null ? abbr.getModel() : model;
+  }
+
+  /**
+   * Compares the storage in use with another, such as a retrained snapshot.
+   * @param storage The storage to compare with
+   * @return        The abbreviations which are added, removed or changed in storage
+   * @throws SQLException
+   */
+  public SnapshotDiff diff(Storage storage) throws SQLException {
+    Model model = acquire();
+    try {
+      return SnapshotDiff.between(model.getStorage(), storage);
+    }
+    finally {
+      model.release();
+    }
+  }
+
+  /**
+   * Switches to another storage while requests keep running, such as a snapshot retrained offline
+   * or a rebuilt database. Requests which have already started finish with the old storage and
+   * requests from then on use the new one. Statistics loaded for abbreviations which the two do not
+   * differ in are kept, everything else is loaded from the new storage when first needed.
+   * @param storage The storage to use from now on
+   * @return        A future which completes with the old storage once no request is using it, so
+   *                it can be closed
+   * @throws SQLException if the storage cannot be read, in which case the old one stays in use
+   */
+  public synchronized CompletableFuture<Storage> swap(Storage storage) throws SQLException {
+    Model previous = this.model;
+    String[] words = storage.getCommonWords();
+    Model next = new Model(storage, words, previous, SnapshotDiff.between(previous.getStorage(), storage));
+
+    commonWords = words;
+    this.model = next;
+    previous.release();
+
+    return previous.whenReleased();
+  }
+
+  public Scorer getScorer() { return scorer; }
+
+  /**
+   * Sets the strategy used to assign confidences to expansions.
+   * @param scorer    The Scorer to use
+   */
+  public void setScorer(Scorer scorer) { this.scorer = scorer; }
+
+  public Tokenizer getTokenizer() { return tokenizer; }
+
+  /**
+   * Sets how texts are split into words. Examples should be added with the same Tokenizer their
+   * abbreviations are predicted with.
+   * @param tokenizer The Tokenizer to use. Tokenizer.ASCII is the default.
+   */
+  public void setTokenizer(Tokenizer tokenizer) { this.tokenizer = tokenizer; }
+
+  public double getUnambiguousShare() { return unambiguousShare; }
+
+  /**
+   * Sets when an abbreviation is used one way so consistently that its context is not scored. An
+   * abbreviation whose most used expansion has at least this share of its examples is given the
+   * share of each expansion as its confidence, without asking the Scorer.
+   * @param unambiguousShare  The share, 0.99 by default. A value above 1 scores every abbreviation.
+   */
+  public void setUnambiguousShare(double unambiguousShare) {
+    if(!(unambiguousShare > 0)) {
+      throw new IllegalArgumentException("unambiguousShare must be greater than 0.");
+    }
+    this.unambiguousShare = unambiguousShare;
+  }
+
+  public int getMaxEdits() { return model.getMaxEdits(); }
+
+  /**
+   * Lets words which are misspelled abbreviations be found, such as "tldrr" for "tl;dr". Words are
+   * always matched ignoring case and punctuation. Only words of at least 4 letters and digits are
+   * matched fuzzily, since shorter ones are too often a different word.
+   * @param maxEdits  The most characters which may be inserted, deleted or replaced. 0, the
+   *                  default, turns fuzzy matching off.
+   */
+  public synchronized void setMaxEdits(int maxEdits) {
+    if(maxEdits < 0) {
+      throw new IllegalArgumentException("maxEdits must not be negative.");
+    }
+    model.setMaxEdits(maxEdits);
+  }
+
+  public int getMaxConcurrentQueries() { return queries.getMaxConcurrentQueries(); }
+
+  /**
+   * Sets how many database queries a prediction may run at the same time. With a value greater
+   * than 1, the queries for each abbreviation in a text and for each of its expansions run
+   * concurrently on virtual threads instead of one after another, so a prediction waits for
+   * roughly one round trip per step instead of one per query. Queries beyond the size of the
+   * connection pool wait for a connection, so there is no benefit in setting it higher.
+   * @param maxConcurrentQueries  The most queries that may run at once. 1 runs every query on the
+   *                              calling thread, which is the default.
+   */
+  public synchronized void setMaxConcurrentQueries(int maxConcurrentQueries) {
+    QueryExecutor previous = this.queries;
+    // changing the cap keeps the same virtual threads, going back to 1 shuts them down
+    QueryExecutor queries = maxConcurrentQueries <= 1
+            ? QueryExecutor.CALLING_THREAD
+            : previous.withMaxConcurrentQueries(maxConcurrentQueries);
+    model.setQueryExecutor(queries);
+    this.queries = queries;
+    if(maxConcurrentQueries <= 1) {
+      previous.close();
+    }
+  }
+
+  /**
+   * Gets Atea ready for traffic after it starts. The statistics of the abbreviations with the most
+   * examples are loaded, then texts using them are predicted several times so the JIT compiles the
+   * prediction code and the storage has its connections and statements ready. Call it before
+   * registering with a load balancer, or check isWarm().
+   * @param abbreviations The most abbreviations to load
+   * @param rounds        How many times to predict the texts
+   * @return              The number of abbreviations loaded
+   * @throws SQLException
+   */
+  public int warmUp(int abbreviations, int rounds) throws SQLException {
+    QueryExecutor queries = this.queries;
+
+    ArrayList<Abbreviation> loaded = new ArrayList<>();
+    Model model = acquire();
+    try {
+      ArrayList<Future<AbbreviationStatistics>> loads = new ArrayList<>();
+      for(String value : model.getStorage().getMostUsedAbbreviations(abbreviations).keySet()) {
+        int id = model.getAbbreviationId(value);
+        if(id != -1) {
+          Abbreviation abbr = new Abbreviation(id, value, new SplitString(value), 0);
+          loaded.add(abbr);
+          loads.add(queries.fork(() -> model.getStatistics(abbr)));
+        }
+      }
+      for(Future<AbbreviationStatistics> load : loads) {
+        QueryExecutor.get(load);
+      }
+    }
+    finally {
+      model.release();
+    }
+
+    ArrayList<String> texts = new ArrayList<>();
+    for(Abbreviation abbr : loaded) {
+      texts.add("Please check the " + abbr.getValue() + " notes before the meeting.");
+    }
+    for(int round=0; round<rounds; round++) {
+      for(String text : texts) {
+        render(text, predictAbbreviations(text), round % 2 == 0);
+      }
+      predictAbbreviations(texts);
+    }
+
+    warm = true;
+    return loaded.size();
+  }
+
+  /**
+   * Builds the statistics of every abbreviation from all of the examples at once, instead of
+   * loading each abbreviation the first time a text uses it. The examples are streamed from the
+   * storage and their words counted on several threads. Predictions keep working during the build,
+   * using the statistics already loaded, and examples added meanwhile are not lost.
+   * @param parallelism How many threads count words, such as the number of cores
+   * @return            How many examples were read, and how fast
+   * @throws SQLException
+   */
+  public ModelBuildReport buildModel(int parallelism) throws SQLException {
+    Model model = acquire();
+    try {
+      return model.build(parallelism);
+    }
+    finally {
+      model.release();
+    }
+  }
+
+  /**
+   * Counts the keywords of every example like buildModel, but writes the counts to a file for
+   * loadKeywordTable instead of keeping them. Run it where there is heap to spare, such as on a build
+   * machine, and copy the file to the servers.
+   * @param file        The file to write. It is replaced once the new table is complete.
+   * @param parallelism How many threads count words, such as the number of cores
+   * @return            How many examples were read, and how fast
+   * @throws SQLException
+   * @throws IOException
+   */
+  public ModelBuildReport buildKeywordTable(Path file, int parallelism) throws SQLException, IOException {
+    Model model = acquire();
+    try {
+      return model.writeKeywordTable(file, parallelism);
+    }
+    finally {
+      model.release();
+    }
+  }
+
+  /**
+   * Reads the keyword counts used by naiveBayesScorer from a file written by buildKeywordTable, so
+   * they are kept outside the heap. The file is mapped into memory rather than read, so this returns
+   * at once and the counts are paged in as they are used. Statistics already loaded are dropped. The
+   * table is tied to the current storage and is not kept by swap.
+   * @param file  The file to read
+   * @throws IOException  If the file cannot be read or is not a keyword table
+   */
+  public synchronized void loadKeywordTable(Path file) throws IOException {
+    model.setKeywordTable(KeywordTable.open(file));
+  }
+
+  /**
+   * Determines if warmUp has finished.
+   * @return  True once warmUp has returned, False before
+   */
+  public boolean isWarm() { return warm; }
+
+  /**
+   * Creates a Scorer which uses multinomial Naive Bayes over the keywords around an abbreviation.
+   * The statistics it needs are loaded once per abbreviation and kept in memory.
+   * @param alpha     The smoothing parameter. 1 is Laplace smoothing.
+   * @return          A NaiveBayesScorer to pass to setScorer
+   */
+  public NaiveBayesScorer naiveBayesScorer(double alpha) {
+    // the current model is looked up when scoring, so a swap is seen and the old model let go
+    return new NaiveBayesScorer(() -> model, alpha);
   }
 
   /**
@@ -47,15 +312,27 @@ public final class Atea {
    * @return          An ArrayList of Abbreviation objects whose expansions property is empty
    */
   public ArrayList<Abbreviation> findPotentialAbbreviations(String text) throws SQLException {
+    Model model = acquire();
+    try {
+      return findPotentialAbbreviations(text, model);
+    }
+    finally {
+      model.release();
+    }
+  }
+
+  private ArrayList<Abbreviation> findPotentialAbbreviations(String text, Model model) {
     ArrayList<Abbreviation> abbrs = new ArrayList<>();
-    SplitString ss = new SplitString(text);
+    SplitString ss = new SplitString(text, tokenizer);
 
     String[] words = ss.getWords();
     for(int i=0; i<words.length; i++) {
 
-      int id = db.abbreviationExists(words[i]);
+      int id = model.getAbbreviationId(words[i]);
       if(id != -1 ) {
-        abbrs.add(new Abbreviation(id, words[i], ss, i));
+        Abbreviation abbr = new Abbreviation(id, words[i], ss, i);
+        abbr.setModel(model);
+        abbrs.add(abbr);
       }
 
     }
@@ -71,11 +348,179 @@ public final class Atea {
    *                  of Expansion objects sorted from most likely to least likely expansion
    */
   public ArrayList<Abbreviation> predictAbbreviations(String text) throws SQLException {
-    ArrayList<Abbreviation> potentialAbbrs = findPotentialAbbreviations(text);
-    ArrayList<Abbreviation> abbrs = new ArrayList<>();
+    Model model = acquire();
+    try {
+      ArrayList<Abbreviation> potentialAbbrs = findPotentialAbbreviations(text, model);
 
-    for (Abbreviation abbr : potentialAbbrs) {
-      ArrayList<Expansion> expansions = predictExpansions(abbr);
+      // each abbreviation is predicted independently, so in virtual thread mode they all run at once
+      QueryExecutor queries = this.queries;
+      ArrayList<Future<ArrayList<Expansion>>> predictions = new ArrayList<>();
+      for (Abbreviation abbr : potentialAbbrs) {
+        predictions.add(queries.fork(() -> predictExpansions(abbr)));
+      }
+
+      return keepPredicted(potentialAbbrs, predictions);
+    }
+    finally {
+      model.release();
+    }
+  }
+
+  /**
+   * Finds the abbreviations in several texts at once. With the default Scorer, the keywords of an
+   * abbreviation/expansion combo are gathered from every text and scored together, so an expansion
+   * seen in many of the texts costs one call to the Storage instead of one per keyword per text.
+   * @param texts     The texts to look for abbreviations in
+   * @return          The result of predictAbbreviations(String) for each text, in the same order
+   */
+  public ArrayList<ArrayList<Abbreviation>> predictAbbreviations(List<String> texts) throws SQLException {
+    Model model = acquire();
+    try {
+      return predictAbbreviations(texts, model);
+    }
+    finally {
+      model.release();
+    }
+  }
+
+  private ArrayList<ArrayList<Abbreviation>> predictAbbreviations(List<String> texts, Model model) throws SQLException {
+    QueryExecutor queries = this.queries;
+    Scorer scorer = this.scorer;
+
+    ArrayList<ArrayList<Abbreviation>> potentialAbbrs = new ArrayList<>();
+    for(String text : texts) {
+      potentialAbbrs.add(findPotentialAbbreviations(text, model));
+    }
+
+    ArrayList<ArrayList<Future<ArrayList<Expansion>>>> predictions = new ArrayList<>();
+    if(scorer != keywordScorer) {
+      for(ArrayList<Abbreviation> abbrs : potentialAbbrs) {
+        ArrayList<Future<ArrayList<Expansion>>> textPredictions = new ArrayList<>();
+        for(Abbreviation abbr : abbrs) {
+          textPredictions.add(queries.fork(() -> predictExpansions(abbr)));
+        }
+        predictions.add(textPredictions);
+      }
+    } else {
+      predictions = batchKeywordScores(potentialAbbrs, queries, model);
+    }
+
+    ArrayList<ArrayList<Abbreviation>> results = new ArrayList<>();
+    for(int t=0; t<potentialAbbrs.size(); t++) {
+      results.add(keepPredicted(potentialAbbrs.get(t), predictions.get(t)));
+    }
+
+    return results;
+  }
+
+  /**
+   * Scores the abbreviations of several texts with the default Scorer, sending one query per
+   * abbreviation/expansion combo for the keywords of every text. Unambiguous abbreviations are
+   * ranked by the share of their examples, as by predictAbbreviations(String), and send no queries.
+   * @return  The predicted expansions of each abbreviation of each text
+   */
+  private ArrayList<ArrayList<Future<ArrayList<Expansion>>>> batchKeywordScores(
+          ArrayList<ArrayList<Abbreviation>> potentialAbbrs, QueryExecutor queries, Model model) throws SQLException {
+    Storage db = model.getStorage();
+    double unambiguousShare = this.unambiguousShare;
+    // load the statistics of every abbreviation at once
+    ArrayList<Future<AbbreviationStatistics>> loads = new ArrayList<>();
+    for(ArrayList<Abbreviation> abbrs : potentialAbbrs) {
+      for(Abbreviation abbr : abbrs) {
+        loads.add(queries.fork(() -> model.getStatistics(abbr)));
+      }
+    }
+
+    // gather the keywords of each abbreviation/expansion combo across the texts
+    HashMap<Long, LinkedHashSet<String>> keywords = new HashMap<>();
+    ArrayList<ArrayList<Expansion>> expansionsOf = new ArrayList<>();
+    boolean[] ranked = new boolean[loads.size()];
+    int next = 0;
+    for(ArrayList<Abbreviation> abbrs : potentialAbbrs) {
+      for(Abbreviation abbr : abbrs) {
+        AbbreviationStatistics stats = QueryExecutor.get(loads.get(next));
+        ArrayList<Expansion> expansions = stats.getExpansions();
+        expansions.add(new Expansion(-1, ""));
+        expansionsOf.add(expansions);
+        if(stats.getDominantShare() >= unambiguousShare) {
+          rank(expansions, priors(stats, expansions.size()));
+          ranked[next++] = true;
+          continue;
+        }
+        next++;
+
+        for(Expansion expansion : expansions) {
+          LinkedHashSet<String> combo = keywords.computeIfAbsent(combo(abbr, expansion), k -> new LinkedHashSet<>());
+          combo.addAll(getKeywords(abbr));
+        }
+      }
+    }
+
+    HashMap<Long, Future<Float>> baseProbabilities = new HashMap<>();
+    HashMap<Long, Future<HashMap<String, Float>>> keywordScores = new HashMap<>();
+    for(Map.Entry<Long, LinkedHashSet<String>> entry : keywords.entrySet()) {
+      int abbr_id = (int) (entry.getKey() >> 32);
+      int expansion_id = (int) (long) entry.getKey();
+      ArrayList<String> comboKeywords = new ArrayList<>(entry.getValue());
+
+      baseProbabilities.put(entry.getKey(), queries.query(() -> db.getExpansionBaseProbability(abbr_id, expansion_id)));
+      keywordScores.put(entry.getKey(), queries.query(() -> {
+        float[] scores = db.getExpansionKeywordScores(abbr_id, expansion_id, comboKeywords);
+        HashMap<String, Float> byKeyword = new HashMap<>();
+        for(int i=0; i<scores.length; i++) {
+          byKeyword.put(comboKeywords.get(i), scores[i]);
+        }
+        return byKeyword;
+      }));
+    }
+
+    ArrayList<ArrayList<Future<ArrayList<Expansion>>>> predictions = new ArrayList<>();
+    next = 0;
+    for(ArrayList<Abbreviation> abbrs : potentialAbbrs) {
+      ArrayList<Future<ArrayList<Expansion>>> textPredictions = new ArrayList<>();
+      for(Abbreviation abbr : abbrs) {
+        ArrayList<Expansion> expansions = expansionsOf.get(next);
+        if(ranked[next++]) {
+          textPredictions.add(CompletableFuture.completedFuture(expansions));
+          continue;
+        }
+        double[] scores = new double[expansions.size()];
+        double[] weights = new double[expansions.size()];
+        for(int i=0; i<expansions.size(); i++) {
+          long combo = combo(abbr, expansions.get(i));
+          scores[i] = QueryExecutor.get(baseProbabilities.get(combo));
+          HashMap<String, Float> comboScores = QueryExecutor.get(keywordScores.get(combo));
+          for(String keyword : getKeywords(abbr)) {
+            weights[i] += comboScores.get(keyword);
+          }
+        }
+
+        rank(expansions, weightScores(scores, weights));
+        textPredictions.add(CompletableFuture.completedFuture(expansions));
+      }
+      predictions.add(textPredictions);
+    }
+
+    return predictions;
+  }
+
+  private static long combo(Abbreviation abbr, Expansion expansion) {
+    return ((long) abbr.getId() << 32) | (expansion.getId() & 0xffffffffL);
+  }
+
+  /**
+   * Keeps the abbreviations which were predicted to have expansions, in the order they appear.
+   * @param potentialAbbrs  The potential abbreviations of a text
+   * @param predictions     The predicted expansions of each potential abbreviation
+   * @return                The abbreviations with their expansions set
+   */
+  private ArrayList<Abbreviation> keepPredicted(ArrayList<Abbreviation> potentialAbbrs,
+                                                ArrayList<Future<ArrayList<Expansion>>> predictions)
+          throws SQLException {
+    ArrayList<Abbreviation> abbrs = new ArrayList<>();
+    for (int i=0; i<potentialAbbrs.size(); i++) {
+      Abbreviation abbr = potentialAbbrs.get(i);
+      ArrayList<Expansion> expansions = QueryExecutor.get(predictions.get(i));
 
       // If expansions are found this word is believed to be an abbreviation
       if(expansions.size() > 0) {
@@ -100,13 +545,19 @@ public final class Atea {
    */
   // TODO - How to pass not expansion example. Should expansion object have id set to -1, value to ''?
   public boolean addExample(Abbreviation abbr, Expansion expansion) {
+    // examples always go to the current storage, even for an abbreviation found before a swap
+    Model model = acquire();
     try {
-      db.insertExample(abbr, expansion.getValue());
+      Example example = model.getStorage().insertExample(abbr, expansion.getValue());
+      model.addExample(abbr.getValue(), example, expansion.getValue());
     }
     catch(SQLException ex) {
       ex.printStackTrace();
       return false;
     }
+    finally {
+      model.release();
+    }
 
     return true;
   }
@@ -118,11 +569,7 @@ public final class Atea {
    * @return      The expanded text.
    */
   public String expand(String text) throws SQLException {
-    ArrayList<Abbreviation> abbrs = predictAbbreviations(text);
-    SplitString ss = new SplitString(text);
-    String[] chunks = ss.getFullSplit();
-
-    return buildString(chunks, abbrs);
+    return render(text, predictAbbreviations(text), false);
   }
 
   /**
@@ -132,120 +579,117 @@ public final class Atea {
    * @return      The explained text.
    */
   public String explain(String text) throws SQLException {
-    ArrayList<Abbreviation> abbrs = predictAbbreviations(text);
-    SplitString ss = new SplitString(text);
-    String[] chunks = ss.getFullSplit();
-
-    return buildString(chunks, abbrs, true);
+    return render(text, predictAbbreviations(text), true);
   }
 
   /**
-   * Returns buildString(String[] chunks, ArrayList<Abbreviation> abbrs, boolean explain)
-   * passing false for the explain parameter.
-   * @param chunks  An ordered array of Strings where the sequence of elements is(delimiter, word,
-   *                delimiter, word, ...)
-   *                Expects the array to always start with and end with a delimiter.
-   * @param abbrs   The Abbreviation objects found in the String[] chunks.
-   * @return        The built string.
+   * Writes the text with its abbreviations rendered by a template, without building the whole
+   * result as a String first.
+   * @param text      The text to look for abbreviations in
+   * @param renderer  What to write for each abbreviation, such as Renderer.EXPLAIN
+   * @param out       Where to write the text, such as a Writer or a StringBuilder reused between texts
+   * @throws IOException  if out cannot be written to
    */
-  private String buildString(String[] chunks, ArrayList<Abbreviation> abbrs) {
-    return buildString(chunks, abbrs, false);
+  public void render(String text, Renderer renderer, Appendable out) throws SQLException, IOException {
+    ArrayList<Abbreviation> abbrs = predictAbbreviations(text);
+    if(abbrs.isEmpty()) {
+      out.append(text);
+    } else {
+      renderer.render(abbrs, out);
+    }
   }
 
   /**
-   * Builds a String from a String[]. Expects every even element to be a delimiter and every odd element
-   * to be a word. Abbreviations passed in the ArrayList should have their index property set to
-   * correspond with their index in the set of only words. Given String[] chunks = {"", "An", " ",
-   * "abbr", " ", "example", "."}, the Abbreviation abbr has the index 3 in chunks, however in the set
-   * of only words ( {"An", "abbr"} ), abbr has the index 1.
-   * @param chunks  An ordered array of Strings where the sequence of elements is(delimiter, word,
-   *                delimiter, word, ...)
-   *                Expects the array to always start with and end with a delimiter.
-   * @param abbrs   The Abbreviation objects found in the String[] chunks.
-   * @param explain On true, will output the expansion of the abbreviation in parenthesis next to the abbreviation.
-   *                On false, will substitute the expansion for the abbreviation.
-   * @return        The built string.
+   * Builds the expanded or explained text from abbreviations already predicted for it.
+   * @param text    The text the abbreviations were predicted for
+   * @param abbrs   The result of predictAbbreviations for the text
+   * @param explain On true, explains the text, on false, expands it
+   * @return        The expanded or explained text
    */
-  // TODO - Should this be removed and replaced with a SplitString method?
-  private String buildString(String[] chunks, ArrayList<Abbreviation> abbrs, boolean explain) {
-    StringBuilder output = new StringBuilder();
-
-    int[] abbr_indexes = getIndexes(abbrs);
+  String render(String text, ArrayList<Abbreviation> abbrs, boolean explain) {
+    return (explain ? Renderer.EXPLAIN : Renderer.EXPAND).render(text, abbrs);
+  }
 
-    int word_index = 0;
-    for(int i=0, a=0; i<chunks.length; i++) {
-      // delimiter
-      output.append(chunks[i++]);
+  /**
+   * Predicts what an Abbreviation might stand for.
+   * @param abbr  An Abbreviation object to predict expansions for.
+   * @return      An ArrayList of Expansion objects
+   */
+  ArrayList<Expansion> predictExpansions(Abbreviation abbr) throws SQLException {
+    ArrayList<Expansion> expansions = new ArrayList<>();
 
-      if(i >= chunks.length) {
-        break;
-      }
+    int abbr_id = abbr.getId();
+    if(abbr_id != -1) {
+      AbbreviationStatistics stats = modelOf(abbr).getStatistics(abbr);
+      expansions = stats.getExpansions();
+      expansions.add(new Expansion(-1, ""));
 
-      // word
-      int k = word_index;
-      // if word is an abbreviation
-      if(Arrays.stream(abbr_indexes).anyMatch(j -> j == k)) {
-        if(explain) {
-          output.append(chunks[i]);
-          output.append(" (").append(abbrs.get(a++).getExpansions().get(0).getValue()).append(")");
-        } else {
-          output.append(abbrs.get(a++).getExpansions().get(0).getValue());
-        }
+      if(stats.getDominantShare() >= unambiguousShare) {
+        rank(expansions, priors(stats, expansions.size()));
       } else {
-        output.append(chunks[i]);
+        rank(expansions, scorer.score(abbr, expansions));
       }
-
-      word_index++;
     }
 
-    return output.toString();
+    return expansions;
   }
 
   /**
-   * Gets an array of the index properties of each Abbreviation object.
-   * @param abbrs The Abbreviation objects to get the indexes of.
-   * @return      An array of the indexes of each Abbreviation object.
+   * Gets the share of the examples of each expansion, which is all the confidence an unambiguous
+   * abbreviation needs.
+   * @param stats The statistics of the abbreviation
+   * @param size  How many expansions are being ranked. Those past the known ones get 0.
+   * @return      The shares, in the order of the expansions of stats
    */
-  private int[] getIndexes(ArrayList<Abbreviation> abbrs) {
-    int[] indexes = new int[abbrs.size()];
-
-    for(int i=0; i<abbrs.size(); i++) {
-      indexes[i] = abbrs.get(i).getIndex();
+  private static double[] priors(AbbreviationStatistics stats, int size) {
+    double[] priors = new double[size];
+    for(int i=0; i<stats.getExpansionCount(); i++) {
+      priors[i] = (double) stats.getExampleCount(i) / stats.getExampleTotal();
     }
 
-    return indexes;
+    return priors;
   }
 
   /**
-   * Predicts what an Abbreviation might stand for.
-   * @param abbr  An Abbreviation object to predict expansions for.
-   * @return      An ArrayList of Expansion objects
+   * Sets the confidence of each expansion and sorts them from most to least likely.
+   * @param expansions  The expansions to rank
+   * @param confidences The confidence of each expansion, in the same order
    */
-  private ArrayList<Expansion> predictExpansions(Abbreviation abbr) throws SQLException {
-    ArrayList<Expansion> expansions = new ArrayList<>();
+  private static void rank(ArrayList<Expansion> expansions, double[] confidences) {
+    for(int i=0; i<expansions.size(); i++) {
+      expansions.get(i).setConfidence(confidences[i]);
+    }
+    Collections.sort(expansions);
+  }
 
+  /**
+   * The default Scorer. Weights the base probability of each expansion by its keyword score.
+   * @param abbr        The abbreviation being expanded
+   * @param expansions  The possible expansions of the abbreviation
+   * @return            The weighted scores
+   */
+  private double[] weightedKeywordScores(Abbreviation abbr, ArrayList<Expansion> expansions) throws SQLException {
+    QueryExecutor queries = this.queries;
+    Storage db = modelOf(abbr).getStorage();
     int abbr_id = abbr.getId();
-    if(abbr_id != -1) {
-      expansions = db.getExpansions(abbr_id);
-      expansions.add(new Expansion(-1, ""));
 
-      double totalKeywordScore = 0;
-      double[] scores = new double[expansions.size()];
-      double[] weights = new double[expansions.size()];
-      int i=0;
-      for( Expansion expansion : expansions) {
-        scores[i] = db.getExpansionBaseProbability(abbr_id, expansion.getId());
-        weights[i] = getKeywordScore(abbr, expansion);
-        i++;
-      }
+    // start every query before waiting on any of them so they can run at the same time
+    ArrayList<Future<Float>> baseProbabilities = new ArrayList<>();
+    ArrayList<ArrayList<Future<Float>>> keywordScores = new ArrayList<>();
+    for( Expansion expansion : expansions) {
+      int expansion_id = expansion.getId();
+      baseProbabilities.add(queries.query(() -> db.getExpansionBaseProbability(abbr_id, expansion_id)));
+      keywordScores.add(startKeywordScores(abbr, expansion, queries, db));
+    }
 
-      double[] weightedScores = weightScores(scores, weights);
-      for(i=0; i<expansions.size(); i++) {
-        expansions.get(i).setConfidence(weightedScores[i]);
-      }
+    double[] scores = new double[expansions.size()];
+    double[] weights = new double[expansions.size()];
+    for(int i=0; i<expansions.size(); i++) {
+      scores[i] = QueryExecutor.get(baseProbabilities.get(i));
+      weights[i] = getKeywordScore(keywordScores.get(i));
     }
 
-    return expansions;
+    return weightScores(scores, weights);
   }
 
   /**
@@ -310,24 +754,55 @@ public final class Atea {
   }
 
   /**
-   * Scores an abbreviation/expansion combo based on the number of keywords used within the context
-   * of this abbreviation that match keywords found in examples in ATEA's database.
+   * Starts the queries which score an abbreviation/expansion combo based on the number of keywords
+   * used within the context of this abbreviation that match keywords found in examples in ATEA's
+   * database.
    * @param abbr        The abbreviation to get a keyword score for
    * @param expansion   The expansion to get a keyword score for
-   * @return
+   * @param queries     The QueryExecutor to run the queries with
+   * @param db          The storage to score with
+   * @return            The score of each keyword
    */
-  private float getKeywordScore(Abbreviation abbr, Expansion expansion) {
+  private ArrayList<Future<Float>> startKeywordScores(Abbreviation abbr, Expansion expansion, QueryExecutor queries,
+                                                      Storage db) {
+    ArrayList<Future<Float>> keywordScores = new ArrayList<>();
+    for(String keyword : getKeywords(abbr)) {
+      // TODO - split this into multiple db method calls to the math/logic is happening inside
+      // this class instead of inside the db class
+      keywordScores.add(queries.query(() -> db.getExpansionKeywordScore(abbr.getId(), expansion.getId(), keyword)));
+    }
+
+    return keywordScores;
+  }
+
+  /**
+   * Gets the keywords used within the context of an abbreviation, once for each time they are used.
+   * @param abbr  The abbreviation
+   * @return      The keywords in the text of the abbreviation, other than the abbreviation itself
+   */
+  private ArrayList<String> getKeywords(Abbreviation abbr) {
+    ArrayList<String> keywords = new ArrayList<>();
     String[] words = abbr.getText().getWords();
-    float keywordTotalScore = 0;
     for(int i=0; i<words.length; i++) {
-      if(i == abbr.getIndex() || !isKeyword(words[i])) {
-        continue;
+      if(i != abbr.getIndex() && isKeyword(words[i])) {
+        keywords.add(words[i]);
       }
+    }
+
+    return keywords;
+  }
+
+  /**
+   * Totals the keyword scores of an abbreviation/expansion combo.
+   * @param keywordScores The score of each keyword
+   * @return              The total score, or -1 if a keyword could not be scored
+   */
+  private float getKeywordScore(ArrayList<Future<Float>> keywordScores) {
+    float keywordTotalScore = 0;
+    for(Future<Float> keywordScore : keywordScores) {
       float thisKeywordScore;
       try {
-        thisKeywordScore = db.getExpansionKeywordScore(abbr.getId(), expansion.getId(), words[i]);
-        // TODO - split this into multiple db method calls to the math/logic is happening inside
-        // this class instead of inside the db class
+        thisKeywordScore = QueryExecutor.get(keywordScore);
       }
       catch(SQLException ex) {
         ex.printStackTrace();
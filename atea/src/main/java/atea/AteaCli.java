@@ -0,0 +1,543 @@
+package atea;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Expands the abbreviations in text files from the command line. Files are read through memory maps
+ * and processed in parallel, one document per file. Run it with --help for the options.
+ */
+public final class AteaCli {
+  private static final String USAGE =
+          "Usage: java atea.AteaCli [options] [file|directory|-]...\n" +
+          "Expands the abbreviations in each file. Directories are searched for files. With no files, or\n" +
+          "with -, standard input is read.\n" +
+          "\n" +
+          "  --snapshot DIR      Use the model snapshot in DIR. No database is needed.\n" +
+          "  --host HOST         Use the MySQL database on HOST\n" +
+          "  --user USER         The database username\n" +
+          "  --password PASS     The database password. Defaults to $ATEA_DB_PASSWORD.\n" +
+          "  --export DIR        Save the database as a snapshot in DIR and exit\n" +
+          "  --compact N         Merge duplicate examples, keep at most N for each expansion and exit\n" +
+          "  --report            Print the row counts of the database and its largest abbreviations and exit\n" +
+          "  --evaluate K        Compare the scorers with K-fold cross-validation over the examples and\n" +
+          "                      exit. With --compact N, also compare them with N examples for each\n" +
+          "                      expansion. Uses --threads.\n" +
+          "  --mode MODE         expand (default), explain or json\n" +
+          "  --template TEXT     What to write for each abbreviation in expand and explain mode, such as\n" +
+          "                      \"{abbreviation} [{expansion}]\"\n" +
+          "  --scorer SCORER     keyword (default) or bayes\n" +
+          "  --tokenizer TOK     ascii (default) or unicode, which keeps digits and non-English letters\n" +
+          "                      in words\n" +
+          "  --output DIR        Write each result to DIR instead of standard output\n" +
+          "  --threads N         How many files to process at once. Defaults to the number of cores.\n" +
+          "  --build-model       Build the statistics of every abbreviation before expanding, using --threads\n" +
+          "  --build-keyword-table FILE\n" +
+          "                      Count the keywords of every example into FILE for the bayes scorer and\n" +
+          "                      exit, using --threads\n" +
+          "  --keyword-table FILE\n" +
+          "                      Read the keyword counts of the bayes scorer from FILE, outside the heap\n" +
+          "  --quiet             Do not show progress or the summary\n";
+
+  private static final long PROGRESS_MILLIS = 500;
+
+  /**
+   * What to write for each document.
+   */
+  enum Mode { EXPAND, EXPLAIN, JSON }
+
+  /**
+   * A document to process, and where its result goes.
+   */
+  private static final class Document {
+    final Path file;
+    final String name;
+
+    Document(Path file, String name) {
+      this.file = file;
+      this.name = name;
+    }
+  }
+
+  private final PrintStream out;
+  private final PrintStream err;
+  private final InputStream in;
+
+  private Path snapshot;
+  private Path export;
+  private int compact;
+  private int evaluate;
+  private boolean report;
+  private String host;
+  private String user;
+  private String password = System.getenv("ATEA_DB_PASSWORD");
+  private Mode mode = Mode.EXPAND;
+  private Renderer renderer;
+  private String scorer = "keyword";
+  private Tokenizer tokenizer = Tokenizer.ASCII;
+  private Path output;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private boolean quiet;
+  private boolean buildModel;
+  private Path buildKeywordTable;
+  private Path keywordTable;
+  private boolean help;
+  private final ArrayList<String> inputs = new ArrayList<>();
+
+  private final AtomicInteger processed = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong abbreviations = new AtomicLong();
+  private volatile int total;
+
+  AteaCli(InputStream in, PrintStream out, PrintStream err) {
+    this.in = in;
+    this.out = out;
+    this.err = err;
+  }
+
+  public static void main(String[] args) {
+    System.exit(new AteaCli(System.in, System.out, System.err).run(args));
+  }
+
+  /**
+   * Runs the command.
+   * @param args  The command line arguments
+   * @return      0 on success, 1 if any document failed, 2 if the arguments are wrong
+   */
+  int run(String[] args) {
+    try {
+      parse(args);
+    }
+    catch(IllegalArgumentException ex) {
+      err.println(ex.getMessage());
+      err.print(USAGE);
+      return 2;
+    }
+    if(help) {
+      out.print(USAGE);
+      return 0;
+    }
+
+    try(Storage storage = openStorage()) {
+      if(export != null) {
+        LocalStorage.copyOf(storage, export).close();
+        if(!quiet) {
+          err.println("Saved a snapshot in " + export);
+        }
+        return 0;
+      }
+      if(report) {
+        out.print(((Database) storage).getReport(20));
+        return 0;
+      }
+      if(evaluate > 0) {
+        return evaluate(storage);
+      }
+      if(compact > 0) {
+        int removed = storage.compactExamples(compact);
+        if(!quiet) {
+          err.println("Removed " + removed + " examples");
+        }
+        return 0;
+      }
+
+      Atea atea = new Atea(storage);
+      if(scorer.equals("bayes")) {
+        atea.setScorer(atea.naiveBayesScorer(1));
+      }
+      atea.setTokenizer(tokenizer);
+      if(buildKeywordTable != null) {
+        ModelBuildReport report = atea.buildKeywordTable(buildKeywordTable, threads);
+        if(!quiet) {
+          err.println(report);
+          err.println("Saved the keyword counts in " + buildKeywordTable);
+        }
+        return 0;
+      }
+      if(keywordTable != null) {
+        atea.loadKeywordTable(keywordTable);
+      }
+      if(buildModel) {
+        ModelBuildReport report = atea.buildModel(threads);
+        if(!quiet) {
+          err.println(report);
+        }
+      }
+
+      return process(atea);
+    }
+    catch(SQLException | IOException ex) {
+      err.println("atea: " + ex.getMessage());
+      return 1;
+    }
+  }
+
+  private void parse(String[] args) {
+    for(int i=0; i<args.length; i++) {
+      String arg = args[i];
+      if(!arg.startsWith("--")) {
+        inputs.add(arg);
+        continue;
+      }
+
+      switch(arg) {
+        case "--help": help = true; break;
+        case "--quiet": quiet = true; break;
+        case "--build-model": buildModel = true; break;
+        case "--build-keyword-table": buildKeywordTable = Paths.get(value(args, ++i, arg)); break;
+        case "--keyword-table": keywordTable = Paths.get(value(args, ++i, arg)); break;
+        case "--report": report = true; break;
+        case "--snapshot": snapshot = Paths.get(value(args, ++i, arg)); break;
+        case "--export": export = Paths.get(value(args, ++i, arg)); break;
+        case "--host": host = value(args, ++i, arg); break;
+        case "--user": user = value(args, ++i, arg); break;
+        case "--password": password = value(args, ++i, arg); break;
+        case "--output": output = Paths.get(value(args, ++i, arg)); break;
+        case "--mode":
+          try {
+            mode = Mode.valueOf(value(args, ++i, arg).toUpperCase(Locale.ROOT));
+          }
+          catch(IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Unknown mode " + args[i] + ".");
+          }
+          break;
+        case "--template": renderer = new Renderer(value(args, ++i, arg)); break;
+        case "--scorer":
+          scorer = value(args, ++i, arg);
+          if(!scorer.equals("keyword") && !scorer.equals("bayes")) {
+            throw new IllegalArgumentException("Unknown scorer " + scorer + ".");
+          }
+          break;
+        case "--tokenizer":
+          String name = value(args, ++i, arg);
+          if(name.equals("ascii")) {
+            tokenizer = Tokenizer.ASCII;
+          } else if(name.equals("unicode")) {
+            tokenizer = Tokenizer.UNICODE;
+          } else {
+            throw new IllegalArgumentException("Unknown tokenizer " + name + ".");
+          }
+          break;
+        case "--compact":
+          try {
+            compact = Integer.parseInt(value(args, ++i, arg));
+          }
+          catch(NumberFormatException ex) {
+            throw new IllegalArgumentException("--compact must be a number.");
+          }
+          if(compact < 1) {
+            throw new IllegalArgumentException("--compact must be at least 1.");
+          }
+          break;
+        case "--evaluate":
+          try {
+            evaluate = Integer.parseInt(value(args, ++i, arg));
+          }
+          catch(NumberFormatException ex) {
+            throw new IllegalArgumentException("--evaluate must be a number.");
+          }
+          if(evaluate < 2) {
+            throw new IllegalArgumentException("--evaluate must be at least 2.");
+          }
+          break;
+        case "--threads":
+          try {
+            threads = Integer.parseInt(value(args, ++i, arg));
+          }
+          catch(NumberFormatException ex) {
+            throw new IllegalArgumentException("--threads must be a number.");
+          }
+          if(threads < 1) {
+            throw new IllegalArgumentException("--threads must be at least 1.");
+          }
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option " + arg + ".");
+      }
+    }
+
+    if(help) {
+      return;
+    }
+    if((snapshot == null) == (host == null)) {
+      throw new IllegalArgumentException("Give either --snapshot or --host.");
+    }
+    if(host != null && user == null) {
+      throw new IllegalArgumentException("--host needs --user.");
+    }
+    if(export != null && host == null) {
+      throw new IllegalArgumentException("--export needs --host.");
+    }
+    if(report && host == null) {
+      throw new IllegalArgumentException("--report needs --host.");
+    }
+  }
+
+  private static String value(String[] args, int i, String option) {
+    if(i >= args.length) {
+      throw new IllegalArgumentException(option + " needs a value.");
+    }
+    return args[i];
+  }
+
+  private Storage openStorage() throws SQLException {
+    if(snapshot != null) {
+      if(!Files.isRegularFile(snapshot.resolve(LocalStorage.LOG_FILE))) {
+        throw new SQLException("There is no snapshot in " + snapshot + ".");
+      }
+      return LocalStorage.open(snapshot);
+    }
+
+    return new Database(host, user, password == null ? "" : password);
+  }
+
+  /**
+   * Evaluates both scorers and prints their results side by side.
+   */
+  private int evaluate(Storage storage) throws SQLException {
+    Evaluation evaluation = new Evaluation(storage, evaluate);
+    evaluation.add("keyword", atea -> atea.setTokenizer(tokenizer));
+    evaluation.add("bayes", atea -> {
+      atea.setTokenizer(tokenizer);
+      atea.setScorer(atea.naiveBayesScorer(1));
+    });
+    if(compact > 0) {
+      evaluation.add("keyword, " + compact + " per expansion", compact, atea -> atea.setTokenizer(tokenizer));
+      evaluation.add("bayes, " + compact + " per expansion", compact, atea -> {
+        atea.setTokenizer(tokenizer);
+        atea.setScorer(atea.naiveBayesScorer(1));
+      });
+    }
+
+    ArrayList<Evaluation.Result> results = evaluation.run(threads);
+    out.print(Evaluation.format(results));
+    if(!quiet && results.get(0).getSkipped() > 0) {
+      err.println(results.get(0).getSkipped() + " examples were skipped because their abbreviation is not in their words");
+    }
+
+    return 0;
+  }
+
+  /**
+   * Processes every document, writing results in the order the documents were given.
+   */
+  private int process(Atea atea) throws IOException {
+    ArrayList<Document> documents = findDocuments();
+    total = documents.size();
+
+    long start = System.nanoTime();
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "atea-progress");
+      thread.setDaemon(true);
+      return thread;
+    });
+    if(!quiet) {
+      progress.scheduleAtFixedRate(() -> showProgress(start), PROGRESS_MILLIS, PROGRESS_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    try {
+      // only a few documents ahead of the one being written are kept in memory
+      ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+      for(Document document : documents) {
+        pending.add(workers.submit(() -> process(atea, document)));
+        if(pending.size() >= threads * 4) {
+          write(pending.poll());
+        }
+      }
+      while(!pending.isEmpty()) {
+        write(pending.poll());
+      }
+    }
+    finally {
+      workers.shutdown();
+      progress.shutdownNow();
+    }
+
+    if(!quiet) {
+      err.print("\r");
+      err.println(summary(start));
+    }
+
+    return failed.get() == 0 ? 0 : 1;
+  }
+
+  private void write(Future<byte[]> result) {
+    try {
+      byte[] bytes = result.get();
+      if(bytes != null) {
+        out.write(bytes, 0, bytes.length);
+      }
+    }
+    catch(ExecutionException ex) {
+      // already reported by the worker
+    }
+    catch(InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Processes one document.
+   * @return  The UTF-8 result to write to standard output, or null if it was written to a file
+   */
+  private byte[] process(Atea atea, Document document) throws Exception {
+    try {
+      String text = document.file == null ? readStdin() : read(document.file);
+      Path target = output == null || document.file == null ? null
+              : output.resolve(document.name + (mode == Mode.JSON ? ".json" : ""));
+      if(target != null) {
+        Files.createDirectories(target.toAbsolutePath().getParent());
+      }
+
+      byte[] result = null;
+      if(mode == Mode.JSON) {
+        ArrayList<Abbreviation> abbrs = atea.predictAbbreviations(text);
+        abbreviations.addAndGet(abbrs.size());
+        if(target != null) {
+          try(AnnotationWriter writer = new AnnotationWriter(Files.newOutputStream(target))) {
+            writer.write(document.name, abbrs);
+          }
+        } else {
+          // kept until the documents before it have been written
+          ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+          AnnotationWriter writer = new AnnotationWriter(buffer);
+          writer.write(document.name, abbrs);
+          writer.flush();
+          result = buffer.toByteArray();
+        }
+      } else {
+        Renderer renderer = this.renderer != null ? this.renderer
+                : mode == Mode.EXPLAIN ? Renderer.EXPLAIN : Renderer.EXPAND;
+        if(target != null) {
+          try(Writer writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            atea.render(text, renderer, writer);
+          }
+        } else {
+          result = renderer.render(text, atea.predictAbbreviations(text)).getBytes(StandardCharsets.UTF_8);
+        }
+      }
+
+      processed.incrementAndGet();
+      return result;
+    }
+    catch(Exception ex) {
+      failed.incrementAndGet();
+      err.println("\ratea: " + document.name + ": " + ex.getMessage());
+      throw ex;
+    }
+  }
+
+  /**
+   * Lists the documents to process. Files in directories are named relative to the directory.
+   */
+  private ArrayList<Document> findDocuments() throws IOException {
+    ArrayList<Document> documents = new ArrayList<>();
+    if(inputs.isEmpty()) {
+      documents.add(new Document(null, "-"));
+    }
+
+    for(String input : inputs) {
+      if(input.equals("-")) {
+        documents.add(new Document(null, "-"));
+        continue;
+      }
+
+      Path path = Paths.get(input);
+      if(Files.isDirectory(path)) {
+        ArrayList<Path> files = new ArrayList<>();
+        try(Stream<Path> walk = Files.walk(path)) {
+          walk.filter(Files::isRegularFile).forEach(files::add);
+        }
+        Collections.sort(files);
+        for(Path file : files) {
+          documents.add(new Document(file, path.relativize(file).toString()));
+        }
+      } else if(Files.isRegularFile(path)) {
+        documents.add(new Document(path, path.getFileName().toString()));
+      } else {
+        throw new IOException(input + " does not exist.");
+      }
+    }
+
+    return documents;
+  }
+
+  /**
+   * Reads a UTF-8 file through a memory map, so its bytes are decoded straight from the page cache.
+   */
+  private String read(Path file) throws IOException {
+    try(FileChannel channel = FileChannel.open(file)) {
+      long size = channel.size();
+      if(size > Integer.MAX_VALUE) {
+        throw new IOException("Files over 2 GB are not supported.");
+      }
+      bytes.addAndGet(size);
+
+      ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      return StandardCharsets.UTF_8.newDecoder()
+              .onMalformedInput(CodingErrorAction.REPLACE)
+              .onUnmappableCharacter(CodingErrorAction.REPLACE)
+              .decode(map)
+              .toString();
+    }
+  }
+
+  private String readStdin() throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    byte[] chunk = new byte[8192];
+    int read;
+    while((read = in.read(chunk)) != -1) {
+      buffer.write(chunk, 0, read);
+    }
+    bytes.addAndGet(buffer.size());
+
+    return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private void showProgress(long start) {
+    double seconds = (System.nanoTime() - start) / 1e9;
+    err.printf(Locale.ROOT, "\r%d/%d documents, %.1f MB, %.1f MB/s", processed.get() + failed.get(), total,
+            bytes.get() / 1e6, bytes.get() / 1e6 / seconds);
+  }
+
+  private String summary(long start) {
+    double seconds = (System.nanoTime() - start) / 1e9;
+    String summary = String.format(Locale.ROOT,
+            "Processed %d documents (%.1f MB) in %.2f s: %.1f documents/s, %.2f MB/s",
+            processed.get(), bytes.get() / 1e6, seconds, processed.get() / seconds, bytes.get() / 1e6 / seconds);
+    if(mode == Mode.JSON) {
+      summary += ", " + abbreviations.get() + " abbreviations";
+    }
+    if(failed.get() > 0) {
+      summary += ", " + failed.get() + " failed";
+    }
+
+    return summary;
+  }
+}
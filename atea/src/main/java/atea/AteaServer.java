@@ -0,0 +1,298 @@
+package atea;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A small HTTP server for Atea built on the JDK's com.sun.net.httpserver. Every request is handled
+ * on its own virtual thread. Texts sent to /predict, /expand and /explain at about the same time are
+ * predicted together in one batch, see Atea.predictAbbreviations(List).
+ *
+ *   POST /predict                     The abbreviations of the body as one line of NDJSON, in the
+ *                                     format of AnnotationWriter
+ *   POST /expand                      The body expanded
+ *   POST /explain                     The body explained
+ *   POST /train?start=N&expansion=E   Adds an example of the word starting at character N of the
+ *                                     body standing for E. An empty E means it is not an abbreviation.
+ *   GET  /health                      "ok"
+ *   GET  /ready                       "ok" once Atea.warmUp has finished, 503 before
+ *   GET  /metrics                     Request and batch counters in the Prometheus text format
+ *
+ * Bodies are read as UTF-8 and may be at most MAX_BODY_BYTES long.
+ */
+public final class AteaServer implements AutoCloseable {
+  public static final int MAX_BODY_BYTES = 1 << 20;
+
+  private static final String[] ENDPOINTS = { "predict", "expand", "explain", "train", "health", "ready", "metrics" };
+
+  /**
+   * Handles the request of one endpoint and returns the response body.
+   */
+  @FunctionalInterface
+  private interface Handler {
+    byte[] handle(HttpExchange exchange) throws Exception;
+  }
+
+  /**
+   * A request which cannot be handled, answered with the given status code.
+   */
+  private static final class HttpError extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    final int status;
+
+    HttpError(int status, String message) {
+      super(message);
+      this.status = status;
+    }
+  }
+
+  private final Atea atea;
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final PredictionBatcher batcher;
+
+  private final Map<String, LongAdder> requests = new LinkedHashMap<>();
+  private final Map<String, LongAdder> errors = new HashMap<>();
+  private final Map<String, LongAdder> nanos = new HashMap<>();
+
+  /**
+   *
+   * @param atea              The Atea object to answer requests with
+   * @param address           The address to listen on. Port 0 picks a free port.
+   * @param batchWindowMillis How long a text waits for others to be predicted with. 0 turns batching
+   *                          off.
+   * @param maxBatchSize      The most texts predicted in one batch
+   * @throws IOException      When the address cannot be bound
+   */
+  public AteaServer(Atea atea, InetSocketAddress address, long batchWindowMillis, int maxBatchSize)
+          throws IOException {
+    this.atea = atea;
+    this.batcher = new PredictionBatcher(atea, batchWindowMillis, maxBatchSize);
+    this.server = HttpServer.create(address, 0);
+    server.setExecutor(executor);
+
+    for(String endpoint : ENDPOINTS) {
+      requests.put(endpoint, new LongAdder());
+      errors.put(endpoint, new LongAdder());
+      nanos.put(endpoint, new LongAdder());
+    }
+
+    context("predict", "POST", this::predict);
+    context("expand", "POST", exchange -> render(exchange, false));
+    context("explain", "POST", exchange -> render(exchange, true));
+    context("train", "POST", this::train);
+    context("health", "GET", exchange -> "ok\n".getBytes(StandardCharsets.UTF_8));
+    context("ready", "GET", exchange -> {
+      if(!atea.isWarm()) {
+        throw new HttpError(503, "Warming up.");
+      }
+      return "ok\n".getBytes(StandardCharsets.UTF_8);
+    });
+    context("metrics", "GET", exchange -> metrics());
+  }
+
+  /**
+   * Starts answering requests.
+   */
+  public void start() {
+    server.start();
+  }
+
+  /**
+   * Gets the port the server listens on, useful when it was created with port 0.
+   * @return  The port
+   */
+  public int getPort() { return server.getAddress().getPort(); }
+
+  private void context(String endpoint, String method, Handler handler) {
+    server.createContext("/" + endpoint, exchange -> {
+      long start = System.nanoTime();
+      requests.get(endpoint).increment();
+
+      int status = 200;
+      byte[] body;
+      try {
+        if(!exchange.getRequestURI().getPath().equals("/" + endpoint)) {
+          throw new HttpError(404, "Not found.");
+        }
+        if(!exchange.getRequestMethod().equals(method)) {
+          exchange.getResponseHeaders().set("Allow", method);
+          throw new HttpError(405, "Use " + method + ".");
+        }
+        body = handler.handle(exchange);
+      }
+      catch(HttpError ex) {
+        status = ex.status;
+        body = (ex.getMessage() + "\n").getBytes(StandardCharsets.UTF_8);
+      }
+      catch(Exception ex) {
+        status = 500;
+        body = ("Error: " + ex.getMessage() + "\n").getBytes(StandardCharsets.UTF_8);
+      }
+
+      if(status >= 400) {
+        errors.get(endpoint).increment();
+      }
+      if(!exchange.getResponseHeaders().containsKey("Content-Type")) {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+      }
+      exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+      try(OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+      finally {
+        nanos.get(endpoint).add(System.nanoTime() - start);
+      }
+    });
+  }
+
+  private static String readBody(HttpExchange exchange) throws IOException, HttpError {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    try(InputStream in = exchange.getRequestBody()) {
+      int read;
+      while((read = in.read(buffer)) != -1) {
+        if(body.size() + read > MAX_BODY_BYTES) {
+          throw new HttpError(413, "The body is larger than " + MAX_BODY_BYTES + " bytes.");
+        }
+        body.write(buffer, 0, read);
+      }
+    }
+    return new String(body.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static Map<String, String> readQuery(HttpExchange exchange) {
+    Map<String, String> params = new HashMap<>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if(query == null) {
+      return params;
+    }
+    for(String param : query.split("&")) {
+      int eq = param.indexOf('=');
+      String name = eq == -1 ? param : param.substring(0, eq);
+      String value = eq == -1 ? "" : param.substring(eq + 1);
+      params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+    }
+    return params;
+  }
+
+  private ArrayList<Abbreviation> predictBatched(String text) throws Exception {
+    try {
+      return batcher.submit(text).join();
+    }
+    catch(CompletionException ex) {
+      throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+    }
+  }
+
+  private byte[] predict(HttpExchange exchange) throws Exception {
+    ArrayList<Abbreviation> abbrs = predictBatched(readBody(exchange));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try(AnnotationWriter writer = new AnnotationWriter(out)) {
+      writer.write(null, abbrs);
+    }
+    exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+    return out.toByteArray();
+  }
+
+  private byte[] render(HttpExchange exchange, boolean explain) throws Exception {
+    String text = readBody(exchange);
+    return atea.render(text, predictBatched(text), explain).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private byte[] train(HttpExchange exchange) throws Exception {
+    Map<String, String> params = readQuery(exchange);
+    if(!params.containsKey("start") || !params.containsKey("expansion")) {
+      throw new HttpError(400, "The start and expansion parameters are required.");
+    }
+
+    int start;
+    try {
+      start = Integer.parseInt(params.get("start"));
+    }
+    catch(NumberFormatException ex) {
+      throw new HttpError(400, "start must be a number.");
+    }
+
+    SplitString ss = new SplitString(readBody(exchange), atea.getTokenizer());
+    String[] words = ss.getWords();
+    for(int i=0; i<words.length; i++) {
+      if(ss.getWordStart(i) == start) {
+        if(!atea.addExample(new Abbreviation(-1, words[i], ss, i), new Expansion(-1, params.get("expansion")))) {
+          throw new HttpError(500, "The example could not be added.");
+        }
+        return "ok\n".getBytes(StandardCharsets.UTF_8);
+      }
+    }
+
+    throw new HttpError(400, "No word starts at " + start + ".");
+  }
+
+  private byte[] metrics() {
+    StringBuilder out = new StringBuilder();
+    out.append("# TYPE atea_requests_total counter\n");
+    for(Map.Entry<String, LongAdder> entry : requests.entrySet()) {
+      metric(out, "atea_requests_total", entry.getKey(), entry.getValue().sum());
+    }
+    out.append("# TYPE atea_request_errors_total counter\n");
+    for(String endpoint : requests.keySet()) {
+      metric(out, "atea_request_errors_total", endpoint, errors.get(endpoint).sum());
+    }
+    out.append("# TYPE atea_request_seconds_sum counter\n");
+    for(String endpoint : requests.keySet()) {
+      out.append("atea_request_seconds_sum{endpoint=\"").append(endpoint).append("\"} ")
+              .append(nanos.get(endpoint).sum() / 1e9).append('\n');
+    }
+    out.append("# TYPE atea_batches_total counter\n");
+    out.append("atea_batches_total ").append(batcher.getBatches()).append('\n');
+    out.append("# TYPE atea_batch_documents_total counter\n");
+    out.append("atea_batch_documents_total ").append(batcher.getDocuments()).append('\n');
+    if(atea.getModel().getStorage() instanceof Database) {
+      List<DatabaseReport.Timing> queries = ((Database) atea.getModel().getStorage()).getQueryTimings();
+      out.append("# TYPE atea_db_queries_total counter\n");
+      for(DatabaseReport.Timing query : queries) {
+        out.append("atea_db_queries_total{query=\"").append(query.getName()).append("\"} ")
+                .append(query.getCount()).append('\n');
+      }
+      out.append("# TYPE atea_db_query_seconds_sum counter\n");
+      for(DatabaseReport.Timing query : queries) {
+        out.append("atea_db_query_seconds_sum{query=\"").append(query.getName()).append("\"} ")
+                .append(query.getTotalMillis() / 1e3).append('\n');
+      }
+    }
+    return out.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void metric(StringBuilder out, String name, String endpoint, long value) {
+    out.append(name).append("{endpoint=\"").append(endpoint).append("\"} ").append(value).append('\n');
+  }
+
+  /**
+   * Stops the server, giving requests being handled up to a second to finish.
+   */
+  @Override
+  public void close() {
+    server.stop(1);
+    batcher.close();
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,139 @@
+package atea;
+
+import java.util.Collection;
+
+/**
+ * A Bloom filter of abbreviations, consulted before the lexicon so that most words which are not
+ * abbreviations are rejected without being lowercased or looked up. A word the filter rejects is
+ * certainly not an abbreviation. A word it accepts may or may not be one.
+ *
+ * Words are hashed as they are, lowercasing ASCII letters on the fly, so a lookup allocates nothing.
+ * Lowercasing other characters can change the length of a word, so a word with any character outside
+ * ASCII is always accepted and left to the lexicon.
+ *
+ * A filter is only changed while it is being built. Adding to a published filter must be done on a
+ * copy.
+ */
+final class BloomFilter {
+  // 10 bits and 7 hashes per key give about 1% false positives at full capacity
+  private static final int BITS_PER_KEY = 10;
+  private static final int HASHES = 7;
+  private static final int MIN_CAPACITY = 64;
+
+  private final long[] bits;
+  private final int capacity;
+  private int size;
+
+  /**
+   *
+   * @param capacity  The number of keys the filter is sized for. More can be added, at the cost of
+   *                  more false positives.
+   */
+  BloomFilter(int capacity) {
+    this.capacity = Math.max(capacity, MIN_CAPACITY);
+    this.bits = new long[(int) (((long) this.capacity * BITS_PER_KEY + 63) / 64)];
+  }
+
+  private BloomFilter(BloomFilter other) {
+    this.capacity = other.capacity;
+    this.bits = other.bits.clone();
+    this.size = other.size;
+  }
+
+  /**
+   * Creates a filter of some keys, with room for as many again.
+   * @param keys  The normalized abbreviations
+   * @return      The filter
+   */
+  static BloomFilter of(Collection<String> keys) {
+    BloomFilter filter = new BloomFilter(keys.size() * 2);
+    for(String key : keys) {
+      filter.add(key);
+    }
+
+    return filter;
+  }
+
+  BloomFilter copy() { return new BloomFilter(this); }
+
+  int size() { return size; }
+
+  /**
+   * Determines if another key can be added without going over the capacity of the filter.
+   * @return  True if the filter has room, False if it should be rebuilt larger
+   */
+  boolean hasRoom() { return size < capacity; }
+
+  /**
+   * Adds a key.
+   * @param key The normalized abbreviation
+   */
+  void add(String key) {
+    long hash = hash(key);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    long length = (long) bits.length * 64;
+    for(int i=0; i<HASHES; i++) {
+      int bit = (int) Math.floorMod(h1 + i * (long) h2, length);
+      bits[bit >>> 6] |= 1L << bit;
+    }
+    size++;
+  }
+
+  /**
+   * Determines if a word may be an abbreviation. Lookups are case insensitive.
+   * @param word  The word to check
+   * @return      False if the word is certainly not an abbreviation, True if it may be
+   */
+  boolean mightContain(String word) {
+    long hash = 0xcbf29ce484222325L;
+    for(int i=0; i<word.length(); i++) {
+      char c = word.charAt(i);
+      if(c >= 0x80) {
+        return true;
+      }
+      if(c >= 'A' && c <= 'Z') {
+        c += 'a' - 'A';
+      }
+      hash = (hash ^ c) * 0x100000001b3L;
+    }
+    hash = mix(hash);
+
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    long length = (long) bits.length * 64;
+    for(int i=0; i<HASHES; i++) {
+      int bit = (int) Math.floorMod(h1 + i * (long) h2, length);
+      if((bits[bit >>> 6] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Hashes a normalized key the same way mightContain hashes a word.
+   */
+  private static long hash(String key) {
+    long hash = 0xcbf29ce484222325L;
+    for(int i=0; i<key.length(); i++) {
+      hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+    }
+
+    return mix(hash);
+  }
+
+  /**
+   * Spreads the bits of an FNV-1a hash, which are poorly mixed for short keys.
+   */
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+
+    return hash;
+  }
+}
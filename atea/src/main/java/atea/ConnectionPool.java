@@ -0,0 +1,236 @@
+package atea;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed size pool of connections to one database. Keeping connections open lets the driver reuse
+ * the statements it has already prepared on them. Connections handed out are returned to the pool
+ * when they are closed.
+ */
+class ConnectionPool {
+    private static final long BORROW_TIMEOUT_SECONDS = 30;
+    private static final long VALIDATE_AFTER_MILLIS = 1000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    /**
+     * A connection in the pool and since when, in System.nanoTime(), it has been idle.
+     */
+    private static final class Idle {
+        final Connection conn;
+        final long since;
+
+        Idle(Connection conn) {
+            this.conn = conn;
+            this.since = System.nanoTime();
+        }
+    }
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxConnections;
+    private final LinkedBlockingQueue<Idle> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile long validateAfterNanos = TimeUnit.MILLISECONDS.toNanos(VALIDATE_AFTER_MILLIS);
+    private volatile boolean closed;
+
+    /**
+     *
+     * @param url               The JDBC url of the database
+     * @param username          The database username
+     * @param password          The database password
+     * @param maxConnections    The most connections the pool may open
+     */
+    ConnectionPool(String url, String username, String password, int maxConnections) {
+        if(maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1.");
+        }
+
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxConnections = maxConnections;
+    }
+
+    int getMaxConnections() { return maxConnections; }
+
+    /**
+     * Sets how long a connection may be idle before it is checked with the server when borrowed, so
+     * that a connection the server has dropped is replaced rather than handed out.
+     * @param millis    How long, in milliseconds. 0 checks every connection.
+     */
+    void setValidateAfterMillis(long millis) {
+        if(millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative.");
+        }
+        validateAfterNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Gets a connection with auto-commit on, opening one if none are idle and the pool is not full,
+     * otherwise waiting for one to be returned. A connection which has been idle for a while is
+     * checked first and replaced if it no longer works.
+     * @return  A connection which returns to the pool when closed
+     * @throws SQLException if no connection became available in time or the pool is closed
+     */
+    Connection borrow() throws SQLException {
+        if(closed) {
+            throw new SQLException("The connection pool is closed.");
+        }
+
+        Idle next = idle.poll();
+        while(next == null) {
+            int count = opened.get();
+            if(count < maxConnections) {
+                if(opened.compareAndSet(count, count + 1)) {
+                    try {
+                        return wrap(DriverManager.getConnection(url, username, password));
+                    }
+                    catch(SQLException ex) {
+                        opened.decrementAndGet();
+                        throw ex;
+                    }
+                }
+                continue;
+            }
+
+            try {
+                next = idle.poll(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection.", ex);
+            }
+            if(next == null) {
+                throw new SQLException("No connection became available within " + BORROW_TIMEOUT_SECONDS + " seconds.");
+            }
+        }
+
+        if(!isUsable(next)) {
+            discard(next.conn);
+            return borrow();
+        }
+
+        return wrap(next.conn);
+    }
+
+    /**
+     * Determines if an idle connection may be handed out, asking the server if it has been idle longer
+     * than validateAfterNanos.
+     */
+    private boolean isUsable(Idle next) {
+        try {
+            if(next.conn.isClosed()) {
+                return false;
+            }
+            return System.nanoTime() - next.since < validateAfterNanos || next.conn.isValid(VALIDATION_TIMEOUT_SECONDS);
+        }
+        catch(SQLException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool, undoing anything left uncommitted, or closes it if the pool
+     * has been closed.
+     * @param conn  The connection to return
+     */
+    private void release(Connection conn) {
+        if(closed) {
+            discard(conn);
+            return;
+        }
+
+        try {
+            if(!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+            idle.add(new Idle(conn));
+            // the pool may have been closed since the check above
+            if(closed) {
+                closeIdle();
+            }
+        }
+        catch(SQLException ex) {
+            // the connection is broken, drop it so a new one is opened in its place
+            discard(conn);
+        }
+    }
+
+    /**
+     * Closes a connection and makes room for a new one to be opened in its place.
+     */
+    private void discard(Connection conn) {
+        opened.decrementAndGet();
+        try {
+            conn.close();
+        }
+        catch(SQLException ignored) {
+        }
+    }
+
+    /**
+     * Wraps a connection so that closing it returns it to the pool. The wrapper cannot be used once it
+     * is closed.
+     * @param conn  The connection to wrap
+     * @return      The wrapped connection
+     */
+    private Connection wrap(Connection conn) {
+        // not a lock, since release may roll back over the network and a virtual thread blocked in a
+        // monitor pins its carrier
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    switch(method.getName()) {
+                        case "close":
+                            if(released.compareAndSet(false, true)) {
+                                release(conn);
+                            }
+                            return null;
+                        case "isClosed":
+                            return released.get() || conn.isClosed();
+                        default:
+                            // once returned the connection may belong to another borrower
+                            if(released.get() && method.getDeclaringClass() != Object.class) {
+                                throw new SQLException("closed");
+                            }
+                            try {
+                                return method.invoke(conn, args);
+                            }
+                            catch(InvocationTargetException ex) {
+                                throw ex.getCause();
+                            }
+                    }
+                });
+    }
+
+    /**
+     * Closes the pool. Idle connections are closed now and borrowed ones when they are returned.
+     */
+    void close() {
+        closed = true;
+        closeIdle();
+    }
+
+    /**
+     * Closes every idle connection, such as when they are likely broken. The pool stays open and opens
+     * new connections as they are needed.
+     */
+    void closeIdle() {
+        Idle next;
+        while((next = idle.poll()) != null) {
+            discard(next.conn);
+        }
+    }
+}
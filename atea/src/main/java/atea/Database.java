@@ -2,188 +2,367 @@ package atea;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Storage in the atea MySQL database. Every operation runs a fixed SQL statement, and the schema is
+ * checked once when the Database is created instead of on every query. Examples are inserted on the
+ * primary and, when replicas are given, every other query is spread across them.
+ */
+public class Database implements Storage {
+    static final int DEFAULT_MAX_CONNECTIONS = 8;
+    static final int KEYWORDS_PER_QUERY = 16;
+    static final int EXAMPLES_PER_FETCH = 10000;
 
-class Database {
-    private final String host;
-    private final String username;
-    private final String password;
-    private boolean autoCommit = false;
+    /**
+     * The columns each query relies on, by table.
+     */
+    private static final Map<String, String[]> SCHEMA = Map.of(
+            "abbreviations", new String[] {"id", "value"},
+            "expansions", new String[] {"id", "value"},
+            "abbreviation_expansion", new String[] {"abbreviation_id", "expansion_id"},
+            "examples", new String[] {"id", "abbreviation_id", "expansion_id", "words", "abbr_index", "weight"},
+            "common_words", new String[] {"value"}
+    );
+
+    private static final String SELECT_SCHEMA_COLUMNS =
+            "SELECT table_name, column_name FROM information_schema.columns WHERE table_schema = DATABASE()";
+    private static final String SELECT_ABBREVIATION_ID =
+            "SELECT id FROM abbreviations WHERE value=?";
+    private static final String SELECT_EXPANSION_ID =
+            "SELECT id FROM expansions WHERE value=?";
+    private static final String SELECT_COMMON_WORD =
+            "SELECT 1 FROM common_words WHERE value=? LIMIT 1";
+    private static final String SELECT_COMMON_WORDS =
+            "SELECT value FROM common_words";
+    private static final String SELECT_ABBREVIATIONS =
+            "SELECT id, value FROM abbreviations WHERE value IS NOT NULL";
+    private static final String SELECT_MOST_USED_ABBREVIATIONS =
+            "SELECT abbreviations.value, SUM(examples.weight) AS examples FROM examples JOIN abbreviations ON abbreviations.id=examples.abbreviation_id WHERE abbreviations.value IS NOT NULL GROUP BY abbreviations.id, abbreviations.value ORDER BY examples DESC LIMIT ?";
+    private static final String SELECT_EXPANSIONS =
+            "SELECT id, value FROM expansions JOIN abbreviation_expansion ON expansions.id=abbreviation_expansion.expansion_id WHERE abbreviation_expansion.abbreviation_id=?";
+    private static final String SELECT_EXAMPLES =
+            "SELECT id, expansion_id, words, weight FROM examples WHERE abbreviation_id=? ORDER BY id";
+    private static final String SELECT_EXAMPLES_FOR_UPDATE =
+            "SELECT id, expansion_id, words, weight FROM examples WHERE abbreviation_id=? ORDER BY id FOR UPDATE";
+    private static final String SELECT_ALL_EXAMPLES =
+            "SELECT id, abbreviation_id, expansion_id, words, weight FROM examples";
+    private static final String SELECT_EXAMPLE_FINGERPRINTS =
+            "SELECT abbreviation_id, COUNT(*), BIT_XOR(CRC32(CONCAT_WS(',', id, expansion_id, weight))) FROM examples GROUP BY abbreviation_id";
+    private static final String SELECT_BASE_PROBABILITY =
+            "SELECT SUM(weight) / (SELECT SUM(weight) FROM examples WHERE abbreviation_id=?) AS probability FROM examples WHERE abbreviation_id=? AND expansion_id=?";
+    private static final String SELECT_KEYWORD_SCORE =
+            "SELECT SUM(weight * (words LIKE ?)) / SUM(weight) AS keyword_score FROM examples WHERE abbreviation_id=? AND expansion_id=?";
+    private static final String SELECT_KEYWORD_SCORES = keywordScoresQuery();
+    // LAST_INSERT_ID(id) makes an existing row's id the generated key, so one statement inserts or finds
+    private static final String INSERT_ABBREVIATION =
+            "INSERT INTO abbreviations (value) VALUES (?) ON DUPLICATE KEY UPDATE id=LAST_INSERT_ID(id)";
+    private static final String INSERT_EXPANSION =
+            "INSERT INTO expansions (value) VALUES (?) ON DUPLICATE KEY UPDATE id=LAST_INSERT_ID(id)";
+    private static final String INSERT_ABBREVIATION_EXPANSION =
+            "INSERT IGNORE INTO abbreviation_expansion (abbreviation_id, expansion_id) VALUES (?, ?)";
+    private static final String INSERT_EXAMPLE =
+            "INSERT INTO examples (abbreviation_id, expansion_id, words, abbr_index) VALUES (?, ?, ?, ?)";
+    private static final String UPDATE_EXAMPLE_WEIGHT =
+            "UPDATE examples SET weight=? WHERE id=?";
+    private static final String DELETE_EXAMPLE =
+            "DELETE FROM examples WHERE id=?";
+    private static final String SELECT_ROW_COUNTS =
+            "SELECT table_name, table_rows FROM information_schema.tables WHERE table_schema = DATABASE() ORDER BY table_name";
+    private static final String SELECT_EXAMPLE_ROWS =
+            "SELECT COUNT(*) FROM examples";
+    private static final String SELECT_LARGEST_ABBREVIATIONS =
+            "SELECT abbreviations.value, COUNT(*) AS example_rows FROM examples JOIN abbreviations ON abbreviations.id=examples.abbreviation_id GROUP BY abbreviations.id, abbreviations.value ORDER BY example_rows DESC LIMIT ?";
+
+    // the names queries are timed under, see DatabaseReport
+    static final String BASE_PROBABILITY = "base probability";
+    static final String KEYWORD_SCORE = "keyword score";
+    static final String KEYWORD_SCORES = "keyword scores";
+
+    private final ReplicaRouter router;
+    private final QueryStatistics statistics =
+            new QueryStatistics(Set.of(BASE_PROBABILITY, KEYWORD_SCORE, KEYWORD_SCORES));
 
-    Database(String host, String username, String password) throws SQLException {
-        this.host = host;
-        this.username = username;
-        this.password = password;
+    /**
+     * Builds the statement which weighs the examples of an abbreviation/expansion combo containing
+     * each of KEYWORDS_PER_QUERY keywords. It is always the same statement, so it is prepared once
+     * per connection like the others.
+     */
+    private static String keywordScoresQuery() {
+        StringBuilder query = new StringBuilder("SELECT SUM(weight)");
+        for(int i=0; i<KEYWORDS_PER_QUERY; i++) {
+            query.append(", SUM(weight * (words LIKE ?))");
+        }
 
-        // Verify the credentials
-        connect().close();
+        return query.append(" FROM examples WHERE abbreviation_id=? AND expansion_id=?").toString();
     }
 
-    private Connection connect() throws SQLException {
-        Connection conn = DriverManager.getConnection("jdbc:mysql://" + host + ":3306/atea", username, password);
-        conn.setAutoCommit(autoCommit);
+    public Database(String host, String username, String password) throws SQLException {
+        this(host, username, password, DEFAULT_MAX_CONNECTIONS);
+    }
 
-        return conn;
+    /**
+     *
+     * @param host              The database host
+     * @param username          The database username
+     * @param password          The database password
+     * @param maxConnections    The most connections to keep open to the database
+     * @throws SQLException if the database cannot be reached or its schema is missing a table or column
+     */
+    public Database(String host, String username, String password, int maxConnections) throws SQLException {
+        this(host, new ArrayList<>(), username, password, maxConnections);
     }
 
-    private boolean validTable(String table) throws SQLException {
-        Boolean found = false;
+    /**
+     * Creates a Database which inserts examples on a primary and reads from its replicas. Reads are
+     * spread over the replicas in turn, skipping any which cannot be reached, and go to the primary
+     * when none can.
+     * @param primaryHost       The host of the primary
+     * @param replicaHosts      The hosts of the replicas
+     * @param username          The database username, the same on every host
+     * @param password          The database password, the same on every host
+     * @param maxConnections    The most connections to keep open to each host
+     * @throws SQLException if the primary cannot be reached or its schema is missing a table or column
+     */
+    public Database(String primaryHost, List<String> replicaHosts, String username, String password,
+                    int maxConnections) throws SQLException {
+        this(router(primaryHost, replicaHosts, username, password, maxConnections));
+    }
 
-        Connection conn = connect();
-        String query = "SELECT COUNT(*) as count FROM information_schema.tables WHERE table_schema = 'atea' AND table_name = ?;";
+    /**
+     *
+     * @param router    Where to run queries
+     * @throws SQLException if the schema is missing a table or column
+     */
+    Database(ReplicaRouter router) throws SQLException {
+        this.router = router;
 
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setString(1, table);
+        // Verify the credentials and the schema
+        validateSchema();
+    }
 
-        ResultSet rset = stmt.executeQuery();
-        float probability = -1;
-        if(rset.first()) {
-            if(rset.getInt(1) > 0)
-                found = true;
+    private static ReplicaRouter router(String primaryHost, List<String> replicaHosts, String username,
+                                        String password, int maxConnections) {
+        ArrayList<ConnectionPool> replicas = new ArrayList<>();
+        for(String host : replicaHosts) {
+            replicas.add(new ConnectionPool(url(host), username, password, maxConnections));
         }
-
-        conn.close();
-
-        return found;
+        return new ReplicaRouter(new ConnectionPool(url(primaryHost), username, password, maxConnections), replicas);
     }
 
-    private ResultSet select(Connection conn, String table) throws SQLException {
-        return select(conn, table, new String[0], new String[0], new String[0]);
+    private static String url(String host) {
+        // server side prepared statements are cached per connection and reused by the pool, and
+        // statements with a fetch size read their results through a server side cursor
+        return "jdbc:mysql://" + host + ":3306/atea?useServerPrepStmts=true&cachePrepStmts=true&useCursorFetch=true";
     }
 
-    private ResultSet select(Connection conn, String table, String[] columns) throws SQLException {
-        return select(conn, table, columns, new String[0], new String[0]);
-    }
+    int getMaxConnections() { return router.getPrimary().getMaxConnections(); }
+
+    /**
+     * Sends reads to the primary for a while after each insert, so that a caller which has just added
+     * an example sees it even if the replicas have not caught up yet. Useful while training.
+     * @param millis    How long after an insert reads go to the primary. 0 (the default) turns it off.
+     */
+    public void setReadYourWritesMillis(long millis) { router.setReadYourWritesMillis(millis); }
+
+    public long getReadYourWritesMillis() { return router.getReadYourWritesMillis(); }
 
-    private ResultSet select(Connection conn, String table, String[] whereColumns, String[] whereValues) throws SQLException {
-        return select(conn, table, new String[0], whereColumns, whereValues);
+    /**
+     * Checks that every replica can be reached. Replicas which cannot are given no reads until they
+     * pass a later check. Unreachable replicas are also found, and rechecked, as reads are made, so
+     * calling this is only needed to find them sooner.
+     * @return  The number of replicas which can be reached
+     */
+    public int checkReplicas() {
+        router.checkHealth();
+        return router.getHealthyReplicas();
     }
 
-    private ResultSet select(Connection conn, String table, String[] columns, String[] whereColumns, String[] whereValues) throws SQLException {
-        if(whereColumns.length != whereValues.length) {
-            throw new ArrayIndexOutOfBoundsException("whereColumns and whereValues length do not match");
-        }
+    /**
+     * Tells an alert about every query which takes longer than a threshold, including waiting for
+     * a connection, so slow queries are noticed as they happen.
+     * @param thresholdMillis   How long a query may take before the alert is told
+     * @param alert             The alert, or null to turn alerts off
+     */
+    public void setSlowQueryAlert(double thresholdMillis, SlowQueryAlert alert) {
+        statistics.setAlert(thresholdMillis, alert);
+    }
 
-        if(!validTable(table)) {
-            throw new SQLException("Table '" + table + "' does not exist.");
-        }
+    /**
+     * Gets how long each query has taken, without querying the database.
+     * @return  The timings, the query which took the longest in total first
+     */
+    public List<DatabaseReport.Timing> getQueryTimings() { return statistics.getQueries(); }
 
-        String query = "SELECT";
+    /**
+     * Starts the query timings again, such as after a change to the schema.
+     */
+    public void resetQueryStatistics() { statistics.reset(); }
 
-        // columns
-        if(columns.length == 0) {
-            query += " *";
-        } else {
-            for (int i = 0; i < columns.length; i++) {
-                if (i > 0) {
-                    query += ", ";
+    /**
+     * Reports how many rows each table has, which abbreviations have the most examples and which
+     * are the slowest to score. Counting the examples, in total and of each abbreviation, reads an
+     * index of the whole examples table, so call it now and then rather than with every prediction.
+     * @param limit The most abbreviations to list as largest and as slowest
+     * @return      The report
+     */
+    public DatabaseReport getReport(int limit) throws SQLException {
+        LinkedHashMap<String, Long> rows = read("row counts", -1, conn -> {
+            LinkedHashMap<String, Long> counts = new LinkedHashMap<>();
+            try(PreparedStatement stmt = conn.prepareStatement(SELECT_ROW_COUNTS);
+                ResultSet rset = stmt.executeQuery()) {
+                while (rset.next()) {
+                    counts.put(rset.getString(1).toLowerCase(), rset.getLong(2));
                 }
-                query += " ?";
             }
-        }
-
-        // FROM table
-        query += " FROM " + table;
-
-        // WHERE column=value AND column=value ...
-        for(int i=0; i<whereColumns.length; i++) {
-            if(i>0) {
-                query += " AND";
+            // table_rows is an estimate which MySQL 8 caches for a day, too rough to track the growth of
+            // the examples, so they are counted from the examples index
+            try(PreparedStatement stmt = conn.prepareStatement(SELECT_EXAMPLE_ROWS);
+                ResultSet rset = stmt.executeQuery()) {
+                if(rset.next()) {
+                    counts.put("examples", rset.getLong(1));
+                }
+            }
+            return counts;
+        });
+        LinkedHashMap<String, Long> largest = read("largest abbreviations", -1, conn -> {
+            LinkedHashMap<String, Long> counts = new LinkedHashMap<>();
+            try(PreparedStatement stmt = conn.prepareStatement(SELECT_LARGEST_ABBREVIATIONS)) {
+                stmt.setInt(1, limit);
+                try(ResultSet rset = stmt.executeQuery()) {
+                    while (rset.next()) {
+                        counts.put(rset.getString("value"), rset.getLong("example_rows"));
+                    }
+                }
             }
-            query += " WHERE ?=?";
+            return counts;
+        });
+        HashMap<Integer, String> names = new HashMap<>();
+        for(Map.Entry<String, Integer> abbr : getAbbreviations().entrySet()) {
+            names.put(abbr.getValue(), abbr.getKey());
         }
 
-        PreparedStatement stmt = conn.prepareStatement(query);
-        int nextParameterIndex = 1;
+        return new DatabaseReport(rows, largest, statistics.getQueries(), statistics.getSlowestAbbreviations(limit, names),
+                statistics.getSince());
+    }
 
-        // columns
-        for(int i=0; i<columns.length; i++) {
-            stmt.setString(nextParameterIndex++, columns[i]);
+    /**
+     * Reads from a replica, timing the read under the name of its query.
+     * @param query     The name of the query
+     * @param abbr_id   The abbreviation the query is for, or -1
+     * @param work      The read
+     * @return          The result of the read
+     */
+    private <T> T read(String query, int abbr_id, ReplicaRouter.Work<T> work) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return router.read(work);
         }
-
-        // where clauses
-        for(int i=0; i<whereColumns.length; i++) {
-            stmt.setString(nextParameterIndex++, whereColumns[i]);
-            stmt.setString(nextParameterIndex++, whereValues[i]);
+        finally {
+            statistics.record(query, abbr_id, System.nanoTime() - start);
         }
-
-        ResultSet rset = stmt.executeQuery();
-
-        return rset;
     }
 
-    private ResultSet insert(Connection conn, String table, String[] columns, String[] values) throws SQLException {
-        if(columns.length != values.length) {
-            throw new ArrayIndexOutOfBoundsException("columns and values length do not match");
+    /**
+     * Streams from a replica, timing the read under the name of its query. Unlike read, the work is
+     * never run twice, so it may hand rows on as it reads them.
+     */
+    private <T> T stream(String query, ReplicaRouter.Work<T> work) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return router.stream(work);
         }
-
-        boolean ourConn = (conn == null);
-        if(ourConn) { conn = connect(); }
-
-        String query = "INSERT INTO ? (";
-
-        // columns
-        for(int i=0; i<columns.length; i++) {
-            if(i>0) {
-                query += ", ";
-            }
-            query += " ?";
+        finally {
+            statistics.record(query, -1, System.nanoTime() - start);
         }
+    }
 
-        query += ") VALUES (";
-
-        // values
-        for(int i=0; i<values.length; i++) {
-            if(i>0) {
-                query += ", ";
-            }
-            query += " ?";
+    /**
+     * Writes to the primary, timing the write under the name of its query.
+     */
+    private <T> T write(String query, int abbr_id, ReplicaRouter.Work<T> work) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return router.write(work);
         }
-
-        PreparedStatement stmt = conn.prepareStatement(query);
-        int nextParameterIndex = 1;
-
-        stmt.setString(nextParameterIndex++, table);
-
-        // columns
-        for(int i=0; i<columns.length; i++) {
-            stmt.setString(nextParameterIndex++, columns[i]);
+        finally {
+            statistics.record(query, abbr_id, System.nanoTime() - start);
         }
+    }
 
-        // columns
-        for(int i=0; i<values.length; i++) {
-            stmt.setString(nextParameterIndex++, values[i]);
+    /**
+     * Checks that every table and column the queries use exists.
+     * @throws SQLException listing everything that is missing
+     */
+    private void validateSchema() throws SQLException {
+        HashSet<String> columns = router.onPrimary(conn -> {
+            HashSet<String> found = new HashSet<>();
+            try(PreparedStatement stmt = conn.prepareStatement(SELECT_SCHEMA_COLUMNS);
+                ResultSet rset = stmt.executeQuery()) {
+                while(rset.next()) {
+                    found.add(rset.getString(1).toLowerCase() + "." + rset.getString(2).toLowerCase());
+                }
+            }
+            return found;
+        });
+
+        ArrayList<String> missing = new ArrayList<>();
+        for(Map.Entry<String, String[]> table : SCHEMA.entrySet()) {
+            for(String column : table.getValue()) {
+                if(!columns.contains(table.getKey() + "." + column)) {
+                    missing.add(table.getKey() + "." + column);
+                }
+            }
         }
 
-        stmt.executeUpdate();
-
-        ResultSet rset = stmt.getGeneratedKeys();
-
-        if(ourConn) {
-            conn.commit();
-            conn.close();
+        if(!missing.isEmpty()) {
+            throw new SQLException("The database is missing " + String.join(", ", missing) + ".");
         }
-        return rset;
     }
 
-    private int getRowId(String table, String column, String value) throws SQLException {
-        Connection conn = connect();
-        int id = -1;
-        ResultSet rset = select(conn, table, new String[] {column}, new String[] {value});
-        if(rset.first()) {
-            id = rset.getInt("id");
-        }
-
-        conn.close();
-
-        return id;
+    /**
+     * Runs a query which selects a single id.
+     * @param name  The name to time the query under
+     * @param query The query
+     * @param value The value to bind to the query's parameter
+     * @return      The id, or -1 if no row matched
+     */
+    private int selectId(String name, String query, String value) throws SQLException {
+        return read(name, -1, conn -> {
+            try(PreparedStatement stmt = conn.prepareStatement(query)) {
+                stmt.setString(1, value);
+                try(ResultSet rset = stmt.executeQuery()) {
+                    return rset.next() ? rset.getInt(1) : -1;
+                }
+            }
+        });
     }
 
-    private boolean rowExists(String table, String column, String value) throws SQLException {
-        Connection conn = connect();
-        Boolean exists = select(conn, table, new String[] {column}, new String[] {value}).first();
-        conn.close();
-
-        return exists;
+    /**
+     * Runs an insert which generates an id.
+     * @param conn  The connection to insert with
+     * @param query The insert
+     * @param value The value to bind to the insert's parameter
+     * @return      The generated id
+     */
+    private int insertReturningId(Connection conn, String query, String value) throws SQLException {
+        try(PreparedStatement stmt = conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setString(1, value);
+            stmt.executeUpdate();
+            try(ResultSet rset = stmt.getGeneratedKeys()) {
+                if(!rset.next()) {
+                    throw new SQLException("No id was generated for '" + value + "'.");
+                }
+                return rset.getInt(1);
+            }
+        }
     }
 
     /**
@@ -191,55 +370,74 @@ class Database {
      * @param  chars A string to be checked.
      * @return       The id of the abbreviation if chars is found in the database, otherwise -1.
      */
-    int abbreviationExists(String chars) throws SQLException {
-        return getRowId("abbreviations", "value", chars);
-    }
-
-    private boolean abbreviationExists(int id) throws SQLException {
-        return rowExists("abbreviations", "id", Integer.toString(id));
+    @Override
+    public int abbreviationExists(String chars) throws SQLException {
+        return selectId("abbreviation id", SELECT_ABBREVIATION_ID, chars);
     }
 
     int expansionExists(String chars) throws SQLException {
-        return getRowId("expansions", "value", chars);
-    }
-
-    private boolean expansionExists(int id) throws SQLException {
-        return rowExists("expansions", "id", Integer.toString(id));
+        return selectId("expansion id", SELECT_EXPANSION_ID, chars);
     }
 
     boolean isCommonWord(String word) throws SQLException {
-        return rowExists("words", "value", word);
+        return selectId("common word", SELECT_COMMON_WORD, word) != -1;
     }
 
-    private boolean isExpansionFor(int expansion_id, int abbr_id) throws SQLException {
-        Connection conn = connect();
-        ResultSet rset = select(
-                conn,
-                "abbreviation_expansion",
-                new String[] {"abbreviation_id"},
-                new String[] {"abbreviation_id", "expansion_id"},
-                new String[] {Integer.toString(abbr_id), Integer.toString(expansion_id)}
-                );
-
-        boolean result = rset.first();
-        conn.close();
+    @Override
+    public String[] getCommonWords() throws SQLException {
+        ArrayList<String> words = read("common words", -1, conn -> {
+            ArrayList<String> found = new ArrayList<>();
+            try(PreparedStatement stmt = conn.prepareStatement(SELECT_COMMON_WORDS);
+                ResultSet rset = stmt.executeQuery()) {
+                while (rset.next()) {
+                    found.add(
+                            rset.getString("value")
+                    );
+                }
+            }
+            return found;
+        });
 
-        return result;
+        return words.toArray( new String[words.size()] );
     }
 
-    String[] getCommonWords() throws SQLException {
-        ArrayList<String> words = new ArrayList<>();
-
-        Connection conn = connect();
-        ResultSet rset = select(conn, "common_words");
-        while (rset.next()) {
-            words.add(
-                    rset.getString("value")
-            );
-        }
-        conn.close();
+    /**
+     * Gets every abbreviation in the database.
+     * @return          A map of abbreviations to their ids.
+     */
+    @Override
+    public HashMap<String, Integer> getAbbreviations() throws SQLException {
+        return read("abbreviations", -1, conn -> {
+            HashMap<String, Integer> abbreviations = new HashMap<>();
+            try(PreparedStatement stmt = conn.prepareStatement(SELECT_ABBREVIATIONS);
+                ResultSet rset = stmt.executeQuery()) {
+                while (rset.next()) {
+                    abbreviations.put(rset.getString("value"), rset.getInt("id"));
+                }
+            }
+            return abbreviations;
+        });
+    }
 
-        return words.toArray( new String[words.size()] );
+    /**
+     * Gets the abbreviations with the most examples, counted by the database.
+     * @param limit     The most abbreviations to return.
+     * @return          A map of abbreviations to their number of examples, most examples first.
+     */
+    @Override
+    public LinkedHashMap<String, Integer> getMostUsedAbbreviations(int limit) throws SQLException {
+        return read("most used abbreviations", -1, conn -> {
+            LinkedHashMap<String, Integer> counts = new LinkedHashMap<>();
+            try(PreparedStatement stmt = conn.prepareStatement(SELECT_MOST_USED_ABBREVIATIONS)) {
+                stmt.setInt(1, limit);
+                try(ResultSet rset = stmt.executeQuery()) {
+                    while (rset.next()) {
+                        counts.put(rset.getString("value"), rset.getInt("examples"));
+                    }
+                }
+            }
+            return counts;
+        });
     }
 
     /**
@@ -247,189 +445,266 @@ class Database {
      * @param abbr_id   The id of the abbreviation to get expansions for.
      * @return          An ArrayList of Expansion objects.
      */
-    ArrayList<Expansion> getExpansions(int abbr_id) throws SQLException {
-        ArrayList<Expansion> expansions = new ArrayList<>();
-        Connection conn = connect();
-
-        try {
-            String query = "SELECT id, value FROM expansions JOIN abbreviation_expansion ON expansions.id=abbreviation_expansion.expansion_id WHERE abbreviation_expansion.abbreviation_id =?";
-            PreparedStatement stmt = conn.prepareStatement(query);
-            stmt.setInt(1, abbr_id);
-            ResultSet rset = stmt.executeQuery();
-            while (rset.next()) {
-                expansions.add(
-                        new Expansion(
-                                rset.getInt("id"),
-                                rset.getString("value")
-                        )
-                );
+    @Override
+    public ArrayList<Expansion> getExpansions(int abbr_id) throws SQLException {
+        return read("expansions", abbr_id, conn -> {
+            ArrayList<Expansion> expansions = new ArrayList<>();
+            try(PreparedStatement stmt = conn.prepareStatement(SELECT_EXPANSIONS)) {
+                stmt.setInt(1, abbr_id);
+                try(ResultSet rset = stmt.executeQuery()) {
+                    while (rset.next()) {
+                        expansions.add(
+                                new Expansion(
+                                        rset.getInt("id"),
+                                        rset.getString("value")
+                                )
+                        );
+                    }
+                }
             }
-        }
-        catch(SQLException ex) {
-            ex.printStackTrace();
-            expansions = new ArrayList<>();
-        }
-
-        conn.close();
-
-        return expansions;
+            return expansions;
+        });
     }
 
-    int insertAbbreviation(String chars) throws SQLException {
-        return insertAbbreviation(chars, null);
+    /**
+     * Gets every example recorded for an abbreviation.
+     * @param abbr_id   The id of the abbreviation to get examples for.
+     * @return          An ArrayList of Example objects ordered by id.
+     */
+    @Override
+    public ArrayList<Example> getExamples(int abbr_id) throws SQLException {
+        return read("examples", abbr_id, conn -> {
+            ArrayList<Example> examples = new ArrayList<>();
+            try(PreparedStatement stmt = conn.prepareStatement(SELECT_EXAMPLES)) {
+                stmt.setInt(1, abbr_id);
+                try(ResultSet rset = stmt.executeQuery()) {
+                    while (rset.next()) {
+                        examples.add(
+                                new Example(
+                                        rset.getInt("id"),
+                                        abbr_id,
+                                        rset.getInt("expansion_id"),
+                                        rset.getString("words"),
+                                        rset.getInt("weight")
+                                )
+                        );
+                    }
+                }
+            }
+            return examples;
+        });
     }
 
-    private int insertAbbreviation(String chars, Connection conn) throws SQLException {
-        int id = abbreviationExists(chars);
-        // if the abbreviation is already in the DB, return its id
-        if(id != -1) {
-            return id;
-        }
-
-        ResultSet rset = insert(
-                conn,
-                "abbreviations",
-                new String[] {"value"},
-                new String[] {chars}
-                );
-        if(rset.first()) {
-            id = rset.getInt(1);
-        }
-
-        return id;
+    /**
+     * Streams every example from a replica through a forward-only cursor, fetching
+     * EXAMPLES_PER_FETCH rows per round trip, so the examples are never all in memory at once.
+     * If the replica is lost partway through, the scan fails rather than starting over, since the
+     * consumer has already been given the examples before the failure.
+     * @param consumer  Called with each example in turn
+     * @return          The number of examples read
+     */
+    @Override
+    public long forEachExample(Consumer<Example> consumer) throws SQLException {
+        return stream("all examples", conn -> {
+            long examples = 0;
+            try(PreparedStatement stmt = conn.prepareStatement(SELECT_ALL_EXAMPLES,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                stmt.setFetchSize(EXAMPLES_PER_FETCH);
+                try(ResultSet rset = stmt.executeQuery()) {
+                    while (rset.next()) {
+                        consumer.accept(
+                                new Example(
+                                        rset.getInt("id"),
+                                        rset.getInt("abbreviation_id"),
+                                        rset.getInt("expansion_id"),
+                                        rset.getString("words"),
+                                        rset.getInt("weight")
+                                )
+                        );
+                        examples++;
+                    }
+                }
+            }
+            return examples;
+        });
     }
 
     /**
-     * Inserts an expansion into the database if it does not already exist and links it to an abbreviation.
-     * @param expansion The expansion to be inserted.
-     * @return          The id of the expansion or -1 on failure.
+     * Fingerprints the examples of every abbreviation in one query, without reading their words.
      */
-    private int insertExpansion(String expansion, Connection conn) throws SQLException {
-        int id = expansionExists(expansion);
-        if (id != -1) {
-            return id;
-        }
-
-        ResultSet rset = insert(
-                conn,
-                "expansions",
-                new String[] {"value"},
-                new String[] {expansion}
-                );
-        if(rset.first()) {
-            id = rset.getInt(1);
-        }
-
-        return id;
+    @Override
+    public HashMap<Integer, Long> getExampleFingerprints() throws SQLException {
+        return read("example fingerprints", -1, conn -> {
+            HashMap<Integer, Long> fingerprints = new HashMap<>();
+            try(PreparedStatement stmt = conn.prepareStatement(SELECT_EXAMPLE_FINGERPRINTS);
+                ResultSet rset = stmt.executeQuery()) {
+                while (rset.next()) {
+                    fingerprints.put(rset.getInt(1), Storage.fingerprint(rset.getLong(2), rset.getLong(3)));
+                }
+            }
+            return fingerprints;
+        });
     }
 
-    private void insertAbbreviationExpansion(int abbr_id, int expansion_id, Connection conn) throws SQLException {
-        if(!abbreviationExists(abbr_id)) {
-            throw new SQLException("Abbreviation does not exist.");
-        }
-
-        if(!expansionExists(expansion_id)) {
-            throw new SQLException("Expansion does not exist.");
-        }
-
-        // if the expansion is not already attached to the abbreviation
-        if(!isExpansionFor(expansion_id, abbr_id)) {
-            insert(
-                    conn,
-                    "abbreviation_expansion",
-                    new String[] {"abbreviation_id", "expansion_id"},
-                    new String[] { Integer.toString(abbr_id), Integer.toString(expansion_id)}
-            );
-        }
+    int insertAbbreviation(String chars) throws SQLException {
+        return write("insert abbreviation", -1, conn -> insertReturningId(conn, INSERT_ABBREVIATION, chars));
     }
 
-
-
+    @Override
     public float getExpansionBaseProbability(int abbr_id, int expansion_id) throws SQLException {
-        Connection conn = connect();
-
-        String query = "SELECT COUNT(id) / (SELECT COUNT(id) FROM examples WHERE abbreviation_id=?) AS probability FROM examples WHERE abbreviation_id=? AND expansion_id=?";
-
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setInt(1, abbr_id);
-        stmt.setInt(2, abbr_id);
-        stmt.setInt(3, expansion_id);
-
-        ResultSet rset = stmt.executeQuery();
-        float probability = -1;
-        if (rset.first()) {
-            probability = rset.getFloat("probability");
-        }
-
-        conn.close();
-
-        return probability;
+        return read(BASE_PROBABILITY, abbr_id, conn -> {
+            try(PreparedStatement stmt = conn.prepareStatement(SELECT_BASE_PROBABILITY)) {
+                stmt.setInt(1, abbr_id);
+                stmt.setInt(2, abbr_id);
+                stmt.setInt(3, expansion_id);
+
+                try(ResultSet rset = stmt.executeQuery()) {
+                    return rset.next() ? rset.getFloat("probability") : -1;
+                }
+            }
+        });
     }
 
+    @Override
     public float getExpansionKeywordScore(int abbr_id, int expansion_id, String keyword) throws SQLException {
-        Connection conn = connect();
-
-        String query = "SELECT COUNT(id) / (SELECT COUNT(id) FROM examples WHERE abbreviation_id=? AND expansion_id=?) AS keyword_score FROM examples WHERE abbreviation_id=? AND expansion_id=? AND words LIKE ?";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setInt(1, abbr_id);
-        stmt.setInt(2, expansion_id);
-        stmt.setInt(3, abbr_id);
-        stmt.setInt(4, expansion_id);
-        stmt.setString(5, "%,"+keyword+",%");
-
-        ResultSet rset = stmt.executeQuery();
-        float keywordScore = 0;
-        if(rset.first()) {
-            keywordScore = rset.getFloat("keyword_score");
-        }
-
-        conn.close();
-
-        return keywordScore;
+        return read(KEYWORD_SCORE, abbr_id, conn -> {
+            try(PreparedStatement stmt = conn.prepareStatement(SELECT_KEYWORD_SCORE)) {
+                stmt.setString(1, "%,"+keyword+",%");
+                stmt.setInt(2, abbr_id);
+                stmt.setInt(3, expansion_id);
+
+                try(ResultSet rset = stmt.executeQuery()) {
+                    return rset.next() ? rset.getFloat("keyword_score") : 0;
+                }
+            }
+        });
     }
 
+    /**
+     * Scores up to KEYWORDS_PER_QUERY keywords with each query.
+     */
+    @Override
+    public float[] getExpansionKeywordScores(int abbr_id, int expansion_id, List<String> keywords) throws SQLException {
+        return read(KEYWORD_SCORES, abbr_id, conn -> {
+            float[] scores = new float[keywords.size()];
+            try(PreparedStatement stmt = conn.prepareStatement(SELECT_KEYWORD_SCORES)) {
+                for(int start=0; start<keywords.size(); start+=KEYWORDS_PER_QUERY) {
+                    for(int i=0; i<KEYWORDS_PER_QUERY; i++) {
+                        // slots past the last keyword repeat the first one and are ignored
+                        String keyword = keywords.get(start + i < keywords.size() ? start + i : start);
+                        stmt.setString(i + 1, "%,"+keyword+",%");
+                    }
+                    stmt.setInt(KEYWORDS_PER_QUERY + 1, abbr_id);
+                    stmt.setInt(KEYWORDS_PER_QUERY + 2, expansion_id);
+
+                    try(ResultSet rset = stmt.executeQuery()) {
+                        long weight = rset.next() ? rset.getLong(1) : 0;
+                        for(int i=0; i<KEYWORDS_PER_QUERY && start + i < keywords.size() && weight > 0; i++) {
+                            scores[start + i] = rset.getFloat(i + 2) / weight;
+                        }
+                    }
+                }
+            }
+            return scores;
+        });
+    }
 
-    public void insertExample(Abbreviation abbr, String expansion) throws SQLException {
-        Connection conn = connect();
-
-        String abbreviation = abbr.getValue();
-        try {
-            int abbr_id = abbreviationExists(abbreviation);
-            if (abbr_id == -1) {
-                abbr_id = insertAbbreviation(abbreviation, conn);
+    /**
+     * Inserts an example into the primary database, adding the abbreviation and expansion if they are
+     * new. Everything is inserted in one transaction.
+     * @param abbr      The abbreviation and the text it was used in.
+     * @param expansion What the abbreviation stood for.
+     * @return          The inserted Example.
+     */
+    @Override
+    public Example insertExample(Abbreviation abbr, String expansion) throws SQLException {
+        return write("insert example", -1, conn -> {
+            conn.setAutoCommit(false);
+
+            int abbr_id = insertReturningId(conn, INSERT_ABBREVIATION, abbr.getValue());
+            int expansion_id = insertReturningId(conn, INSERT_EXPANSION, expansion);
+
+            try(PreparedStatement stmt = conn.prepareStatement(INSERT_ABBREVIATION_EXPANSION)) {
+                stmt.setInt(1, abbr_id);
+                stmt.setInt(2, expansion_id);
+                stmt.executeUpdate();
             }
 
-            int expansion_id = expansionExists(expansion);
-            if (expansion_id == -1) {
-                expansion_id = insertExpansion(expansion, conn);
+            String words = abbr.getText().getWordsAsCSV();
+            int id;
+            try(PreparedStatement stmt = conn.prepareStatement(INSERT_EXAMPLE, Statement.RETURN_GENERATED_KEYS)) {
+                stmt.setInt(1, abbr_id);
+                stmt.setInt(2, expansion_id);
+                stmt.setString(3, words);
+                stmt.setInt(4, abbr.getIndex());
+                stmt.executeUpdate();
+                try(ResultSet rset = stmt.getGeneratedKeys()) {
+                    id = rset.next() ? rset.getInt(1) : -1;
+                }
             }
 
-            insertAbbreviationExpansion(abbr_id, expansion_id, conn);
-
-            insert(
-                    conn,
-                    "examples",
-                    new String[]{
-                            "abbreviation_id",
-                            "expansion_id",
-                            "words",
-                            "abbr_index"},
-                    new String[]{
-                            Integer.toString(abbr_id),
-                            Integer.toString(expansion_id),
-                            abbr.getText().getWordsAsCSV(),
-                            Integer.toString(abbr.getIndex())
+            // returning the connection without committing rolls the transaction back
+            conn.commit();
+
+            return new Example(id, abbr_id, expansion_id, words);
+        });
+    }
+
+    /**
+     * Compacts the examples of each abbreviation in its own transaction on the primary, so examples
+     * can still be inserted while it runs. See ExampleCompactor.
+     */
+    @Override
+    public int compactExamples(int maxPerExpansion) throws SQLException {
+        Random random = new Random();
+        HashSet<Integer> ids = new HashSet<>(getAbbreviations().values());
+        int removed = 0;
+        for(int abbr_id : ids) {
+            removed += write("compact examples", abbr_id, conn -> {
+                conn.setAutoCommit(false);
+
+                HashMap<Integer, Example> examples = new HashMap<>();
+                try(PreparedStatement stmt = conn.prepareStatement(SELECT_EXAMPLES_FOR_UPDATE)) {
+                    stmt.setInt(1, abbr_id);
+                    try(ResultSet rset = stmt.executeQuery()) {
+                        while (rset.next()) {
+                            Example example = new Example(rset.getInt("id"), abbr_id, rset.getInt("expansion_id"),
+                                    rset.getString("words"), rset.getInt("weight"));
+                            examples.put(example.getId(), example);
+                        }
                     }
-            );
-        }
-        catch(SQLException ex) {
-            conn.rollback();
-            conn.close();
+                }
 
-            throw ex;
+                ArrayList<Example> kept = ExampleCompactor.compact(new ArrayList<>(examples.values()), maxPerExpansion, random);
+                try(PreparedStatement update = conn.prepareStatement(UPDATE_EXAMPLE_WEIGHT)) {
+                    for(Example example : kept) {
+                        if(examples.remove(example.getId()).getWeight() != example.getWeight()) {
+                            update.setInt(1, example.getWeight());
+                            update.setInt(2, example.getId());
+                            update.addBatch();
+                        }
+                    }
+                    update.executeBatch();
+                }
+                // what is left was merged into another example or not sampled
+                try(PreparedStatement delete = conn.prepareStatement(DELETE_EXAMPLE)) {
+                    for(int id : examples.keySet()) {
+                        delete.setInt(1, id);
+                        delete.addBatch();
+                    }
+                    delete.executeBatch();
+                }
+
+                conn.commit();
+                return examples.size();
+            });
         }
 
-        conn.commit();
-        conn.close();
+        return removed;
+    }
+
+    @Override
+    public void close() {
+        router.close();
     }
 }
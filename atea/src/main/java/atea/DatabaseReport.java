@@ -0,0 +1,128 @@
+package atea;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * How big the training data in a Database has grown and what its queries cost, so abbreviations
+ * whose examples make scoring slow can be found before they show up as slow predictions. Query
+ * timings cover the queries run since the Database was created or its statistics were last reset.
+ */
+public final class DatabaseReport {
+
+  /**
+   * How long one query, or the scoring queries of one abbreviation, took in total.
+   */
+  public static final class Timing implements Comparable<Timing> {
+    private final String name;
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+
+    Timing(String name, long count, long totalNanos, long maxNanos) {
+      this.name = name;
+      this.count = count;
+      this.totalNanos = totalNanos;
+      this.maxNanos = maxNanos;
+    }
+
+    /**
+     * Gets the name of the query, such as "keyword scores", or the abbreviation.
+     */
+    public String getName() { return name; }
+
+    public long getCount() { return count; }
+
+    public double getTotalMillis() { return totalNanos / 1e6; }
+
+    public double getMeanMillis() { return count == 0 ? 0 : totalNanos / 1e6 / count; }
+
+    public double getMaxMillis() { return maxNanos / 1e6; }
+
+    /**
+     * Sorts the timings which took the longest in total first.
+     */
+    @Override
+    public int compareTo(Timing other) {
+      return Long.compare(other.totalNanos, totalNanos);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%s: %d queries, %.1f ms total, %.3f ms mean, %.3f ms max",
+              name, count, getTotalMillis(), getMeanMillis(), getMaxMillis());
+    }
+  }
+
+  private final Map<String, Long> rowCounts;
+  private final Map<String, Long> largestAbbreviations;
+  private final List<Timing> queries;
+  private final List<Timing> slowestAbbreviations;
+  private final long since;
+
+  DatabaseReport(Map<String, Long> rowCounts, Map<String, Long> largestAbbreviations, List<Timing> queries,
+                 List<Timing> slowestAbbreviations, long since) {
+    this.rowCounts = Collections.unmodifiableMap(rowCounts);
+    this.largestAbbreviations = Collections.unmodifiableMap(largestAbbreviations);
+    this.queries = Collections.unmodifiableList(queries);
+    this.slowestAbbreviations = Collections.unmodifiableList(slowestAbbreviations);
+    this.since = since;
+  }
+
+  /**
+   * Gets how many rows each table has. The examples table, whose growth is what matters, is counted
+   * exactly. The other tables are MySQL's estimates, read without scanning them. For InnoDB tables
+   * the estimates may be off by a large factor, and MySQL 8 caches them for up to a day by default
+   * (information_schema_stats_expiry).
+   * @return  The rows of each table, by table name
+   */
+  public Map<String, Long> getRowCounts() { return rowCounts; }
+
+  /**
+   * Gets the abbreviations with the most example rows, which are the rows their scoring queries read.
+   * @return  The example rows of each abbreviation, the most first
+   */
+  public Map<String, Long> getLargestAbbreviations() { return largestAbbreviations; }
+
+  /**
+   * Gets how long each query took.
+   * @return  The timings, the query which took the longest in total first
+   */
+  public List<Timing> getQueries() { return queries; }
+
+  /**
+   * Gets the abbreviations whose base probability and keyword score queries took the longest.
+   * @return  The timings, named by abbreviation, the longest in total first
+   */
+  public List<Timing> getSlowestAbbreviations() { return slowestAbbreviations; }
+
+  /**
+   * Gets when the query timings started.
+   * @return  The time in milliseconds since the epoch
+   */
+  public long getSince() { return since; }
+
+  @Override
+  public String toString() {
+    StringBuilder report = new StringBuilder("Rows:\n");
+    for(Map.Entry<String, Long> table : rowCounts.entrySet()) {
+      report.append("  ").append(table.getKey()).append(": ").append(table.getValue()).append('\n');
+    }
+    report.append("Largest abbreviations, by example rows:\n");
+    for(Map.Entry<String, Long> abbr : largestAbbreviations.entrySet()) {
+      report.append("  ").append(abbr.getKey()).append(": ").append(abbr.getValue()).append('\n');
+    }
+    report.append("Queries:\n");
+    for(Timing query : queries) {
+      report.append("  ").append(query).append('\n');
+    }
+    report.append("Slowest abbreviations to score:\n");
+    for(Timing abbr : slowestAbbreviations) {
+      report.append("  ").append(abbr).append('\n');
+    }
+
+    return report.toString();
+  }
+}
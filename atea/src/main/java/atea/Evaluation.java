@@ -0,0 +1,429 @@
+package atea;
+
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures how well Atea predicts expansions with k-fold cross-validation over the stored examples,
+ * so a change made for speed comes with its cost in accuracy.
+ *
+ * The examples are split into k folds. Each fold in turn is held out and its examples are predicted
+ * with statistics from the other folds only, so no example is predicted from itself. Every
+ * configuration is run over every fold and the results of a configuration are added up across the
+ * folds. Folds and configurations run in parallel, each on its own Atea.
+ *
+ * An example is predicted from its own words with the abbreviation at its first use, and counts as
+ * many times as its weight. The confidence of the top expansion is checked against how often the top
+ * expansion is right with the expected calibration error over ten bins of confidence.
+ */
+public final class Evaluation {
+  private static final int CALIBRATION_BINS = 10;
+
+  /**
+   * Sets up an Atea for one configuration, such as by giving it a Scorer.
+   */
+  public interface Setup {
+    void apply(Atea atea) throws SQLException;
+  }
+
+  private static final class Configuration {
+    final String name;
+    final int maxPerExpansion;
+    final Setup setup;
+
+    Configuration(String name, int maxPerExpansion, Setup setup) {
+      this.name = name;
+      this.maxPerExpansion = maxPerExpansion;
+      this.setup = setup;
+    }
+  }
+
+  /**
+   * The results of one configuration over every fold.
+   */
+  public static final class Result {
+    private final String name;
+    private long predictions;
+    private long skipped;
+    private long top1;
+    private long top3;
+    private long nanos;
+    private final double[] binWeights = new double[CALIBRATION_BINS];
+    private final double[] binConfidences = new double[CALIBRATION_BINS];
+    private final double[] binCorrect = new double[CALIBRATION_BINS];
+
+    Result(String name) {
+      this.name = name;
+    }
+
+    void add(int weight, int rank, double confidence) {
+      predictions += weight;
+      if(rank == 0) {
+        top1 += weight;
+      }
+      if(rank >= 0 && rank < 3) {
+        top3 += weight;
+      }
+
+      int bin = Math.min((int) (confidence * CALIBRATION_BINS), CALIBRATION_BINS - 1);
+      bin = Math.max(bin, 0);
+      binWeights[bin] += weight;
+      binConfidences[bin] += weight * confidence;
+      binCorrect[bin] += rank == 0 ? weight : 0;
+    }
+
+    synchronized void addAll(Result fold) {
+      predictions += fold.predictions;
+      skipped += fold.skipped;
+      top1 += fold.top1;
+      top3 += fold.top3;
+      nanos += fold.nanos;
+      for(int i=0; i<CALIBRATION_BINS; i++) {
+        binWeights[i] += fold.binWeights[i];
+        binConfidences[i] += fold.binConfidences[i];
+        binCorrect[i] += fold.binCorrect[i];
+      }
+    }
+
+    public String getName() { return name; }
+
+    /**
+     * Gets how many examples were predicted, counting each as many times as its weight.
+     */
+    public long getPredictions() { return predictions; }
+
+    /**
+     * Gets how many examples could not be predicted because their abbreviation was not found in
+     * their words, such as when they were split with another Tokenizer.
+     */
+    public long getSkipped() { return skipped; }
+
+    /**
+     * Gets the fraction of examples whose most confident expansion was right.
+     */
+    public double getTop1Accuracy() { return predictions == 0 ? 0 : (double) top1 / predictions; }
+
+    /**
+     * Gets the fraction of examples whose right expansion was one of the three most confident.
+     */
+    public double getTop3Accuracy() { return predictions == 0 ? 0 : (double) top3 / predictions; }
+
+    /**
+     * Gets the expected calibration error of the confidence of the most confident expansion. 0 means
+     * an expansion with a confidence of 0.8 is right 80% of the time.
+     * @return  The difference between confidence and accuracy in each bin of confidence, averaged
+     *          over the examples
+     */
+    public double getCalibrationError() {
+      if(predictions == 0) {
+        return 0;
+      }
+
+      double error = 0;
+      for(int i=0; i<CALIBRATION_BINS; i++) {
+        error += Math.abs(binCorrect[i] - binConfidences[i]);
+      }
+
+      return error / predictions;
+    }
+
+    /**
+     * Gets how fast one thread predicts, which does not depend on how many folds ran at once.
+     */
+    public double getPredictionsPerSecond() { return nanos == 0 ? 0 : predictions * 1e9 / nanos; }
+  }
+
+  /**
+   * The examples of every fold but one, read from memory. Scores are computed the way
+   * LocalStorage computes them.
+   */
+  private static final class FoldStorage implements Storage {
+    private final Storage db;
+    private final Map<Integer, ArrayList<Example>> examples;
+    private final int fold;
+    private final int folds;
+    private final int maxPerExpansion;
+    private final ConcurrentHashMap<Integer, ArrayList<Example>> training = new ConcurrentHashMap<>();
+
+    FoldStorage(Storage db, Map<Integer, ArrayList<Example>> examples, int fold, int folds, int maxPerExpansion) {
+      this.db = db;
+      this.examples = examples;
+      this.fold = fold;
+      this.folds = folds;
+      this.maxPerExpansion = maxPerExpansion;
+    }
+
+    @Override
+    public String[] getCommonWords() throws SQLException { return db.getCommonWords(); }
+
+    @Override
+    public Map<String, Integer> getAbbreviations() throws SQLException { return db.getAbbreviations(); }
+
+    @Override
+    public int abbreviationExists(String chars) throws SQLException { return db.abbreviationExists(chars); }
+
+    @Override
+    public ArrayList<Expansion> getExpansions(int abbr_id) throws SQLException { return db.getExpansions(abbr_id); }
+
+    @Override
+    public ArrayList<Example> getExamples(int abbr_id) {
+      return new ArrayList<>(training(abbr_id));
+    }
+
+    private ArrayList<Example> training(int abbr_id) {
+      return training.computeIfAbsent(abbr_id, id -> {
+        ArrayList<Example> kept = new ArrayList<>();
+        for(Example example : examples.getOrDefault(id, new ArrayList<>())) {
+          if(foldOf(example, folds) != fold) {
+            kept.add(example);
+          }
+        }
+        // seeded so every configuration with the same cap trains on the same sample
+        return maxPerExpansion > 0 ? ExampleCompactor.compact(kept, maxPerExpansion, new Random(id)) : kept;
+      });
+    }
+
+    @Override
+    public float getExpansionBaseProbability(int abbr_id, int expansion_id) {
+      long total = 0;
+      long weight = 0;
+      for(Example example : training(abbr_id)) {
+        total += example.getWeight();
+        weight += example.getExpansionId() == expansion_id ? example.getWeight() : 0;
+      }
+
+      return total == 0 ? 0 : (float) weight / total;
+    }
+
+    @Override
+    public float getExpansionKeywordScore(int abbr_id, int expansion_id, String keyword) {
+      return getExpansionKeywordScores(abbr_id, expansion_id, List.of(keyword))[0];
+    }
+
+    @Override
+    public float[] getExpansionKeywordScores(int abbr_id, int expansion_id, List<String> keywords) {
+      String[] patterns = new String[keywords.size()];
+      for(int i=0; i<patterns.length; i++) {
+        patterns[i] = "," + AbbreviationStatistics.normalize(keywords.get(i)) + ",";
+      }
+
+      long total = 0;
+      long[] weights = new long[patterns.length];
+      for(Example example : training(abbr_id)) {
+        if(example.getExpansionId() == expansion_id) {
+          String words = AbbreviationStatistics.normalize(example.getWords());
+          total += example.getWeight();
+          for(int i=0; i<patterns.length; i++) {
+            if(words.contains(patterns[i])) {
+              weights[i] += example.getWeight();
+            }
+          }
+        }
+      }
+
+      float[] scores = new float[patterns.length];
+      for(int i=0; i<scores.length && total > 0; i++) {
+        scores[i] = (float) weights[i] / total;
+      }
+
+      return scores;
+    }
+
+    @Override
+    public Example insertExample(Abbreviation abbr, String expansion) throws SQLException {
+      throw new SQLFeatureNotSupportedException("Examples cannot be added during an evaluation.");
+    }
+  }
+
+  private final Storage db;
+  private final int folds;
+  private final ArrayList<Configuration> configurations = new ArrayList<>();
+
+  /**
+   *
+   * @param db    The storage holding the examples to evaluate with. Nothing is written to it.
+   * @param folds How many folds to split the examples into, at least 2
+   */
+  public Evaluation(Storage db, int folds) {
+    if(folds < 2) {
+      throw new IllegalArgumentException("folds must be at least 2.");
+    }
+    this.db = db;
+    this.folds = folds;
+  }
+
+  /**
+   * Adds a configuration to evaluate.
+   * @param name  The name to report the results under
+   * @param setup Sets up the Atea of each fold, such as with atea -> atea.setScorer(...)
+   */
+  public void add(String name, Setup setup) {
+    add(name, 0, setup);
+  }
+
+  /**
+   * Adds a configuration which trains on examples compacted the way compactExamples does, to see
+   * what keeping fewer examples costs.
+   * @param name            The name to report the results under
+   * @param maxPerExpansion The most examples to keep for each expansion, or 0 to keep them all
+   * @param setup           Sets up the Atea of each fold
+   */
+  public void add(String name, int maxPerExpansion, Setup setup) {
+    configurations.add(new Configuration(name, maxPerExpansion, setup));
+  }
+
+  /**
+   * Evaluates every configuration over every fold.
+   * @param parallelism How many folds to run at once
+   * @return            The results of each configuration, in the order they were added
+   * @throws SQLException
+   */
+  public ArrayList<Result> run(int parallelism) throws SQLException {
+    HashMap<Integer, ArrayList<Example>> examples = new HashMap<>();
+    db.forEachExample(example -> examples.computeIfAbsent(example.getAbbreviationId(), k -> new ArrayList<>()).add(example));
+    HashMap<Integer, String> values = new HashMap<>();
+    for(Map.Entry<String, Integer> abbr : db.getAbbreviations().entrySet()) {
+      values.putIfAbsent(abbr.getValue(), abbr.getKey());
+    }
+
+    ArrayList<Result> results = new ArrayList<>();
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try {
+      ArrayList<Future<?>> tasks = new ArrayList<>();
+      for(Configuration configuration : configurations) {
+        Result result = new Result(configuration.name);
+        results.add(result);
+        for(int fold=0; fold<folds; fold++) {
+          FoldStorage storage = new FoldStorage(db, examples, fold, folds, configuration.maxPerExpansion);
+          int heldOut = fold;
+          tasks.add(executor.submit(() -> {
+            result.addAll(evaluate(configuration, storage, examples, values, heldOut));
+            return null;
+          }));
+        }
+      }
+
+      for(Future<?> task : tasks) {
+        task.get();
+      }
+    }
+    catch(InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while evaluating.", ex);
+    }
+    catch(ExecutionException ex) {
+      if(ex.getCause() instanceof SQLException) {
+        throw (SQLException) ex.getCause();
+      }
+      throw new SQLException("Could not evaluate.", ex.getCause());
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    return results;
+  }
+
+  /**
+   * Predicts the examples of one fold with one configuration.
+   */
+  private Result evaluate(Configuration configuration, FoldStorage storage, Map<Integer, ArrayList<Example>> examples,
+                          Map<Integer, String> values, int fold) throws SQLException {
+    Atea atea = new Atea(storage);
+    configuration.setup.apply(atea);
+    Result result = new Result(configuration.name);
+
+    for(Map.Entry<Integer, ArrayList<Example>> abbr : examples.entrySet()) {
+      String value = values.get(abbr.getKey());
+      for(Example example : abbr.getValue()) {
+        if(foldOf(example, folds) != fold) {
+          continue;
+        }
+
+        Abbreviation abbreviation = value == null ? null : abbreviation(example, value, atea.getTokenizer());
+        if(abbreviation == null) {
+          result.skipped += example.getWeight();
+          continue;
+        }
+
+        long start = System.nanoTime();
+        ArrayList<Expansion> expansions = atea.predictExpansions(abbreviation);
+        result.nanos += System.nanoTime() - start;
+
+        int rank = -1;
+        for(int i=0; i<expansions.size() && rank == -1; i++) {
+          if(expansions.get(i).getId() == example.getExpansionId()) {
+            rank = i;
+          }
+        }
+        result.add(example.getWeight(), rank, expansions.isEmpty() ? 0 : expansions.get(0).getConfidence());
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Rebuilds the text of an example with its abbreviation at its first use.
+   * @return  The abbreviation, or null if none of the words of the example is the abbreviation
+   */
+  private static Abbreviation abbreviation(Example example, String value, Tokenizer tokenizer) {
+    ArrayList<String> words = new ArrayList<>();
+    for(String word : example.getWords().split(",")) {
+      if(!word.isEmpty()) {
+        words.add(word);
+      }
+    }
+
+    SplitString text = new SplitString(String.join(" ", words), tokenizer);
+    String normalized = AbbreviationStatistics.normalize(value);
+    String[] split = text.getWords();
+    for(int i=0; i<split.length; i++) {
+      if(AbbreviationStatistics.normalize(split[i]).equals(normalized)) {
+        return new Abbreviation(example.getAbbreviationId(), split[i], text, i);
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Assigns an example to a fold by a hash of its id, so it is in the same fold every run.
+   */
+  static int foldOf(Example example, int folds) {
+    return Math.floorMod(example.getId() * 0x9E3779B9, folds);
+  }
+
+  /**
+   * Lays out results side by side.
+   * @param results The results of run
+   * @return        A table with one line per configuration
+   */
+  public static String format(List<Result> results) {
+    int width = "configuration".length();
+    for(Result result : results) {
+      width = Math.max(width, result.getName().length());
+    }
+
+    StringBuilder table = new StringBuilder(String.format(Locale.ROOT, "%-" + width + "s  %8s  %8s  %11s  %13s%n",
+            "configuration", "top-1", "top-3", "calibration", "predictions/s"));
+    for(Result result : results) {
+      table.append(String.format(Locale.ROOT, "%-" + width + "s  %7.1f%%  %7.1f%%  %11.3f  %13.0f%n",
+              result.getName(), result.getTop1Accuracy() * 100, result.getTop3Accuracy() * 100,
+              result.getCalibrationError(), result.getPredictionsPerSecond()));
+    }
+
+    return table.toString();
+  }
+}
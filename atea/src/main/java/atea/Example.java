@@ -0,0 +1,49 @@
+package atea;
+
+/**
+ * An example of an abbreviation being used, as stored in the database.
+ */
+public final class Example {
+  private final int id;
+  private final int abbreviationId;
+  private final int expansionId;
+  private final String words;
+  private final int weight;
+
+  /**
+   *
+   * @param id              The id of the example in the database
+   * @param abbreviationId  The id of the abbreviation used
+   * @param expansionId     The id of the expansion the abbreviation stood for
+   * @param words           The words of the text the abbreviation was used in, in CSV format
+   */
+  public Example(int id, int abbreviationId, int expansionId, String words) {
+    this(id, abbreviationId, expansionId, words, 1);
+  }
+
+  /**
+   *
+   * @param id              The id of the example in the database
+   * @param abbreviationId  The id of the abbreviation used
+   * @param expansionId     The id of the expansion the abbreviation stood for
+   * @param words           The words of the text the abbreviation was used in, in CSV format
+   * @param weight          How many examples this one stands for, after duplicates were merged
+   */
+  public Example(int id, int abbreviationId, int expansionId, String words, int weight) {
+    this.id = id;
+    this.abbreviationId = abbreviationId;
+    this.expansionId = expansionId;
+    this.words = words;
+    this.weight = weight;
+  }
+
+  public int getId() { return id; }
+
+  public int getAbbreviationId() { return abbreviationId; }
+
+  public int getExpansionId() { return expansionId; }
+
+  public String getWords() { return words; }
+
+  public int getWeight() { return weight; }
+}
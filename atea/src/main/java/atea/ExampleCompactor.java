@@ -0,0 +1,122 @@
+package atea;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Works out how to compact the examples of one abbreviation. Storages apply the result.
+ *
+ * Examples with the same expansion and words are merged into the one with the lowest id, whose weight
+ * becomes the sum of theirs. An expansion left with more than a set number of examples keeps a
+ * weighted random sample of them, chosen by reservoir sampling so each example is kept with a chance
+ * in proportion to its weight. The weights of the kept examples are then scaled up so they add up to
+ * the weight of all the examples of the expansion. Base probabilities are unchanged by compacting and
+ * keyword scores are estimated from the sample.
+ */
+final class ExampleCompactor {
+
+    /**
+     * An example and the key it was given by the reservoir.
+     */
+    private static final class Candidate {
+        final Example example;
+        final double key;
+
+        Candidate(Example example, double key) {
+            this.example = example;
+            this.key = key;
+        }
+    }
+
+    private ExampleCompactor() {}
+
+    /**
+     * Compacts the examples of an abbreviation.
+     * @param examples          The examples of one abbreviation
+     * @param maxPerExpansion   The most examples to keep for each expansion
+     * @param random            The source of randomness for sampling
+     * @return                  The examples to keep, ordered by id, with their new weights. Examples
+     *                          not returned are to be removed.
+     */
+    static ArrayList<Example> compact(List<Example> examples, int maxPerExpansion, Random random) {
+        if(maxPerExpansion < 1) {
+            throw new IllegalArgumentException("maxPerExpansion must be at least 1.");
+        }
+
+        // merge duplicates into the example with the lowest id
+        HashMap<Integer, LinkedHashMap<String, Example>> byExpansion = new HashMap<>();
+        ArrayList<Example> sorted = new ArrayList<>(examples);
+        sorted.sort(Comparator.comparingInt(Example::getId));
+        for(Example example : sorted) {
+            byExpansion.computeIfAbsent(example.getExpansionId(), k -> new LinkedHashMap<>())
+                    .merge(example.getWords(), example, (kept, duplicate) -> new Example(kept.getId(),
+                            kept.getAbbreviationId(), kept.getExpansionId(), kept.getWords(),
+                            kept.getWeight() + duplicate.getWeight()));
+        }
+
+        ArrayList<Example> kept = new ArrayList<>();
+        for(Map<String, Example> merged : byExpansion.values()) {
+            if(merged.size() <= maxPerExpansion) {
+                kept.addAll(merged.values());
+            } else {
+                kept.addAll(sample(merged.values(), maxPerExpansion, random));
+            }
+        }
+
+        kept.sort(Comparator.comparingInt(Example::getId));
+        return kept;
+    }
+
+    /**
+     * Keeps a weighted sample of the examples of one expansion and scales their weights so the total
+     * weight is unchanged.
+     */
+    private static ArrayList<Example> sample(Iterable<Example> examples, int size, Random random) {
+        // Efraimidis and Spirakis: keep the examples with the largest random^(1/weight)
+        PriorityQueue<Candidate> reservoir = new PriorityQueue<>(Comparator.comparingDouble(c -> c.key));
+        long total = 0;
+        for(Example example : examples) {
+            total += example.getWeight();
+            double key = Math.pow(random.nextDouble(), 1.0 / Math.max(example.getWeight(), 1));
+            if(reservoir.size() < size) {
+                reservoir.add(new Candidate(example, key));
+            } else if(key > reservoir.peek().key) {
+                reservoir.poll();
+                reservoir.add(new Candidate(example, key));
+            }
+        }
+
+        long keptTotal = 0;
+        for(Candidate candidate : reservoir) {
+            keptTotal += candidate.example.getWeight();
+        }
+
+        ArrayList<Example> sample = new ArrayList<>();
+        long assigned = 0;
+        int heaviest = 0;
+        for(Candidate candidate : reservoir) {
+            Example example = candidate.example;
+            int weight = (int) Math.max(1, Math.round((double) example.getWeight() * total / keptTotal));
+            assigned += weight;
+            if(sample.isEmpty() || weight > sample.get(heaviest).getWeight()) {
+                heaviest = sample.size();
+            }
+            sample.add(new Example(example.getId(), example.getAbbreviationId(), example.getExpansionId(),
+                    example.getWords(), weight));
+        }
+
+        // rounding leaves the total a little off, the heaviest example makes up the difference
+        Example fix = sample.get(heaviest);
+        int weight = (int) Math.max(1, fix.getWeight() + total - assigned);
+        sample.set(heaviest, new Example(fix.getId(), fix.getAbbreviationId(), fix.getExpansionId(),
+                fix.getWords(), weight));
+
+        return sample;
+    }
+}
@@ -0,0 +1,263 @@
+package atea;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A hash table of counts keyed by (abbreviation id, expansion id, word), kept outside the Java heap
+ * so that the keyword counts of a large model neither fill the heap nor lengthen GC pauses.
+ *
+ * The table uses open addressing with linear probing over fixed width entries of 24 bytes: the
+ * abbreviation id, the expansion id, the 64 bit hash of the word and the count. Words are only kept
+ * as their hash, so two words of an abbreviation with the same hash would share their counts, which
+ * with 63 bits of hash is not expected to happen. An entry with a count of 0 is empty.
+ *
+ * The entries are split into segments of at most 2^26 entries, since a ByteBuffer holds at most 2 GB.
+ * A table is built in direct buffers, then written to a file which is later mapped read only, so
+ * loading a table reads nothing up front and the operating system pages it in as it is used. Reads
+ * never allocate and may run on any number of threads. Building a table is not thread safe.
+ */
+final class KeywordTable {
+  static final int ENTRY_BYTES = 24;
+  private static final int DEFAULT_SEGMENT_SHIFT = 26;
+  private static final int HEADER_BYTES = 32;
+  // "ATEAKWT1" as the first 8 bytes of the file, read as a little-endian long
+  private static final long MAGIC = 0x3154574B41455441L;
+  private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+  private static final long FNV_PRIME = 0x100000001B3L;
+
+  private final int segmentShift;
+  private final boolean readOnly;
+  private ByteBuffer[] segments;
+  private long capacity;
+  private long size;
+
+  /**
+   * Creates an empty table in direct buffers, which grows as entries are put.
+   * @param expected  How many entries the table is expected to hold
+   */
+  KeywordTable(long expected) {
+    this(expected, DEFAULT_SEGMENT_SHIFT);
+  }
+
+  /**
+   *
+   * @param expected      How many entries the table is expected to hold
+   * @param segmentShift  The log2 of the most entries in a segment
+   */
+  KeywordTable(long expected, int segmentShift) {
+    this.segmentShift = segmentShift;
+    this.readOnly = false;
+    this.capacity = capacityFor(expected);
+    this.segments = allocate(capacity, segmentShift);
+  }
+
+  private KeywordTable(ByteBuffer[] segments, long capacity, long size, int segmentShift) {
+    this.segmentShift = segmentShift;
+    this.readOnly = true;
+    this.segments = segments;
+    this.capacity = capacity;
+    this.size = size;
+  }
+
+  /**
+   * Gets the smallest power of 2 which holds the expected entries at most 70% full.
+   */
+  private static long capacityFor(long expected) {
+    long needed = Math.max(16, expected * 10 / 7 + 1);
+    return Long.highestOneBit(needed - 1) << 1;
+  }
+
+  private static ByteBuffer[] allocate(long capacity, int segmentShift) {
+    long segmentEntries = Math.min(capacity, 1L << segmentShift);
+    ByteBuffer[] segments = new ByteBuffer[(int) (capacity / segmentEntries)];
+    for(int i=0; i<segments.length; i++) {
+      segments[i] = ByteBuffer.allocateDirect((int) (segmentEntries * ENTRY_BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    return segments;
+  }
+
+  /**
+   * Hashes a word for use as a key. The top bit of the hash is always set, so keys without it are
+   * free for counts which are not about a word.
+   * @param word  A normalized word
+   * @return      The hash of the word
+   */
+  static long hash(String word) {
+    long hash = FNV_OFFSET;
+    for(int i=0; i<word.length(); i++) {
+      hash = (hash ^ word.charAt(i)) * FNV_PRIME;
+    }
+    hash ^= hash >>> 31;
+
+    return hash | Long.MIN_VALUE;
+  }
+
+  private long slotOf(int abbr_id, int expansion_id, long word) {
+    long hash = (word ^ ((long) abbr_id << 32 | (expansion_id & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L);
+    hash = (hash ^ (hash >>> 29)) * 0xBF58476D1CE4E5B9L;
+    hash ^= hash >>> 32;
+
+    return hash & (capacity - 1);
+  }
+
+  private ByteBuffer segmentOf(long slot) {
+    return segments[(int) (slot >>> segmentShift)];
+  }
+
+  private int offsetOf(long slot) {
+    return (int) (slot & ((1L << segmentShift) - 1)) * ENTRY_BYTES;
+  }
+
+  /**
+   * Gets a count.
+   * @param abbr_id       The abbreviation id
+   * @param expansion_id  The expansion id
+   * @param word          The hash of a word, or a key without the top bit set
+   * @return              The count, or 0 if it was never put
+   */
+  long get(int abbr_id, int expansion_id, long word) {
+    for(long slot = slotOf(abbr_id, expansion_id, word); ; slot = (slot + 1) & (capacity - 1)) {
+      ByteBuffer segment = segmentOf(slot);
+      int offset = offsetOf(slot);
+      long count = segment.getLong(offset + 16);
+      if(count == 0) {
+        return 0;
+      }
+      if(segment.getLong(offset + 8) == word && segment.getInt(offset) == abbr_id
+              && segment.getInt(offset + 4) == expansion_id) {
+        return count;
+      }
+    }
+  }
+
+  /**
+   * Sets a count, growing the table if it gets too full. A count of 0 is not stored, since it is what
+   * get returns for a key which was never put.
+   * @param abbr_id       The abbreviation id
+   * @param expansion_id  The expansion id
+   * @param word          The hash of a word, or a key without the top bit set
+   * @param count         The count
+   */
+  void put(int abbr_id, int expansion_id, long word, long count) {
+    if(readOnly) {
+      throw new IllegalStateException("A keyword table loaded from a file cannot be changed.");
+    }
+    if(count == 0) {
+      return;
+    }
+    if((size + 1) * 10 > capacity * 7) {
+      grow();
+    }
+
+    for(long slot = slotOf(abbr_id, expansion_id, word); ; slot = (slot + 1) & (capacity - 1)) {
+      ByteBuffer segment = segmentOf(slot);
+      int offset = offsetOf(slot);
+      if(segment.getLong(offset + 16) == 0) {
+        segment.putInt(offset, abbr_id);
+        segment.putInt(offset + 4, expansion_id);
+        segment.putLong(offset + 8, word);
+        segment.putLong(offset + 16, count);
+        size++;
+        return;
+      }
+      if(segment.getLong(offset + 8) == word && segment.getInt(offset) == abbr_id
+              && segment.getInt(offset + 4) == expansion_id) {
+        segment.putLong(offset + 16, count);
+        return;
+      }
+    }
+  }
+
+  private void grow() {
+    ByteBuffer[] old = segments;
+    long oldSegmentEntries = Math.min(capacity, 1L << segmentShift);
+    capacity *= 2;
+    segments = allocate(capacity, segmentShift);
+    size = 0;
+
+    for(ByteBuffer segment : old) {
+      for(long entry=0; entry<oldSegmentEntries; entry++) {
+        int offset = (int) entry * ENTRY_BYTES;
+        long count = segment.getLong(offset + 16);
+        if(count != 0) {
+          put(segment.getInt(offset), segment.getInt(offset + 4), segment.getLong(offset + 8), count);
+        }
+      }
+    }
+  }
+
+  long size() { return size; }
+
+  long capacity() { return capacity; }
+
+  /**
+   * Writes the table to a file. The file is written beside the target and moved over it once
+   * complete, so a reader never maps a partly written table.
+   * @param file  The file to write
+   * @throws IOException
+   */
+  void write(Path file) throws IOException {
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      // the rest of the header is left as zeros for later use
+      header.putLong(MAGIC).putLong(capacity).putLong(size).rewind();
+      while(header.hasRemaining()) {
+        channel.write(header);
+      }
+      for(ByteBuffer segment : segments) {
+        ByteBuffer entries = segment.duplicate().clear();
+        while(entries.hasRemaining()) {
+          channel.write(entries);
+        }
+      }
+      channel.force(true);
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Maps a table written by write. The table cannot be changed.
+   * @param file  The file to map
+   * @return      The table
+   * @throws IOException  If the file cannot be read or is not a keyword table
+   */
+  static KeywordTable open(Path file) throws IOException {
+    return open(file, DEFAULT_SEGMENT_SHIFT);
+  }
+
+  static KeywordTable open(Path file, int segmentShift) throws IOException {
+    try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      while(header.hasRemaining() && channel.read(header) != -1) { }
+      header.flip();
+      if(header.remaining() < HEADER_BYTES || header.getLong() != MAGIC) {
+        throw new IOException(file + " is not a keyword table.");
+      }
+      long capacity = header.getLong();
+      long size = header.getLong();
+      if(Long.bitCount(capacity) != 1 || channel.size() != HEADER_BYTES + capacity * ENTRY_BYTES) {
+        throw new IOException(file + " is not a complete keyword table.");
+      }
+
+      // the mappings stay valid once the channel is closed
+      long segmentBytes = Math.min(capacity, 1L << segmentShift) * ENTRY_BYTES;
+      ByteBuffer[] segments = new ByteBuffer[(int) (capacity * ENTRY_BYTES / segmentBytes)];
+      for(int i=0; i<segments.length; i++) {
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + i * segmentBytes, segmentBytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+      }
+
+      return new KeywordTable(segments, capacity, size, segmentShift);
+    }
+  }
+}
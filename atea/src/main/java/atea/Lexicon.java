@@ -0,0 +1,172 @@
+package atea;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the abbreviations known to ATEA. Adding an abbreviation creates a new
+ * snapshot, so a Lexicon can be read by any number of threads without locking. Most words looked up
+ * are not abbreviations, so a BloomFilter rejects them before they are lowercased and hashed again.
+ *
+ * A word which is not an abbreviation as written is folded, dropping its case and every character
+ * which is not a letter or digit, and looked up again, so "TL;DR", "Tl-dr" and "tldr" are the same
+ * abbreviation. Lookups may also allow a few edits, which are searched for in a Trie of the folded
+ * abbreviations built the first time it is needed.
+ */
+final class Lexicon {
+  // shorter words are too likely to be a different word a single edit away
+  static final int MIN_FUZZY_LENGTH = 4;
+
+  private final HashMap<String, Integer> ids;
+  private final BloomFilter filter;
+  private final HashMap<String, Integer> folded;
+  private final BloomFilter foldedFilter;
+  private volatile Trie trie;
+
+  private Lexicon(HashMap<String, Integer> ids, BloomFilter filter) {
+    this.ids = ids;
+    this.filter = filter;
+    this.folded = new HashMap<>(ids.size() * 2);
+    for(Map.Entry<String, Integer> entry : ids.entrySet()) {
+      String key = fold(entry.getKey());
+      if(!key.isEmpty()) {
+        // of abbreviations which fold the same, the one with the lowest id wins
+        folded.merge(key, entry.getValue(), Math::min);
+      }
+    }
+    this.foldedFilter = BloomFilter.of(folded.keySet());
+  }
+
+  /**
+   * Folds a word for loose matching.
+   * @param word  The word to fold
+   * @return      The word lowercased, with only its letters and digits
+   */
+  static String fold(String word) {
+    StringBuilder key = new StringBuilder(word.length());
+    String lower = AbbreviationStatistics.normalize(word);
+    for(int i=0; i<lower.length(); ) {
+      int cp = lower.codePointAt(i);
+      if(Character.isLetterOrDigit(cp)) {
+        key.appendCodePoint(cp);
+      }
+      i += Character.charCount(cp);
+    }
+
+    return key.toString();
+  }
+
+  /**
+   * Creates a Lexicon from the abbreviations in the database.
+   * @param abbreviations A map of abbreviations to their ids in the database
+   * @return              The Lexicon
+   */
+  static Lexicon fromAbbreviations(Map<String, Integer> abbreviations) {
+    HashMap<String, Integer> ids = new HashMap<>(abbreviations.size() * 2);
+    for(Map.Entry<String, Integer> entry : abbreviations.entrySet()) {
+      ids.put(AbbreviationStatistics.normalize(entry.getKey()), entry.getValue());
+    }
+
+    return new Lexicon(ids, BloomFilter.of(ids.keySet()));
+  }
+
+  /**
+   * Gets the id of an abbreviation. Lookups are case insensitive.
+   * @param chars The characters of the abbreviation
+   * @return      The id of the abbreviation, or -1 if it is not known
+   */
+  int getId(String chars) {
+    return getId(chars, 0);
+  }
+
+  /**
+   * Gets the id of an abbreviation, also matching its folded form and, for words of at least
+   * MIN_FUZZY_LENGTH characters, abbreviations a few edits away.
+   * @param chars     The characters of the abbreviation
+   * @param maxEdits  The most characters which may be inserted, deleted or replaced. 0 only matches
+   *                  the word as written or folded.
+   * @return          The id of the abbreviation, or -1 if it is not known
+   */
+  int getId(String chars, int maxEdits) {
+    if(filter.mightContain(chars)) {
+      Integer id = ids.get(AbbreviationStatistics.normalize(chars));
+      if(id != null) {
+        return id;
+      }
+    }
+
+    // a word of ASCII letters and digits folds to itself lowercased, which is what the filter hashes
+    String key = null;
+    if(!isFolded(chars) || foldedFilter.mightContain(chars)) {
+      key = fold(chars);
+      Integer id = folded.get(key);
+      if(id != null) {
+        return id;
+      }
+    }
+
+    if(maxEdits == 0) {
+      return -1;
+    }
+    if(key == null) {
+      key = fold(chars);
+    }
+    if(key.length() < MIN_FUZZY_LENGTH) {
+      return -1;
+    }
+
+    Trie trie = this.trie;
+    if(trie == null) {
+      // built by whichever reader needs it first, every reader builds the same trie
+      trie = Trie.of(folded);
+      this.trie = trie;
+    }
+
+    return trie.find(key, maxEdits);
+  }
+
+  /**
+   * Determines, without allocating, if a word is made of ASCII letters and digits only.
+   */
+  private static boolean isFolded(String word) {
+    for(int i=0; i<word.length(); i++) {
+      char c = word.charAt(i);
+      if(!(c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c >= 'A' && c <= 'Z')) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  int size() { return ids.size(); }
+
+  /**
+   * Creates a copy of this Lexicon which also contains an abbreviation.
+   * @param chars The characters of the abbreviation
+   * @param id    The id of the abbreviation in the database
+   * @return      The new Lexicon, or this object if it already contains the abbreviation
+   */
+  Lexicon with(String chars, int id) {
+    String key = AbbreviationStatistics.normalize(chars);
+    Integer existing = ids.get(key);
+    if(existing != null && existing == id) {
+      return this;
+    }
+
+    HashMap<String, Integer> copy = new HashMap<>(ids);
+    copy.put(key, id);
+    if(existing != null) {
+      return new Lexicon(copy, filter);
+    }
+
+    // the filter is rebuilt with room to spare once full, so its false positives stay rare
+    if(!filter.hasRoom()) {
+      return new Lexicon(copy, BloomFilter.of(copy.keySet()));
+    }
+    BloomFilter extended = filter.copy();
+    extended.add(key);
+
+    return new Lexicon(copy, extended);
+  }
+}
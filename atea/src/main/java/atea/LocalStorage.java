@@ -0,0 +1,797 @@
+package atea;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Storage in files on the local disk, for running ATEA without a database server.
+ *
+ * Everything is kept in a single append-only log. Each line of the log is one record: a common
+ * word, an abbreviation, an expansion, a link between the two, or an example. Opening the storage
+ * reads the log once and builds an in-memory index. The words of each example stay on disk and are
+ * read from their recorded position when they are needed. A record left half written by a crash is
+ * cut off the end of the log when it is next opened, so the log always holds whole records, but a
+ * crash may keep only the first records of a write. Writes are left to the operating system to flush
+ * unless setSyncWrites is turned on.
+ *
+ * Compacting the examples writes a new log holding only what is left and moves it over the old one,
+ * so a crash while compacting leaves the old log as it was.
+ */
+public final class LocalStorage implements Storage {
+    static final String LOG_FILE = "atea.log";
+    private static final String COMPACT_FILE = "atea.log.compact";
+    private static final int COPY_BATCH_RECORDS = 10000;
+
+    private static final char COMMON_WORD = 'W';
+    private static final char ABBREVIATION = 'A';
+    private static final char EXPANSION = 'E';
+    private static final char LINK = 'L';
+    private static final char EXAMPLE = 'X';
+
+    /**
+     * The position of an example in the log.
+     */
+    private static final class ExampleEntry {
+        final int id;
+        final int expansionId;
+        final int weight;
+        final long offset;
+        final int length;
+
+        ExampleEntry(int id, int expansionId, int weight, long offset, int length) {
+            this.id = id;
+            this.expansionId = expansionId;
+            this.weight = weight;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final Path directory;
+    // replaced when the examples are compacted, guarded by lock
+    private FileChannel log;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // the index, guarded by lock
+    private final ArrayList<String> commonWords = new ArrayList<>();
+    private final HashMap<String, Integer> abbreviationIds = new HashMap<>();
+    private final HashMap<String, Integer> abbreviations = new HashMap<>();
+    private final HashMap<String, Integer> expansionIds = new HashMap<>();
+    private final HashMap<Integer, String> expansions = new HashMap<>();
+    private final HashMap<Integer, ArrayList<Integer>> links = new HashMap<>();
+    private final HashMap<Integer, ArrayList<ExampleEntry>> examples = new HashMap<>();
+    private int nextAbbreviationId = 1;
+    private int nextExpansionId = 1;
+    private int nextExampleId = 1;
+    private long size;
+    private volatile boolean syncWrites;
+
+    private LocalStorage(Path directory, FileChannel log) {
+        this.directory = directory;
+        this.log = log;
+    }
+
+    /**
+     * Opens the storage in a directory, creating it if it does not exist.
+     * @param directory The directory holding the log
+     * @return          The opened LocalStorage
+     * @throws SQLException if the log cannot be read
+     */
+    public static LocalStorage open(Path directory) throws SQLException {
+        try {
+            Files.createDirectories(directory);
+            FileChannel log = FileChannel.open(directory.resolve(LOG_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            LocalStorage storage = new LocalStorage(directory, log);
+            try {
+                storage.load();
+            }
+            catch(IOException ex) {
+                log.close();
+                throw ex;
+            }
+
+            return storage;
+        }
+        catch(IOException ex) {
+            throw new SQLException("Could not open " + directory.resolve(LOG_FILE) + ".", ex);
+        }
+    }
+
+    /**
+     * Copies everything in another Storage into a new LocalStorage. Ids are kept, so abbreviations and
+     * expansions have the same ids in both. The examples are streamed from the source and written
+     * COPY_BATCH_RECORDS at a time, so a large source is never all in memory at once.
+     * @param source    The Storage to copy, such as a Database
+     * @param directory The directory to create the LocalStorage in. It must not already hold one.
+     * @return          The LocalStorage holding the copy
+     * @throws SQLException
+     */
+    public static LocalStorage copyOf(Storage source, Path directory) throws SQLException {
+        LocalStorage storage = open(directory);
+        if(storage.size > 0) {
+            storage.close();
+            throw new SQLException(directory.resolve(LOG_FILE) + " already exists.");
+        }
+
+        try {
+            ArrayList<String> records = new ArrayList<>();
+            for(String word : source.getCommonWords()) {
+                records.add(record(COMMON_WORD, word));
+            }
+
+            HashSet<Integer> copiedAbbreviations = new HashSet<>();
+            HashSet<Integer> copiedExpansions = new HashSet<>();
+            for(Map.Entry<String, Integer> abbr : source.getAbbreviations().entrySet()) {
+                int abbr_id = abbr.getValue();
+                copiedAbbreviations.add(abbr_id);
+                records.add(record(ABBREVIATION, Integer.toString(abbr_id), abbr.getKey()));
+
+                for(Expansion expansion : source.getExpansions(abbr_id)) {
+                    if(copiedExpansions.add(expansion.getId())) {
+                        records.add(record(EXPANSION, Integer.toString(expansion.getId()), expansion.getValue()));
+                    }
+                    records.add(record(LINK, Integer.toString(abbr_id), Integer.toString(expansion.getId())));
+                }
+            }
+            storage.appendLocked(records);
+            records.clear();
+
+            SQLException[] failure = {null};
+            source.forEachExample(example -> {
+                if(failure[0] != null || !copiedAbbreviations.contains(example.getAbbreviationId())) {
+                    return;
+                }
+                if(copiedExpansions.add(example.getExpansionId())) {
+                    records.add(record(EXPANSION, Integer.toString(example.getExpansionId()), ""));
+                }
+                records.add(record(EXAMPLE, Integer.toString(example.getId()),
+                        Integer.toString(example.getAbbreviationId()), Integer.toString(example.getExpansionId()),
+                        "-1", example.getWords(), Integer.toString(example.getWeight())));
+
+                if(records.size() >= COPY_BATCH_RECORDS) {
+                    try {
+                        storage.appendLocked(records);
+                    }
+                    catch(SQLException ex) {
+                        failure[0] = ex;
+                    }
+                    records.clear();
+                }
+            });
+            if(failure[0] != null) {
+                throw failure[0];
+            }
+            storage.appendLocked(records);
+        }
+        catch(SQLException ex) {
+            storage.close();
+            throw ex;
+        }
+
+        return storage;
+    }
+
+    /**
+     * Appends records, taking the write lock.
+     */
+    private void appendLocked(ArrayList<String> records) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            append(records);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets whether each write is forced to the disk before it returns, so an example is not lost if
+     * the machine crashes once it has been added. Off by default, since forcing every example makes
+     * adding them far slower.
+     * @param syncWrites    True to force each write to the disk
+     */
+    public void setSyncWrites(boolean syncWrites) { this.syncWrites = syncWrites; }
+
+    public boolean getSyncWrites() { return syncWrites; }
+
+    /**
+     * Adds words which are too common to be keywords.
+     * @param words The common words
+     * @throws SQLException if the log cannot be written
+     */
+    public void addCommonWords(String... words) throws SQLException {
+        ArrayList<String> records = new ArrayList<>();
+        for(String word : words) {
+            records.add(record(COMMON_WORD, word));
+        }
+
+        appendLocked(records);
+    }
+
+    /**
+     * Reads the log and builds the index. A partial record at the end of the log is removed.
+     */
+    private void load() throws IOException {
+        long offset = 0;
+        long complete = 0;
+        InputStream in = new BufferedInputStream(Channels.newInputStream(log.position(0)));
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while((b = in.read()) != -1) {
+            offset++;
+            if(b == '\n') {
+                byte[] bytes = line.toByteArray();
+                apply(new String(bytes, StandardCharsets.UTF_8), complete, bytes.length);
+                complete = offset;
+                line.reset();
+            } else {
+                line.write(b);
+            }
+        }
+
+        if(complete < offset) {
+            log.truncate(complete);
+        }
+        size = complete;
+    }
+
+    /**
+     * Writes records to the end of the log and adds them to the index. Must be called with the write
+     * lock held.
+     * @param records   The records, without line endings
+     */
+    private void append(ArrayList<String> records) throws SQLException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long[] offsets = new long[records.size()];
+        int[] lengths = new int[records.size()];
+        for(int i=0; i<records.size(); i++) {
+            byte[] bytes = records.get(i).getBytes(StandardCharsets.UTF_8);
+            offsets[i] = size + out.size();
+            lengths[i] = bytes.length;
+            out.write(bytes, 0, bytes.length);
+            out.write('\n');
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+            long position = size;
+            while(buffer.hasRemaining()) {
+                position += log.write(buffer, position);
+            }
+            if(syncWrites) {
+                log.force(false);
+            }
+        }
+        catch(IOException ex) {
+            throw new SQLException("Could not write to the log.", ex);
+        }
+
+        size += out.size();
+        try {
+            for(int i=0; i<records.size(); i++) {
+                apply(records.get(i), offsets[i], lengths[i]);
+            }
+        }
+        catch(IOException ex) {
+            throw new SQLException("Could not index a record written to the log.", ex);
+        }
+    }
+
+    /**
+     * Adds a record to the index.
+     * @param record    The record, without its line ending
+     * @param offset    The position of the record in the log
+     * @param length    The length of the record in bytes
+     * @throws IOException if the record is empty, of an unknown type or missing a field
+     */
+    private void apply(String record, long offset, int length) throws IOException {
+        if(record.isEmpty()) {
+            throw new IOException("Empty record in the log at " + offset + ".");
+        }
+
+        try {
+            applyFields(record.charAt(0), fields(record), offset, length);
+        }
+        catch(NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            throw new IOException("Malformed record in the log at " + offset + ": " + record, ex);
+        }
+    }
+
+    private void applyFields(char type, String[] fields, long offset, int length) throws IOException {
+        switch(type) {
+            case COMMON_WORD:
+                commonWords.add(fields[1]);
+                break;
+            case ABBREVIATION: {
+                int id = Integer.parseInt(fields[1]);
+                abbreviationIds.put(AbbreviationStatistics.normalize(fields[2]), id);
+                abbreviations.put(fields[2], id);
+                nextAbbreviationId = Math.max(nextAbbreviationId, id + 1);
+                break;
+            }
+            case EXPANSION: {
+                int id = Integer.parseInt(fields[1]);
+                expansionIds.put(AbbreviationStatistics.normalize(fields[2]), id);
+                expansions.put(id, fields[2]);
+                nextExpansionId = Math.max(nextExpansionId, id + 1);
+                break;
+            }
+            case LINK: {
+                ArrayList<Integer> linked = links.computeIfAbsent(Integer.parseInt(fields[1]), k -> new ArrayList<>());
+                int expansion_id = Integer.parseInt(fields[2]);
+                if(!linked.contains(expansion_id)) {
+                    linked.add(expansion_id);
+                }
+                break;
+            }
+            case EXAMPLE: {
+                int id = Integer.parseInt(fields[1]);
+                // logs written before examples had weights have no weight field
+                int weight = fields.length > 6 ? Integer.parseInt(fields[6]) : 1;
+                examples.computeIfAbsent(Integer.parseInt(fields[2]), k -> new ArrayList<>())
+                        .add(new ExampleEntry(id, Integer.parseInt(fields[3]), weight, offset, length));
+                nextExampleId = Math.max(nextExampleId, id + 1);
+                break;
+            }
+            default:
+                throw new IOException("Unknown record in the log at " + offset + ": " + String.join("\t", fields));
+        }
+    }
+
+    /**
+     * Reads the words of an example from the log.
+     * @param entry The position of the example
+     * @return      The CSV formatted words
+     */
+    private String readWords(ExampleEntry entry) throws SQLException {
+        return readFields(entry)[5];
+    }
+
+    /**
+     * Reads the record of an example from the log. Must be called with the read lock held, so the log
+     * is not replaced while it is read.
+     * @param entry The position of the example
+     * @return      The fields of the record
+     */
+    private String[] readFields(ExampleEntry entry) throws SQLException {
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+        try {
+            long position = entry.offset;
+            while(buffer.hasRemaining()) {
+                int read = log.read(buffer, position);
+                if(read < 0) {
+                    throw new SQLException("The log ended inside example " + entry.id + ".");
+                }
+                position += read;
+            }
+        }
+        catch(IOException ex) {
+            throw new SQLException("Could not read example " + entry.id + ".", ex);
+        }
+
+        return fields(new String(buffer.array(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Joins fields into a record, escaping the characters used to separate fields and records.
+     */
+    private static String record(char type, String... values) {
+        StringBuilder record = new StringBuilder().append(type);
+        for(String value : values) {
+            record.append('\t');
+            for(int i=0; i<value.length(); i++) {
+                char c = value.charAt(i);
+                switch(c) {
+                    case '\\': record.append("\\\\"); break;
+                    case '\t': record.append("\\t"); break;
+                    case '\n': record.append("\\n"); break;
+                    case '\r': record.append("\\r"); break;
+                    default: record.append(c);
+                }
+            }
+        }
+
+        return record.toString();
+    }
+
+    /**
+     * Splits a record into its fields, undoing the escaping done by record().
+     */
+    private static String[] fields(String record) {
+        ArrayList<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for(int i=0; i<record.length(); i++) {
+            char c = record.charAt(i);
+            if(c == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if(c == '\\' && i + 1 < record.length()) {
+                char next = record.charAt(++i);
+                field.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+
+        return fields.toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getCommonWords() {
+        lock.readLock().lock();
+        try {
+            return commonWords.toArray(new String[0]);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public HashMap<String, Integer> getAbbreviations() {
+        lock.readLock().lock();
+        try {
+            return new HashMap<>(abbreviations);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int abbreviationExists(String chars) {
+        lock.readLock().lock();
+        try {
+            return abbreviationIds.getOrDefault(AbbreviationStatistics.normalize(chars), -1);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ArrayList<Expansion> getExpansions(int abbr_id) {
+        ArrayList<Expansion> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for(int expansion_id : links.getOrDefault(abbr_id, new ArrayList<>())) {
+                result.add(new Expansion(expansion_id, expansions.get(expansion_id)));
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        return result;
+    }
+
+    /**
+     * Counts the examples in the index, without reading their words.
+     */
+    @Override
+    public LinkedHashMap<String, Integer> getMostUsedAbbreviations(int limit) {
+        HashMap<String, Integer> counts = new HashMap<>();
+        HashSet<Integer> counted = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            for(Map.Entry<String, Integer> abbr : abbreviations.entrySet()) {
+                if(counted.add(abbr.getValue())) {
+                    counts.put(abbr.getKey(), weight(examples.getOrDefault(abbr.getValue(), new ArrayList<>())));
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        return Storage.mostUsed(counts, limit);
+    }
+
+    private static int weight(List<ExampleEntry> entries) {
+        int weight = 0;
+        for(ExampleEntry entry : entries) {
+            weight += entry.weight;
+        }
+
+        return weight;
+    }
+
+    /**
+     * Fingerprints the examples in the index, without reading their words.
+     */
+    @Override
+    public HashMap<Integer, Long> getExampleFingerprints() {
+        HashMap<Integer, Long> fingerprints = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for(Map.Entry<Integer, ArrayList<ExampleEntry>> abbr : examples.entrySet()) {
+                long hashes = 0;
+                for(ExampleEntry entry : abbr.getValue()) {
+                    hashes ^= Storage.fingerprint(entry.id, entry.expansionId, entry.weight);
+                }
+                if(!abbr.getValue().isEmpty()) {
+                    fingerprints.put(abbr.getKey(), Storage.fingerprint(abbr.getValue().size(), hashes));
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        return fingerprints;
+    }
+
+    /**
+     * Gets the positions of the examples of an abbreviation.
+     * @param abbr_id       The id of the abbreviation
+     * @param expansion_id  The id of the expansion to get examples of, or null for every expansion
+     */
+    private ArrayList<ExampleEntry> entries(int abbr_id, Integer expansion_id) {
+        ArrayList<ExampleEntry> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for(ExampleEntry entry : examples.getOrDefault(abbr_id, new ArrayList<>())) {
+                if(expansion_id == null || entry.expansionId == expansion_id) {
+                    result.add(entry);
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        return result;
+    }
+
+    @Override
+    public ArrayList<Example> getExamples(int abbr_id) throws SQLException {
+        ArrayList<Example> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for(ExampleEntry entry : entries(abbr_id, null)) {
+                result.add(new Example(entry.id, abbr_id, entry.expansionId, readWords(entry), entry.weight));
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        return result;
+    }
+
+    @Override
+    public float getExpansionBaseProbability(int abbr_id, int expansion_id) {
+        ArrayList<ExampleEntry> all = entries(abbr_id, null);
+        int total = weight(all);
+        if(total == 0) {
+            return 0;
+        }
+
+        int weight = 0;
+        for(ExampleEntry entry : all) {
+            if(entry.expansionId == expansion_id) {
+                weight += entry.weight;
+            }
+        }
+
+        return (float) weight / total;
+    }
+
+    @Override
+    public float getExpansionKeywordScore(int abbr_id, int expansion_id, String keyword) throws SQLException {
+        return getExpansionKeywordScores(abbr_id, expansion_id, List.of(keyword))[0];
+    }
+
+    /**
+     * Reads each example once, however many keywords there are.
+     */
+    @Override
+    public float[] getExpansionKeywordScores(int abbr_id, int expansion_id, List<String> keywords) throws SQLException {
+        float[] scores = new float[keywords.size()];
+        String[] patterns = new String[keywords.size()];
+        for(int i=0; i<patterns.length; i++) {
+            patterns[i] = "," + AbbreviationStatistics.normalize(keywords.get(i)) + ",";
+        }
+
+        int total = 0;
+        int[] weights = new int[keywords.size()];
+        lock.readLock().lock();
+        try {
+            for(ExampleEntry entry : entries(abbr_id, expansion_id)) {
+                String words = AbbreviationStatistics.normalize(readWords(entry));
+                total += entry.weight;
+                for(int i=0; i<patterns.length; i++) {
+                    if(words.contains(patterns[i])) {
+                        weights[i] += entry.weight;
+                    }
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        for(int i=0; i<scores.length && total > 0; i++) {
+            scores[i] = (float) weights[i] / total;
+        }
+
+        return scores;
+    }
+
+    @Override
+    public Example insertExample(Abbreviation abbr, String expansion) throws SQLException {
+        String words = abbr.getText().getWordsAsCSV();
+        lock.writeLock().lock();
+        try {
+            ArrayList<String> records = new ArrayList<>();
+
+            Integer abbr_id = abbreviationIds.get(AbbreviationStatistics.normalize(abbr.getValue()));
+            if(abbr_id == null) {
+                abbr_id = nextAbbreviationId;
+                records.add(record(ABBREVIATION, Integer.toString(abbr_id), abbr.getValue()));
+            }
+
+            Integer expansion_id = expansionIds.get(AbbreviationStatistics.normalize(expansion));
+            if(expansion_id == null) {
+                expansion_id = nextExpansionId;
+                records.add(record(EXPANSION, Integer.toString(expansion_id), expansion));
+            }
+
+            if(!links.getOrDefault(abbr_id, new ArrayList<>()).contains(expansion_id)) {
+                records.add(record(LINK, Integer.toString(abbr_id), Integer.toString(expansion_id)));
+            }
+
+            int id = nextExampleId;
+            records.add(record(EXAMPLE, Integer.toString(id), Integer.toString(abbr_id),
+                    Integer.toString(expansion_id), Integer.toString(abbr.getIndex()), words));
+
+            // The records are written in order and a crash may keep only the first of them, which
+            // leaves the abbreviation, expansion or link without any example. The example is only
+            // kept once everything it refers to is.
+            append(records);
+
+            return new Example(id, abbr_id, expansion_id, words);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the compacted examples to a new log, along with everything else in the index, and moves
+     * it over the old log. Other calls wait until it is done.
+     */
+    @Override
+    public int compactExamples(int maxPerExpansion) throws SQLException {
+        Random random = new Random();
+        Path compacted = directory.resolve(COMPACT_FILE);
+        lock.writeLock().lock();
+        try {
+            ArrayList<String> records = new ArrayList<>();
+            for(String word : commonWords) {
+                records.add(record(COMMON_WORD, word));
+            }
+            for(Map.Entry<String, Integer> abbr : abbreviations.entrySet()) {
+                records.add(record(ABBREVIATION, Integer.toString(abbr.getValue()), abbr.getKey()));
+            }
+            for(Map.Entry<Integer, String> expansion : expansions.entrySet()) {
+                records.add(record(EXPANSION, Integer.toString(expansion.getKey()), expansion.getValue()));
+            }
+            for(Map.Entry<Integer, ArrayList<Integer>> link : links.entrySet()) {
+                for(int expansion_id : link.getValue()) {
+                    records.add(record(LINK, Integer.toString(link.getKey()), Integer.toString(expansion_id)));
+                }
+            }
+
+            int removed = 0;
+            for(Map.Entry<Integer, ArrayList<ExampleEntry>> abbr : examples.entrySet()) {
+                HashMap<Integer, String[]> fields = new HashMap<>();
+                ArrayList<Example> all = new ArrayList<>();
+                for(ExampleEntry entry : abbr.getValue()) {
+                    String[] entryFields = readFields(entry);
+                    fields.put(entry.id, entryFields);
+                    all.add(new Example(entry.id, abbr.getKey(), entry.expansionId, entryFields[5], entry.weight));
+                }
+
+                ArrayList<Example> kept = ExampleCompactor.compact(all, maxPerExpansion, random);
+                removed += all.size() - kept.size();
+                for(Example example : kept) {
+                    String[] entryFields = fields.get(example.getId());
+                    records.add(record(EXAMPLE, entryFields[1], entryFields[2], entryFields[3], entryFields[4],
+                            entryFields[5], Integer.toString(example.getWeight())));
+                }
+            }
+
+            try(FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                for(String record : records) {
+                    byte[] line = record.getBytes(StandardCharsets.UTF_8);
+                    bytes.write(line, 0, line.length);
+                    bytes.write('\n');
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while(buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(true);
+            }
+            // closed first since some systems cannot replace a file which is open
+            log.close();
+            boolean moved = false;
+            try {
+                Files.move(compacted, directory.resolve(LOG_FILE), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                moved = true;
+            }
+            finally {
+                // whichever log is in place is opened again, so a failed move leaves the storage as it was
+                log = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                if(!moved) {
+                    Files.deleteIfExists(compacted);
+                }
+            }
+
+            // the ids of removed examples are not handed out again while the storage is open
+            int nextAbbreviation = nextAbbreviationId;
+            int nextExpansion = nextExpansionId;
+            int nextExample = nextExampleId;
+            clearIndex();
+            load();
+            nextAbbreviationId = Math.max(nextAbbreviationId, nextAbbreviation);
+            nextExpansionId = Math.max(nextExpansionId, nextExpansion);
+            nextExampleId = Math.max(nextExampleId, nextExample);
+
+            return removed;
+        }
+        catch(IOException ex) {
+            throw new SQLException("Could not compact " + directory.resolve(LOG_FILE) + ".", ex);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void clearIndex() {
+        commonWords.clear();
+        abbreviationIds.clear();
+        abbreviations.clear();
+        expansionIds.clear();
+        expansions.clear();
+        links.clear();
+        examples.clear();
+        size = 0;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            log.close();
+        }
+        catch(IOException ex) {
+            throw new SQLException("Could not close the log.", ex);
+        }
+    }
+}
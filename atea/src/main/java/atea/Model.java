@@ -0,0 +1,330 @@
+package atea;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * An in-memory copy of the abbreviations, expansions and example statistics in the database. The
+ * statistics of an abbreviation are loaded the first time they are needed and are then kept up to
+ * date by applying each new example to them, without reloading from the database.
+ *
+ * Reads never lock. The lexicon and the statistics of each abbreviation are immutable snapshots
+ * which writers replace atomically. Writers adding examples for different abbreviations lock
+ * different bins of the statistics map, so they only wait for each other when they update the same
+ * abbreviation. Statistics are held as futures, so an example added while its abbreviation is still
+ * loading is chained onto the load instead of waiting for it.
+ *
+ * The statistics of every abbreviation can also be built at once by a ModelBuilder. Examples added
+ * while a build is reading are kept aside and applied to the built statistics before they replace
+ * the loaded ones, since the build may have read past them.
+ *
+ * A build can instead be written to a KeywordTable file. Once a model is given the table, statistics
+ * are loaded by reading only the expansions from the storage and the counts from the table, and the
+ * word counts stay outside the heap. Examples inserted after the table was written are only counted if
+ * they are added through this model, so the table should be rebuilt as often as a ModelBuilder would
+ * be run.
+ *
+ * A Model is one snapshot of a Storage. Atea swaps in a new Model when it is given a new Storage,
+ * and each request holds a reference to the Model it started with until it finishes, so the old
+ * Storage is only released once no request is using it.
+ */
+final class Model {
+  private final Storage db;
+  private final HashSet<String> commonWords = new HashSet<>();
+  private final ConcurrentHashMap<Integer, CompletableFuture<AbbreviationStatistics>> statistics =
+          new ConcurrentHashMap<>();
+  private final AtomicReference<Lexicon> lexicon;
+  // examples added during the running build by abbreviation id, or null when no build is running
+  private volatile ConcurrentHashMap<Integer, ArrayList<UnaryOperator<AbbreviationStatistics>>> building;
+  private volatile QueryExecutor queries = QueryExecutor.CALLING_THREAD;
+  private volatile int maxEdits;
+  private volatile KeywordTable keywords;
+  // the requests using this model, plus one while it is the current model of an Atea
+  private final AtomicInteger references = new AtomicInteger(1);
+  private final CompletableFuture<Storage> released = new CompletableFuture<>();
+
+  /**
+   *
+   * @param db          The storage to load abbreviations and statistics from
+   * @param commonWords Words which are not considered keywords
+   * @throws SQLException
+   */
+  Model(Storage db, String[] commonWords) throws SQLException {
+    this.db = db;
+    for(String word : commonWords) {
+      this.commonWords.add(AbbreviationStatistics.normalize(word));
+    }
+    this.lexicon = new AtomicReference<>(Lexicon.fromAbbreviations(db.getAbbreviations()));
+  }
+
+  /**
+   * Creates the model of a new snapshot, keeping the statistics of another model which the
+   * snapshots do not change. The lookup and query settings are copied as well.
+   * @param db          The storage of the new snapshot
+   * @param commonWords The common words of the new snapshot
+   * @param previous    The model of the old snapshot
+   * @param diff        The differences between the old snapshot and the new one
+   * @throws SQLException
+   */
+  Model(Storage db, String[] commonWords, Model previous, SnapshotDiff diff) throws SQLException {
+    this(db, commonWords);
+    this.queries = previous.queries;
+    this.maxEdits = previous.maxEdits;
+    for(Map.Entry<Integer, CompletableFuture<AbbreviationStatistics>> loaded : previous.statistics.entrySet()) {
+      // statistics still loading or which failed to load are loaded again when needed
+      CompletableFuture<AbbreviationStatistics> stats = loaded.getValue();
+      if(diff.isUnchanged(loaded.getKey()) && stats.isDone() && !stats.isCompletedExceptionally()) {
+        statistics.put(loaded.getKey(), stats);
+      }
+    }
+  }
+
+  Storage getStorage() { return db; }
+
+  /**
+   * Takes a reference to the model for a request.
+   * @return  True if the reference was taken, False if the model has been released and the
+   *          current model should be used instead
+   */
+  boolean retain() {
+    int count;
+    do {
+      count = references.get();
+      if(count == 0) {
+        return false;
+      }
+    } while(!references.compareAndSet(count, count + 1));
+
+    return true;
+  }
+
+  /**
+   * Gives up a reference taken by retain, or the reference an Atea holds to its current model.
+   */
+  void release() {
+    if(references.decrementAndGet() == 0) {
+      released.complete(db);
+    }
+  }
+
+  /**
+   * Gets a future which completes with the storage of the model once every reference to it is
+   * given up.
+   */
+  CompletableFuture<Storage> whenReleased() { return released; }
+
+  int getLoadedCount() { return statistics.size(); }
+
+  /**
+   * Sets how the queries which load statistics are run.
+   * @param queries The QueryExecutor to run queries with
+   */
+  void setQueryExecutor(QueryExecutor queries) { this.queries = queries; }
+
+  /**
+   * Sets how many edits away from an abbreviation a word may be and still match it.
+   * @param maxEdits  The most edits. 0 turns fuzzy matching off.
+   */
+  void setMaxEdits(int maxEdits) { this.maxEdits = maxEdits; }
+
+  int getMaxEdits() { return maxEdits; }
+
+  /**
+   * Gets the id of an abbreviation. Lookups are case insensitive and ignore punctuation, see Lexicon.
+   * @param chars The characters to look up
+   * @return      The id of the abbreviation, or -1 if chars is not a known abbreviation
+   */
+  int getAbbreviationId(String chars) {
+    return lexicon.get().getId(chars, maxEdits);
+  }
+
+  /**
+   * Determines if a word is a keyword, that is not one of the common words.
+   * @param word  The word to check
+   * @return      True if the word is a keyword, False otherwise
+   */
+  boolean isKeyword(String word) {
+    return !commonWords.contains(AbbreviationStatistics.normalize(word));
+  }
+
+  /**
+   * Gets the statistics of an abbreviation, loading them from the database if they are not loaded.
+   * The returned object never changes, so callers see a consistent set of counts for as long as
+   * they hold it.
+   * @param abbr  The abbreviation to get statistics for
+   * @return      The statistics of the abbreviation
+   * @throws SQLException
+   */
+  AbbreviationStatistics getStatistics(Abbreviation abbr) throws SQLException {
+    int id = abbr.getId();
+    CompletableFuture<AbbreviationStatistics> stats = statistics.get(id);
+    if(stats == null) {
+      // The first caller loads the statistics, everyone else waits for its future. The load runs
+      // outside the map's locks, since a virtual thread blocking inside one would pin its carrier.
+      CompletableFuture<AbbreviationStatistics> load = new CompletableFuture<>();
+      stats = statistics.putIfAbsent(id, load);
+      if(stats == null) {
+        load(abbr, load);
+        stats = statistics.getOrDefault(id, load);
+      }
+    }
+
+    try {
+      return stats.join();
+    }
+    catch(CompletionException ex) {
+      // forget the failed load so the next caller tries again
+      statistics.remove(id, stats);
+      Throwable cause = ex.getCause();
+      if(cause instanceof SQLException) {
+        throw (SQLException) cause;
+      }
+      if(cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if(cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new SQLException(cause);
+    }
+  }
+
+  private void load(Abbreviation abbr, CompletableFuture<AbbreviationStatistics> load) {
+    try {
+      QueryExecutor queries = this.queries;
+      Future<ArrayList<Expansion>> expansions = queries.query(() -> db.getExpansions(abbr.getId()));
+      KeywordTable keywords = this.keywords;
+      if(keywords != null) {
+        load.complete(AbbreviationStatistics.fromTable(
+                abbr.getValue(), abbr.getId(), QueryExecutor.get(expansions), keywords));
+        return;
+      }
+      Future<ArrayList<Example>> examples = queries.query(() -> db.getExamples(abbr.getId()));
+      load.complete(AbbreviationStatistics.fromExamples(
+              abbr.getValue(), QueryExecutor.get(expansions), QueryExecutor.get(examples), commonWords));
+    }
+    catch(SQLException | RuntimeException ex) {
+      load.completeExceptionally(ex);
+    }
+  }
+
+  /**
+   * Gets the possible expansions of an abbreviation.
+   * @param abbr  The abbreviation to get expansions for
+   * @return      An ArrayList of new Expansion objects
+   * @throws SQLException
+   */
+  ArrayList<Expansion> getExpansions(Abbreviation abbr) throws SQLException {
+    return getStatistics(abbr).getExpansions();
+  }
+
+  /**
+   * Applies an example which has been inserted into the database to the loaded statistics. The
+   * statistics of the abbreviation are replaced in a single step, so readers see either all or
+   * none of the example. Abbreviations which are not loaded are left alone, they will include the
+   * example when they are loaded. A new abbreviation is added to the lexicon once its example is
+   * in the database.
+   * @param abbr        The abbreviation of the example
+   * @param example     The inserted example
+   * @param expansion   The value of the expansion of the example
+   */
+  void addExample(String abbr, Example example, String expansion) {
+    UnaryOperator<AbbreviationStatistics> apply = stats -> stats.withExample(example, expansion, commonWords);
+    ConcurrentHashMap<Integer, ArrayList<UnaryOperator<AbbreviationStatistics>>> building = this.building;
+    if(building == null) {
+      // an example added while its abbreviation is loading is applied as soon as the load finishes
+      statistics.computeIfPresent(example.getAbbreviationId(), (id, stats) -> stats.thenApply(apply));
+    } else {
+      // locking the abbreviation in building keeps the build from replacing its statistics meanwhile
+      building.compute(example.getAbbreviationId(), (id, pending) -> {
+        statistics.computeIfPresent(id, (key, stats) -> stats.thenApply(apply));
+        ArrayList<UnaryOperator<AbbreviationStatistics>> examples = pending == null ? new ArrayList<>() : pending;
+        examples.add(apply);
+        return examples;
+      });
+    }
+    lexicon.updateAndGet(current -> current.with(abbr, example.getAbbreviationId()));
+  }
+
+  /**
+   * Builds the statistics of every abbreviation with examples and replaces the loaded statistics
+   * with them. Predictions carry on using the loaded statistics until each is replaced.
+   * @param parallelism How many threads count the words of the examples
+   * @return            How the build went
+   * @throws SQLException
+   */
+  synchronized ModelBuildReport build(int parallelism) throws SQLException {
+    ModelBuilder builder = new ModelBuilder(db, commonWords, parallelism);
+    ConcurrentHashMap<Integer, ArrayList<UnaryOperator<AbbreviationStatistics>>> building = new ConcurrentHashMap<>();
+    this.building = building;
+    try {
+      for(Map.Entry<Integer, AbbreviationStatistics> built : builder.build().entrySet()) {
+        building.compute(built.getKey(), (id, pending) -> {
+          // examples the build read are ignored by withExample, so only the ones it missed are counted
+          AbbreviationStatistics stats = built.getValue();
+          if(pending != null) {
+            for(UnaryOperator<AbbreviationStatistics> apply : pending) {
+              stats = apply.apply(stats);
+            }
+          }
+          statistics.put(id, CompletableFuture.completedFuture(stats));
+          return null;
+        });
+      }
+    }
+    finally {
+      this.building = null;
+    }
+
+    return builder.getReport();
+  }
+
+  /**
+   * Builds the statistics of every abbreviation like build, but writes them to a KeywordTable file
+   * instead of replacing the loaded statistics. The table is built outside the heap, although the
+   * statistics are all on the heap while they are being written to it.
+   * @param file        The file to write
+   * @param parallelism How many threads count the words of the examples
+   * @return            How the build went
+   * @throws SQLException
+   * @throws IOException
+   */
+  ModelBuildReport writeKeywordTable(Path file, int parallelism) throws SQLException, IOException {
+    ModelBuilder builder = new ModelBuilder(db, commonWords, parallelism);
+    HashMap<Integer, AbbreviationStatistics> built = builder.build();
+
+    long entries = 0;
+    for(AbbreviationStatistics stats : built.values()) {
+      entries += stats.getTableEntries();
+    }
+    KeywordTable table = new KeywordTable(entries);
+    for(Map.Entry<Integer, AbbreviationStatistics> stats : built.entrySet()) {
+      stats.getValue().writeTo(table, stats.getKey());
+    }
+    table.write(file);
+
+    return builder.getReport();
+  }
+
+  /**
+   * Sets the table to load statistics from. The loaded statistics are dropped so that every
+   * abbreviation is loaded from the table the next time it is needed.
+   * @param keywords  A table written by writeKeywordTable from the storage of this model
+   */
+  void setKeywordTable(KeywordTable keywords) {
+    this.keywords = keywords;
+    statistics.clear();
+  }
+}
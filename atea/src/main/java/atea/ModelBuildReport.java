@@ -0,0 +1,49 @@
+package atea;
+
+import java.util.Locale;
+
+/**
+ * How a build of the model went, as returned by Atea.buildModel.
+ */
+public final class ModelBuildReport {
+  private final long examples;
+  private final int abbreviations;
+  private final long readNanos;
+  private final long totalNanos;
+
+  /**
+   *
+   * @param examples      The number of examples read
+   * @param abbreviations The number of abbreviations built
+   * @param readNanos     How long reading and counting the examples took
+   * @param totalNanos    How long the whole build took, including merging the counts
+   */
+  ModelBuildReport(long examples, int abbreviations, long readNanos, long totalNanos) {
+    this.examples = examples;
+    this.abbreviations = abbreviations;
+    this.readNanos = readNanos;
+    this.totalNanos = totalNanos;
+  }
+
+  public long getExamples() { return examples; }
+
+  public int getAbbreviations() { return abbreviations; }
+
+  public long getReadMillis() { return readNanos / 1_000_000; }
+
+  public long getTotalMillis() { return totalNanos / 1_000_000; }
+
+  /**
+   * Gets how fast the examples were read and counted.
+   * @return  The examples read per second, not counting the time taken to merge the counts
+   */
+  public double getExamplesPerSecond() {
+    return readNanos == 0 ? 0 : examples * 1e9 / readNanos;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT, "Built %d abbreviations from %d examples in %.1f s (%.0f examples/s)",
+            abbreviations, examples, totalNanos / 1e9, getExamplesPerSecond());
+  }
+}
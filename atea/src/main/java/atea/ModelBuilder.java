@@ -0,0 +1,263 @@
+package atea;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Builds the statistics of every abbreviation in one pass over the examples, instead of loading each
+ * abbreviation the first time it is needed.
+ *
+ * The storage streams the examples to the calling thread, which hands them out in chunks to a
+ * ForkJoinPool. Each worker splits and counts the words of its chunks into counts of its own, so
+ * the workers never share or lock anything while counting. Once every example is read, the counts of
+ * the workers are merged one abbreviation at a time, also on the pool. At most a few chunks per
+ * worker are waiting at any time, so the examples are never all in memory at once.
+ */
+final class ModelBuilder {
+  private static final int CHUNK_SIZE = 2048;
+  private static final int CHUNKS_PER_WORKER = 4;
+
+  /**
+   * The counts of one abbreviation. Each position of the arrays is for the expansion whose id is at
+   * the same position of expansionIds, in the order the expansions were met.
+   */
+  private static final class Counts {
+    int[] expansionIds = new int[0];
+    int[] exampleCounts = new int[0];
+    int[] wordTotals = new int[0];
+    final HashMap<String, int[]> wordCounts = new HashMap<>();
+    int loadedExampleId = -1;
+
+    private int indexOf(int expansionId) {
+      for(int i=0; i<expansionIds.length; i++) {
+        if(expansionIds[i] == expansionId) {
+          return i;
+        }
+      }
+
+      int index = expansionIds.length;
+      expansionIds = Arrays.copyOf(expansionIds, index + 1);
+      expansionIds[index] = expansionId;
+      exampleCounts = Arrays.copyOf(exampleCounts, index + 1);
+      wordTotals = Arrays.copyOf(wordTotals, index + 1);
+      return index;
+    }
+
+    private int[] wordCounts(String word) {
+      int[] counts = wordCounts.get(word);
+      if(counts == null || counts.length < expansionIds.length) {
+        counts = counts == null ? new int[expansionIds.length] : Arrays.copyOf(counts, expansionIds.length);
+        wordCounts.put(word, counts);
+      }
+
+      return counts;
+    }
+
+    void add(Example example, String abbrWord, Set<String> commonWords) {
+      int index = indexOf(example.getExpansionId());
+      int weight = example.getWeight();
+      exampleCounts[index] += weight;
+      loadedExampleId = Math.max(loadedExampleId, example.getId());
+
+      for(String word : AbbreviationStatistics.keywords(example.getWords(), abbrWord, commonWords)) {
+        wordCounts(word)[index] += weight;
+        wordTotals[index] += weight;
+      }
+    }
+
+    void addAll(Counts other) {
+      loadedExampleId = Math.max(loadedExampleId, other.loadedExampleId);
+      int[] positions = new int[other.expansionIds.length];
+      for(int i=0; i<positions.length; i++) {
+        positions[i] = indexOf(other.expansionIds[i]);
+        exampleCounts[positions[i]] += other.exampleCounts[i];
+        wordTotals[positions[i]] += other.wordTotals[i];
+      }
+
+      for(Map.Entry<String, int[]> word : other.wordCounts.entrySet()) {
+        int[] counts = wordCounts(word.getKey());
+        for(int i=0; i<word.getValue().length; i++) {
+          counts[positions[i]] += word.getValue()[i];
+        }
+      }
+    }
+  }
+
+  private final Storage db;
+  private final Set<String> commonWords;
+  private final int parallelism;
+  private ModelBuildReport report;
+
+  /**
+   *
+   * @param db          The storage to read the examples from
+   * @param commonWords Lower case words which are not counted
+   * @param parallelism How many threads count words. The calling thread only reads the examples.
+   */
+  ModelBuilder(Storage db, Set<String> commonWords, int parallelism) {
+    if(parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be at least 1.");
+    }
+    this.db = db;
+    this.commonWords = commonWords;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Reads every example and builds the statistics of every abbreviation which has any.
+   * @return  The statistics of each abbreviation by id
+   * @throws SQLException
+   */
+  HashMap<Integer, AbbreviationStatistics> build() throws SQLException {
+    long start = System.nanoTime();
+    HashMap<Integer, String> values = new HashMap<>();
+    for(Map.Entry<String, Integer> abbr : db.getAbbreviations().entrySet()) {
+      values.putIfAbsent(abbr.getValue(), abbr.getKey());
+    }
+    HashMap<Integer, String> abbrWords = new HashMap<>();
+    for(Map.Entry<Integer, String> abbr : values.entrySet()) {
+      abbrWords.put(abbr.getKey(), AbbreviationStatistics.normalize(abbr.getValue()));
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      // the counts of each worker, only ever touched by that worker until they are merged
+      ConcurrentLinkedQueue<HashMap<Integer, Counts>> partials = new ConcurrentLinkedQueue<>();
+      ThreadLocal<HashMap<Integer, Counts>> local = ThreadLocal.withInitial(() -> {
+        HashMap<Integer, Counts> counts = new HashMap<>();
+        partials.add(counts);
+        return counts;
+      });
+
+      Chunker chunker = new Chunker(pool, local, abbrWords);
+      long examples = db.forEachExample(chunker);
+      chunker.finish();
+      long read = System.nanoTime();
+
+      // merge the counts of each abbreviation and fetch its expansions, one abbreviation per task
+      HashMap<Integer, ArrayList<Counts>> byAbbreviation = new HashMap<>();
+      for(HashMap<Integer, Counts> partial : partials) {
+        for(Map.Entry<Integer, Counts> counts : partial.entrySet()) {
+          byAbbreviation.computeIfAbsent(counts.getKey(), k -> new ArrayList<>()).add(counts.getValue());
+        }
+      }
+      ConcurrentHashMap<Integer, AbbreviationStatistics> statistics = new ConcurrentHashMap<>();
+      ArrayList<ForkJoinTask<AbbreviationStatistics>> merges = new ArrayList<>();
+      for(Map.Entry<Integer, ArrayList<Counts>> abbr : byAbbreviation.entrySet()) {
+        merges.add(pool.submit(() -> statistics.put(abbr.getKey(),
+                merge(abbr.getKey(), values.get(abbr.getKey()), abbr.getValue()))));
+      }
+      for(ForkJoinTask<AbbreviationStatistics> merge : merges) {
+        merge.join();
+      }
+
+      report = new ModelBuildReport(examples, statistics.size(), read - start, System.nanoTime() - start);
+      return new HashMap<>(statistics);
+    }
+    catch(RuntimeException ex) {
+      // a failed task is rethrown wrapped in a copy of its exception, so look through every cause
+      for(Throwable cause = ex; cause != null; cause = cause.getCause()) {
+        if(cause instanceof SQLException) {
+          throw (SQLException) cause;
+        }
+      }
+      throw ex;
+    }
+    finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Gets how the last build went.
+   * @return  The report of the last build, or null if nothing was built
+   */
+  ModelBuildReport getReport() { return report; }
+
+  /**
+   * Collects the examples read from the storage into chunks and submits each full chunk to be
+   * counted. Reading waits while too many chunks are waiting to be counted.
+   */
+  private final class Chunker implements Consumer<Example> {
+    private final ForkJoinPool pool;
+    private final ThreadLocal<HashMap<Integer, Counts>> counts;
+    private final Map<Integer, String> abbrWords;
+    private final Semaphore waiting = new Semaphore(parallelism * CHUNKS_PER_WORKER);
+    private final ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+    private ArrayList<Example> chunk = new ArrayList<>(CHUNK_SIZE);
+
+    Chunker(ForkJoinPool pool, ThreadLocal<HashMap<Integer, Counts>> counts, Map<Integer, String> abbrWords) {
+      this.pool = pool;
+      this.counts = counts;
+      this.abbrWords = abbrWords;
+    }
+
+    @Override
+    public void accept(Example example) {
+      chunk.add(example);
+      if(chunk.size() == CHUNK_SIZE) {
+        submit();
+      }
+    }
+
+    private void submit() {
+      ArrayList<Example> examples = chunk;
+      chunk = new ArrayList<>(CHUNK_SIZE);
+      waiting.acquireUninterruptibly();
+      tasks.add(pool.submit(() -> {
+        try {
+          count(examples, abbrWords, counts.get());
+        }
+        finally {
+          waiting.release();
+        }
+      }));
+    }
+
+    /**
+     * Submits the last chunk and waits for every chunk to be counted.
+     */
+    void finish() {
+      submit();
+      for(ForkJoinTask<?> task : tasks) {
+        task.join();
+      }
+    }
+  }
+
+  private void count(List<Example> examples, Map<Integer, String> abbrWords, HashMap<Integer, Counts> counts) {
+    for(Example example : examples) {
+      String abbrWord = abbrWords.get(example.getAbbreviationId());
+      // examples of abbreviations which no longer have a value are never looked up
+      if(abbrWord != null) {
+        counts.computeIfAbsent(example.getAbbreviationId(), k -> new Counts()).add(example, abbrWord, commonWords);
+      }
+    }
+  }
+
+  private AbbreviationStatistics merge(int abbr_id, String abbr, List<Counts> partials) {
+    Counts merged = partials.get(0);
+    for(int i=1; i<partials.size(); i++) {
+      merged.addAll(partials.get(i));
+    }
+
+    try {
+      return AbbreviationStatistics.fromCounts(abbr, db.getExpansions(abbr_id), merged.expansionIds,
+              merged.exampleCounts, merged.wordTotals, merged.wordCounts, merged.loadedExampleId);
+    }
+    catch(SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package atea;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Scores expansions with a multinomial Naive Bayes classifier over the keywords used around an
+ * abbreviation. Probabilities are accumulated as logarithms and smoothed with Lidstone smoothing so
+ * a keyword never seen with an expansion lowers its confidence instead of eliminating it.
+ */
+public final class NaiveBayesScorer implements Scorer {
+  private final Supplier<Model> model;
+  private final double alpha;
+
+  /**
+   *
+   * @param model   Gets the statistics to score abbreviations with which were not found by an Atea,
+   *                such as the current model of the Atea which made the scorer. It is called each time
+   *                one is scored, so the scorer never keeps an old snapshot alive. Abbreviations found
+   *                by an Atea are scored with the model that found them.
+   * @param alpha   The smoothing parameter. 1 is Laplace smoothing.
+   */
+  NaiveBayesScorer(Supplier<Model> model, double alpha) {
+    if(!(alpha > 0)) {
+      throw new IllegalArgumentException("alpha must be greater than 0.");
+    }
+
+    this.model = model;
+    this.alpha = alpha;
+  }
+
+  public double getAlpha() { return alpha; }
+
+  @Override
+  public double[] score(Abbreviation abbr, ArrayList<Expansion> expansions) throws SQLException {
+    Model model = abbr.getModel() != null ? abbr.getModel() : this.model.get();
+    AbbreviationStatistics stats = model.getStatistics(abbr);
+    int size = expansions.size();
+
+    // log P(expansion) and the denominator of log P(word | expansion)
+    int[] indexes = new int[size];
+    double[] logScores = new double[size];
+    double[] logWordTotals = new double[size];
+    double logPriorTotal = Math.log(stats.getExampleTotal() + alpha * size);
+    double vocabulary = stats.getVocabularySize();
+    for(int i=0; i<size; i++) {
+      indexes[i] = stats.indexOf(expansions.get(i).getId());
+      int examples = indexes[i] == -1 ? 0 : stats.getExampleCount(indexes[i]);
+      int words = indexes[i] == -1 ? 0 : stats.getWordTotal(indexes[i]);
+      logScores[i] = Math.log(examples + alpha) - logPriorTotal;
+      logWordTotals[i] = Math.log(words + alpha * vocabulary);
+    }
+
+    // add log P(word | expansion) for every keyword in the text. Keywords which are not in any
+    // example say nothing about which expansion is more likely and are skipped.
+    double logAlpha = Math.log(alpha);
+    String[] words = abbr.getText().getWords();
+    String abbrWord = AbbreviationStatistics.normalize(abbr.getValue());
+    for(int w=0; w<words.length; w++) {
+      String word = AbbreviationStatistics.normalize(words[w]);
+      if(w == abbr.getIndex() || word.equals(abbrWord) || !model.isKeyword(word)) {
+        continue;
+      }
+
+      if(!stats.isCounted(word)) {
+        continue;
+      }
+      for(int i=0; i<size; i++) {
+        int count = indexes[i] == -1 ? 0 : stats.getWordCount(word, indexes[i]);
+        logScores[i] += (count == 0 ? logAlpha : Math.log(count + alpha)) - logWordTotals[i];
+      }
+    }
+
+    return normalize(logScores);
+  }
+
+  /**
+   * Converts log scores to probabilities which sum to 1. The largest score is subtracted before
+   * exponentiating so that long texts do not underflow.
+   * @param logScores The log scores
+   * @return          The probabilities
+   */
+  static double[] normalize(double[] logScores) {
+    double max = Double.NEGATIVE_INFINITY;
+    for(double score : logScores) { max = Math.max(max, score); }
+
+    double[] probabilities = new double[logScores.length];
+    double total = 0;
+    for(int i=0; i<logScores.length; i++) {
+      probabilities[i] = Math.exp(logScores[i] - max);
+      total += probabilities[i];
+    }
+
+    for(int i=0; i<probabilities.length; i++) {
+      probabilities[i] /= total;
+    }
+
+    return probabilities;
+  }
+}
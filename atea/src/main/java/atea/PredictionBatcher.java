@@ -0,0 +1,158 @@
+package atea;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Groups texts submitted at about the same time into one call to Atea.predictAbbreviations(List).
+ * The first text of a batch waits at most the batch window for others to join it. Batches are
+ * predicted on virtual threads, so a slow batch does not hold up the next one.
+ */
+final class PredictionBatcher implements AutoCloseable {
+
+  /**
+   * A text waiting to be predicted.
+   */
+  private static final class Pending {
+    final String text;
+    final CompletableFuture<ArrayList<Abbreviation>> result = new CompletableFuture<>();
+
+    Pending(String text) {
+      this.text = text;
+    }
+  }
+
+  private final Atea atea;
+  private final long windowNanos;
+  private final int maxBatchSize;
+  private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final Thread collector;
+  private volatile boolean closed;
+
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder documents = new LongAdder();
+
+  /**
+   *
+   * @param atea          The Atea object to predict with
+   * @param windowMillis  How long the first text of a batch waits for others. 0 sends every text on
+   *                      its own.
+   * @param maxBatchSize  The most texts in one batch
+   */
+  PredictionBatcher(Atea atea, long windowMillis, int maxBatchSize) {
+    if(windowMillis < 0) {
+      throw new IllegalArgumentException("windowMillis must not be negative.");
+    }
+    if(maxBatchSize < 1) {
+      throw new IllegalArgumentException("maxBatchSize must be at least 1.");
+    }
+
+    this.atea = atea;
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    this.maxBatchSize = maxBatchSize;
+    this.collector = Thread.ofVirtual().name("atea-batcher").start(this::collect);
+  }
+
+  long getBatches() { return batches.sum(); }
+
+  long getDocuments() { return documents.sum(); }
+
+  /**
+   * Adds a text to the next batch.
+   * @param text  The text to look for abbreviations in
+   * @return      A CompletableFuture completed with the result of Atea.predictAbbreviations
+   */
+  CompletableFuture<ArrayList<Abbreviation>> submit(String text) {
+    Pending pending = new Pending(text);
+    if(closed) {
+      pending.result.completeExceptionally(new IllegalStateException("The batcher is closed."));
+      return pending.result;
+    }
+
+    queue.add(pending);
+    if(closed && queue.remove(pending)) {
+      // closed while adding, after the collector stopped taking texts
+      pending.result.completeExceptionally(new IllegalStateException("The batcher is closed."));
+    }
+    return pending.result;
+  }
+
+  private void collect() {
+    ArrayList<Pending> batch = new ArrayList<>();
+    try {
+      while(!closed) {
+        batch = new ArrayList<>();
+        batch.add(queue.take());
+
+        long deadline = System.nanoTime() + windowNanos;
+        while(batch.size() < maxBatchSize) {
+          Pending next = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+          if(next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+
+        ArrayList<Pending> full = batch;
+        executor.execute(() -> predict(full));
+        batch = new ArrayList<>();
+      }
+    }
+    catch(InterruptedException ex) {
+      // closed
+    }
+
+    Pending pending;
+    while((pending = queue.poll()) != null) {
+      batch.add(pending);
+    }
+    for(Pending unsent : batch) {
+      unsent.result.completeExceptionally(new IllegalStateException("The batcher is closed."));
+    }
+  }
+
+  private void predict(ArrayList<Pending> batch) {
+    batches.increment();
+    documents.add(batch.size());
+
+    ArrayList<String> texts = new ArrayList<>();
+    for(Pending pending : batch) {
+      texts.add(pending.text);
+    }
+
+    try {
+      ArrayList<ArrayList<Abbreviation>> results = atea.predictAbbreviations(texts);
+      for(int i=0; i<batch.size(); i++) {
+        batch.get(i).result.complete(results.get(i));
+      }
+    }
+    catch(Throwable ex) {
+      for(Pending pending : batch) {
+        pending.result.completeExceptionally(ex);
+      }
+    }
+  }
+
+  /**
+   * Stops taking texts. Texts not yet in a batch fail, batches already started finish.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    collector.interrupt();
+    try {
+      // the collector may still be handing its last batch to the executor
+      collector.join();
+    }
+    catch(InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,192 @@
+package atea;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Connects a Publisher of documents to a Subscriber of results. Each document is processed as soon
+ * as it arrives, but documents are only requested while fewer than maxInFlight of them are being
+ * processed or waiting for the Subscriber to request them. Results are delivered in order.
+ *
+ * All signals to the Subscriber are made from drain(), which only one thread runs at a time.
+ * @param <R> The type of the results
+ */
+final class PredictionSubscription<R> implements Flow.Subscriber<String>, Flow.Subscription {
+  private final Flow.Subscriber<? super R> downstream;
+  private final Function<String, CompletableFuture<R>> function;
+  private final int maxInFlight;
+
+  private final ConcurrentLinkedQueue<CompletableFuture<R>> inFlight = new ConcurrentLinkedQueue<>();
+  private final AtomicLong requested = new AtomicLong();
+  private final AtomicInteger wip = new AtomicInteger();
+
+  private volatile Flow.Subscription upstream;
+  private volatile boolean upstreamDone;
+  private volatile Throwable error;
+  private volatile boolean cancelled;
+  private boolean terminated;
+
+  /**
+   *
+   * @param downstream  The Subscriber to deliver results to
+   * @param function    Starts processing a document
+   * @param maxInFlight The most documents that may be requested but not yet delivered
+   */
+  PredictionSubscription(Flow.Subscriber<? super R> downstream, Function<String, CompletableFuture<R>> function,
+                         int maxInFlight) {
+    this.downstream = downstream;
+    this.function = function;
+    this.maxInFlight = maxInFlight;
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    if(upstream != null) {
+      subscription.cancel();
+      return;
+    }
+
+    upstream = subscription;
+    downstream.onSubscribe(this);
+    if(!cancelled) {
+      subscription.request(maxInFlight);
+    }
+  }
+
+  @Override
+  public void onNext(String text) {
+    if(cancelled) {
+      return;
+    }
+
+    CompletableFuture<R> result;
+    try {
+      result = function.apply(text);
+    }
+    catch(RuntimeException ex) {
+      result = CompletableFuture.failedFuture(ex);
+    }
+    inFlight.add(result);
+    result.whenComplete((value, ex) -> drain());
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    error = throwable;
+    upstreamDone = true;
+    drain();
+  }
+
+  @Override
+  public void onComplete() {
+    upstreamDone = true;
+    drain();
+  }
+
+  @Override
+  public void request(long n) {
+    if(n <= 0) {
+      error = new IllegalArgumentException("request must be positive, was " + n);
+      cancelUpstream();
+      upstreamDone = true;
+    } else {
+      requested.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+    }
+    drain();
+  }
+
+  @Override
+  public void cancel() {
+    cancelled = true;
+    cancelUpstream();
+    inFlight.clear();
+  }
+
+  private void cancelUpstream() {
+    Flow.Subscription subscription = upstream;
+    if(subscription != null) {
+      subscription.cancel();
+    }
+  }
+
+  /**
+   * Delivers every finished result the Subscriber has requested, in order, and requests one more
+   * document for each. Calls made while another thread is draining are picked up by that thread.
+   */
+  private void drain() {
+    if(wip.getAndIncrement() != 0) {
+      return;
+    }
+
+    int missed = 1;
+    do {
+      while(!cancelled && !terminated) {
+        Throwable failure = error;
+        if(failure != null) {
+          terminate(failure);
+          break;
+        }
+
+        CompletableFuture<R> next = inFlight.peek();
+        if(next == null) {
+          if(upstreamDone) {
+            terminate(null);
+          }
+          break;
+        }
+
+        if(!next.isDone()) {
+          break;
+        }
+
+        if(next.isCompletedExceptionally()) {
+          cancelUpstream();
+          terminate(failureOf(next));
+          break;
+        }
+
+        if(requested.get() == 0) {
+          break;
+        }
+
+        inFlight.poll();
+        requested.decrementAndGet();
+        downstream.onNext(next.join());
+        if(!upstreamDone) {
+          upstream.request(1);
+        }
+      }
+
+      missed = wip.addAndGet(-missed);
+    } while(missed != 0);
+  }
+
+  private static Throwable failureOf(CompletableFuture<?> future) {
+    try {
+      future.join();
+      return new IllegalStateException("The document did not fail.");
+    }
+    catch(CompletionException ex) {
+      return ex.getCause() != null ? ex.getCause() : ex;
+    }
+    catch(CancellationException ex) {
+      return ex;
+    }
+  }
+
+  private void terminate(Throwable failure) {
+    terminated = true;
+    inFlight.clear();
+    if(failure == null) {
+      downstream.onComplete();
+    } else {
+      downstream.onError(failure);
+    }
+  }
+}
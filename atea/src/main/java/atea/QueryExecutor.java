@@ -0,0 +1,177 @@
+package atea;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs the database queries needed for a prediction. By default queries run one after another on the
+ * calling thread. In virtual thread mode every query runs on its own virtual thread so independent
+ * queries wait on the database at the same time, with the number of queries in flight capped so the
+ * database is never asked for more connections than it should give.
+ *
+ * Closing a QueryExecutor lets the queries already started finish. A request which still holds it
+ * afterwards runs its remaining queries on its own thread instead of failing.
+ */
+final class QueryExecutor implements AutoCloseable {
+
+  /**
+   * A unit of work which may throw an SQLException.
+   * @param <T> The type of the result
+   */
+  interface Query<T> {
+    T call() throws SQLException;
+  }
+
+  /** Runs every query immediately on the calling thread. */
+  static final QueryExecutor CALLING_THREAD = new QueryExecutor(null, null, 1);
+
+  private final ExecutorService executor;
+  private final Semaphore connections;
+  private final int maxConcurrentQueries;
+
+  private QueryExecutor(ExecutorService executor, Semaphore connections, int maxConcurrentQueries) {
+    this.executor = executor;
+    this.connections = connections;
+    this.maxConcurrentQueries = maxConcurrentQueries;
+  }
+
+  /**
+   * Creates a QueryExecutor which runs queries on virtual threads.
+   * @param maxConcurrentQueries  The most queries that may be waiting on the database at once
+   * @return                      The QueryExecutor
+   */
+  static QueryExecutor virtualThreads(int maxConcurrentQueries) {
+    if(maxConcurrentQueries < 1) {
+      throw new IllegalArgumentException("maxConcurrentQueries must be at least 1.");
+    }
+
+    return new QueryExecutor(Executors.newVirtualThreadPerTaskExecutor(),
+            new Semaphore(maxConcurrentQueries, true), maxConcurrentQueries);
+  }
+
+  /**
+   * Creates a QueryExecutor which runs queries on the same virtual threads as this one but with a
+   * different cap, so changing the cap does not leave an executor behind. Queries already waiting
+   * on the old cap are not counted against the new one.
+   * @param maxConcurrentQueries  The most queries that may be waiting on the database at once
+   * @return                      The QueryExecutor
+   */
+  QueryExecutor withMaxConcurrentQueries(int maxConcurrentQueries) {
+    if(executor == null) {
+      return virtualThreads(maxConcurrentQueries);
+    }
+    if(maxConcurrentQueries < 1) {
+      throw new IllegalArgumentException("maxConcurrentQueries must be at least 1.");
+    }
+
+    return new QueryExecutor(executor, new Semaphore(maxConcurrentQueries, true), maxConcurrentQueries);
+  }
+
+  int getMaxConcurrentQueries() { return maxConcurrentQueries; }
+
+  /**
+   * Stops starting virtual threads once the queries already started finish. Every QueryExecutor
+   * made from this one by withMaxConcurrentQueries is closed too.
+   */
+  @Override
+  public void close() {
+    if(executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Starts a query which uses a database connection. The query waits for a free connection before it
+   * runs.
+   * @param query The query to run
+   * @param <T>   The type of the result
+   * @return      A Future holding the result of the query
+   */
+  <T> Future<T> query(Query<T> query) {
+    if(executor == null) {
+      return run(query);
+    }
+
+    try {
+      return executor.submit(() -> {
+        connections.acquire();
+        try {
+          return query.call();
+        }
+        finally {
+          connections.release();
+        }
+      });
+    }
+    catch(RejectedExecutionException ex) {
+      // closed while a request was still using it
+      return run(query);
+    }
+  }
+
+  /**
+   * Starts a task which coordinates other queries but does not use a connection itself. Tasks must
+   * not be started with query(), a task holding a connection while waiting for its own queries could
+   * leave no connection for them.
+   * @param task  The task to run
+   * @param <T>   The type of the result
+   * @return      A Future holding the result of the task
+   */
+  <T> Future<T> fork(Query<T> task) {
+    if(executor == null) {
+      return run(task);
+    }
+
+    try {
+      return executor.submit(task::call);
+    }
+    catch(RejectedExecutionException ex) {
+      return run(task);
+    }
+  }
+
+  private static <T> Future<T> run(Query<T> query) {
+    try {
+      return CompletableFuture.completedFuture(query.call());
+    }
+    catch(SQLException | RuntimeException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+  }
+
+  /**
+   * Waits for a query and gets its result, rethrowing anything the query threw.
+   * @param future  The Future of the query
+   * @param <T>     The type of the result
+   * @return        The result of the query
+   * @throws SQLException
+   */
+  static <T> T get(Future<T> future) throws SQLException {
+    try {
+      return future.get();
+    }
+    catch(ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if(cause instanceof SQLException) {
+        throw (SQLException) cause;
+      }
+      if(cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if(cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new SQLException(cause);
+    }
+    catch(InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a query.", ex);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package atea;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times the queries a Database runs, by query and, for the queries which score expansions, by
+ * abbreviation. Recording only adds to counters, so queries on different threads never wait for
+ * each other here.
+ */
+final class QueryStatistics {
+
+    /**
+     * The counters of one query or abbreviation.
+     */
+    private static final class Counters {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+        void add(long elapsed) {
+            count.increment();
+            nanos.add(elapsed);
+            max.accumulate(elapsed);
+        }
+
+        DatabaseReport.Timing timing(String name) {
+            return new DatabaseReport.Timing(name, count.sum(), nanos.sum(), max.get());
+        }
+    }
+
+    private final Set<String> scoringQueries;
+    private final ConcurrentHashMap<String, Counters> queries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Counters> scoring = new ConcurrentHashMap<>();
+    private volatile long since = System.currentTimeMillis();
+    private volatile long alertNanos;
+    private volatile SlowQueryAlert alert;
+
+    /**
+     *
+     * @param scoringQueries    The names of the queries whose time counts towards the scoring cost of
+     *                          their abbreviation
+     */
+    QueryStatistics(Set<String> scoringQueries) {
+        this.scoringQueries = scoringQueries;
+    }
+
+    /**
+     * Sets what to tell about slow queries.
+     * @param thresholdMillis   How long a query may take before it is slow
+     * @param alert             What to tell, or null to stop telling
+     */
+    void setAlert(double thresholdMillis, SlowQueryAlert alert) {
+        this.alertNanos = (long) (thresholdMillis * 1e6);
+        this.alert = alert;
+    }
+
+    /**
+     * Records a query which has finished, whether it succeeded or not.
+     * @param query     The name of the query
+     * @param abbr_id   The abbreviation the query was for, or -1
+     * @param nanos     How long it took
+     */
+    void record(String query, int abbr_id, long nanos) {
+        queries.computeIfAbsent(query, k -> new Counters()).add(nanos);
+        if(abbr_id != -1 && scoringQueries.contains(query)) {
+            scoring.computeIfAbsent(abbr_id, k -> new Counters()).add(nanos);
+        }
+
+        SlowQueryAlert alert = this.alert;
+        if(alert != null && nanos > alertNanos) {
+            alert.slowQuery(query, abbr_id, nanos / 1e6);
+        }
+    }
+
+    /**
+     * Gets the timings of every query run, the one which took the longest in total first.
+     */
+    ArrayList<DatabaseReport.Timing> getQueries() {
+        ArrayList<DatabaseReport.Timing> timings = new ArrayList<>();
+        for(Map.Entry<String, Counters> query : queries.entrySet()) {
+            timings.add(query.getValue().timing(query.getKey()));
+        }
+        timings.sort(null);
+
+        return timings;
+    }
+
+    /**
+     * Gets the abbreviations whose scoring queries took the longest in total.
+     * @param limit The most abbreviations to return
+     * @param names The value of each abbreviation id. Ids without a value are named by their id.
+     * @return      The timings, the longest first
+     */
+    ArrayList<DatabaseReport.Timing> getSlowestAbbreviations(int limit, Map<Integer, String> names) {
+        ArrayList<DatabaseReport.Timing> timings = new ArrayList<>();
+        for(Map.Entry<Integer, Counters> abbr : scoring.entrySet()) {
+            String name = names.getOrDefault(abbr.getKey(), "#" + abbr.getKey());
+            timings.add(abbr.getValue().timing(name));
+        }
+        timings.sort(null);
+
+        return new ArrayList<>(timings.subList(0, Math.min(limit, timings.size())));
+    }
+
+    /**
+     * Gets when the statistics were created or last reset.
+     * @return  The time in milliseconds since the epoch
+     */
+    long getSince() { return since; }
+
+    void reset() {
+        queries.clear();
+        scoring.clear();
+        since = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,213 @@
+package atea;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a text with its abbreviations replaced by a template, such as the expansion alone or the
+ * abbreviation followed by its expansion in parenthesis. The text between abbreviations is copied
+ * straight from the original text by the offsets of the abbreviations, so nothing is allocated for
+ * each word or abbreviation. StringBuilder, Writer and CharBuffer targets are written to without
+ * creating substrings.
+ *
+ * A template is parsed once when the Renderer is created. {abbreviation} is replaced by the
+ * abbreviation as it was written and {expansion} by its most likely expansion. Everything else is
+ * written as it is.
+ */
+public final class Renderer {
+  private static final String ABBREVIATION = "{abbreviation}";
+  private static final String EXPANSION = "{expansion}";
+  private static final int LITERAL = 0;
+  private static final int ABBREVIATION_PART = 1;
+  private static final int EXPANSION_PART = 2;
+
+  /**
+   * Substitutes the expansion for each abbreviation, as Atea.expand does.
+   */
+  public static final Renderer EXPAND = new Renderer(EXPANSION);
+
+  /**
+   * Puts the expansion in parenthesis after each abbreviation, as Atea.explain does.
+   */
+  public static final Renderer EXPLAIN = new Renderer(ABBREVIATION + " (" + EXPANSION + ")");
+
+  private final String template;
+  private final int[] kinds;
+  private final String[] literals;
+  private final int literalLength;
+  private final int abbreviationCount;
+  private final int expansionCount;
+
+  /**
+   *
+   * @param template  What to write in place of each abbreviation, such as
+   *                  "{abbreviation} [{expansion}]"
+   */
+  public Renderer(String template) {
+    ArrayList<Integer> kinds = new ArrayList<>();
+    ArrayList<String> literals = new ArrayList<>();
+    int position = 0;
+    while(position < template.length()) {
+      int abbreviation = template.indexOf(ABBREVIATION, position);
+      int expansion = template.indexOf(EXPANSION, position);
+      int next = abbreviation == -1 ? expansion : expansion == -1 ? abbreviation : Math.min(abbreviation, expansion);
+      if(next == -1) {
+        next = template.length();
+      }
+      if(next > position) {
+        kinds.add(LITERAL);
+        literals.add(template.substring(position, next));
+      }
+      if(next == template.length()) {
+        break;
+      }
+
+      boolean isAbbreviation = next == abbreviation;
+      kinds.add(isAbbreviation ? ABBREVIATION_PART : EXPANSION_PART);
+      literals.add(null);
+      position = next + (isAbbreviation ? ABBREVIATION : EXPANSION).length();
+    }
+
+    this.template = template;
+    this.kinds = new int[kinds.size()];
+    this.literals = literals.toArray(new String[0]);
+    int literalLength = 0;
+    int abbreviationCount = 0;
+    int expansionCount = 0;
+    for(int i=0; i<this.kinds.length; i++) {
+      this.kinds[i] = kinds.get(i);
+      if(this.kinds[i] == LITERAL) {
+        literalLength += this.literals[i].length();
+      } else if(this.kinds[i] == ABBREVIATION_PART) {
+        abbreviationCount++;
+      } else {
+        expansionCount++;
+      }
+    }
+    this.literalLength = literalLength;
+    this.abbreviationCount = abbreviationCount;
+    this.expansionCount = expansionCount;
+  }
+
+  public String getTemplate() { return template; }
+
+  /**
+   * Renders a text into a new String.
+   * @param text  The text the abbreviations were predicted for
+   * @param abbrs The result of predictAbbreviations for the text
+   * @return      The rendered text
+   */
+  public String render(String text, List<Abbreviation> abbrs) {
+    if(abbrs.isEmpty()) {
+      return text;
+    }
+
+    StringBuilder output = new StringBuilder(length(abbrs));
+    try {
+      render(abbrs, output);
+    }
+    catch(IOException ex) {
+      // a StringBuilder never throws
+      throw new UncheckedIOException(ex);
+    }
+
+    return output.toString();
+  }
+
+  /**
+   * Works out how long a rendered text is, so a buffer can be made the right size up front.
+   * @param abbrs The abbreviations of one text, as returned by predictAbbreviations
+   * @return      The number of chars render writes, or 0 if there are no abbreviations
+   */
+  public int length(List<Abbreviation> abbrs) {
+    if(abbrs.isEmpty()) {
+      return 0;
+    }
+
+    int length = abbrs.get(0).getText().getText().length();
+    for(int i=0; i<abbrs.size(); i++) {
+      Abbreviation abbr = abbrs.get(i);
+      String expansion = expansion(abbr);
+      if(expansion == null) {
+        continue;
+      }
+      int word = abbr.getEnd() - abbr.getStart();
+      length += literalLength + abbreviationCount * word + expansionCount * expansion.length() - word;
+    }
+
+    return length;
+  }
+
+  /**
+   * Writes a rendered text. The text is taken from the abbreviations, so all of them must come
+   * from the same call to predictAbbreviations. Nothing is written if there are none.
+   * @param abbrs The abbreviations of one text in the order they appear, as returned by
+   *              predictAbbreviations
+   * @param out   Where to write the text, such as a StringBuilder, Writer or CharBuffer
+   * @throws IOException  if out does. A CharBuffer without room throws BufferOverflowException.
+   */
+  public void render(List<Abbreviation> abbrs, Appendable out) throws IOException {
+    if(abbrs.isEmpty()) {
+      return;
+    }
+
+    // the abbreviations hold the text as it was split when they were predicted
+    String text = abbrs.get(0).getText().getText();
+    int position = 0;
+    for(int i=0; i<abbrs.size(); i++) {
+      Abbreviation abbr = abbrs.get(i);
+      String expansion = expansion(abbr);
+      if(expansion == null) {
+        continue;
+      }
+
+      int start = abbr.getStart();
+      int end = abbr.getEnd();
+      append(out, text, position, start);
+      for(int k=0; k<kinds.length; k++) {
+        if(kinds[k] == LITERAL) {
+          append(out, literals[k], 0, literals[k].length());
+        } else if(kinds[k] == ABBREVIATION_PART) {
+          append(out, text, start, end);
+        } else {
+          append(out, expansion, 0, expansion.length());
+        }
+      }
+      position = end;
+    }
+    append(out, text, position, text.length());
+  }
+
+  /**
+   * Gets the most likely expansion of an abbreviation.
+   * @return  The expansion, or null if there are none and the abbreviation is left as it is
+   */
+  private static String expansion(Abbreviation abbr) {
+    return abbr.getExpansions().isEmpty() ? null : abbr.getExpansions().get(0).getValue();
+  }
+
+  /**
+   * Appends part of a String without the substring most Appendables would make of it.
+   */
+  private static void append(Appendable out, String s, int start, int end) throws IOException {
+    if(start == end) {
+      return;
+    }
+    if(out instanceof StringBuilder) {
+      ((StringBuilder) out).append(s, start, end);
+    } else if(out instanceof Writer) {
+      ((Writer) out).write(s, start, end - start);
+    } else if(out instanceof CharBuffer) {
+      ((CharBuffer) out).put(s, start, end);
+    } else {
+      out.append(s, start, end);
+    }
+  }
+
+  @Override
+  public String toString() { return template; }
+}
@@ -0,0 +1,279 @@
+package atea;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends writes to the primary database and spreads reads over its replicas in turn. A replica which
+ * cannot be reached is taken out of rotation for a while and its read is retried on the next one.
+ * Once the wait is over the replica is checked before it is given reads again. When no replica is
+ * available reads go to the primary.
+ */
+class ReplicaRouter {
+    static final long RETRY_MILLIS = 5000;
+    private static final int HEALTH_CHECK_TIMEOUT_SECONDS = 2;
+
+    /**
+     * Work done with a connection.
+     * @param <T> The type of the result
+     */
+    interface Work<T> {
+        T apply(Connection conn) throws SQLException;
+    }
+
+    /**
+     * A replica and when it may next be used.
+     */
+    private static final class Replica {
+        final ConnectionPool pool;
+        // System.nanoTime() before which the replica is not used, or 0 if it is healthy
+        volatile long downUntil;
+
+        Replica(ConnectionPool pool) {
+            this.pool = pool;
+        }
+    }
+
+    private final ConnectionPool primary;
+    private final ArrayList<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile long readYourWritesNanos;
+    // nanoTime() has no fixed origin, so lastWrite means nothing until the first write
+    private volatile boolean hasWritten;
+    private volatile long lastWrite;
+
+    /**
+     *
+     * @param primary   The pool of connections to the primary
+     * @param replicas  The pools of connections to the replicas. May be empty.
+     */
+    ReplicaRouter(ConnectionPool primary, List<ConnectionPool> replicas) {
+        this.primary = primary;
+        for(ConnectionPool replica : replicas) {
+            this.replicas.add(new Replica(replica));
+        }
+    }
+
+    ConnectionPool getPrimary() { return primary; }
+
+    /**
+     * Sets how long after a write reads go to the primary, so that a caller reading what it just wrote
+     * does not miss it on a replica which has not caught up.
+     * @param millis    How long, in milliseconds. 0 turns it off.
+     */
+    void setReadYourWritesMillis(long millis) {
+        if(millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative.");
+        }
+        readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    long getReadYourWritesMillis() { return TimeUnit.NANOSECONDS.toMillis(readYourWritesNanos); }
+
+    /**
+     * Gets how many replicas are currently given reads.
+     * @return  The number of healthy replicas
+     */
+    int getHealthyReplicas() {
+        int healthy = 0;
+        for(Replica replica : replicas) {
+            if(replica.downUntil == 0) {
+                healthy++;
+            }
+        }
+
+        return healthy;
+    }
+
+    /**
+     * Does work on the primary.
+     * @param work  The work
+     * @return      The result of the work
+     */
+    <T> T write(Work<T> work) throws SQLException {
+        try(Connection conn = primary.borrow()) {
+            return work.apply(conn);
+        }
+        finally {
+            lastWrite = System.nanoTime();
+            hasWritten = true;
+        }
+    }
+
+    /**
+     * Does work on the next available replica, moving on to the one after it if the replica cannot be
+     * reached.
+     * @param work  The work. It may be run more than once, so it must not change anything.
+     * @return      The result of the work
+     */
+    <T> T read(Work<T> work) throws SQLException {
+        if(readsOnPrimary()) {
+            return onPrimary(work);
+        }
+
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for(int i=0; i<replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if(!isAvailable(replica)) {
+                continue;
+            }
+
+            try(Connection conn = replica.pool.borrow()) {
+                return work.apply(conn);
+            }
+            catch(SQLException ex) {
+                if(!isConnectionFailure(ex)) {
+                    throw ex;
+                }
+                markDown(replica);
+            }
+        }
+
+        return onPrimary(work);
+    }
+
+    /**
+     * Does work on the next available replica without ever running it twice, for work which hands
+     * what it reads on as it goes, such as streaming rows to a consumer. A replica which cannot be
+     * reached is skipped as in read, but once the work has started a lost connection is thrown
+     * rather than retried.
+     * @param work  The work
+     * @return      The result of the work
+     */
+    <T> T stream(Work<T> work) throws SQLException {
+        if(readsOnPrimary()) {
+            return onPrimary(work);
+        }
+
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for(int i=0; i<replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if(!isAvailable(replica)) {
+                continue;
+            }
+
+            Connection conn;
+            try {
+                conn = replica.pool.borrow();
+            }
+            catch(SQLException ex) {
+                if(!isConnectionFailure(ex)) {
+                    throw ex;
+                }
+                markDown(replica);
+                continue;
+            }
+
+            try(conn) {
+                return work.apply(conn);
+            }
+            catch(SQLException ex) {
+                if(isConnectionFailure(ex)) {
+                    markDown(replica);
+                }
+                throw ex;
+            }
+        }
+
+        return onPrimary(work);
+    }
+
+    /**
+     * Determines if reads go to the primary, because there are no replicas or a write was too recent.
+     */
+    private boolean readsOnPrimary() {
+        long window = readYourWritesNanos;
+        return replicas.isEmpty() || (window > 0 && hasWritten && System.nanoTime() - lastWrite < window);
+    }
+
+    /**
+     * Does work on the primary without counting it as a write.
+     * @param work  The work
+     * @return      The result of the work
+     */
+    <T> T onPrimary(Work<T> work) throws SQLException {
+        try(Connection conn = primary.borrow()) {
+            return work.apply(conn);
+        }
+    }
+
+    /**
+     * Determines if a replica may be given a read. A replica which was down is checked once its wait
+     * is over.
+     */
+    private boolean isAvailable(Replica replica) {
+        long downUntil = replica.downUntil;
+        if(downUntil == 0) {
+            return true;
+        }
+        if(System.nanoTime() - downUntil < 0) {
+            return false;
+        }
+
+        return check(replica);
+    }
+
+    /**
+     * Checks every replica, including ones waiting to be retried, and takes the ones which cannot be
+     * reached out of rotation.
+     */
+    void checkHealth() {
+        for(Replica replica : replicas) {
+            check(replica);
+        }
+    }
+
+    private boolean check(Replica replica) {
+        boolean valid;
+        try(Connection conn = replica.pool.borrow()) {
+            valid = conn.isValid(HEALTH_CHECK_TIMEOUT_SECONDS);
+        }
+        catch(SQLException ex) {
+            valid = false;
+        }
+
+        if(valid) {
+            replica.downUntil = 0;
+        } else {
+            markDown(replica);
+        }
+
+        return valid;
+    }
+
+    private void markDown(Replica replica) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS);
+        // 0 means healthy, so never use it as a time
+        replica.downUntil = until == 0 ? 1 : until;
+        // idle connections to the replica are likely broken too
+        replica.pool.closeIdle();
+    }
+
+    /**
+     * Determines if an exception means the database could not be reached, rather than that the work
+     * itself failed.
+     */
+    static boolean isConnectionFailure(SQLException ex) {
+        for(Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if(cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+                if(state != null && state.startsWith("08")) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    void close() {
+        primary.close();
+        for(Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package atea;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * A strategy for assigning confidences to the possible expansions of an abbreviation based on the
+ * context the abbreviation was used in.
+ */
+public interface Scorer {
+
+  /**
+   * Scores each possible expansion of an abbreviation.
+   * @param abbr        The abbreviation being expanded, including the text it was used in
+   * @param expansions  The possible expansions of the abbreviation
+   * @return            A confidence from 0 - 1 for each expansion, in the same order as expansions.
+   *                    The confidences sum to 1 unless no expansion could be scored.
+   * @throws SQLException
+   */
+  double[] score(Abbreviation abbr, ArrayList<Expansion> expansions) throws SQLException;
+}
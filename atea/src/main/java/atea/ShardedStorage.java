@@ -0,0 +1,330 @@
+package atea;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Storage split across several other Storages, called shards. Each abbreviation, with its expansions
+ * and examples, lives on one shard chosen by a hash of the abbreviation, so no shard has to hold the
+ * whole training corpus.
+ *
+ * Ids given out by a shard are only unique within it. They are combined with the number of the
+ * shard, as (id * shards + shard), so that ids are unique across all of them and every id says which
+ * shard to ask about it. Each shard may therefore use up to Integer.MAX_VALUE / shards ids.
+ *
+ * Every request to a shard runs on a virtual thread and fails with an SQLTimeoutException if the
+ * shard takes longer than the timeout. Requests to every shard, such as getAbbreviations(), are sent
+ * to all of them at once.
+ */
+public final class ShardedStorage implements Storage {
+    private final ArrayList<Storage> shards;
+    private final long timeoutMillis;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     *
+     * @param shards        The Storages to split the data across. The order must stay the same every
+     *                      time they are used together.
+     * @param timeoutMillis How long to wait for a shard before giving up
+     */
+    public ShardedStorage(List<? extends Storage> shards, long timeoutMillis) {
+        if(shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is needed.");
+        }
+        if(timeoutMillis < 1) {
+            throw new IllegalArgumentException("timeoutMillis must be at least 1.");
+        }
+
+        this.shards = new ArrayList<>(shards);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public int getShardCount() { return shards.size(); }
+
+    public long getTimeoutMillis() { return timeoutMillis; }
+
+    /**
+     * Gets the shard an abbreviation belongs on.
+     * @param chars The abbreviation
+     * @return      The number of the shard
+     */
+    int shardOf(String chars) {
+        return Math.floorMod(AbbreviationStatistics.normalize(chars).hashCode(), shards.size());
+    }
+
+    private int shardOf(int id) {
+        return Math.floorMod(id, shards.size());
+    }
+
+    // -1, used for "not an abbreviation", stays -1 on every shard
+    private int localId(int id) {
+        return id < 0 ? id : id / shards.size();
+    }
+
+    private int globalId(int localId, int shard) {
+        return localId == -1 ? -1 : localId * shards.size() + shard;
+    }
+
+    private Example globalExample(Example example, int shard) {
+        return new Example(globalId(example.getId(), shard), globalId(example.getAbbreviationId(), shard),
+                globalId(example.getExpansionId(), shard), example.getWords(), example.getWeight());
+    }
+
+    /**
+     * Sends a request to one shard and waits for it.
+     */
+    private <T> T call(int shard, ShardQuery<T> query) throws SQLException {
+        return await(submit(shard, query), shard, true, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    }
+
+    /**
+     * Sends a request to every shard at once and waits for all of them.
+     * @return  The result from each shard, in shard order
+     */
+    private <T> ArrayList<T> scatter(ShardQuery<T> query) throws SQLException {
+        return scatter(query, true);
+    }
+
+    /**
+     * Sends a request to every shard at once and waits for all of them.
+     * @param timed True to give up on shards which take longer than the timeout, False to wait for as
+     *              long as they take
+     * @return      The result from each shard, in shard order
+     */
+    private <T> ArrayList<T> scatter(ShardQuery<T> query, boolean timed) throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        ArrayList<Future<T>> futures = new ArrayList<>();
+        for(int shard=0; shard<shards.size(); shard++) {
+            futures.add(submit(shard, query));
+        }
+
+        ArrayList<T> results = new ArrayList<>();
+        for(int shard=0; shard<shards.size(); shard++) {
+            results.add(await(futures.get(shard), shard, timed, deadline));
+        }
+
+        return results;
+    }
+
+    private <T> Future<T> submit(int shard, ShardQuery<T> query) {
+        Storage storage = shards.get(shard);
+        return executor.submit(() -> query.call(storage));
+    }
+
+    private <T> T await(Future<T> future, int shard, boolean timed, long deadline) throws SQLException {
+        try {
+            if(!timed) {
+                return future.get();
+            }
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        catch(TimeoutException ex) {
+            future.cancel(true);
+            throw new SQLTimeoutException("Shard " + shard + " did not answer within " + timeoutMillis + " ms.", ex);
+        }
+        catch(InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for shard " + shard + ".", ex);
+        }
+        catch(ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if(cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    /**
+     * A request to a shard.
+     * @param <T> The type of the result
+     */
+    private interface ShardQuery<T> {
+        T call(Storage shard) throws SQLException;
+    }
+
+    /**
+     * Gets the common words of every shard.
+     */
+    @Override
+    public String[] getCommonWords() throws SQLException {
+        LinkedHashSet<String> words = new LinkedHashSet<>();
+        for(String[] shardWords : scatter(Storage::getCommonWords)) {
+            for(String word : shardWords) {
+                words.add(word);
+            }
+        }
+
+        return words.toArray(new String[0]);
+    }
+
+    @Override
+    public HashMap<String, Integer> getAbbreviations() throws SQLException {
+        HashMap<String, Integer> abbreviations = new HashMap<>();
+        ArrayList<Map<String, Integer>> results = scatter(Storage::getAbbreviations);
+        for(int shard=0; shard<results.size(); shard++) {
+            for(Map.Entry<String, Integer> abbr : results.get(shard).entrySet()) {
+                abbreviations.put(abbr.getKey(), globalId(abbr.getValue(), shard));
+            }
+        }
+
+        return abbreviations;
+    }
+
+    /**
+     * Takes the most used abbreviations of every shard. An abbreviation and its examples live on one
+     * shard, so the counts need no adding up.
+     */
+    @Override
+    public LinkedHashMap<String, Integer> getMostUsedAbbreviations(int limit) throws SQLException {
+        HashMap<String, Integer> counts = new HashMap<>();
+        for(Map<String, Integer> shardCounts : scatter(storage -> storage.getMostUsedAbbreviations(limit))) {
+            counts.putAll(shardCounts);
+        }
+
+        return Storage.mostUsed(counts, limit);
+    }
+
+    @Override
+    public int abbreviationExists(String chars) throws SQLException {
+        int shard = shardOf(chars);
+        return globalId(call(shard, storage -> storage.abbreviationExists(chars)), shard);
+    }
+
+    @Override
+    public ArrayList<Expansion> getExpansions(int abbr_id) throws SQLException {
+        int shard = shardOf(abbr_id);
+        ArrayList<Expansion> expansions = new ArrayList<>();
+        for(Expansion expansion : call(shard, storage -> storage.getExpansions(localId(abbr_id)))) {
+            expansions.add(new Expansion(globalId(expansion.getId(), shard), expansion.getValue()));
+        }
+
+        return expansions;
+    }
+
+    @Override
+    public ArrayList<Example> getExamples(int abbr_id) throws SQLException {
+        int shard = shardOf(abbr_id);
+        ArrayList<Example> examples = new ArrayList<>();
+        for(Example example : call(shard, storage -> storage.getExamples(localId(abbr_id)))) {
+            examples.add(globalExample(example, shard));
+        }
+
+        return examples;
+    }
+
+    /**
+     * Fingerprints every shard at once. The fingerprints hash the ids each shard uses for its
+     * examples, which are the same however the shards are combined.
+     */
+    @Override
+    public HashMap<Integer, Long> getExampleFingerprints() throws SQLException {
+        HashMap<Integer, Long> fingerprints = new HashMap<>();
+        ArrayList<Map<Integer, Long>> results = scatter(Storage::getExampleFingerprints);
+        for(int shard=0; shard<results.size(); shard++) {
+            for(Map.Entry<Integer, Long> abbr : results.get(shard).entrySet()) {
+                fingerprints.put(globalId(abbr.getKey(), shard), abbr.getValue());
+            }
+        }
+
+        return fingerprints;
+    }
+
+    /**
+     * Reads the shards one after another, since the consumer is called on one thread. The timeout
+     * does not apply, as reading every example of a shard takes as long as it takes.
+     */
+    @Override
+    public long forEachExample(Consumer<Example> consumer) throws SQLException {
+        long examples = 0;
+        for(int shard=0; shard<shards.size(); shard++) {
+            int from = shard;
+            examples += shards.get(shard).forEachExample(example -> consumer.accept(globalExample(example, from)));
+        }
+
+        return examples;
+    }
+
+    @Override
+    public float getExpansionBaseProbability(int abbr_id, int expansion_id) throws SQLException {
+        return call(shardOf(abbr_id),
+                storage -> storage.getExpansionBaseProbability(localId(abbr_id), localId(expansion_id)));
+    }
+
+    @Override
+    public float getExpansionKeywordScore(int abbr_id, int expansion_id, String keyword) throws SQLException {
+        return call(shardOf(abbr_id),
+                storage -> storage.getExpansionKeywordScore(localId(abbr_id), localId(expansion_id), keyword));
+    }
+
+    @Override
+    public float[] getExpansionKeywordScores(int abbr_id, int expansion_id, List<String> keywords) throws SQLException {
+        return call(shardOf(abbr_id),
+                storage -> storage.getExpansionKeywordScores(localId(abbr_id), localId(expansion_id), keywords));
+    }
+
+    @Override
+    public Example insertExample(Abbreviation abbr, String expansion) throws SQLException {
+        int shard = shardOf(abbr.getValue());
+        return globalExample(call(shard, storage -> storage.insertExample(abbr, expansion)), shard);
+    }
+
+    /**
+     * Compacts every shard at once. Each shard holds every example of its abbreviations, so each can
+     * be compacted on its own. The timeout does not apply, as a compaction rewrites the examples of
+     * every abbreviation and cutting it short would leave a shard partly compacted.
+     */
+    @Override
+    public int compactExamples(int maxPerExpansion) throws SQLException {
+        int removed = 0;
+        for(int shardRemoved : scatter(storage -> storage.compactExamples(maxPerExpansion), false)) {
+            removed += shardRemoved;
+        }
+
+        return removed;
+    }
+
+    /**
+     * Closes every shard.
+     */
+    @Override
+    public void close() throws SQLException {
+        executor.shutdown();
+        SQLException failure = null;
+        for(Storage shard : shards) {
+            try {
+                shard.close();
+            }
+            catch(Exception ex) {
+                if(failure == null) {
+                    failure = new SQLException("Could not close every shard.");
+                }
+                failure.addSuppressed(ex);
+            }
+        }
+
+        if(failure != null) {
+            throw failure;
+        }
+    }
+}
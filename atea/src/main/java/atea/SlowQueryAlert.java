@@ -0,0 +1,18 @@
+package atea;
+
+/**
+ * Told about each database query which takes longer than a threshold, see
+ * Database.setSlowQueryAlert. It is called on the thread which ran the query, so it should return
+ * quickly, such as by logging or incrementing a counter.
+ */
+@FunctionalInterface
+public interface SlowQueryAlert {
+
+  /**
+   * Called after a slow query.
+   * @param query           The name of the query, as in DatabaseReport
+   * @param abbreviationId  The abbreviation the query was for, or -1 if it was not for one
+   * @param millis          How long the query took, including waiting for a connection
+   */
+  void slowQuery(String query, int abbreviationId, double millis);
+}
@@ -0,0 +1,139 @@
+package atea;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The differences between the abbreviations of two snapshots, such as the Storage an Atea is using
+ * and one it is about to swap to. Abbreviations are compared by the fingerprints of their examples,
+ * so no words are read. An abbreviation is unchanged if it has the same id and the same examples in
+ * both snapshots, in which case statistics loaded from one are valid for the other.
+ */
+public final class SnapshotDiff {
+  private final Set<String> added;
+  private final Set<String> removed;
+  private final Set<String> changed;
+  private final boolean commonWordsChanged;
+  private final HashSet<Integer> unchangedIds;
+
+  private SnapshotDiff(Set<String> added, Set<String> removed, Set<String> changed, boolean commonWordsChanged,
+                       HashSet<Integer> unchangedIds) {
+    this.added = Collections.unmodifiableSet(added);
+    this.removed = Collections.unmodifiableSet(removed);
+    this.changed = Collections.unmodifiableSet(changed);
+    this.commonWordsChanged = commonWordsChanged;
+    this.unchangedIds = unchangedIds;
+  }
+
+  /**
+   * Compares two snapshots.
+   * @param from  The old snapshot
+   * @param to    The new snapshot
+   * @return      The differences
+   * @throws SQLException
+   */
+  public static SnapshotDiff between(Storage from, Storage to) throws SQLException {
+    Map<String, Integer> fromIds = from.getAbbreviations();
+    Map<String, Integer> toIds = to.getAbbreviations();
+    Map<Integer, Long> fromFingerprints = from.getExampleFingerprints();
+    Map<Integer, Long> toFingerprints = to.getExampleFingerprints();
+    HashSet<String> fromWords = normalized(from.getCommonWords());
+    boolean commonWordsChanged = !fromWords.equals(normalized(to.getCommonWords()));
+
+    TreeSet<String> added = new TreeSet<>();
+    TreeSet<String> removed = new TreeSet<>();
+    TreeSet<String> changed = new TreeSet<>();
+    // an id is only unchanged if every value of it is
+    HashMap<Integer, Boolean> sameIds = new HashMap<>();
+    for(Map.Entry<String, Integer> abbr : fromIds.entrySet()) {
+      Integer toId = toIds.get(abbr.getKey());
+      if(toId == null) {
+        removed.add(abbr.getKey());
+        sameIds.put(abbr.getValue(), false);
+      } else {
+        boolean same = toId.equals(abbr.getValue())
+                && Objects.equals(fromFingerprints.get(abbr.getValue()), toFingerprints.get(toId));
+        if(!same || commonWordsChanged) {
+          changed.add(abbr.getKey());
+        }
+        sameIds.merge(abbr.getValue(), same, Boolean::logicalAnd);
+      }
+    }
+    for(Map.Entry<String, Integer> abbr : toIds.entrySet()) {
+      if(!fromIds.containsKey(abbr.getKey())) {
+        added.add(abbr.getKey());
+        sameIds.put(abbr.getValue(), false);
+      }
+    }
+
+    HashSet<Integer> unchangedIds = new HashSet<>();
+    if(!commonWordsChanged) {
+      for(Map.Entry<Integer, Boolean> id : sameIds.entrySet()) {
+        if(id.getValue()) {
+          unchangedIds.add(id.getKey());
+        }
+      }
+    }
+
+    return new SnapshotDiff(added, removed, changed, commonWordsChanged, unchangedIds);
+  }
+
+  private static HashSet<String> normalized(String[] words) {
+    HashSet<String> normalized = new HashSet<>();
+    for(String word : words) {
+      normalized.add(AbbreviationStatistics.normalize(word));
+    }
+
+    return normalized;
+  }
+
+  /**
+   * Gets the abbreviations only in the new snapshot.
+   * @return  The abbreviations, in alphabetical order
+   */
+  public Set<String> getAdded() { return added; }
+
+  /**
+   * Gets the abbreviations only in the old snapshot.
+   * @return  The abbreviations, in alphabetical order
+   */
+  public Set<String> getRemoved() { return removed; }
+
+  /**
+   * Gets the abbreviations in both snapshots whose examples or id differ, or every abbreviation in
+   * both if the common words differ, since the common words decide which words are counted.
+   * @return  The abbreviations, in alphabetical order
+   */
+  public Set<String> getChanged() { return changed; }
+
+  public boolean isCommonWordsChanged() { return commonWordsChanged; }
+
+  /**
+   * Determines if there are no differences at all.
+   * @return  True if the snapshots hold the same abbreviations and examples
+   */
+  public boolean isEmpty() {
+    return added.isEmpty() && removed.isEmpty() && changed.isEmpty() && !commonWordsChanged;
+  }
+
+  /**
+   * Determines if the statistics of an abbreviation loaded from the old snapshot can be kept.
+   * @param abbr_id The id of the abbreviation
+   * @return        True if the abbreviation is unchanged
+   */
+  boolean isUnchanged(int abbr_id) { return unchangedIds.contains(abbr_id); }
+
+  @Override
+  public String toString() {
+    return "added: " + Arrays.toString(added.toArray()) + ", removed: " + Arrays.toString(removed.toArray())
+            + ", changed: " + Arrays.toString(changed.toArray())
+            + (commonWordsChanged ? ", common words changed" : "");
+  }
+}
@@ -7,25 +7,31 @@ import java.util.Arrays;
  * re-composition.
  */
 public final class SplitString {
-    private static final String defaultWordCharSet = "A-z_";
-    private static String wordCharPattern;
-    private static String wordPattern;
-    private static String delimiterPattern;
+    private String wordCharPattern;
+    private String wordPattern;
+    private String delimiterPattern;
 
     private String text;
     private String[] words;
     private String[] delimiters;
+    private int[] wordStarts;
 
     /**
      *
      * @param text          The text to be split
      */
     public SplitString(String text) {
-        setRegexPatterns(defaultWordCharSet);
+        this(text, Tokenizer.ASCII);
+    }
 
+    /**
+     *
+     * @param text          The text to be split
+     * @param tokenizer     Decides which characters belong to words
+     */
+    public SplitString(String text, Tokenizer tokenizer) {
         this.text = text;
-        splitWords();
-        splitDelimiters();
+        split(tokenizer.findWords(text));
     }
 
     /**
@@ -39,6 +45,7 @@ public final class SplitString {
         this.text = text;
         splitWords();
         splitDelimiters();
+        findWordStarts();
     }
 
     /**
@@ -57,6 +64,42 @@ public final class SplitString {
 
     public String[] getDelimiters() { return delimiters; }
 
+    /**
+     * Gets where a word starts in the text.
+     * @param index The index of the word
+     * @return      The index in the text of the first character of the word
+     */
+    public int getWordStart(int index) { return wordStarts[index]; }
+
+    /**
+     * Gets where a word ends in the text.
+     * @param index The index of the word
+     * @return      The index in the text just after the last character of the word
+     */
+    public int getWordEnd(int index) { return wordStarts[index] + words[index].length(); }
+
+    /**
+     * Cuts the text into words and delimiters at the bounds found by a Tokenizer.
+     * @param bounds    The start of each word followed by its end
+     */
+    private void split(int[] bounds) {
+        int count = bounds.length / 2;
+        words = new String[count];
+        delimiters = new String[count + 1];
+        wordStarts = new int[count];
+
+        int position = 0;
+        for(int i=0; i<count; i++) {
+            int start = bounds[2 * i];
+            int end = bounds[2 * i + 1];
+            delimiters[i] = text.substring(position, start);
+            words[i] = text.substring(start, end);
+            wordStarts[i] = start;
+            position = end;
+        }
+        delimiters[count] = text.substring(position);
+    }
+
     /**
      * Gets the words in a string.
      */
@@ -77,8 +120,7 @@ public final class SplitString {
     private void splitDelimiters() {
         delimiters = text.split(wordPattern);
 
-        String lastCharacter = text.substring(text.length() - 1);
-        if(lastCharacter.matches(wordCharPattern)) {
+        if(!text.isEmpty() && text.substring(text.length() - 1).matches(wordCharPattern)) {
             // the string ends with a word and the final blank delimiter will be missing
             // add one more blank element to the end of delims
             delimiters = Arrays.copyOfRange(delimiters, 0, delimiters.length + 1);
@@ -86,6 +128,19 @@ public final class SplitString {
         }
     }
 
+    /**
+     * Finds where each word starts in the text, from the lengths of the words and delimiters before it.
+     */
+    private void findWordStarts() {
+        wordStarts = new int[words.length];
+        int position = 0;
+        for(int i=0; i<words.length; i++) {
+            position += delimiters[i].length();
+            wordStarts[i] = position;
+            position += words[i].length();
+        }
+    }
+
     /**
      * Gets the text split into an array of alternating delimiters and words. The array will always
      * start and end with a delimiter.
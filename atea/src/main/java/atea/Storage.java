@@ -0,0 +1,226 @@
+package atea;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Where ATEA keeps its abbreviations, expansions and examples. Database stores them in MySQL and
+ * LocalStorage stores them in files on the local disk. Implementations must be safe to use from
+ * several threads at once.
+ */
+public interface Storage extends AutoCloseable {
+
+  /**
+   * Gets the words which are too common to be keywords.
+   * @return  The common words
+   * @throws SQLException
+   */
+  String[] getCommonWords() throws SQLException;
+
+  /**
+   * Gets every abbreviation.
+   * @return  A map of abbreviations to their ids
+   * @throws SQLException
+   */
+  Map<String, Integer> getAbbreviations() throws SQLException;
+
+  /**
+   * Determines if the provided string of characters is an existing abbreviation.
+   * @param chars A string to be checked
+   * @return      The id of the abbreviation if chars is found, otherwise -1
+   * @throws SQLException
+   */
+  int abbreviationExists(String chars) throws SQLException;
+
+  /**
+   * Gets all expansions of an abbreviation.
+   * @param abbr_id The id of the abbreviation to get expansions for
+   * @return        An ArrayList of Expansion objects
+   * @throws SQLException
+   */
+  ArrayList<Expansion> getExpansions(int abbr_id) throws SQLException;
+
+  /**
+   * Gets every example recorded for an abbreviation.
+   * @param abbr_id The id of the abbreviation to get examples for
+   * @return        An ArrayList of Example objects ordered by id
+   * @throws SQLException
+   */
+  ArrayList<Example> getExamples(int abbr_id) throws SQLException;
+
+  /**
+   * Reads every example once, such as to build the statistics of every abbreviation at once.
+   * Implementations should stream the examples rather than hold them all in memory.
+   * @param consumer  Called with each example in turn, on the calling thread
+   * @return          The number of examples read
+   * @throws SQLException
+   */
+  default long forEachExample(Consumer<Example> consumer) throws SQLException {
+    long examples = 0;
+    for(int abbr_id : new HashSet<>(getAbbreviations().values())) {
+      for(Example example : getExamples(abbr_id)) {
+        consumer.accept(example);
+        examples++;
+      }
+    }
+
+    return examples;
+  }
+
+  /**
+   * Gets a fingerprint of the examples of each abbreviation, which changes whenever an example of
+   * the abbreviation is added, removed or reweighted. Two storages give the same fingerprint for
+   * the same examples, so snapshots can be compared without reading their words.
+   * @return  A map of abbreviation ids to fingerprints. Abbreviations without examples are left out.
+   * @throws SQLException
+   */
+  default Map<Integer, Long> getExampleFingerprints() throws SQLException {
+    HashMap<Integer, Long> fingerprints = new HashMap<>();
+    for(int abbr_id : new HashSet<>(getAbbreviations().values())) {
+      ArrayList<Example> examples = getExamples(abbr_id);
+      long hashes = 0;
+      for(Example example : examples) {
+        hashes ^= fingerprint(example.getId(), example.getExpansionId(), example.getWeight());
+      }
+      if(!examples.isEmpty()) {
+        fingerprints.put(abbr_id, fingerprint(examples.size(), hashes));
+      }
+    }
+
+    return fingerprints;
+  }
+
+  /**
+   * Hashes one example for getExampleFingerprints. The words are left out since examples never
+   * change them. This is the CRC32 of "id,expansion_id,weight", as MySQL computes it.
+   */
+  static long fingerprint(int id, int expansion_id, int weight) {
+    CRC32 crc = new CRC32();
+    crc.update((id + "," + expansion_id + "," + weight).getBytes(StandardCharsets.US_ASCII));
+    return crc.getValue();
+  }
+
+  /**
+   * Combines the hashes of the examples of an abbreviation into its fingerprint.
+   * @param examples  The number of examples
+   * @param hashes    The hashes of the examples XORed together
+   */
+  static long fingerprint(long examples, long hashes) {
+    return examples << 32 ^ hashes;
+  }
+
+  /**
+   * Gets the fraction of the examples of an abbreviation which use an expansion.
+   * @param abbr_id       The id of the abbreviation
+   * @param expansion_id  The id of the expansion
+   * @return              A value from 0 - 1
+   * @throws SQLException
+   */
+  float getExpansionBaseProbability(int abbr_id, int expansion_id) throws SQLException;
+
+  /**
+   * Gets the fraction of the examples of an abbreviation/expansion combo which contain a keyword.
+   * @param abbr_id       The id of the abbreviation
+   * @param expansion_id  The id of the expansion
+   * @param keyword       The keyword to look for
+   * @return              A value from 0 - 1
+   * @throws SQLException
+   */
+  float getExpansionKeywordScore(int abbr_id, int expansion_id, String keyword) throws SQLException;
+
+  /**
+   * Gets the keyword score of several keywords at once. Implementations should score them all in as
+   * few round trips as they can.
+   * @param abbr_id       The id of the abbreviation
+   * @param expansion_id  The id of the expansion
+   * @param keywords      The keywords to look for
+   * @return              The score of each keyword, in the same order
+   * @throws SQLException
+   */
+  default float[] getExpansionKeywordScores(int abbr_id, int expansion_id, List<String> keywords) throws SQLException {
+    float[] scores = new float[keywords.size()];
+    for(int i=0; i<scores.length; i++) {
+      scores[i] = getExpansionKeywordScore(abbr_id, expansion_id, keywords.get(i));
+    }
+
+    return scores;
+  }
+
+  /**
+   * Gets the abbreviations with the most examples, such as to load them before they are needed.
+   * Implementations should count the examples without reading them.
+   * @param limit The most abbreviations to return
+   * @return      A map of abbreviations to their number of examples, from the most examples to the
+   *              fewest
+   * @throws SQLException
+   */
+  default LinkedHashMap<String, Integer> getMostUsedAbbreviations(int limit) throws SQLException {
+    HashMap<Integer, String> values = new HashMap<>();
+    for(Map.Entry<String, Integer> abbr : getAbbreviations().entrySet()) {
+      values.putIfAbsent(abbr.getValue(), abbr.getKey());
+    }
+
+    HashMap<String, Integer> counts = new HashMap<>();
+    for(Map.Entry<Integer, String> abbr : values.entrySet()) {
+      counts.put(abbr.getValue(), getExamples(abbr.getKey()).size());
+    }
+
+    return mostUsed(counts, limit);
+  }
+
+  /**
+   * Orders abbreviations from the most examples to the fewest, keeping the first limit of them.
+   * @param counts  A map of abbreviations to their number of examples
+   * @param limit   The most abbreviations to keep
+   * @return        The kept abbreviations in order
+   */
+  static LinkedHashMap<String, Integer> mostUsed(Map<String, Integer> counts, int limit) {
+    ArrayList<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+    entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+
+    LinkedHashMap<String, Integer> mostUsed = new LinkedHashMap<>();
+    for(Map.Entry<String, Integer> entry : entries.subList(0, Math.min(Math.max(limit, 0), entries.size()))) {
+      mostUsed.put(entry.getKey(), entry.getValue());
+    }
+
+    return mostUsed;
+  }
+
+  /**
+   * Records an example, adding the abbreviation and expansion if they are new.
+   * @param abbr      The abbreviation and the text it was used in
+   * @param expansion What the abbreviation stood for
+   * @return          The recorded Example
+   * @throws SQLException
+   */
+  Example insertExample(Abbreviation abbr, String expansion) throws SQLException;
+
+  /**
+   * Merges examples with the same abbreviation, expansion and words into one weighted example and
+   * keeps at most maxPerExpansion examples for each expansion, sampled at random by weight. Scores
+   * count an example as many times as its weight, so base probabilities stay the same and keyword
+   * scores are estimated from the sample.
+   * @param maxPerExpansion The most examples to keep for each abbreviation/expansion combo
+   * @return                The number of examples removed
+   * @throws SQLException   SQLFeatureNotSupportedException if the storage cannot compact its examples
+   */
+  default int compactExamples(int maxPerExpansion) throws SQLException {
+    throw new SQLFeatureNotSupportedException("This storage cannot compact its examples.");
+  }
+
+  /**
+   * Releases any connections or files held open.
+   * @throws SQLException
+   */
+  @Override
+  default void close() throws SQLException {}
+}
@@ -0,0 +1,162 @@
+package atea;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Decides which characters of a text belong to words. Whether a character is a word character is
+ * worked out once for every character of the Basic Multilingual Plane and kept in a BitSet, so
+ * splitting a text costs one table lookup per character whatever its language. Characters outside
+ * the BMP, which are rare, are classified as they are met.
+ *
+ * ASCII is the original tokenizer of ATEA, which treats "A-z_" as word characters. UNICODE treats
+ * letters, combining marks, digits and underscores in any script as word characters and keeps
+ * apostrophes inside words, so "eli5", "café" and "don't" are each one word.
+ */
+public final class Tokenizer {
+    private static final int BMP_SIZE = 0x10000;
+
+    /**
+     * Word characters A-z and _, which includes [ \ ] ^ and ` and excludes digits. This is the
+     * default, matching how the examples already stored were split.
+     */
+    public static final Tokenizer ASCII = ascii();
+
+    /**
+     * Letters, marks, digits and _ in any script, with apostrophes kept inside words.
+     */
+    public static final Tokenizer UNICODE = new Tokenizer(true, true, false, false);
+
+    private final BitSet wordChars;
+    private final BitSet joiners;
+    private final boolean unicode;
+    private final boolean digits;
+
+    private Tokenizer(BitSet wordChars, BitSet joiners, boolean unicode, boolean digits) {
+        this.wordChars = wordChars;
+        this.joiners = joiners;
+        this.unicode = unicode;
+        this.digits = digits;
+    }
+
+    /**
+     * Creates a tokenizer which treats letters, marks and _ in any script as word characters.
+     * Apostrophes, dots and hyphens are only kept when they join two word characters, so "U.S." is
+     * split into the word "U.S" and the delimiter ".".
+     * @param digits        Whether digits are word characters
+     * @param apostrophes   Whether an apostrophe (' or ’) inside a word is part of it
+     * @param dots          Whether a dot inside a word is part of it
+     * @param hyphens       Whether a hyphen inside a word is part of it
+     */
+    public Tokenizer(boolean digits, boolean apostrophes, boolean dots, boolean hyphens) {
+        this.unicode = true;
+        this.digits = digits;
+        this.wordChars = new BitSet(BMP_SIZE);
+        for(int c=0; c<BMP_SIZE; c++) {
+            if(isUnicodeWordChar(c, digits)) {
+                wordChars.set(c);
+            }
+        }
+
+        this.joiners = new BitSet(128);
+        if(apostrophes) {
+            joiners.set('\'');
+            joiners.set('’');
+        }
+        if(dots) {
+            joiners.set('.');
+        }
+        if(hyphens) {
+            joiners.set('-');
+            joiners.set('‐');
+        }
+    }
+
+    private static Tokenizer ascii() {
+        BitSet wordChars = new BitSet(BMP_SIZE);
+        wordChars.set('A', 'z' + 1);
+        wordChars.set('_');
+
+        return new Tokenizer(wordChars, new BitSet(), false, false);
+    }
+
+    private static boolean isUnicodeWordChar(int cp, boolean digits) {
+        switch(Character.getType(cp)) {
+            case Character.UPPERCASE_LETTER:
+            case Character.LOWERCASE_LETTER:
+            case Character.TITLECASE_LETTER:
+            case Character.MODIFIER_LETTER:
+            case Character.OTHER_LETTER:
+            case Character.NON_SPACING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.CONNECTOR_PUNCTUATION:
+                return true;
+            case Character.DECIMAL_DIGIT_NUMBER:
+            case Character.LETTER_NUMBER:
+                return digits;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Determines if the code point at a position of a text is a word character.
+     * @return  The number of chars the word character takes up, or 0 if it is not a word character
+     */
+    private int wordCharAt(String text, int i) {
+        char c = text.charAt(i);
+        if(!Character.isHighSurrogate(c)) {
+            return wordChars.get(c) ? 1 : 0;
+        }
+
+        int cp = text.codePointAt(i);
+        if(cp == c) {
+            // an unpaired surrogate
+            return 0;
+        }
+        return unicode && isUnicodeWordChar(cp, digits) ? 2 : 0;
+    }
+
+    /**
+     * Finds the words of a text.
+     * @param text  The text to split
+     * @return      The start of each word followed by its end, as used by String.substring
+     */
+    int[] findWords(String text) {
+        int[] bounds = new int[16];
+        int count = 0;
+
+        int i = 0;
+        int length = text.length();
+        while(i < length) {
+            int width = wordCharAt(text, i);
+            if(width == 0) {
+                i++;
+                continue;
+            }
+
+            int start = i;
+            i += width;
+            while(i < length) {
+                width = wordCharAt(text, i);
+                if(width == 0 && i + 1 < length && joiners.get(text.charAt(i)) && wordCharAt(text, i + 1) > 0) {
+                    // a joiner between two word characters
+                    width = 1;
+                }
+                if(width == 0) {
+                    break;
+                }
+                i += width;
+            }
+
+            if(count + 2 > bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[count++] = start;
+            bounds[count++] = i;
+        }
+
+        return Arrays.copyOf(bounds, count);
+    }
+}
@@ -0,0 +1,129 @@
+package atea;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A compact, immutable trie of folded abbreviations for finding abbreviations a few edits away from
+ * a word. The nodes are kept in parallel arrays, each node pointing to its first child and its next
+ * sibling, so the whole trie is a handful of arrays however many abbreviations it holds.
+ */
+final class Trie {
+  private final char[] labels;
+  private final int[] firstChild;
+  private final int[] nextSibling;
+  private final int[] ids;
+  private final int depth;
+
+  private Trie(char[] labels, int[] firstChild, int[] nextSibling, int[] ids, int depth) {
+    this.labels = labels;
+    this.firstChild = firstChild;
+    this.nextSibling = nextSibling;
+    this.ids = ids;
+    this.depth = depth;
+  }
+
+  /**
+   * Builds a trie.
+   * @param keys  A map of folded abbreviations to their ids
+   * @return      The trie
+   */
+  static Trie of(Map<String, Integer> keys) {
+    int capacity = 1;
+    for(String key : keys.keySet()) {
+      capacity += key.length();
+    }
+
+    char[] labels = new char[capacity];
+    int[] firstChild = new int[capacity];
+    int[] nextSibling = new int[capacity];
+    int[] ids = new int[capacity];
+    Arrays.fill(firstChild, -1);
+    Arrays.fill(nextSibling, -1);
+    Arrays.fill(ids, -1);
+
+    int size = 1;
+    int depth = 0;
+    for(Map.Entry<String, Integer> entry : keys.entrySet()) {
+      String key = entry.getKey();
+      depth = Math.max(depth, key.length());
+
+      int node = 0;
+      for(int i=0; i<key.length(); i++) {
+        char c = key.charAt(i);
+        int child = firstChild[node];
+        while(child != -1 && labels[child] != c) {
+          child = nextSibling[child];
+        }
+        if(child == -1) {
+          child = size++;
+          labels[child] = c;
+          nextSibling[child] = firstChild[node];
+          firstChild[node] = child;
+        }
+        node = child;
+      }
+      ids[node] = entry.getValue();
+    }
+
+    return new Trie(Arrays.copyOf(labels, size), Arrays.copyOf(firstChild, size),
+            Arrays.copyOf(nextSibling, size), Arrays.copyOf(ids, size), depth);
+  }
+
+  /**
+   * Finds the abbreviation fewest edits away from a word. An edit inserts, deletes or replaces one
+   * character.
+   * @param word      The folded word
+   * @param maxEdits  The most edits allowed
+   * @return          The id of the closest abbreviation, or -1 if none is within maxEdits. Of
+   *                  abbreviations equally close, the one with the lowest id is taken.
+   */
+  int find(String word, int maxEdits) {
+    if(word.length() > depth + maxEdits) {
+      return -1;
+    }
+
+    // one row of the edit distance table for each depth of the trie
+    int[][] rows = new int[Math.min(depth, word.length() + maxEdits) + 1][word.length() + 1];
+    for(int j=0; j<=word.length(); j++) {
+      rows[0][j] = j;
+    }
+
+    int[] best = {-1, maxEdits + 1};
+    for(int child = firstChild[0]; child != -1; child = nextSibling[child]) {
+      search(child, 1, word, maxEdits, rows, best);
+    }
+
+    return best[0];
+  }
+
+  private void search(int node, int row, String word, int maxEdits, int[][] rows, int[] best) {
+    if(row >= rows.length) {
+      return;
+    }
+
+    int[] previous = rows[row - 1];
+    int[] current = rows[row];
+    current[0] = row;
+    int smallest = current[0];
+    char c = labels[node];
+    for(int j=1; j<=word.length(); j++) {
+      int replace = previous[j - 1] + (word.charAt(j - 1) == c ? 0 : 1);
+      current[j] = Math.min(replace, Math.min(previous[j], current[j - 1]) + 1);
+      smallest = Math.min(smallest, current[j]);
+    }
+
+    int distance = current[word.length()];
+    if(ids[node] != -1 && (distance < best[1] || distance == best[1] && ids[node] < best[0])) {
+      best[0] = ids[node];
+      best[1] = distance;
+    }
+
+    // no word below this node can be closer than the closest cell of its row
+    if(smallest <= Math.min(maxEdits, best[1])) {
+      for(int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+        search(child, row + 1, word, maxEdits, rows, best);
+      }
+    }
+  }
+}
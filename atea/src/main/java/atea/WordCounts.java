@@ -0,0 +1,214 @@
+package atea;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable map of words to their counts for each expansion, which shares all but a few of its
+ * nodes with the map it was made from. It is a hash trie: each node branches on 5 bits of the hash of
+ * a word and holds only the branches in use. Putting a word copies the nodes on its path, at most 7,
+ * so adding an example costs about the same however many words an abbreviation has been used with.
+ *
+ * The count arrays are not copied. They must not be changed once put.
+ */
+final class WordCounts {
+  static final WordCounts EMPTY = new WordCounts(new Node(0, new Object[0]), 0);
+  private static final int BITS = 5;
+
+  /**
+   * A word and its counts.
+   */
+  private static final class Entry {
+    final String word;
+    final int hash;
+    final int[] counts;
+
+    Entry(String word, int hash, int[] counts) {
+      this.word = word;
+      this.hash = hash;
+      this.counts = counts;
+    }
+  }
+
+  /**
+   * Words whose hashes are equal, which no number of levels would tell apart.
+   */
+  private static final class Collision {
+    final int hash;
+    final Entry[] entries;
+
+    Collision(int hash, Entry[] entries) {
+      this.hash = hash;
+      this.entries = entries;
+    }
+  }
+
+  /**
+   * A branch of the trie. Bit i of the bitmap is set if the branch for the 5 bits i is in use, and
+   * the branches in use are kept in order of i. Each is a Node, an Entry or a Collision.
+   */
+  private static final class Node {
+    final int bitmap;
+    final Object[] slots;
+
+    Node(int bitmap, Object[] slots) {
+      this.bitmap = bitmap;
+      this.slots = slots;
+    }
+  }
+
+  private final Node root;
+  private final int size;
+
+  private WordCounts(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Creates a map holding the same counts as another map.
+   * @param counts  The counts of each word
+   * @return        The map
+   */
+  static WordCounts of(Map<String, int[]> counts) {
+    WordCounts map = EMPTY;
+    for(Map.Entry<String, int[]> word : counts.entrySet()) {
+      map = map.with(word.getKey(), word.getValue());
+    }
+
+    return map;
+  }
+
+  int size() { return size; }
+
+  private static int position(int hash, int shift) {
+    return (hash >>> shift) & ((1 << BITS) - 1);
+  }
+
+  /**
+   * Gets the counts of a word.
+   * @param word  A normalized word
+   * @return      The counts, or null if the word is not in the map
+   */
+  int[] get(String word) {
+    int hash = word.hashCode();
+    Object slot = root;
+    for(int shift=0; ; shift += BITS) {
+      if(slot instanceof Node) {
+        Node node = (Node) slot;
+        int bit = 1 << position(hash, shift);
+        if((node.bitmap & bit) == 0) {
+          return null;
+        }
+        slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+      } else if(slot instanceof Entry) {
+        Entry entry = (Entry) slot;
+        return entry.hash == hash && entry.word.equals(word) ? entry.counts : null;
+      } else {
+        Collision collision = (Collision) slot;
+        if(collision.hash == hash) {
+          for(Entry entry : collision.entries) {
+            if(entry.word.equals(word)) {
+              return entry.counts;
+            }
+          }
+        }
+        return null;
+      }
+    }
+  }
+
+  boolean containsKey(String word) { return get(word) != null; }
+
+  /**
+   * Creates a copy of this map with the counts of a word set.
+   * @param word    A normalized word
+   * @param counts  The counts of the word, which must not be changed afterwards
+   * @return        The new map. This map is not changed.
+   */
+  WordCounts with(String word, int[] counts) {
+    boolean[] added = {false};
+    Node root = put(this.root, 0, new Entry(word, word.hashCode(), counts), added);
+
+    return new WordCounts(root, added[0] ? size + 1 : size);
+  }
+
+  private static Node put(Node node, int shift, Entry entry, boolean[] added) {
+    int bit = 1 << position(entry.hash, shift);
+    int index = Integer.bitCount(node.bitmap & (bit - 1));
+    if((node.bitmap & bit) == 0) {
+      added[0] = true;
+      Object[] slots = new Object[node.slots.length + 1];
+      System.arraycopy(node.slots, 0, slots, 0, index);
+      slots[index] = entry;
+      System.arraycopy(node.slots, index, slots, index + 1, node.slots.length - index);
+      return new Node(node.bitmap | bit, slots);
+    }
+
+    Object slot = node.slots[index];
+    Object[] slots = node.slots.clone();
+    slots[index] = slot instanceof Node
+            ? put((Node) slot, shift + BITS, entry, added)
+            : merge(slot, shift + BITS, entry, added);
+    return new Node(node.bitmap, slots);
+  }
+
+  /**
+   * Puts an entry where an Entry or a Collision already is, branching until their hashes differ.
+   */
+  private static Object merge(Object leaf, int shift, Entry entry, boolean[] added) {
+    int hash = leaf instanceof Entry ? ((Entry) leaf).hash : ((Collision) leaf).hash;
+    if(hash == entry.hash) {
+      Entry[] entries = leaf instanceof Entry ? new Entry[] {(Entry) leaf} : ((Collision) leaf).entries;
+      for(int i=0; i<entries.length; i++) {
+        if(entries[i].word.equals(entry.word)) {
+          if(leaf instanceof Entry) {
+            return entry;
+          }
+          Entry[] replaced = entries.clone();
+          replaced[i] = entry;
+          return new Collision(hash, replaced);
+        }
+      }
+      added[0] = true;
+      Entry[] extended = new Entry[entries.length + 1];
+      System.arraycopy(entries, 0, extended, 0, entries.length);
+      extended[entries.length] = entry;
+      return new Collision(hash, extended);
+    }
+
+    // the hashes differ in a bit this level or a deeper one looks at, since they matched every bit above
+    added[0] = true;
+    int leafPosition = position(hash, shift);
+    int entryPosition = position(entry.hash, shift);
+    if(leafPosition == entryPosition) {
+      boolean[] ignored = {false};
+      return new Node(1 << leafPosition, new Object[] {merge(leaf, shift + BITS, entry, ignored)});
+    }
+
+    Object[] slots = leafPosition < entryPosition ? new Object[] {leaf, entry} : new Object[] {entry, leaf};
+    return new Node((1 << leafPosition) | (1 << entryPosition), slots);
+  }
+
+  /**
+   * Calls a function with every word and its counts, in no particular order.
+   * @param action  The function
+   */
+  void forEach(BiConsumer<String, int[]> action) {
+    forEach(root, action);
+  }
+
+  private static void forEach(Object slot, BiConsumer<String, int[]> action) {
+    if(slot instanceof Node) {
+      for(Object child : ((Node) slot).slots) {
+        forEach(child, action);
+      }
+    } else if(slot instanceof Entry) {
+      action.accept(((Entry) slot).word, ((Entry) slot).counts);
+    } else {
+      for(Entry entry : ((Collision) slot).entries) {
+        action.accept(entry.word, entry.counts);
+      }
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When writing annotations")
+class AnnotationWriterTest {
+
+    private static String write(String document, ArrayList<Abbreviation> abbrs) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(AnnotationWriter writer = new AnnotationWriter(out)) {
+            writer.write(document, abbrs);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("each abbreviation should be written with its offsets and ranked expansions")
+    void record() throws IOException {
+        SplitString ss = new SplitString("Call the IT desk");
+        ArrayList<Expansion> expansions = new ArrayList<>(Arrays.asList(
+                new Expansion(1, "information technology", 0.9),
+                new Expansion(-1, "", 0.0999999)));
+        ArrayList<Abbreviation> abbrs = new ArrayList<>();
+        abbrs.add(new Abbreviation(1, "IT", ss, 2, expansions));
+
+        assertEquals("{\"document\":\"a.txt\",\"abbreviations\":[{\"value\":\"IT\",\"start\":9,\"end\":11,"
+                + "\"expansions\":[{\"value\":\"information technology\",\"confidence\":0.900000},"
+                + "{\"value\":\"\",\"confidence\":0.100000}]}]}\n", write("a.txt", abbrs));
+    }
+
+    @Test
+    @DisplayName("strings should be escaped and encoded as UTF-8")
+    void escaping() throws IOException {
+        assertEquals("{\"document\":\"a \\\"q\\\"\\\\\\n\\u0001 é 中 😀\",\"abbreviations\":[]}\n",
+                write("a \"q\"\\\n\u0001 é 中 😀", new ArrayList<>()));
+        assertEquals("{\"document\":null,\"abbreviations\":[]}\n", write(null, new ArrayList<>()));
+    }
+
+    @Test
+    @DisplayName("output larger than the buffer should be written whole")
+    void largeOutput() throws IOException {
+        String document = String.join("", Collections.nCopies(20000, "ü"));
+        String json = write(document, new ArrayList<>());
+        assertEquals("{\"document\":\"" + document + "\",\"abbreviations\":[]}\n", json);
+    }
+}
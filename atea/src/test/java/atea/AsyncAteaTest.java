@@ -0,0 +1,163 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When running Atea asynchronously")
+class AsyncAteaTest {
+
+    @Mock
+    private Database db = Mockito.mock(Database.class);
+
+    private AsyncAtea async;
+
+    @BeforeEach
+    void init() throws SQLException {
+        Mockito.when(db.getCommonWords()).thenReturn(new String[] {"a", "is"});
+        HashMap<String, Integer> abbreviations = new HashMap<>();
+        abbreviations.put("abbr", 1);
+        Mockito.when(db.getAbbreviations()).thenReturn(abbreviations);
+        ArrayList<Expansion> expansions = new ArrayList<>();
+        expansions.add(new Expansion(1, "abbreviation"));
+        Mockito.when(db.getExpansions(1)).thenReturn(expansions);
+        Mockito.when(db.getExpansionBaseProbability(Mockito.anyInt(), Mockito.anyInt())).thenReturn(-1f);
+
+        async = new AsyncAtea(new Atea(db), 2);
+    }
+
+    @AfterEach
+    void close() {
+        async.close();
+    }
+
+    /**
+     * Publishes a fixed list of documents, one per requested item, and records how many were requested.
+     */
+    private static final class ListPublisher implements Flow.Publisher<String> {
+        private final List<String> texts;
+        private final AtomicLong requested = new AtomicLong();
+
+        ListPublisher(List<String> texts) { this.texts = texts; }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super String> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                private int next = 0;
+                private boolean done = false;
+
+                @Override
+                public synchronized void request(long n) {
+                    requested.addAndGet(n);
+                    for(long i=0; i<n && next < texts.size(); i++) {
+                        subscriber.onNext(texts.get(next++));
+                    }
+                    if(next == texts.size() && !done) {
+                        done = true;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {}
+            });
+        }
+    }
+
+    /**
+     * Collects results, requesting a fixed number up front.
+     */
+    private static final class CollectingSubscriber implements Flow.Subscriber<String> {
+        private final long initialRequest;
+        private final List<String> results = new CopyOnWriteArrayList<>();
+        private final CompletableFuture<List<String>> done = new CompletableFuture<>();
+        private volatile Flow.Subscription subscription;
+
+        CollectingSubscriber(long initialRequest) { this.initialRequest = initialRequest; }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if(initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(String item) { results.add(item); }
+
+        @Override
+        public void onError(Throwable throwable) { done.completeExceptionally(throwable); }
+
+        @Override
+        public void onComplete() { done.complete(results); }
+    }
+
+    @Test
+    @DisplayName("expand should complete with the expanded text")
+    void expandTest() throws Exception {
+        assertEquals("an abbreviation is short", async.expand("an abbr is short").get(10, TimeUnit.SECONDS));
+        assertEquals("an abbr (abbreviation) is short", async.explain("an abbr is short").get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("a failed prediction should complete exceptionally with the SQLException")
+    void failureTest() throws SQLException {
+        Mockito.when(db.getExamples(1)).thenThrow(new SQLException("database is down"));
+        ExecutionException ex = assertThrows(ExecutionException.class,
+                () -> async.predictAbbreviations("an abbr").get(10, TimeUnit.SECONDS));
+        assertTrue(ex.getCause() instanceof SQLException);
+    }
+
+    @Test
+    @DisplayName("a stream of documents should be expanded in order")
+    void streamTest() throws Exception {
+        ArrayList<String> texts = new ArrayList<>();
+        ArrayList<String> expected = new ArrayList<>();
+        for(int i=0; i<20; i++) {
+            texts.add("abbr number " + i);
+            expected.add("abbreviation number " + i);
+        }
+
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        async.expand(new ListPublisher(texts)).subscribe(subscriber);
+        assertEquals(expected, subscriber.done.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("documents should only be requested as results are requested")
+    void backpressureTest() throws Exception {
+        ArrayList<String> texts = new ArrayList<>();
+        for(int i=0; i<20; i++) {
+            texts.add("abbr " + i);
+        }
+        ListPublisher publisher = new ListPublisher(texts);
+        CollectingSubscriber subscriber = new CollectingSubscriber(0);
+        async.expand(publisher).subscribe(subscriber);
+
+        Thread.sleep(100);
+        assertEquals(0, subscriber.results.size());
+        assertEquals(async.getMaxConcurrentDocuments(), publisher.requested.get());
+
+        subscriber.subscription.request(3);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while(subscriber.results.size() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(50);
+        assertEquals(3, subscriber.results.size());
+        assertEquals(async.getMaxConcurrentDocuments() + 3, publisher.requested.get());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(20, subscriber.done.get(10, TimeUnit.SECONDS).size());
+    }
+}
@@ -0,0 +1,114 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When running the command line tool")
+class AteaCliTest {
+
+    @TempDir
+    Path dir;
+
+    private Path snapshot;
+    private ByteArrayOutputStream out;
+    private ByteArrayOutputStream err;
+
+    @BeforeEach
+    void init() throws SQLException {
+        snapshot = dir.resolve("snapshot");
+        try(LocalStorage storage = LocalStorage.open(snapshot)) {
+            storage.addCommonWords("the", "is");
+            Atea atea = new Atea(storage);
+            SplitString ss = new SplitString("IT fixed the server");
+            atea.addExample(new Abbreviation(-1, "IT", ss, 0), new Expansion(-1, "information technology"));
+            ss = new SplitString("Call DIY \"help\"");
+            atea.addExample(new Abbreviation(-1, "DIY", ss, 1), new Expansion(-1, "do it yourself"));
+        }
+
+        out = new ByteArrayOutputStream();
+        err = new ByteArrayOutputStream();
+    }
+
+    private int run(String stdin, String... args) {
+        AteaCli cli = new AteaCli(new ByteArrayInputStream(stdin.getBytes(StandardCharsets.UTF_8)),
+                new PrintStream(out, true), new PrintStream(err, true));
+        return cli.run(args);
+    }
+
+    private String output() {
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("every file in a directory should be expanded into the output directory")
+    void directory() throws Exception {
+        Path input = dir.resolve("input");
+        Files.createDirectories(input.resolve("nested"));
+        Files.write(input.resolve("a.txt"), "Ask IT.".getBytes(StandardCharsets.UTF_8));
+        Files.write(input.resolve("nested/b.txt"), "A DIY guide".getBytes(StandardCharsets.UTF_8));
+        Files.write(input.resolve("empty.txt"), new byte[0]);
+
+        Path results = dir.resolve("results");
+        assertEquals(0, run("", "--snapshot", snapshot.toString(), "--output", results.toString(),
+                "--threads", "2", "--quiet", input.toString()));
+
+        assertEquals("Ask information technology.", new String(Files.readAllBytes(results.resolve("a.txt")), StandardCharsets.UTF_8));
+        assertEquals("A do it yourself guide", new String(Files.readAllBytes(results.resolve("nested/b.txt")), StandardCharsets.UTF_8));
+        assertEquals("", new String(Files.readAllBytes(results.resolve("empty.txt")), StandardCharsets.UTF_8));
+        assertEquals("", output());
+    }
+
+    @Test
+    @DisplayName("results written to standard output should keep the order of the files")
+    void order() throws Exception {
+        StringBuilder expected = new StringBuilder();
+        String[] args = new String[13];
+        args[0] = "--snapshot";
+        args[1] = snapshot.toString();
+        args[2] = "--mode";
+        args[3] = "explain";
+        for(int i=0; i<9; i++) {
+            Path file = dir.resolve("doc" + i + ".txt");
+            Files.write(file, ("Document " + i + " is about IT\n").getBytes(StandardCharsets.UTF_8));
+            args[4 + i] = file.toString();
+            expected.append("Document ").append(i).append(" is about IT (information technology)\n");
+        }
+
+        assertEquals(0, run("", args));
+        assertEquals(expected.toString(), output());
+        assertTrue(new String(err.toByteArray(), StandardCharsets.UTF_8).contains("Processed 9 documents"));
+    }
+
+    @Test
+    @DisplayName("json mode should describe the abbreviations of standard input")
+    void json() {
+        assertEquals(0, run("IT and DIY", "--snapshot", snapshot.toString(), "--mode", "json", "--quiet"));
+
+        String json = output();
+        assertTrue(json.startsWith("{\"document\":\"-\",\"abbreviations\":[{\"value\":\"IT\",\"start\":0,\"end\":2,"
+                + "\"expansions\":[{\"value\":\"information technology\",\"confidence\":"), json);
+        assertTrue(json.contains("{\"value\":\"DIY\",\"start\":7,\"end\":10,\"expansions\":[{\"value\":\"do it yourself\""), json);
+        assertTrue(json.endsWith("}]}]}\n"), json);
+        assertEquals(1, json.split("\n").length);
+    }
+
+    @Test
+    @DisplayName("bad arguments should print the usage")
+    void usage() {
+        assertEquals(2, run("", "--mode", "shout"));
+        assertEquals(2, run("", "--threads", "0", "--snapshot", snapshot.toString()));
+        assertEquals(2, run("", "file.txt"));
+        assertEquals(1, run("", "--snapshot", dir.resolve("missing").toString()));
+        assertTrue(new String(err.toByteArray(), StandardCharsets.UTF_8).contains("Usage:"));
+    }
+}
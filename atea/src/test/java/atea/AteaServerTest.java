@@ -0,0 +1,120 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When running the HTTP server")
+class AteaServerTest {
+
+    @TempDir
+    Path dir;
+
+    private LocalStorage storage;
+    private Atea atea;
+    private AteaServer server;
+    private HttpClient client;
+
+    @BeforeEach
+    void init() throws Exception {
+        storage = LocalStorage.open(dir);
+        storage.addCommonWords("the", "is");
+        atea = new Atea(storage);
+        SplitString ss = new SplitString("IT fixed the server");
+        atea.addExample(new Abbreviation(-1, "IT", ss, 0), new Expansion(-1, "information technology"));
+
+        server = new AteaServer(atea, new InetSocketAddress("127.0.0.1", 0), 50, 64);
+        server.start();
+        client = HttpClient.newHttpClient();
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        server.close();
+        storage.close();
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + path));
+    }
+
+    private HttpResponse<String> post(String path, String body) throws Exception {
+        return client.send(request(path).POST(HttpRequest.BodyPublishers.ofString(body)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return client.send(request(path).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    @DisplayName("texts should be expanded, explained and predicted")
+    void predict() throws Exception {
+        assertEquals("Ask information technology.", post("/expand", "Ask IT.").body());
+        assertEquals("Ask IT (information technology).", post("/explain", "Ask IT.").body());
+
+        HttpResponse<String> response = post("/predict", "Ask IT.");
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().startsWith("{\"document\":null,\"abbreviations\":[{\"value\":\"IT\",\"start\":4,\"end\":6,"
+                + "\"expansions\":[{\"value\":\"information technology\",\"confidence\":"), response.body());
+    }
+
+    @Test
+    @DisplayName("requests sent at once should be predicted in fewer batches")
+    void batching() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for(int i=0; i<20; i++) {
+            responses.add(client.sendAsync(request("/expand").POST(HttpRequest.BodyPublishers.ofString("IT " + i)).build(),
+                    HttpResponse.BodyHandlers.ofString()));
+        }
+        for(int i=0; i<20; i++) {
+            assertEquals("information technology " + i, responses.get(i).join().body());
+        }
+
+        String metrics = get("/metrics").body();
+        assertTrue(metrics.contains("atea_requests_total{endpoint=\"expand\"} 20\n"), metrics);
+        assertTrue(metrics.contains("atea_batch_documents_total 20\n"), metrics);
+        long batches = Long.parseLong(metrics.replaceAll("(?s).*\natea_batches_total (\\d+)\n.*", "$1"));
+        assertTrue(batches < 20, metrics);
+    }
+
+    @Test
+    @DisplayName("examples should be added by training")
+    void train() throws Exception {
+        assertEquals(200, post("/train?start=6&expansion=do+it+yourself", "Try a DIY kit").statusCode());
+        assertEquals("Try a do it yourself kit", post("/expand", "Try a DIY kit").body());
+
+        assertEquals(400, post("/train?start=7&expansion=x", "Try a DIY kit").statusCode());
+        assertEquals(400, post("/train?expansion=x", "Try a DIY kit").statusCode());
+    }
+
+    @Test
+    @DisplayName("the server should be ready once Atea is warmed up")
+    void ready() throws Exception {
+        assertEquals(503, get("/ready").statusCode());
+        assertEquals(1, atea.warmUp(10, 2));
+        assertTrue(atea.isWarm());
+        assertEquals("ok\n", get("/ready").body());
+    }
+
+    @Test
+    @DisplayName("health should be reported and wrong requests refused")
+    void health() throws Exception {
+        assertEquals("ok\n", get("/health").body());
+        assertEquals(405, get("/expand").statusCode());
+        assertEquals(404, get("/health/more").statusCode());
+        assertTrue(get("/metrics").body().contains("atea_request_errors_total{endpoint=\"expand\"} 1\n"));
+    }
+}
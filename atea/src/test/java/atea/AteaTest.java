@@ -7,6 +7,9 @@ import org.mockito.Mockito;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Properties;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -29,10 +32,11 @@ class AteaTest {
     void init() throws SQLException {
         Mockito.when(db.getCommonWords()).thenReturn(new String[] {"a","form","of","word","and"});
 
-        Mockito.when(db.abbreviationExists(Mockito.anyString())).thenReturn(-1);
-        Mockito.when(db.abbreviationExists("abbr")).thenReturn(1);
-        Mockito.when(db.abbreviationExists("DIY")).thenReturn(2);
-        Mockito.when(db.abbreviationExists("misc")).thenReturn(3);
+        HashMap<String, Integer> abbreviations = new HashMap<>();
+        abbreviations.put("abbr", 1);
+        abbreviations.put("DIY", 2);
+        abbreviations.put("misc", 3);
+        Mockito.when(db.getAbbreviations()).thenReturn(abbreviations);
 
         Mockito.when(db.getExpansions(Mockito.anyInt())).thenReturn(new ArrayList<Expansion>());
         ArrayList<Expansion> expansions = new ArrayList<>();
@@ -101,6 +105,81 @@ class AteaTest {
         assertEquals(expected_explain, atea.explain(input));
     }
 
+    @Test
+    @DisplayName("predictAbbreviations method should return the same results when queries run on virtual threads")
+    void predictAbbreviationsOnVirtualThreadsTest() throws SQLException {
+        ArrayList<Abbreviation> expected = atea.predictAbbreviations(input);
+        atea.setMaxConcurrentQueries(4);
+        assertEquals(4, atea.getMaxConcurrentQueries());
+        assertEquals(expected, atea.predictAbbreviations(input));
+        assertEquals(expected_expand, atea.expand(input));
+    }
+
+    @Test
+    @DisplayName("predictAbbreviations method should return the same results for a batch of texts")
+    void predictAbbreviationsBatchTest() throws SQLException {
+        Mockito.when(db.getExpansionKeywordScores(Mockito.anyInt(), Mockito.anyInt(), Mockito.anyList()))
+                .thenAnswer(invocation -> new float[invocation.<List<String>>getArgument(2).size()]);
+        String other = "Any misc DIY tips?";
+
+        ArrayList<ArrayList<Abbreviation>> results = atea.predictAbbreviations(Arrays.asList(input, other, ""));
+        assertEquals(3, results.size());
+        assertEquals(atea.predictAbbreviations(input), results.get(0));
+        assertEquals(atea.predictAbbreviations(other), results.get(1));
+        assertTrue(results.get(2).isEmpty());
+    }
+
+    @Test
+    @DisplayName("unambiguous abbreviations should be given the share of their examples without being scored")
+    void unambiguousTest() throws SQLException {
+        ArrayList<Example> examples = new ArrayList<>();
+        examples.add(new Example(1, 2, 2, ",build,a,DIY,shelf,", 199));
+        examples.add(new Example(2, 2, 4, ",DIY,", 1));
+        Mockito.when(db.getExamples(2)).thenReturn(examples);
+        Scorer scorer = Mockito.mock(Scorer.class);
+        Mockito.when(scorer.score(Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> new double[invocation.<ArrayList<Expansion>>getArgument(1).size()]);
+        atea.setScorer(scorer);
+
+        Abbreviation diy = atea.predictAbbreviations("DIY shelf").get(0);
+        assertEquals("do it yourself", diy.getBestExpansion().getValue());
+        assertEquals(0.995, diy.getBestExpansion().getConfidence(), 1e-9);
+        Mockito.verify(scorer, Mockito.never()).score(Mockito.any(), Mockito.any());
+
+        atea.setUnambiguousShare(0.999);
+        atea.predictAbbreviations("DIY shelf");
+        Mockito.verify(scorer).score(Mockito.any(), Mockito.any());
+        assertThrows(IllegalArgumentException.class, () -> atea.setUnambiguousShare(0));
+    }
+
+    @Test
+    @DisplayName("batches should rank unambiguous abbreviations the same way as single texts, without scoring")
+    void unambiguousBatchTest() throws SQLException {
+        ArrayList<Example> examples = new ArrayList<>();
+        examples.add(new Example(1, 2, 2, ",build,a,DIY,shelf,", 199));
+        examples.add(new Example(2, 2, 4, ",DIY,", 1));
+        Mockito.when(db.getExamples(2)).thenReturn(examples);
+        Mockito.when(db.getExpansionBaseProbability(Mockito.anyInt(), Mockito.anyInt())).thenReturn(0.3f);
+        Mockito.when(db.getExpansionKeywordScore(Mockito.anyInt(), Mockito.anyInt(), Mockito.anyString())).thenReturn(0.5f);
+        Mockito.when(db.getExpansionKeywordScores(Mockito.anyInt(), Mockito.anyInt(), Mockito.anyList()))
+                .thenAnswer(invocation -> {
+                    float[] scores = new float[invocation.<List<String>>getArgument(2).size()];
+                    Arrays.fill(scores, 0.5f);
+                    return scores;
+                });
+
+        String other = "Any misc DIY tips?";
+        ArrayList<ArrayList<Abbreviation>> results = atea.predictAbbreviations(Arrays.asList(input, other));
+        assertEquals(atea.predictAbbreviations(input), results.get(0));
+        assertEquals(atea.predictAbbreviations(other), results.get(1));
+        Abbreviation diy = results.get(1).get(1);
+        assertEquals("DIY", diy.getValue());
+        assertEquals(0.995, diy.getBestExpansion().getConfidence(), 1e-9);
+        Mockito.verify(db, Mockito.never()).getExpansionBaseProbability(Mockito.eq(2), Mockito.anyInt());
+        Mockito.verify(db, Mockito.never()).getExpansionKeywordScores(Mockito.eq(2), Mockito.anyInt(), Mockito.anyList());
+        Mockito.verify(db, Mockito.never()).getExpansionKeywordScore(Mockito.eq(2), Mockito.anyInt(), Mockito.anyString());
+    }
+
     @Test
     @DisplayName("weightScores method should return an array of weighted scores")
     void weightScores() {
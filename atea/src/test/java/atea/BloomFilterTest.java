@@ -0,0 +1,72 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When filtering words with a BloomFilter")
+class BloomFilterTest {
+
+    private static ArrayList<String> keys(String prefix, int count) {
+        ArrayList<String> keys = new ArrayList<>();
+        for(int i=0; i<count; i++) {
+            keys.add(prefix + Integer.toString(i, 36));
+        }
+        return keys;
+    }
+
+    @Test
+    @DisplayName("every key should be accepted in any case")
+    void noFalseNegatives() {
+        BloomFilter filter = BloomFilter.of(keys("abbr", 5000));
+        for(String key : keys("abbr", 5000)) {
+            assertTrue(filter.mightContain(key));
+            assertTrue(filter.mightContain(key.toUpperCase()));
+        }
+    }
+
+    @Test
+    @DisplayName("almost every other word should be rejected")
+    void falsePositives() {
+        BloomFilter filter = BloomFilter.of(keys("abbr", 5000));
+        int accepted = 0;
+        for(String word : keys("word", 100000)) {
+            if(filter.mightContain(word)) {
+                accepted++;
+            }
+        }
+        assertTrue(accepted < 5000, accepted + " of 100000 words were accepted");
+    }
+
+    @Test
+    @DisplayName("words outside ASCII should be left to the lexicon")
+    void nonAscii() {
+        HashMap<String, Integer> abbrs = new HashMap<>();
+        abbrs.put("ΣΟΣ", 1);
+        abbrs.put("K", 2);
+        Lexicon lexicon = Lexicon.fromAbbreviations(abbrs);
+
+        assertEquals(1, lexicon.getId("ΣΟΣ"));
+        assertEquals(1, lexicon.getId("Σος"));
+        assertEquals(2, lexicon.getId("k"));
+        assertEquals(2, lexicon.getId("K"));
+        assertFalse(BloomFilter.of(keys("abbr", 10)).mightContain("abbrz"));
+        assertTrue(BloomFilter.of(keys("abbr", 10)).mightContain("näive"));
+    }
+
+    @Test
+    @DisplayName("abbreviations added to a lexicon should pass its filter")
+    void extend() {
+        Lexicon lexicon = Lexicon.fromAbbreviations(new HashMap<>());
+        for(int i=0; i<1000; i++) {
+            lexicon = lexicon.with("ABBR" + i, i);
+        }
+        for(int i=0; i<1000; i++) {
+            assertEquals(i, lexicon.getId("abbr" + i));
+        }
+        assertEquals(-1, lexicon.getId("word"));
+    }
+}
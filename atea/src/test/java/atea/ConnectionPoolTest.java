@@ -0,0 +1,133 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+import org.mockito.Mockito;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When pooling connections")
+class ConnectionPoolTest {
+    private static final String URL = "jdbc:atea-test:pool";
+
+    /**
+     * A driver which hands out mock connections, keeping every one it opened.
+     */
+    private static final class TestDriver implements Driver {
+        final ArrayList<Connection> opened = new ArrayList<>();
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if(!acceptsURL(url)) {
+                return null;
+            }
+            Connection conn = Mockito.mock(Connection.class, "connection " + opened.size());
+            Mockito.when(conn.getAutoCommit()).thenReturn(true);
+            Mockito.when(conn.isValid(Mockito.anyInt())).thenReturn(true);
+            opened.add(conn);
+            return conn;
+        }
+
+        @Override
+        public boolean acceptsURL(String url) { return URL.equals(url); }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) { return new DriverPropertyInfo[0]; }
+
+        @Override
+        public int getMajorVersion() { return 1; }
+
+        @Override
+        public int getMinorVersion() { return 0; }
+
+        @Override
+        public boolean jdbcCompliant() { return false; }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+
+    private TestDriver driver;
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void init() throws SQLException {
+        driver = new TestDriver();
+        DriverManager.registerDriver(driver);
+        pool = new ConnectionPool(URL, "user", "password", 2);
+    }
+
+    @AfterEach
+    void deregister() throws SQLException {
+        DriverManager.deregisterDriver(driver);
+    }
+
+    @Test
+    @DisplayName("a connection should be reused without a check while it has only just been returned")
+    void reuse() throws SQLException {
+        pool.borrow().close();
+        pool.borrow().close();
+
+        assertEquals(1, driver.opened.size());
+        Mockito.verify(driver.opened.get(0), Mockito.never()).isValid(Mockito.anyInt());
+    }
+
+    @Test
+    @DisplayName("an idle connection the server has dropped should be replaced rather than handed out")
+    void validation() throws SQLException {
+        pool.setValidateAfterMillis(0);
+        pool.borrow().close();
+        Connection dropped = driver.opened.get(0);
+        Mockito.when(dropped.isValid(Mockito.anyInt())).thenReturn(false);
+
+        try(Connection conn = pool.borrow()) {
+            conn.createStatement();
+        }
+        assertEquals(2, driver.opened.size());
+        Mockito.verify(dropped).close();
+        Mockito.verify(dropped, Mockito.never()).createStatement();
+        Mockito.verify(driver.opened.get(1)).createStatement();
+    }
+
+    @Test
+    @DisplayName("a connection should not be usable once it has been returned")
+    void closedProxy() throws SQLException {
+        Connection conn = pool.borrow();
+        conn.close();
+        conn.close();
+
+        assertTrue(conn.isClosed());
+        SQLException ex = assertThrows(SQLException.class, conn::createStatement);
+        assertEquals("closed", ex.getMessage());
+        Mockito.verify(driver.opened.get(0), Mockito.never()).createStatement();
+    }
+
+    @Test
+    @DisplayName("closing the pool should close borrowed connections once they are returned")
+    void closePool() throws SQLException {
+        Connection borrowed = pool.borrow();
+        pool.borrow().close();
+        Connection idle = driver.opened.get(1);
+
+        pool.close();
+        Mockito.verify(idle).close();
+        Mockito.verify(driver.opened.get(0), Mockito.never()).close();
+        borrowed.close();
+        Mockito.verify(driver.opened.get(0)).close();
+        assertThrows(SQLException.class, pool::borrow);
+
+        // closing the idle connections alone leaves the pool open
+        ConnectionPool open = new ConnectionPool(URL, "user", "password", 1);
+        open.borrow().close();
+        open.closeIdle();
+        Mockito.verify(driver.opened.get(2)).close();
+        open.borrow().close();
+        assertEquals(4, driver.opened.size());
+    }
+}
@@ -0,0 +1,85 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Measures read throughput of the scoring queries while examples are being inserted. Run it against
+ * a test database before and after migrate_innodb.sql to compare storage engines:
+ *
+ *   mvn test -Dtest=DatabaseBenchmarkTest -Datea.db.host=... -Datea.db.username=... -Datea.db.password=...
+ *
+ * It inserts examples for the abbreviation "zzbench", so do not point it at a production database.
+ * It is skipped when no database is configured.
+ */
+@DisplayName("When reading and writing the database at the same time")
+class DatabaseBenchmarkTest {
+    private static final long DURATION_MS = 5000;
+    private static final int READERS = 8;
+
+    private static boolean configured(String property) {
+        String value = System.getProperty(property);
+        return value != null && !value.isEmpty() && !value.startsWith("${");
+    }
+
+    @Test
+    @DisplayName("read and write throughput should be reported")
+    void mixedThroughput() throws Exception {
+        Assumptions.assumeTrue(configured("db.host") && configured("db.username"), "No database configured");
+
+        Database db = new Database(System.getProperty("db.host"), System.getProperty("db.username"),
+                System.getProperty("db.password"), READERS + 1);
+        ArrayList<Integer> abbreviations = new ArrayList<>(db.getAbbreviations().values());
+        assertFalse(abbreviations.isEmpty(), "The database has no abbreviations to read");
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(READERS + 1);
+        ArrayList<Future<?>> workers = new ArrayList<>();
+
+        workers.add(pool.submit(() -> {
+            SplitString ss = new SplitString("zzbench is a benchmark of the examples table");
+            while(running.get()) {
+                db.insertExample(new Abbreviation(-1, "zzbench", ss, 0), "benchmark");
+                writes.incrementAndGet();
+            }
+            return null;
+        }));
+
+        for(int r=0; r<READERS; r++) {
+            int reader = r;
+            workers.add(pool.submit(() -> {
+                int i = reader;
+                while(running.get()) {
+                    int abbr_id = abbreviations.get(i++ % abbreviations.size());
+                    for(Expansion expansion : db.getExpansions(abbr_id)) {
+                        db.getExpansionBaseProbability(abbr_id, expansion.getId());
+                        db.getExpansionKeywordScore(abbr_id, expansion.getId(), "example");
+                        reads.addAndGet(2);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        Thread.sleep(DURATION_MS);
+        running.set(false);
+        for(Future<?> worker : workers) {
+            worker.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        System.out.println("Database mixed workload: reads/s=" + reads.get() * 1000 / DURATION_MS
+                + " writes/s=" + writes.get() * 1000 / DURATION_MS);
+        assertTrue(reads.get() > 0);
+        assertTrue(writes.get() > 0);
+    }
+}
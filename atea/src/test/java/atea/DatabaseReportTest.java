@@ -0,0 +1,110 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+import org.mockito.Mockito;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When reporting what the database costs")
+class DatabaseReportTest {
+    private static final Set<String> COLUMNS = Set.of("abbreviations.id", "abbreviations.value", "expansions.id",
+            "expansions.value", "abbreviation_expansion.abbreviation_id", "abbreviation_expansion.expansion_id",
+            "examples.id", "examples.abbreviation_id", "examples.expansion_id", "examples.words",
+            "examples.abbr_index", "examples.weight", "common_words.value");
+
+    private ReplicaRouter router;
+    private Database db;
+    // what each read returns and how long it takes, in the order they are made
+    private final ArrayDeque<Object> results = new ArrayDeque<>();
+    private final ArrayDeque<Long> sleeps = new ArrayDeque<>();
+
+    @BeforeEach
+    void init() throws SQLException {
+        router = Mockito.mock(ReplicaRouter.class);
+        Mockito.when(router.onPrimary(Mockito.any())).thenAnswer(invocation -> new HashSet<>(COLUMNS));
+        Mockito.when(router.read(Mockito.any())).thenAnswer(invocation -> {
+            Thread.sleep(sleeps.isEmpty() ? 0 : sleeps.poll());
+            return results.poll();
+        });
+        db = new Database(router);
+    }
+
+    private void read(Object result, long millis) {
+        results.add(result);
+        sleeps.add(millis);
+    }
+
+    @Test
+    @DisplayName("queries should be timed by name and scoring queries by abbreviation")
+    void timings() throws SQLException {
+        read(0.5f, 30);
+        read(0.25f, 0);
+        read(new float[] {0.1f, 0.2f}, 10);
+        db.getExpansionBaseProbability(7, 1);
+        db.getExpansionBaseProbability(3, 1);
+        db.getExpansionKeywordScores(7, 1, List.of("server", "down"));
+
+        List<DatabaseReport.Timing> queries = db.getQueryTimings();
+        assertEquals(2, queries.size());
+        assertEquals(Database.BASE_PROBABILITY, queries.get(0).getName());
+        assertEquals(2, queries.get(0).getCount());
+        assertTrue(queries.get(0).getMaxMillis() >= 30);
+        assertEquals(Database.KEYWORD_SCORES, queries.get(1).getName());
+
+        LinkedHashMap<String, Long> rows = new LinkedHashMap<>();
+        rows.put("examples", 1200L);
+        LinkedHashMap<String, Long> largest = new LinkedHashMap<>();
+        largest.put("IT", 900L);
+        HashMap<String, Integer> abbreviations = new HashMap<>(Map.of("IT", 7));
+        read(rows, 0);
+        read(largest, 0);
+        read(abbreviations, 0);
+        DatabaseReport report = db.getReport(10);
+
+        assertEquals(rows, report.getRowCounts());
+        assertEquals(largest, report.getLargestAbbreviations());
+        assertEquals(2, report.getSlowestAbbreviations().size());
+        assertEquals("IT", report.getSlowestAbbreviations().get(0).getName());
+        assertEquals(2, report.getSlowestAbbreviations().get(0).getCount());
+        assertEquals("#3", report.getSlowestAbbreviations().get(1).getName());
+        assertTrue(report.toString().contains("  examples: 1200\n"));
+        assertTrue(report.toString().contains("  IT: 2 queries"));
+
+        db.resetQueryStatistics();
+        assertTrue(db.getQueryTimings().isEmpty());
+    }
+
+    @Test
+    @DisplayName("the alert should be told about queries over the threshold, even failed ones")
+    void alert() throws SQLException {
+        ArrayList<String> alerts = new ArrayList<>();
+        db.setSlowQueryAlert(20, (query, abbreviationId, millis) -> alerts.add(query + " " + abbreviationId));
+
+        read(0.5f, 40);
+        read(0.5f, 0);
+        db.getExpansionBaseProbability(7, 1);
+        db.getExpansionBaseProbability(3, 1);
+        assertEquals(List.of("base probability 7"), alerts);
+
+        Mockito.when(router.read(Mockito.any())).thenAnswer(invocation -> {
+            Thread.sleep(40);
+            throw new SQLException("gone");
+        });
+        assertThrows(SQLException.class, () -> db.getExpansions(5));
+        assertEquals(List.of("base probability 7", "expansions 5"), alerts);
+
+        db.setSlowQueryAlert(20, null);
+        assertThrows(SQLException.class, () -> db.getExpansions(5));
+        assertEquals(2, alerts.size());
+    }
+}
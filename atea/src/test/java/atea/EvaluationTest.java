@@ -0,0 +1,105 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When evaluating with cross-validation")
+class EvaluationTest {
+
+    private static final String[] COMPUTING = {"server", "network", "laptop", "printer", "desk"};
+    private static final String[] PRONOUN = {"rains", "works", "happens", "matters", "hurts"};
+
+    @TempDir
+    Path dir;
+
+    private LocalStorage storage;
+
+    @BeforeEach
+    void init() throws SQLException {
+        storage = LocalStorage.open(dir);
+        storage.addCommonWords("the");
+        for(int i=0; i<40; i++) {
+            String computing = COMPUTING[i % COMPUTING.length] + " " + COMPUTING[(i / 5 + 1 + i) % COMPUTING.length];
+            storage.insertExample(new Abbreviation(-1, "IT", new SplitString("the IT " + computing + " " + i), 1),
+                    "information technology");
+            String pronoun = PRONOUN[i % PRONOUN.length];
+            storage.insertExample(new Abbreviation(-1, "IT", new SplitString("IT " + pronoun + " " + i), 0), "it");
+        }
+        for(int i=0; i<10; i++) {
+            storage.insertExample(new Abbreviation(-1, "ETA", new SplitString("the ETA of the bus " + i), 1),
+                    "estimated time of arrival");
+        }
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        storage.close();
+    }
+
+    @Test
+    @DisplayName("every example should be predicted once from the other folds")
+    void accuracy() throws SQLException {
+        Evaluation evaluation = new Evaluation(storage, 5);
+        evaluation.add("keyword", atea -> {});
+        evaluation.add("bayes", atea -> atea.setScorer(atea.naiveBayesScorer(1)));
+        evaluation.add("bayes, 5 per expansion", 5, atea -> atea.setScorer(atea.naiveBayesScorer(1)));
+        ArrayList<Evaluation.Result> results = evaluation.run(3);
+
+        assertEquals(3, results.size());
+        for(Evaluation.Result result : results) {
+            assertEquals(90, result.getPredictions());
+            assertEquals(0, result.getSkipped());
+            assertTrue(result.getTop1Accuracy() >= 0.9, result.getName() + ": " + result.getTop1Accuracy());
+            assertTrue(result.getTop3Accuracy() >= result.getTop1Accuracy());
+            assertTrue(result.getCalibrationError() >= 0 && result.getCalibrationError() <= 1);
+            assertTrue(result.getPredictionsPerSecond() > 0);
+        }
+        assertEquals(results.get(1).getTop1Accuracy(), evaluation.run(1).get(1).getTop1Accuracy());
+
+        String table = Evaluation.format(results);
+        assertTrue(table.startsWith("configuration"));
+        assertTrue(table.contains("bayes, 5 per expansion"));
+        assertEquals(4, table.split("\n").length);
+    }
+
+    @Test
+    @DisplayName("a confidently wrong scorer should have no accuracy and the worst calibration")
+    void wrong() throws SQLException {
+        Evaluation evaluation = new Evaluation(storage, 2);
+        evaluation.add("not an abbreviation", atea -> {
+            // ETA is unambiguous and would not be scored otherwise
+            atea.setUnambiguousShare(2);
+            atea.setScorer((abbr, expansions) -> {
+                double[] confidences = new double[expansions.size()];
+                confidences[expansions.size() - 1] = 1;
+                return confidences;
+            });
+        });
+        Evaluation.Result result = evaluation.run(2).get(0);
+
+        assertEquals(0, result.getTop1Accuracy());
+        assertEquals(1, result.getTop3Accuracy());
+        assertEquals(1, result.getCalibrationError(), 1e-9);
+    }
+
+    @Test
+    @DisplayName("the calibration error should compare confidence with accuracy in each bin")
+    void calibration() {
+        Evaluation.Result result = new Evaluation.Result("test");
+        result.add(1, 0, 0.9);
+        result.add(1, 1, 0.9);
+        result.add(2, 0, 0.25);
+
+        assertEquals(4, result.getPredictions());
+        assertEquals(0.75, result.getTop1Accuracy(), 1e-9);
+        // |1 - 1.8| in the top bin and |2 - 0.5| in the third, over 4 examples
+        assertEquals((0.8 + 1.5) / 4, result.getCalibrationError(), 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> new Evaluation(storage, 1));
+    }
+}
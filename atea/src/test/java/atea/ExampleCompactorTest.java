@@ -0,0 +1,79 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When compacting examples")
+class ExampleCompactorTest {
+
+    private static int weight(List<Example> examples, int expansion_id) {
+        int weight = 0;
+        for(Example example : examples) {
+            if(example.getExpansionId() == expansion_id) {
+                weight += example.getWeight();
+            }
+        }
+        return weight;
+    }
+
+    @Test
+    @DisplayName("duplicates should be merged into the first of them")
+    void merge() {
+        List<Example> examples = List.of(
+                new Example(4, 1, 1, ",restart,the,server,"),
+                new Example(2, 1, 1, ",restart,the,server,"),
+                new Example(3, 1, 2, ",restart,the,server,"),
+                new Example(5, 1, 1, ",the,server,is,down,", 2),
+                new Example(6, 1, 1, ",restart,the,server,", 3));
+
+        ArrayList<Example> kept = ExampleCompactor.compact(examples, 10, new Random(1));
+        assertEquals(List.of(2, 3, 5), kept.stream().map(Example::getId).toList());
+        assertEquals(List.of(5, 1, 2), kept.stream().map(Example::getWeight).toList());
+    }
+
+    @Test
+    @DisplayName("at most the given number of examples should be kept for each expansion")
+    void sample() {
+        ArrayList<Example> examples = new ArrayList<>();
+        for(int i=1; i<=500; i++) {
+            examples.add(new Example(i, 1, i % 2 + 1, ",word" + i + ",", i % 7 + 1));
+        }
+        examples.add(new Example(501, 1, 3, ",rare,"));
+
+        ArrayList<Example> kept = ExampleCompactor.compact(examples, 20, new Random(7));
+        assertEquals(41, kept.size());
+        for(int expansion_id=1; expansion_id<=3; expansion_id++) {
+            assertEquals(weight(examples, expansion_id), weight(kept, expansion_id));
+        }
+        for(int i=1; i<kept.size(); i++) {
+            assertTrue(kept.get(i - 1).getId() < kept.get(i).getId());
+        }
+    }
+
+    @Test
+    @DisplayName("heavier examples should be kept more often")
+    void weighted() {
+        int heavy = 0;
+        for(int seed=0; seed<200; seed++) {
+            List<Example> examples = List.of(
+                    new Example(1, 1, 1, ",a,", 1),
+                    new Example(2, 1, 1, ",b,", 1),
+                    new Example(3, 1, 1, ",c,", 8));
+            if(ExampleCompactor.compact(examples, 1, new Random(seed)).get(0).getId() == 3) {
+                heavy++;
+            }
+        }
+        assertTrue(heavy > 120, heavy + " of 200 samples kept the heavy example");
+    }
+
+    @Test
+    @DisplayName("a limit below 1 should be rejected")
+    void invalidLimit() {
+        assertThrows(IllegalArgumentException.class, () -> ExampleCompactor.compact(List.of(), 0, new Random()));
+    }
+}
@@ -0,0 +1,143 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When keeping keyword counts outside the heap")
+class KeywordTableTest {
+
+    private static final String[] ABBREVIATIONS = {"IT", "DIY", "ETA"};
+    private static final String[] WORDS = {"server", "down", "meeting", "home", "shelf", "call", "the"};
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("counts should survive growing past one segment and a round trip through a file")
+    void roundTrip() throws IOException {
+        // 16 entries to a segment, so the table ends up in many segments
+        KeywordTable table = new KeywordTable(1, 4);
+        for(int i=0; i<1000; i++) {
+            table.put(i % 7, i % 3, KeywordTable.hash("word" + i), i + 1);
+        }
+        table.put(0, 0, 5, 42);
+        table.put(0, 0, 5, 43);
+        assertEquals(1001, table.size());
+        assertTrue(table.capacity() >= 1001 * 10 / 7);
+
+        Path file = dir.resolve("keywords");
+        table.write(file);
+        assertEquals("ATEAKWT1", new String(Files.readAllBytes(file), 0, 8, StandardCharsets.US_ASCII));
+        KeywordTable mapped = KeywordTable.open(file, 4);
+        for(KeywordTable read : new KeywordTable[] {table, mapped}) {
+            for(int i=0; i<1000; i++) {
+                assertEquals(i + 1, read.get(i % 7, i % 3, KeywordTable.hash("word" + i)));
+            }
+            assertEquals(43, read.get(0, 0, 5));
+            assertEquals(0, read.get(1, 0, 5));
+            assertEquals(0, read.get(0, 0, KeywordTable.hash("missing")));
+        }
+        assertEquals(1001, mapped.size());
+        assertThrows(IllegalStateException.class, () -> mapped.put(0, 0, 6, 1));
+
+        Path other = dir.resolve("other");
+        Files.writeString(other, "not a keyword table at all, but long enough");
+        assertThrows(IOException.class, () -> KeywordTable.open(other));
+    }
+
+    @Test
+    @DisplayName("the bayes scorer should predict the same from a table as from the heap")
+    void sameAsHeap() throws SQLException, IOException {
+        try(LocalStorage storage = LocalStorage.open(dir.resolve("storage"))) {
+            storage.addCommonWords("the");
+            for(int i=0; i<600; i++) {
+                String value = ABBREVIATIONS[i % ABBREVIATIONS.length];
+                String text = WORDS[i % WORDS.length] + " " + value + " " + WORDS[i * 7 % 11 % WORDS.length];
+                storage.insertExample(new Abbreviation(-1, value, new SplitString(text), 1),
+                        value.toLowerCase() + " expansion " + i % 3);
+            }
+
+            Atea heap = new Atea(storage);
+            heap.setScorer(heap.naiveBayesScorer(1));
+            heap.setUnambiguousShare(2);
+            Atea table = new Atea(storage);
+            table.setScorer(table.naiveBayesScorer(1));
+            table.setUnambiguousShare(2);
+            Path file = dir.resolve("keywords");
+            assertEquals(600, table.buildKeywordTable(file, 2).getExamples());
+            table.loadKeywordTable(file);
+
+            String text = "Is the IT server down, or is the DIY shelf at home? What is the ETA of the call?";
+            assertPredictionsEqual(heap.predictAbbreviations(text), table.predictAbbreviations(text));
+
+            // examples added once the table is loaded are counted on the heap on top of it
+            for(int i=0; i<20; i++) {
+                ArrayList<Abbreviation> abbrs = table.predictAbbreviations("the IT meeting is on shelf " + i);
+                assertTrue(table.addExample(abbrs.get(0), new Expansion(-1, "it expansion 2")));
+            }
+            heap = new Atea(storage);
+            heap.setScorer(heap.naiveBayesScorer(1));
+            heap.setUnambiguousShare(2);
+            Abbreviation it = table.findPotentialAbbreviations(text).get(0);
+            assertEquals(heap.getModel().getStatistics(it).getVocabularySize(),
+                    table.getModel().getStatistics(it).getVocabularySize());
+            assertPredictionsEqual(heap.predictAbbreviations(text), table.predictAbbreviations(text));
+        }
+    }
+
+    private static void assertPredictionsEqual(ArrayList<Abbreviation> expected, ArrayList<Abbreviation> actual) {
+        assertEquals(expected.size(), actual.size());
+        for(int a=0; a<expected.size(); a++) {
+            ArrayList<Expansion> expectedExpansions = expected.get(a).getExpansions();
+            ArrayList<Expansion> actualExpansions = actual.get(a).getExpansions();
+            assertEquals(expectedExpansions.size(), actualExpansions.size());
+            for(int e=0; e<expectedExpansions.size(); e++) {
+                assertEquals(expectedExpansions.get(e).getId(), actualExpansions.get(e).getId());
+                assertEquals(expectedExpansions.get(e).getConfidence(), actualExpansions.get(e).getConfidence(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("reading counts from a mapped table should not allocate")
+    void allocationFree() throws IOException {
+        Assumptions.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        KeywordTable built = new KeywordTable(100);
+        String[] words = new String[100];
+        for(int i=0; i<words.length; i++) {
+            words[i] = "word" + i;
+            built.put(1, i % 4, KeywordTable.hash(words[i]), i + 1);
+        }
+        Path file = dir.resolve("keywords");
+        built.write(file);
+        KeywordTable table = KeywordTable.open(file);
+
+        long total = 0;
+        for(int i=0; i<10000; i++) {
+            total += table.get(1, i % 4, KeywordTable.hash(words[i % words.length]));
+        }
+
+        long thread = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for(int i=0; i<100000; i++) {
+            total += table.get(1, i % 4, KeywordTable.hash(words[i % words.length]));
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(allocated < 4096, allocated + " bytes allocated");
+        assertTrue(total > 0);
+    }
+}
@@ -0,0 +1,63 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When looking up abbreviations in a Lexicon")
+class LexiconTest {
+
+    private Lexicon lexicon;
+
+    @BeforeEach
+    void init() {
+        HashMap<String, Integer> abbrs = new HashMap<>();
+        abbrs.put("TL;DR", 1);
+        abbrs.put("IT", 2);
+        abbrs.put("e.g.", 3);
+        abbrs.put("ASAP", 4);
+        abbrs.put("ASAPP", 5);
+        abbrs.put("Ünï", 6);
+        lexicon = Lexicon.fromAbbreviations(abbrs);
+    }
+
+    @Test
+    @DisplayName("variants in case and punctuation should match")
+    void folded() {
+        assertEquals("tldr", Lexicon.fold("TL;DR:"));
+        for(String variant : new String[] {"TL;DR", "tl;dr", "Tldr", "tl;dr:", "TL-DR"}) {
+            assertEquals(1, lexicon.getId(variant), variant);
+        }
+        assertEquals(3, lexicon.getId("EG"));
+        assertEquals(2, lexicon.getId("I.T."));
+        assertEquals(6, lexicon.getId("ÜNÏ"));
+        assertEquals(-1, lexicon.getId("tldrr"));
+    }
+
+    @Test
+    @DisplayName("fuzzy lookups should find the closest abbreviation")
+    void fuzzy() {
+        assertEquals(1, lexicon.getId("tldrr", 1));
+        assertEquals(1, lexicon.getId("tdlr", 2));
+        assertEquals(-1, lexicon.getId("tdlr", 1));
+        assertEquals(4, lexicon.getId("asaq", 1));
+        assertEquals(5, lexicon.getId("asappp", 1));
+        assertEquals(4, lexicon.getId("ASAP", 1));
+
+        // short words are never matched fuzzily
+        assertEquals(-1, lexicon.getId("is", 1));
+        assertEquals(-1, lexicon.getId("asp", 1));
+        assertEquals(-1, lexicon.getId("bye", 2));
+    }
+
+    @Test
+    @DisplayName("abbreviations added later should be found fuzzily")
+    void with() {
+        assertEquals(-1, lexicon.getId("rofll", 1));
+        Lexicon added = lexicon.with("ROFL", 7);
+        assertEquals(7, added.getId("rofll", 1));
+        assertEquals(7, added.getId("R.O.F.L"));
+    }
+}
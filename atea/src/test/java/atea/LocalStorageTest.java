@@ -0,0 +1,252 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When using LocalStorage")
+class LocalStorageTest {
+
+    @TempDir
+    Path dir;
+
+    private static Abbreviation abbreviation(String text, String value) {
+        SplitString ss = new SplitString(text);
+        String[] words = ss.getWords();
+        for(int i=0; i<words.length; i++) {
+            if(words[i].equals(value)) {
+                return new Abbreviation(-1, value, ss, i);
+            }
+        }
+        throw new IllegalArgumentException(value + " is not in " + text);
+    }
+
+    @Test
+    @DisplayName("examples should still be there after reopening")
+    void reopen() throws SQLException {
+        try(LocalStorage storage = LocalStorage.open(dir)) {
+            storage.addCommonWords("the", "a");
+            storage.insertExample(abbreviation("restart the IT server", "IT"), "information technology");
+            storage.insertExample(abbreviation("is it\tdown", "it"), "it");
+        }
+
+        try(LocalStorage storage = LocalStorage.open(dir)) {
+            assertArrayEquals(new String[] {"the", "a"}, storage.getCommonWords());
+
+            int id = storage.abbreviationExists("it");
+            assertEquals(1, id);
+            assertEquals(id, storage.abbreviationExists("IT"));
+            assertEquals(-1, storage.abbreviationExists("misc"));
+
+            ArrayList<Expansion> expansions = storage.getExpansions(id);
+            assertEquals(2, expansions.size());
+            assertEquals("information technology", expansions.get(0).getValue());
+
+            ArrayList<Example> examples = storage.getExamples(id);
+            assertEquals(2, examples.size());
+            assertEquals(",restart,the,IT,server,", examples.get(0).getWords());
+            assertEquals(expansions.get(1).getId(), examples.get(1).getExpansionId());
+
+            Example added = storage.insertExample(abbreviation("the IT desk", "IT"), "information technology");
+            assertEquals(3, added.getId());
+        }
+    }
+
+    @Test
+    @DisplayName("scores should match what the database computes")
+    void scores() throws SQLException {
+        try(LocalStorage storage = LocalStorage.open(dir)) {
+            storage.insertExample(abbreviation("restart the IT server", "IT"), "information technology");
+            storage.insertExample(abbreviation("the IT Server is down", "IT"), "information technology");
+            storage.insertExample(abbreviation("is IT down", "IT"), "it");
+
+            int id = storage.abbreviationExists("IT");
+            int tech = storage.getExpansions(id).get(0).getId();
+            assertEquals(2 / 3f, storage.getExpansionBaseProbability(id, tech), 0.0001);
+            assertEquals(1f, storage.getExpansionKeywordScore(id, tech, "server"), 0.0001);
+            assertEquals(0.5f, storage.getExpansionKeywordScore(id, tech, "down"), 0.0001);
+            assertEquals(0f, storage.getExpansionBaseProbability(id + 1, tech));
+        }
+    }
+
+    @Test
+    @DisplayName("the most used abbreviations should come first")
+    void mostUsed() throws SQLException {
+        try(LocalStorage storage = LocalStorage.open(dir)) {
+            storage.insertExample(abbreviation("call DIY help", "DIY"), "do it yourself");
+            storage.insertExample(abbreviation("restart the IT server", "IT"), "information technology");
+            storage.insertExample(abbreviation("is IT down", "IT"), "it");
+
+            assertEquals(Map.of("IT", 2, "DIY", 1), storage.getMostUsedAbbreviations(5));
+            assertEquals("[IT]", storage.getMostUsedAbbreviations(1).keySet().toString());
+        }
+    }
+
+    @Test
+    @DisplayName("compacting should merge duplicates without changing the scores")
+    void compact() throws SQLException {
+        int id;
+        int tech;
+        float[] scores;
+        try(LocalStorage storage = LocalStorage.open(dir)) {
+            storage.addCommonWords("the");
+            for(int i=0; i<3; i++) {
+                storage.insertExample(abbreviation("restart the IT server", "IT"), "information technology");
+            }
+            storage.insertExample(abbreviation("the IT Server is down", "IT"), "information technology");
+            storage.insertExample(abbreviation("is IT down", "IT"), "it");
+
+            id = storage.abbreviationExists("IT");
+            tech = storage.getExpansions(id).get(0).getId();
+            scores = storage.getExpansionKeywordScores(id, tech, List.of("server", "down", "restart"));
+
+            assertEquals(2, storage.compactExamples(10));
+            assertEquals(List.of(3, 1, 1), storage.getExamples(id).stream().map(Example::getWeight).toList());
+            assertArrayEquals(scores, storage.getExpansionKeywordScores(id, tech, List.of("server", "down", "restart")));
+            assertEquals(0.8f, storage.getExpansionBaseProbability(id, tech), 0.0001);
+            assertEquals(6, storage.insertExample(abbreviation("the IT desk", "IT"), "information technology").getId());
+        }
+
+        try(LocalStorage storage = LocalStorage.open(dir)) {
+            assertEquals(4, storage.getExamples(id).size());
+            assertEquals(0.6f, storage.getExpansionKeywordScore(id, tech, "restart"), 0.0001);
+            assertEquals(Map.of("IT", 6), storage.getMostUsedAbbreviations(5));
+            assertArrayEquals(new String[] {"the"}, storage.getCommonWords());
+            assertFalse(Files.exists(dir.resolve("atea.log.compact")));
+        }
+    }
+
+    @Test
+    @DisplayName("a partly written record should be dropped")
+    void truncatedRecord() throws Exception {
+        try(LocalStorage storage = LocalStorage.open(dir)) {
+            storage.insertExample(abbreviation("restart the IT server", "IT"), "information technology");
+        }
+
+        Path log = dir.resolve(LocalStorage.LOG_FILE);
+        long size = Files.size(log);
+        Files.write(log, "X\t2\t1\t1\t2\t,the,IT".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try(LocalStorage storage = LocalStorage.open(dir)) {
+            assertEquals(size, Files.size(log));
+            assertEquals(1, storage.getExamples(1).size());
+            assertEquals(2, storage.insertExample(abbreviation("the IT desk", "IT"), "information technology").getId());
+            assertEquals(2, storage.getExamples(1).size());
+        }
+    }
+
+    @Test
+    @DisplayName("a crash partway through a write should keep the records before the example")
+    void partialWrite() throws Exception {
+        Path log = dir.resolve(LocalStorage.LOG_FILE);
+        long size;
+        try(LocalStorage storage = LocalStorage.open(dir)) {
+            storage.setSyncWrites(true);
+            storage.insertExample(abbreviation("restart the IT server", "IT"), "information technology");
+            size = Files.size(log);
+            storage.insertExample(abbreviation("build a DIY shelf", "DIY"), "do it yourself");
+        }
+
+        // keep the new abbreviation and half of the rest, as a crash could
+        List<String> lines = Files.readAllLines(log, StandardCharsets.UTF_8);
+        String written = String.join("\n", lines.subList(lines.size() - 4, lines.size())) + "\n";
+        int kept = lines.get(lines.size() - 4).length() + 1 + lines.get(lines.size() - 3).length() / 2;
+        try(FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(size + written.substring(0, kept).getBytes(StandardCharsets.UTF_8).length);
+        }
+
+        try(LocalStorage storage = LocalStorage.open(dir)) {
+            int id = storage.abbreviationExists("DIY");
+            assertNotEquals(-1, id);
+            assertTrue(storage.getExamples(id).isEmpty());
+            assertTrue(storage.getExpansions(id).isEmpty());
+            assertEquals(1, storage.getExamples(storage.abbreviationExists("IT")).size());
+        }
+    }
+
+    @Test
+    @DisplayName("a corrupt record should fail opening with an SQLException")
+    void corruptRecord() throws Exception {
+        try(LocalStorage storage = LocalStorage.open(dir)) {
+            storage.insertExample(abbreviation("restart the IT server", "IT"), "information technology");
+        }
+
+        Path log = dir.resolve(LocalStorage.LOG_FILE);
+        byte[] valid = Files.readAllBytes(log);
+        for(String corrupt : new String[] {"\n", "Q\tunknown\n", "X\tnot a number\n", "A\n"}) {
+            Files.write(log, valid);
+            Files.write(log, corrupt.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+            SQLException ex = assertThrows(SQLException.class, () -> LocalStorage.open(dir), corrupt);
+            assertTrue(ex.getCause() instanceof IOException, corrupt);
+        }
+
+        Files.write(log, valid);
+        try(LocalStorage storage = LocalStorage.open(dir)) {
+            assertEquals(1, storage.getExamples(1).size());
+        }
+    }
+
+    @Test
+    @DisplayName("copyOf should keep the ids of the source")
+    void copyOf() throws SQLException {
+        Database db = Mockito.mock(Database.class);
+        Mockito.when(db.getCommonWords()).thenReturn(new String[] {"the"});
+        HashMap<String, Integer> abbrs = new HashMap<>();
+        abbrs.put("IT", 7);
+        Mockito.when(db.getAbbreviations()).thenReturn(abbrs);
+        ArrayList<Expansion> expansions = new ArrayList<>();
+        expansions.add(new Expansion(4, "information technology"));
+        Mockito.when(db.getExpansions(7)).thenReturn(expansions);
+        ArrayList<Example> examples = new ArrayList<>();
+        examples.add(new Example(12, 7, 4, ",call,IT,"));
+        examples.add(new Example(13, 8, 4, ",IT,"));
+        Mockito.when(db.forEachExample(Mockito.any())).thenAnswer(invocation -> {
+            Consumer<Example> consumer = invocation.getArgument(0);
+            examples.forEach(consumer);
+            return (long) examples.size();
+        });
+
+        try(LocalStorage storage = LocalStorage.copyOf(db, dir)) {
+            assertEquals(7, storage.abbreviationExists("it"));
+            assertEquals(4, storage.getExpansions(7).get(0).getId());
+            assertEquals(12, storage.getExamples(7).get(0).getId());
+            assertEquals(1, storage.getExamples(7).size());
+            // examples of abbreviations which were not copied are left out
+            assertTrue(storage.getExamples(8).isEmpty());
+            assertEquals(13, storage.insertExample(abbreviation("IT help", "IT"), "information technology").getId());
+        }
+
+        assertThrows(SQLException.class, () -> LocalStorage.copyOf(db, dir));
+    }
+
+    @Test
+    @DisplayName("Atea should learn and predict without a database")
+    void atea() throws SQLException {
+        try(LocalStorage storage = LocalStorage.open(dir)) {
+            storage.addCommonWords("the", "is");
+            Atea atea = new Atea(storage);
+            atea.addExample(abbreviation("restart the IT server", "IT"), new Expansion(-1, "information technology"));
+            atea.addExample(abbreviation("the IT server is down", "IT"), new Expansion(-1, "information technology"));
+            atea.addExample(abbreviation("it is sunny", "it"), new Expansion(-1, "it"));
+            atea.setScorer(atea.naiveBayesScorer(1));
+
+            assertEquals("the information technology server is slow", atea.expand("the IT server is slow"));
+        }
+    }
+}
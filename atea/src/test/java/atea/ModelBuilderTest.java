@@ -0,0 +1,128 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When building the model from every example")
+class ModelBuilderTest {
+
+    private static final String[] ABBREVIATIONS = {"IT", "DIY", "ETA", "ASAP", "FYI"};
+    private static final String[] WORDS = {"server", "down", "meeting", "home", "shelf", "call", "the"};
+
+    @TempDir
+    Path dir;
+
+    private LocalStorage storage;
+
+    @BeforeEach
+    void init() throws SQLException {
+        storage = LocalStorage.open(dir);
+        storage.addCommonWords("the");
+        for(int i=0; i<5000; i++) {
+            String value = ABBREVIATIONS[i % ABBREVIATIONS.length];
+            String text = WORDS[i % WORDS.length] + " " + value + " " + WORDS[i * 7 % 11 % WORDS.length];
+            SplitString ss = new SplitString(text);
+            storage.insertExample(new Abbreviation(-1, value, ss, 1), value.toLowerCase() + " expansion " + i % 3);
+        }
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        storage.close();
+    }
+
+    @Test
+    @DisplayName("the statistics should match those loaded one abbreviation at a time")
+    void matchesLoaded() throws SQLException {
+        Set<String> commonWords = Set.of("the");
+        ModelBuilder builder = new ModelBuilder(storage, commonWords, 3);
+        HashMap<Integer, AbbreviationStatistics> built = builder.build();
+
+        assertEquals(ABBREVIATIONS.length, built.size());
+        assertEquals(5000, builder.getReport().getExamples());
+        assertEquals(ABBREVIATIONS.length, builder.getReport().getAbbreviations());
+        for(String value : ABBREVIATIONS) {
+            int id = storage.abbreviationExists(value);
+            AbbreviationStatistics loaded = AbbreviationStatistics.fromExamples(value, storage.getExpansions(id),
+                    storage.getExamples(id), commonWords);
+            AbbreviationStatistics stats = built.get(id);
+
+            assertEquals(loaded.getExampleTotal(), stats.getExampleTotal());
+            assertEquals(loaded.getLoadedExampleId(), stats.getLoadedExampleId());
+            assertEquals(loaded.getVocabularySize(), stats.getVocabularySize());
+            assertEquals(loaded.getExpansionCount(), stats.getExpansionCount());
+            for(int i=0; i<loaded.getExpansionCount(); i++) {
+                assertEquals(loaded.getExpansions().get(i).getId(), stats.getExpansions().get(i).getId());
+                assertEquals(loaded.getExampleCount(i), stats.getExampleCount(i));
+                assertEquals(loaded.getWordTotal(i), stats.getWordTotal(i));
+                for(String word : WORDS) {
+                    int[] counts = loaded.getWordCounts(word);
+                    assertEquals(counts == null ? 0 : AbbreviationStatistics.getWordCount(counts, i),
+                            stats.getWordCounts(word) == null ? 0 : AbbreviationStatistics.getWordCount(stats.getWordCounts(word), i));
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Atea should predict the same with a built model")
+    void predicts() throws SQLException {
+        Atea lazy = new Atea(storage);
+        Atea built = new Atea(storage);
+        ModelBuildReport report = built.buildModel(2);
+        assertTrue(report.getExamplesPerSecond() > 0);
+        assertTrue(report.toString().startsWith("Built 5 abbreviations from 5000 examples"));
+
+        String text = "Is the IT server down before the meeting, or can you DIY the shelf ASAP?";
+        assertEquals(lazy.explain(text), built.explain(text));
+    }
+
+    @Test
+    @DisplayName("examples added during a build should be counted once")
+    void addedDuringBuild() throws SQLException {
+        Storage slow = Mockito.mock(Storage.class, AdditionalAnswers.delegatesTo(storage));
+        Atea atea = new Atea(slow);
+        int id = storage.abbreviationExists("IT");
+        Abbreviation it = new Abbreviation(id, "IT", new SplitString("IT"), 0);
+        int before = atea.getModel().getStatistics(it).getExampleTotal();
+
+        // one example is added while the build reads, after it has read past the end
+        Mockito.doAnswer(invocation -> {
+            long read = storage.forEachExample(invocation.getArgument(0));
+            Abbreviation abbr = new Abbreviation(-1, "IT", new SplitString("the IT server"), 1);
+            assertTrue(atea.addExample(abbr, new Expansion(-1, "it expansion 0")));
+            return read;
+        }).when(slow).forEachExample(Mockito.<Consumer<Example>>any());
+
+        atea.buildModel(2);
+        assertEquals(before + 1, atea.getModel().getStatistics(it).getExampleTotal());
+
+        // a second build reads the example itself and must not count it again
+        Mockito.doAnswer(AdditionalAnswers.delegatesTo(storage)).when(slow).forEachExample(Mockito.<Consumer<Example>>any());
+        atea.buildModel(2);
+        assertEquals(before + 1, atea.getModel().getStatistics(it).getExampleTotal());
+    }
+
+    @Test
+    @DisplayName("a failing storage should fail the build with its exception")
+    void failure() throws SQLException {
+        Storage failing = Mockito.mock(Storage.class, AdditionalAnswers.delegatesTo(storage));
+        Mockito.doThrow(new SQLException("gone")).when(failing).getExpansions(Mockito.anyInt());
+        Model model = new Model(failing, new String[0]);
+
+        SQLException ex = assertThrows(SQLException.class, () -> model.build(2));
+        assertEquals("gone", ex.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> new ModelBuilder(storage, new HashSet<>(), 0));
+    }
+}
@@ -0,0 +1,169 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+import org.mockito.Mockito;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When predicting and training from many threads")
+class ModelConcurrencyTest {
+    private static final String[] ABBREVIATIONS = {"abbr", "diy", "misc"};
+    private static final String TEXT = "The abbr and the diy misc needs server work";
+
+    // stubOnly keeps Mockito from recording every call made by the threads
+    private Database db = Mockito.mock(Database.class, Mockito.withSettings().stubOnly());
+    private AtomicInteger exampleIds = new AtomicInteger();
+    private Atea atea;
+
+    @BeforeEach
+    void init() throws SQLException {
+        Mockito.when(db.getCommonWords()).thenReturn(new String[] {"the", "and"});
+
+        HashMap<String, Integer> abbreviations = new HashMap<>();
+        for(int i=0; i<ABBREVIATIONS.length; i++) {
+            abbreviations.put(ABBREVIATIONS[i], i + 1);
+
+            ArrayList<Expansion> expansions = new ArrayList<>();
+            expansions.add(new Expansion((i + 1) * 10, ABBREVIATIONS[i] + " expanded"));
+            Mockito.when(db.getExpansions(i + 1)).thenReturn(expansions);
+        }
+        Mockito.when(db.getAbbreviations()).thenReturn(abbreviations);
+        Mockito.when(db.getExamples(Mockito.anyInt())).thenReturn(new ArrayList<>());
+
+        Mockito.when(db.insertExample(Mockito.any(Abbreviation.class), Mockito.anyString())).thenAnswer(invocation -> {
+            Abbreviation abbr = invocation.getArgument(0);
+            String expansion = invocation.getArgument(1);
+            int abbr_id = abbreviations.get(abbr.getValue());
+            int expansion_id = abbr_id * 10 + (expansion.endsWith("expanded") ? 0 : 1);
+            return new Example(exampleIds.incrementAndGet(), abbr_id, expansion_id, abbr.getText().getWordsAsCSV());
+        });
+
+        atea = new Atea(db);
+        atea.setScorer(atea.naiveBayesScorer(1));
+        // load every abbreviation so examples are applied as deltas
+        atea.predictAbbreviations(TEXT);
+    }
+
+    @Test
+    @DisplayName("no example should be lost and readers should only see whole examples")
+    void noLostUpdates() throws Exception {
+        int writers = 4;
+        int readers = 8;
+        int examplesPerWriter = 2000;
+        ExecutorService pool = Executors.newFixedThreadPool(writers + readers);
+        AtomicBoolean training = new AtomicBoolean(true);
+        ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ArrayList<Future<?>> trainers = new ArrayList<>();
+        for(int w=0; w<writers; w++) {
+            int writer = w;
+            trainers.add(pool.submit(() -> {
+                start.await();
+                for(int i=0; i<examplesPerWriter; i++) {
+                    String value = ABBREVIATIONS[(writer + i) % ABBREVIATIONS.length];
+                    SplitString ss = new SplitString(value + " needs server work");
+                    String expansion = i % 2 == 0 ? value + " expanded" : "something else";
+                    assertTrue(atea.addExample(new Abbreviation(-1, value, ss, 0), new Expansion(-1, expansion)));
+                }
+                return null;
+            }));
+        }
+
+        for(int r=0; r<readers; r++) {
+            pool.submit(() -> {
+                start.await();
+                while(training.get()) {
+                    for(Abbreviation abbr : atea.predictAbbreviations(TEXT)) {
+                        double total = 0;
+                        for(Expansion expansion : abbr.getExpansions()) {
+                            total += expansion.getConfidence();
+                        }
+                        if(Math.abs(total - 1) > 1e-9) {
+                            errors.add(abbr.getValue() + " confidences sum to " + total);
+                        }
+
+                        AbbreviationStatistics stats = atea.getModel().getStatistics(abbr);
+                        int examples = 0;
+                        for(int i=0; i<stats.getExpansionCount(); i++) {
+                            examples += stats.getExampleCount(i);
+                        }
+                        if(examples != stats.getExampleTotal()) {
+                            errors.add(abbr.getValue() + " has a partially applied example");
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+
+        start.countDown();
+        for(Future<?> trainer : trainers) {
+            trainer.get(60, TimeUnit.SECONDS);
+        }
+        training.set(false);
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS));
+
+        assertTrue(errors.isEmpty(), () -> errors.peek());
+
+        int total = writers * examplesPerWriter;
+        SplitString ss = new SplitString(TEXT);
+        int counted = 0;
+        for(int i=0; i<ABBREVIATIONS.length; i++) {
+            AbbreviationStatistics stats = atea.getModel().getStatistics(new Abbreviation(i + 1, ABBREVIATIONS[i], ss, 0));
+            assertEquals(2, stats.getExpansionCount());
+            int server = 0;
+            int[] counts = stats.getWordCounts("server");
+            for(int e=0; e<stats.getExpansionCount(); e++) {
+                server += AbbreviationStatistics.getWordCount(counts, e);
+            }
+            assertEquals(stats.getExampleTotal(), server);
+            counted += stats.getExampleTotal();
+        }
+        assertEquals(total, counted);
+    }
+
+    @Test
+    @DisplayName("read throughput should be measured from 1 to 32 threads")
+    void readThroughput() throws Exception {
+        long duration = TimeUnit.MILLISECONDS.toNanos(200);
+        for(int threads = 1; threads <= 32; threads *= 2) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            AtomicLong predictions = new AtomicLong();
+            CountDownLatch start = new CountDownLatch(1);
+            ArrayList<Future<?>> readers = new ArrayList<>();
+            for(int t=0; t<threads; t++) {
+                readers.add(pool.submit(() -> {
+                    start.await();
+                    long end = System.nanoTime() + duration;
+                    long count = 0;
+                    while(System.nanoTime() < end) {
+                        atea.predictAbbreviations(TEXT);
+                        count++;
+                    }
+                    predictions.addAndGet(count);
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for(Future<?> reader : readers) {
+                reader.get(60, TimeUnit.SECONDS);
+            }
+            pool.shutdown();
+
+            long perSecond = predictions.get() * TimeUnit.SECONDS.toNanos(1) / duration;
+            System.out.println("predictAbbreviations threads=" + threads + " predictions/s=" + perSecond);
+            assertTrue(predictions.get() > 0);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When updating the Model")
+class ModelTest {
+
+    @Mock
+    private Database db = Mockito.mock(Database.class);
+
+    private Model model;
+    private Abbreviation abbr;
+
+    @BeforeEach
+    void init() throws SQLException {
+        ArrayList<Expansion> expansions = new ArrayList<>();
+        expansions.add(new Expansion(1, "information technology"));
+        Mockito.when(db.getExpansions(1)).thenReturn(expansions);
+
+        ArrayList<Example> examples = new ArrayList<>();
+        examples.add(new Example(1, 1, 1, ",call,IT,about,the,server,"));
+        Mockito.when(db.getExamples(1)).thenReturn(examples);
+
+        model = new Model(db, new String[] {"the", "about"});
+        SplitString ss = new SplitString("IT is down");
+        abbr = new Abbreviation(1, "IT", ss, 0);
+    }
+
+    @Test
+    @DisplayName("addExample should update the counts without reloading")
+    void addExampleUpdatesCounts() throws SQLException {
+        AbbreviationStatistics before = model.getStatistics(abbr);
+        model.addExample("IT", new Example(2, 1, 1, ",the,server,is,down,"), "information technology");
+        AbbreviationStatistics after = model.getStatistics(abbr);
+
+        assertEquals(2, after.getExampleTotal());
+        assertEquals(2, after.getWordCounts("server")[0]);
+        assertEquals(1, after.getWordCounts("down")[0]);
+        Mockito.verify(db, Mockito.times(1)).getExamples(1);
+
+        // readers holding the old statistics should not see the example
+        assertEquals(1, before.getExampleTotal());
+        assertEquals(1, before.getWordCounts("server")[0]);
+        assertNull(before.getWordCounts("down"));
+    }
+
+    @Test
+    @DisplayName("addExample should add new expansions")
+    void addExampleAddsExpansion() throws SQLException {
+        model.getStatistics(abbr);
+        model.addExample("IT", new Example(2, 1, 5, ",it,is,sunny,"), "it");
+
+        ArrayList<Expansion> expansions = model.getExpansions(abbr);
+        assertEquals(2, expansions.size());
+        assertEquals("it", expansions.get(1).getValue());
+
+        AbbreviationStatistics stats = model.getStatistics(abbr);
+        assertEquals(0, AbbreviationStatistics.getWordCount(stats.getWordCounts("server"), 1));
+        assertEquals(1, AbbreviationStatistics.getWordCount(stats.getWordCounts("sunny"), 1));
+    }
+
+    @Test
+    @DisplayName("addExample should ignore examples which were already loaded")
+    void addExampleIgnoresLoadedExamples() throws SQLException {
+        model.getStatistics(abbr);
+        model.addExample("IT", new Example(1, 1, 1, ",call,IT,about,the,server,"), "information technology");
+
+        assertEquals(1, model.getStatistics(abbr).getExampleTotal());
+    }
+
+    @Test
+    @DisplayName("addExample should leave abbreviations which are not loaded alone")
+    void addExampleSkipsUnloaded() throws SQLException {
+        model.addExample("IT", new Example(2, 1, 1, ",the,server,is,down,"), "information technology");
+
+        // nothing was loaded, so the statistics come only from the database
+        assertEquals(1, model.getStatistics(abbr).getExampleTotal());
+    }
+
+    @Test
+    @DisplayName("addExample should add new abbreviations to the lexicon")
+    void addExampleAddsAbbreviation() {
+        assertEquals(-1, model.getAbbreviationId("tldr"));
+        model.addExample("TLDR", new Example(7, 4, 9, ",TLDR,it,is,long,"), "too long didn't read");
+        assertEquals(4, model.getAbbreviationId("tldr"));
+        assertEquals(4, model.getAbbreviationId("TLDR"));
+    }
+}
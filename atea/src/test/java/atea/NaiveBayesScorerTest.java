@@ -0,0 +1,99 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When scoring with Naive Bayes")
+class NaiveBayesScorerTest {
+
+    @Mock
+    private Database db = Mockito.mock(Database.class);
+
+    private NaiveBayesScorer scorer;
+    private ArrayList<Expansion> expansions;
+
+    @BeforeEach
+    void init() throws SQLException {
+        ArrayList<Example> examples = new ArrayList<>();
+        examples.add(new Example(1, 1, 1, ",the,IT,department,fixed,my,computer,"));
+        examples.add(new Example(2, 1, 1, ",call,IT,about,the,server,"));
+        examples.add(new Example(3, 1, 1, ",IT,rebooted,the,server,"));
+        examples.add(new Example(4, 1, 2, ",it,is,sunny,"));
+        Mockito.when(db.getExamples(1)).thenReturn(examples);
+        ArrayList<Expansion> linked = new ArrayList<>();
+        linked.add(new Expansion(1, "information technology"));
+        linked.add(new Expansion(2, "it"));
+        Mockito.when(db.getExpansions(1)).thenReturn(linked);
+
+        Model model = new Model(db, new String[] {"the", "a", "is", "my"});
+        scorer = new NaiveBayesScorer(() -> model, 1);
+
+        expansions = new ArrayList<>();
+        expansions.add(new Expansion(1, "information technology"));
+        expansions.add(new Expansion(2, "it"));
+        expansions.add(new Expansion(-1, ""));
+    }
+
+    private double[] score(String text, int index) throws SQLException {
+        SplitString ss = new SplitString(text);
+        return scorer.score(new Abbreviation(1, ss.getWords()[index], ss, index), expansions);
+    }
+
+    @Test
+    @DisplayName("confidences should sum to 1")
+    void confidencesSumToOne() throws SQLException {
+        double[] confidences = score("Ask IT to look at the server", 1);
+        assertEquals(1, confidences[0] + confidences[1] + confidences[2], 1e-9);
+    }
+
+    @Test
+    @DisplayName("keywords seen with an expansion should make it the most likely")
+    void keywordsFavorExpansion() throws SQLException {
+        double[] confidences = score("Ask IT to look at the server", 1);
+        assertTrue(confidences[0] > confidences[1]);
+        assertTrue(confidences[0] > confidences[2]);
+
+        confidences = score("Today it is sunny", 1);
+        assertTrue(confidences[1] > confidences[0]);
+    }
+
+    @Test
+    @DisplayName("unseen keywords should not wipe out the prior")
+    void unseenKeywordsKeepPrior() throws SQLException {
+        double[] confidences = score("IT unknown words everywhere", 0);
+        assertTrue(confidences[0] > 0);
+        assertTrue(confidences[0] > confidences[1]);
+    }
+
+    @Test
+    @DisplayName("long texts should not underflow")
+    void longTextsDoNotUnderflow() throws SQLException {
+        StringBuilder text = new StringBuilder("IT");
+        for(int i=0; i<5000; i++) {
+            text.append(" server");
+        }
+        double[] confidences = score(text.toString(), 0);
+        assertFalse(Double.isNaN(confidences[0]));
+        assertEquals(1, confidences[0], 1e-9);
+    }
+
+    @Test
+    @DisplayName("statistics should be loaded from the database once per abbreviation")
+    void statisticsAreCached() throws SQLException {
+        score("Ask IT to look at the server", 1);
+        score("Today it is sunny", 1);
+        Mockito.verify(db, Mockito.times(1)).getExamples(1);
+    }
+
+    @Test
+    @DisplayName("alpha must be positive")
+    void alphaMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new NaiveBayesScorer(() -> null, 0));
+    }
+}
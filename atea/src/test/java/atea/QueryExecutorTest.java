@@ -0,0 +1,83 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When running queries")
+class QueryExecutorTest {
+
+    @Test
+    @DisplayName("virtual threads should never run more queries than allowed")
+    void boundsConcurrentQueries() throws SQLException {
+        QueryExecutor queries = QueryExecutor.virtualThreads(3);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger mostRunning = new AtomicInteger();
+
+        ArrayList<Future<Integer>> results = new ArrayList<>();
+        for(int i=0; i<50; i++) {
+            int n = i;
+            results.add(queries.query(() -> {
+                mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                }
+                catch(InterruptedException ex) {
+                    throw new SQLException(ex);
+                }
+                running.decrementAndGet();
+                return n;
+            }));
+        }
+
+        for(int i=0; i<results.size(); i++) {
+            assertEquals(i, QueryExecutor.get(results.get(i)));
+        }
+        assertTrue(mostRunning.get() <= 3);
+        assertTrue(mostRunning.get() > 1);
+    }
+
+    @Test
+    @DisplayName("get should rethrow the SQLException thrown by a query")
+    void rethrowsSQLException() {
+        SQLException thrown = new SQLException("query failed");
+        assertSame(thrown, assertThrows(SQLException.class,
+                () -> QueryExecutor.get(QueryExecutor.virtualThreads(1).query(() -> { throw thrown; }))));
+        assertSame(thrown, assertThrows(SQLException.class,
+                () -> QueryExecutor.get(QueryExecutor.CALLING_THREAD.query(() -> { throw thrown; }))));
+    }
+
+    @Test
+    @DisplayName("closing should let started queries finish and run later ones on the calling thread")
+    void close() throws SQLException, InterruptedException {
+        QueryExecutor queries = QueryExecutor.virtualThreads(4);
+        QueryExecutor resized = queries.withMaxConcurrentQueries(2);
+        assertEquals(2, resized.getMaxConcurrentQueries());
+
+        CountDownLatch started = new CountDownLatch(1);
+        Future<Thread> running = resized.query(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(50);
+            }
+            catch(InterruptedException ex) {
+                throw new SQLException(ex);
+            }
+            return Thread.currentThread();
+        });
+        started.await();
+        queries.close();
+
+        assertTrue(QueryExecutor.get(running).isVirtual());
+        assertSame(Thread.currentThread(), QueryExecutor.get(resized.query(Thread::currentThread)));
+        assertSame(Thread.currentThread(), QueryExecutor.get(queries.fork(Thread::currentThread)));
+        QueryExecutor.CALLING_THREAD.close();
+        assertEquals(1, QueryExecutor.get(QueryExecutor.CALLING_THREAD.query(() -> 1)));
+    }
+}
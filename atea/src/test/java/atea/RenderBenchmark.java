@@ -0,0 +1,131 @@
+package atea;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares rendering expanded text with Renderer against the StringBuilder concatenation Atea used
+ * before it. Run it after mvn test-compile with
+ *
+ *   java -cp "target/classes:target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)" atea.RenderBenchmark
+ *
+ * Pass -prof gc after the class name to see the bytes allocated by each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+    private static final String PARAGRAPH = "Can you DIY the shelf before the meeting? The IT desk said the ETA "
+            + "for the new server is Friday, so send the report ASAP and FYI the printer is down again. ";
+    private static final String[][] EXPANSIONS = {
+            {"DIY", "do it yourself"}, {"IT", "information technology"}, {"ETA", "estimated time of arrival"},
+            {"ASAP", "as soon as possible"}, {"FYI", "for your information"}};
+
+    @Param({"1", "50"})
+    public int paragraphs;
+
+    @Param({"false", "true"})
+    public boolean explain;
+
+    private String text;
+    private ArrayList<Abbreviation> abbrs;
+    private Renderer renderer;
+    private StringBuilder builder;
+    private CharBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        text = PARAGRAPH.repeat(paragraphs);
+        SplitString ss = new SplitString(text);
+        abbrs = new ArrayList<>();
+        String[] words = ss.getWords();
+        for(int i=0; i<words.length; i++) {
+            for(String[] expansion : EXPANSIONS) {
+                if(words[i].equals(expansion[0])) {
+                    ArrayList<Expansion> expansions = new ArrayList<>();
+                    expansions.add(new Expansion(1, expansion[1]));
+                    abbrs.add(new Abbreviation(1, words[i], ss, i, expansions));
+                }
+            }
+        }
+
+        renderer = explain ? Renderer.EXPLAIN : Renderer.EXPAND;
+        builder = new StringBuilder(renderer.length(abbrs));
+        buffer = CharBuffer.allocate(renderer.length(abbrs));
+    }
+
+    @Benchmark
+    public String concatenate() {
+        return concatenate(abbrs.get(0).getText().getFullSplit(), abbrs, explain);
+    }
+
+    @Benchmark
+    public String renderString() {
+        return renderer.render(text, abbrs);
+    }
+
+    @Benchmark
+    public int renderReusedBuilder() throws IOException {
+        builder.setLength(0);
+        renderer.render(abbrs, builder);
+        return builder.length();
+    }
+
+    @Benchmark
+    public int renderCharBuffer() throws IOException {
+        buffer.clear();
+        renderer.render(abbrs, buffer);
+        return buffer.position();
+    }
+
+    /**
+     * How Atea built expanded text before Renderer.
+     */
+    private static String concatenate(String[] chunks, ArrayList<Abbreviation> abbrs, boolean explain) {
+        StringBuilder output = new StringBuilder();
+
+        int[] abbr_indexes = new int[abbrs.size()];
+        for(int i=0; i<abbrs.size(); i++) {
+            abbr_indexes[i] = abbrs.get(i).getIndex();
+        }
+
+        int word_index = 0;
+        for(int i=0, a=0; i<chunks.length; i++) {
+            output.append(chunks[i++]);
+            if(i >= chunks.length) {
+                break;
+            }
+
+            int k = word_index;
+            if(Arrays.stream(abbr_indexes).anyMatch(j -> j == k)) {
+                if(explain) {
+                    output.append(chunks[i]);
+                    output.append(" (" + abbrs.get(a++).getExpansions().get(0).getValue() + ")");
+                } else {
+                    output.append(abbrs.get(a++).getExpansions().get(0).getValue());
+                }
+            } else {
+                output.append(chunks[i]);
+            }
+
+            word_index++;
+        }
+
+        return output.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] options = new String[args.length + 1];
+        options[0] = RenderBenchmark.class.getSimpleName();
+        System.arraycopy(args, 0, options, 1, args.length);
+        org.openjdk.jmh.Main.main(options);
+    }
+}
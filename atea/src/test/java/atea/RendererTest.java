@@ -0,0 +1,133 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When rendering predicted abbreviations")
+class RendererTest {
+
+    private static final String TEXT = "Is the IT server down? What is the ETA of the DIY kit?";
+
+    private ArrayList<Abbreviation> abbrs;
+
+    private static Abbreviation abbreviation(SplitString ss, String value, String... expansions) {
+        String[] words = ss.getWords();
+        for(int i=0; i<words.length; i++) {
+            if(words[i].equals(value)) {
+                ArrayList<Expansion> list = new ArrayList<>();
+                for(int e=0; e<expansions.length; e++) {
+                    list.add(new Expansion(e, expansions[e]));
+                }
+                return new Abbreviation(1, value, ss, i, list);
+            }
+        }
+        throw new IllegalArgumentException(value + " is not in " + ss);
+    }
+
+    @BeforeEach
+    void init() {
+        SplitString ss = new SplitString(TEXT);
+        abbrs = new ArrayList<>(List.of(
+                abbreviation(ss, "IT", "information technology", "it"),
+                abbreviation(ss, "ETA", "estimated time of arrival"),
+                abbreviation(ss, "DIY")));
+    }
+
+    @Test
+    @DisplayName("the built in templates should expand and explain the way Atea always has")
+    void builtIn() {
+        assertEquals("Is the information technology server down? What is the estimated time of arrival of the DIY kit?",
+                Renderer.EXPAND.render(TEXT, abbrs));
+        assertEquals("Is the IT (information technology) server down? What is the ETA (estimated time of arrival) of the DIY kit?",
+                Renderer.EXPLAIN.render(TEXT, abbrs));
+        assertEquals(TEXT, Renderer.EXPLAIN.render(TEXT, new ArrayList<>()));
+    }
+
+    @Test
+    @DisplayName("a template may use each placeholder any number of times")
+    void template() {
+        Renderer html = new Renderer("<abbr title=\"{expansion}\">{abbreviation}</abbr>");
+        assertEquals("Is the <abbr title=\"information technology\">IT</abbr> server down? What is the "
+                + "<abbr title=\"estimated time of arrival\">ETA</abbr> of the DIY kit?", html.render(TEXT, abbrs));
+        assertEquals("Is the [IT=information technology/IT] server down? What is the "
+                + "[ETA=estimated time of arrival/ETA] of the DIY kit?",
+                new Renderer("[{abbreviation}={expansion}/{abbreviation}]").render(TEXT, abbrs));
+        assertEquals("Is the {abbr} server down? What is the {abbr} of the DIY kit?",
+                new Renderer("{abbr}").render(TEXT, abbrs));
+    }
+
+    @Test
+    @DisplayName("every kind of target should get the same text, of the length worked out up front")
+    void targets() throws IOException {
+        Renderer renderer = new Renderer("{abbreviation} [{expansion}]");
+        String expected = renderer.render(TEXT, abbrs);
+        assertEquals(expected.length(), renderer.length(abbrs));
+
+        StringWriter writer = new StringWriter();
+        renderer.render(abbrs, writer);
+        assertEquals(expected, writer.toString());
+
+        CharBuffer buffer = CharBuffer.allocate(renderer.length(abbrs));
+        renderer.render(abbrs, buffer);
+        assertEquals(expected, buffer.flip().toString());
+
+        StringBuilder appended = new StringBuilder();
+        renderer.render(abbrs, new Appendable() {
+            @Override
+            public Appendable append(CharSequence csq) {
+                appended.append(csq);
+                return this;
+            }
+
+            @Override
+            public Appendable append(CharSequence csq, int start, int end) {
+                appended.append(csq, start, end);
+                return this;
+            }
+
+            @Override
+            public Appendable append(char c) {
+                appended.append(c);
+                return this;
+            }
+        });
+        assertEquals(expected, appended.toString());
+
+        assertThrows(BufferOverflowException.class, () -> renderer.render(abbrs, CharBuffer.allocate(10)));
+    }
+
+    @Test
+    @DisplayName("rendering into a reused StringBuilder should not allocate")
+    void allocationFree() throws IOException {
+        Assumptions.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        StringBuilder builder = new StringBuilder(Renderer.EXPLAIN.length(abbrs));
+        long thread = Thread.currentThread().threadId();
+        for(int i=0; i<1000; i++) {
+            builder.setLength(0);
+            Renderer.EXPLAIN.render(abbrs, builder);
+        }
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        for(int i=0; i<10000; i++) {
+            builder.setLength(0);
+            Renderer.EXPLAIN.render(abbrs, builder);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        // far less than one byte for each of the 10000 renders, allowing for the measurement itself
+        assertTrue(allocated < 4096, allocated + " bytes allocated");
+        assertEquals(Renderer.EXPLAIN.render(TEXT, abbrs), builder.toString());
+    }
+}
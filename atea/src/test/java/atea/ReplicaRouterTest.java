@@ -0,0 +1,140 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+import org.mockito.Mockito;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When routing queries to replicas")
+class ReplicaRouterTest {
+    private ConnectionPool primary;
+    private ConnectionPool first;
+    private ConnectionPool second;
+    private ReplicaRouter router;
+
+    private static ConnectionPool pool(String name) throws SQLException {
+        ConnectionPool pool = Mockito.mock(ConnectionPool.class);
+        Connection conn = Mockito.mock(Connection.class, name);
+        Mockito.when(conn.isValid(Mockito.anyInt())).thenReturn(true);
+        Mockito.when(pool.borrow()).thenReturn(conn);
+        return pool;
+    }
+
+    @BeforeEach
+    void init() throws SQLException {
+        primary = pool("primary");
+        first = pool("first");
+        second = pool("second");
+        router = new ReplicaRouter(primary, Arrays.asList(first, second));
+    }
+
+    private String readFrom() throws SQLException {
+        return router.read(Object::toString);
+    }
+
+    @Test
+    @DisplayName("reads should take turns on the replicas and writes should go to the primary")
+    void roundRobin() throws SQLException {
+        assertEquals("first", readFrom());
+        assertEquals("second", readFrom());
+        assertEquals("first", readFrom());
+        assertEquals("primary", router.write(Object::toString));
+    }
+
+    @Test
+    @DisplayName("a replica which cannot be reached should be skipped until it passes a check")
+    void failover() throws SQLException {
+        Mockito.when(first.borrow()).thenThrow(new SQLNonTransientConnectionException("down", "08001"));
+
+        ArrayList<String> reads = new ArrayList<>();
+        for(int i=0; i<4; i++) {
+            reads.add(readFrom());
+        }
+        assertEquals(Arrays.asList("second", "second", "second", "second"), reads);
+        assertEquals(1, router.getHealthyReplicas());
+        // the failed borrow is the only time the replica was tried
+        Mockito.verify(first, Mockito.times(1)).borrow();
+        Mockito.verify(first).closeIdle();
+
+        Mockito.reset(first);
+        Connection conn = Mockito.mock(Connection.class, "first");
+        Mockito.when(conn.isValid(Mockito.anyInt())).thenReturn(true);
+        Mockito.when(first.borrow()).thenReturn(conn);
+        router.checkHealth();
+        assertEquals(2, router.getHealthyReplicas());
+    }
+
+    @Test
+    @DisplayName("reads should go to the primary when no replica can be reached")
+    void allReplicasDown() throws SQLException {
+        Mockito.when(first.borrow()).thenThrow(new SQLNonTransientConnectionException("down", "08001"));
+        Mockito.when(second.borrow()).thenThrow(new SQLNonTransientConnectionException("down", "08S01"));
+
+        assertEquals("primary", readFrom());
+        assertEquals(0, router.getHealthyReplicas());
+    }
+
+    @Test
+    @DisplayName("errors in the query itself should not fail over")
+    void queryError() {
+        assertThrows(SQLException.class, () -> router.read(conn -> {
+            throw new SQLException("syntax", "42000");
+        }));
+        assertEquals(2, router.getHealthyReplicas());
+    }
+
+    @Test
+    @DisplayName("reads right after a write should go to the primary in read-your-writes mode")
+    void readYourWrites() throws SQLException {
+        router.setReadYourWritesMillis(60000);
+        assertEquals("first", readFrom());
+
+        router.write(Object::toString);
+        assertEquals("primary", readFrom());
+        assertEquals("primary", readFrom());
+
+        router.setReadYourWritesMillis(0);
+        assertNotEquals("primary", readFrom());
+    }
+
+    @Test
+    @DisplayName("reads before the first write should go to the replicas however long the window is")
+    void noWriteYet() throws SQLException {
+        // longer than System.nanoTime() has been counting, whatever its origin
+        router.setReadYourWritesMillis(Long.MAX_VALUE / 2_000_000);
+        assertEquals("first", readFrom());
+        assertEquals("second", readFrom());
+
+        router.write(Object::toString);
+        assertEquals("primary", readFrom());
+    }
+
+    @Test
+    @DisplayName("a stream which loses its replica partway should fail rather than start over")
+    void streamFailure() throws SQLException {
+        ArrayList<String> rows = new ArrayList<>();
+        SQLException ex = assertThrows(SQLException.class, () -> router.stream(conn -> {
+            for(int i=0; i<4; i++) {
+                if(i == 2 && conn.toString().equals("first")) {
+                    throw new SQLNonTransientConnectionException("lost", "08S01");
+                }
+                rows.add(conn + " " + i);
+            }
+            return rows.size();
+        }));
+        assertEquals("08S01", ex.getSQLState());
+        assertEquals(Arrays.asList("first 0", "first 1"), rows);
+        assertEquals(1, router.getHealthyReplicas());
+        Mockito.verify(second, Mockito.never()).borrow();
+        Mockito.verify(primary, Mockito.never()).borrow();
+
+        // a replica which cannot be reached before the stream starts is still skipped
+        assertEquals("second", router.stream(Object::toString));
+    }
+}
@@ -0,0 +1,138 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When splitting storage across shards")
+class ShardedStorageTest {
+    private static final String[] ABBREVIATIONS = {"IT", "DIY", "misc", "ASAP", "FYI", "TBD", "ETA", "HR"};
+
+    @TempDir
+    Path dir;
+
+    private ArrayList<LocalStorage> shards = new ArrayList<>();
+    private ShardedStorage storage;
+
+    @BeforeEach
+    void init() throws SQLException {
+        for(int i=0; i<3; i++) {
+            LocalStorage shard = LocalStorage.open(dir.resolve("shard" + i));
+            shard.addCommonWords("the");
+            shards.add(shard);
+        }
+        storage = new ShardedStorage(shards, 5000);
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        storage.close();
+    }
+
+    private static Abbreviation abbreviation(String value, String text) {
+        return new Abbreviation(-1, value, new SplitString(value + " " + text), 0);
+    }
+
+    @Test
+    @DisplayName("each abbreviation should be kept on one shard with ids unique across shards")
+    void routing() throws SQLException {
+        HashMap<String, Example> inserted = new HashMap<>();
+        for(String value : ABBREVIATIONS) {
+            inserted.put(value, storage.insertExample(abbreviation(value, "is short"), value.toLowerCase() + " expanded"));
+        }
+
+        HashMap<String, Integer> abbreviations = storage.getAbbreviations();
+        assertEquals(ABBREVIATIONS.length, abbreviations.size());
+        assertEquals(ABBREVIATIONS.length, abbreviations.values().stream().distinct().count());
+
+        for(String value : ABBREVIATIONS) {
+            int id = storage.abbreviationExists(value.toLowerCase());
+            assertEquals(abbreviations.get(value).intValue(), id);
+            assertEquals(inserted.get(value).getAbbreviationId(), id);
+
+            // only the shard the abbreviation hashes to holds it
+            int shard = storage.shardOf(value);
+            for(int i=0; i<shards.size(); i++) {
+                assertEquals(i == shard, shards.get(i).abbreviationExists(value) != -1);
+            }
+
+            ArrayList<Expansion> expansions = storage.getExpansions(id);
+            assertEquals(1, expansions.size());
+            assertEquals(inserted.get(value).getExpansionId(), expansions.get(0).getId());
+            assertEquals(1f, storage.getExpansionBaseProbability(id, expansions.get(0).getId()));
+            assertEquals(1f, storage.getExpansionKeywordScore(id, expansions.get(0).getId(), "short"));
+            assertEquals(0f, storage.getExpansionKeywordScore(id, -1, "short"));
+            assertEquals(inserted.get(value).getId(), storage.getExamples(id).get(0).getId());
+        }
+
+        assertArrayEquals(new String[] {"the"}, storage.getCommonWords());
+        assertEquals(-1, storage.abbreviationExists("unknown"));
+    }
+
+    @Test
+    @DisplayName("compacting should keep the weights of the examples on every shard")
+    void compact() throws SQLException {
+        for(String value : ABBREVIATIONS) {
+            storage.insertExample(abbreviation(value, "is short"), "expanded");
+            storage.insertExample(abbreviation(value, "is short"), "expanded");
+        }
+
+        assertEquals(ABBREVIATIONS.length, storage.compactExamples(5));
+        for(String value : ABBREVIATIONS) {
+            ArrayList<Example> examples = storage.getExamples(storage.abbreviationExists(value));
+            assertEquals(1, examples.size());
+            assertEquals(2, examples.get(0).getWeight());
+        }
+    }
+
+    @Test
+    @DisplayName("Atea should predict with abbreviations spread across shards")
+    void atea() throws SQLException {
+        Atea atea = new Atea(storage);
+        atea.setMaxConcurrentQueries(8);
+        for(String value : ABBREVIATIONS) {
+            atea.addExample(abbreviation(value, "is short"), new Expansion(-1, value.toLowerCase() + " expanded"));
+        }
+
+        assertEquals("it expanded and hr expanded", atea.expand("IT and HR"));
+    }
+
+    @Test
+    @DisplayName("a shard slower than the timeout should fail the request")
+    void timeout() throws SQLException {
+        Storage slow = Mockito.mock(Storage.class);
+        Mockito.when(slow.getAbbreviations()).thenAnswer(invocation -> {
+            Thread.sleep(10000);
+            return new HashMap<String, Integer>();
+        });
+
+        try(ShardedStorage sharded = new ShardedStorage(Arrays.asList(shards.get(0), slow), 100)) {
+            long start = System.nanoTime();
+            assertThrows(SQLTimeoutException.class, sharded::getAbbreviations);
+            assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        }
+    }
+
+    @Test
+    @DisplayName("a compaction slower than the timeout should be waited for")
+    void slowCompaction() throws SQLException {
+        Storage slow = Mockito.mock(Storage.class);
+        Mockito.when(slow.compactExamples(5)).thenAnswer(invocation -> {
+            Thread.sleep(300);
+            return 4;
+        });
+
+        try(ShardedStorage sharded = new ShardedStorage(Arrays.asList(shards.get(0), slow), 100)) {
+            assertEquals(4, sharded.compactExamples(5));
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When swapping the storage of a running Atea")
+class SnapshotSwapTest {
+
+    @TempDir
+    Path dir;
+
+    private LocalStorage current;
+    private LocalStorage retrained;
+
+    private static Abbreviation abbreviation(String text, String value) {
+        SplitString ss = new SplitString(text);
+        String[] words = ss.getWords();
+        for(int i=0; i<words.length; i++) {
+            if(words[i].equals(value)) {
+                return new Abbreviation(-1, value, ss, i);
+            }
+        }
+        throw new IllegalArgumentException(value + " is not in " + text);
+    }
+
+    @BeforeEach
+    void init() throws SQLException {
+        current = LocalStorage.open(dir.resolve("current"));
+        current.addCommonWords("the");
+        current.insertExample(abbreviation("restart the IT server", "IT"), "information technology");
+        current.insertExample(abbreviation("is IT down", "IT"), "it");
+        current.insertExample(abbreviation("the ETA of the bus", "ETA"), "estimated time of arrival");
+        current.insertExample(abbreviation("send it ASAP please", "ASAP"), "as soon as possible");
+
+        retrained = LocalStorage.copyOf(current, dir.resolve("retrained"));
+        retrained.insertExample(abbreviation("the IT server is down", "IT"), "information technology");
+        retrained.insertExample(abbreviation("call the IT desk", "IT"), "information technology");
+        retrained.insertExample(abbreviation("build a DIY shelf", "DIY"), "do it yourself");
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        current.close();
+        retrained.close();
+    }
+
+    @Test
+    @DisplayName("the diff should list only the abbreviations whose examples differ")
+    void diff() throws SQLException {
+        SnapshotDiff diff = SnapshotDiff.between(current, retrained);
+        assertEquals(Set.of("DIY"), diff.getAdded());
+        assertEquals(Set.of(), diff.getRemoved());
+        assertEquals(Set.of("IT"), diff.getChanged());
+        assertFalse(diff.isCommonWordsChanged());
+        assertFalse(diff.isEmpty());
+
+        int eta = current.abbreviationExists("ETA");
+        assertTrue(diff.isUnchanged(eta));
+        assertFalse(diff.isUnchanged(current.abbreviationExists("IT")));
+        assertTrue(SnapshotDiff.between(current, current).isEmpty());
+        assertEquals(Set.of("DIY"), SnapshotDiff.between(retrained, current).getRemoved());
+    }
+
+    @Test
+    @DisplayName("fingerprints should hash the examples the way MySQL does")
+    void fingerprints() throws SQLException {
+        // SELECT CRC32('1,1,1'), CRC32('12,3,2')
+        assertEquals(4257321630L, Storage.fingerprint(1, 1, 1));
+        assertEquals(2552950572L, Storage.fingerprint(12, 3, 2));
+
+        assertEquals(3, current.getExampleFingerprints().size());
+        for(int id : current.getExampleFingerprints().keySet()) {
+            long hashes = 0;
+            for(Example example : current.getExamples(id)) {
+                hashes ^= Storage.fingerprint(example.getId(), example.getExpansionId(), example.getWeight());
+            }
+            assertEquals(Storage.fingerprint(current.getExamples(id).size(), hashes), current.getExampleFingerprints().get(id));
+        }
+    }
+
+    @Test
+    @DisplayName("unchanged statistics should be kept and the rest read from the new storage")
+    void swap() throws Exception {
+        Atea atea = new Atea(current);
+        String text = "Is the IT server down? What is the ETA of the DIY kit?";
+        assertEquals("Is the information technology server down? What is the estimated time of arrival of the DIY kit?", atea.expand(text));
+        int eta = current.abbreviationExists("ETA");
+        AbbreviationStatistics etaStats = atea.getModel().getStatistics(new Abbreviation(eta, "ETA", new SplitString("ETA"), 0));
+
+        CompletableFuture<Storage> released = atea.swap(retrained);
+        assertSame(current, released.get(1, TimeUnit.SECONDS));
+        assertSame(etaStats, atea.getModel().getStatistics(new Abbreviation(eta, "ETA", new SplitString("ETA"), 0)));
+        assertEquals(1, atea.getModel().getLoadedCount());
+
+        assertEquals("Is the information technology server down? What is the estimated time of arrival of the do it yourself kit?",
+                atea.expand(text));
+
+        // new examples go to the new storage
+        assertTrue(atea.addExample(abbreviation("the ETA is noon", "ETA"), new Expansion(-1, "estimated time of arrival")));
+        assertEquals(2, retrained.getExamples(eta).size());
+        assertEquals(1, current.getExamples(eta).size());
+    }
+
+    @Test
+    @DisplayName("a bayes scorer made before a swap should score with the new storage")
+    void scorerAfterSwap() throws Exception {
+        Atea atea = new Atea(current);
+        NaiveBayesScorer scorer = atea.naiveBayesScorer(1);
+        atea.setScorer(scorer);
+
+        atea.swap(retrained).get(1, TimeUnit.SECONDS);
+        current.close();
+
+        // an abbreviation made by the caller has no model, so the scorer picks the current one
+        int diy = retrained.abbreviationExists("DIY");
+        SplitString ss = new SplitString("build a DIY shelf");
+        ArrayList<Expansion> expansions = new ArrayList<>(List.of(new Expansion(retrained.getExpansions(diy).get(0).getId(),
+                "do it yourself"), new Expansion(-1, "")));
+        double[] scores = scorer.score(new Abbreviation(diy, "DIY", ss, 2), expansions);
+        assertTrue(scores[0] > scores[1]);
+    }
+
+    @Test
+    @DisplayName("the old storage should only be released once the requests using it finish")
+    void inFlight() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        Storage slow = Mockito.mock(Storage.class, AdditionalAnswers.delegatesTo(current));
+        Mockito.doAnswer(invocation -> {
+            started.countDown();
+            assertTrue(finish.await(10, TimeUnit.SECONDS));
+            return current.getExpansions(invocation.getArgument(0));
+        }).when(slow).getExpansions(Mockito.anyInt());
+
+        Atea atea = new Atea(slow);
+        CompletableFuture<String> request = CompletableFuture.supplyAsync(() -> {
+            try {
+                return atea.expand("What is the ETA?");
+            }
+            catch(SQLException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<Storage> released = atea.swap(retrained);
+        assertFalse(released.isDone());
+        assertEquals("information technology", atea.predictAbbreviations("the IT server is down")
+                .get(0).getBestExpansion().getValue());
+        assertFalse(released.isDone());
+
+        finish.countDown();
+        assertEquals("What is the estimated time of arrival?", request.get(10, TimeUnit.SECONDS));
+        assertSame(slow, released.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("a storage which cannot be read should leave the old one in use")
+    void failedSwap() throws SQLException {
+        Atea atea = new Atea(current);
+        Storage broken = Mockito.mock(Storage.class);
+        Mockito.when(broken.getCommonWords()).thenThrow(new SQLException("gone"));
+
+        assertThrows(SQLException.class, () -> atea.swap(broken));
+        assertEquals("What is the estimated time of arrival?", atea.expand("What is the ETA?"));
+    }
+}
@@ -52,6 +52,50 @@ class SplitStringTest {
         expected_words = new String[]{"I", "love", "unit", "tests"};
     }
 
+    @Test
+    @DisplayName("an empty string should split into no words and one empty delimiter")
+    void emptyString() {
+        SplitString empty = new SplitString("");
+        assertEquals(0, empty.getWords().length);
+        assertArrayEquals(new String[] {""}, empty.getFullSplit());
+    }
+
+    @Test
+    @DisplayName("word offsets should locate each word in the text")
+    void wordOffsets() {
+        for(int i=0; i<expected_words.length; i++) {
+            assertEquals(expected_words[i], input_nn.substring(ss_nn.getWordStart(i), ss_nn.getWordEnd(i)));
+            assertEquals(expected_words[i], input_ww.substring(ss_ww.getWordStart(i), ss_ww.getWordEnd(i)));
+        }
+        assertEquals(8, ss_nn.getWordStart(2));
+    }
+
+    @Test
+    @DisplayName("the ASCII tokenizer should split like the A-z_ regular expression")
+    void asciiTokenizer() {
+        String[] texts = {"!!", " I love", "a[b] c^d`e!", "eli5 and café", "  x_y, \uD83D\uDE00 z\uD801\uDC37 "};
+        for(String text : texts) {
+            SplitString regex = new SplitString(text, "A-z_");
+            SplitString table = new SplitString(text, Tokenizer.ASCII);
+            assertArrayEquals(regex.getFullSplit(), table.getFullSplit(), text);
+        }
+
+        // a text of a single word has a delimiter on either side
+        assertArrayEquals(new String[] {"", "IT", ""}, new SplitString("IT").getFullSplit());
+    }
+
+    @Test
+    @DisplayName("the Unicode tokenizer should keep digits, letters and joined words whole")
+    void unicodeTokenizer() {
+        SplitString ss = new SplitString("ELI5: the café's Ünïcode, naïve\u0301 \uD801\uDC37x!", Tokenizer.UNICODE);
+        assertArrayEquals(new String[] {"ELI5", "the", "café's", "Ünïcode", "naïve\u0301", "\uD801\uDC37x"}, ss.getWords());
+        assertArrayEquals(new String[] {"", ": ", " ", " ", ", ", " ", "!"}, ss.getDelimiters());
+        assertEquals(33, ss.getWordStart(5));
+
+        Tokenizer tokenizer = new Tokenizer(false, false, true, true);
+        assertArrayEquals(new String[] {"U.S", "e-mail", "x", "y", "v"}, new SplitString("U.S. e-mail x--y v2 '", tokenizer).getWords());
+    }
+
     @Test
     void getWordsAsCSV() {
         String expected = ",I,love,unit,tests,";
@@ -0,0 +1,81 @@
+package atea;
+
+import org.junit.jupiter.api.*;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("When sharing word counts between versions of the statistics")
+class WordCountsTest {
+
+    private static final String TOP_BIT = "\u8cca\u000f\u0009\u0005";
+
+    private static void assertSameCounts(HashMap<String, int[]> expected, WordCounts actual) {
+        assertEquals(expected.size(), actual.size());
+        for(String word : expected.keySet()) {
+            assertSame(expected.get(word), actual.get(word), word);
+        }
+        HashMap<String, int[]> seen = new HashMap<>();
+        actual.forEach((word, counts) -> assertNull(seen.put(word, counts), word));
+        assertEquals(expected, seen);
+    }
+
+    @Test
+    @DisplayName("every version should keep the counts it was made with")
+    void persistent() {
+        Random random = new Random(7);
+        HashMap<String, int[]> expected = new HashMap<>();
+        WordCounts counts = WordCounts.EMPTY;
+        HashMap<String, int[]> halfway = null;
+        WordCounts halfwayCounts = null;
+        for(int i=0; i<20000; i++) {
+            String word = Integer.toString(random.nextInt(5000), 36);
+            int[] value = {i};
+            expected.put(word, value);
+            counts = counts.with(word, value);
+            if(i == 10000) {
+                halfway = new HashMap<>(expected);
+                halfwayCounts = counts;
+            }
+        }
+
+        assertSameCounts(expected, counts);
+        assertSameCounts(halfway, halfwayCounts);
+        assertNull(counts.get("not a word"));
+        assertFalse(counts.containsKey("not a word"));
+        assertTrue(WordCounts.of(expected).containsKey(expected.keySet().iterator().next()));
+        assertSameCounts(expected, WordCounts.of(expected));
+    }
+
+    @Test
+    @DisplayName("words with the same hash should be kept apart")
+    void collisions() {
+        // "Aa" and "BB" have the same hash, so every word of these has the same hash too
+        String[] words = {"AaAa", "AaBB", "BBAa", "BBBB"};
+        for(String word : words) {
+            assertEquals(words[0].hashCode(), word.hashCode());
+        }
+        assertEquals(1 << 30, "a".hashCode() ^ TOP_BIT.hashCode());
+
+        HashMap<String, int[]> expected = new HashMap<>();
+        WordCounts counts = WordCounts.EMPTY;
+        for(int round=0; round<2; round++) {
+            for(String word : words) {
+                int[] value = {round};
+                expected.put(word, value);
+                counts = counts.with(word, value);
+            }
+            // words whose hashes differ only in bit 30, which only the deepest level looks at
+            for(String word : new String[] {"a", TOP_BIT}) {
+                int[] value = {round};
+                expected.put(word, value);
+                counts = counts.with(word, value);
+            }
+        }
+
+        assertSameCounts(expected, counts);
+        assertNull(counts.get("AaCa"));
+    }
+}
@@ -0,0 +1,10 @@
+--
+-- Adds the indexes from build.sql to a database created before they existed.
+--
+-- The examples index covers the weight column, so the base probability is read from the index alone.
+-- Run add_weights.sql first on a database created before the weight column existed.
+--
+
+USE `atea`;
+
+ALTER TABLE `examples` ADD KEY `abbreviation_expansion` (`abbreviation_id`,`expansion_id`,`weight`);
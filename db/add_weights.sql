@@ -0,0 +1,22 @@
+--
+-- Adds the weight column from build.sql to a database created before it existed. Every existing
+-- example counts once.
+--
+-- Run it before migrate_innodb.sql, which copies the weights into the InnoDB tables.
+--
+
+USE `atea`;
+
+ALTER TABLE `examples` ADD COLUMN `weight` int(11) NOT NULL DEFAULT 1;
+
+-- The queries sum the weights rather than count the rows, so the examples index is rebuilt to cover
+-- the weight and keep the base probability query on the index alone. A database without the index
+-- gets it from add_indexes.sql instead.
+SET @rebuild_index = IF(
+  (SELECT COUNT(*) FROM information_schema.statistics
+   WHERE table_schema = 'atea' AND table_name = 'examples' AND index_name = 'abbreviation_expansion') > 0,
+  'ALTER TABLE `examples` DROP KEY `abbreviation_expansion`, ADD KEY `abbreviation_expansion` (`abbreviation_id`,`expansion_id`,`weight`)',
+  'DO 0');
+PREPARE rebuild_index FROM @rebuild_index;
+EXECUTE rebuild_index;
+DEALLOCATE PREPARE rebuild_index;
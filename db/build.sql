@@ -20,7 +20,7 @@ CREATE TABLE `abbreviation_expansion` (
   `expansion_id` int(11) NOT NULL,
   PRIMARY KEY (`abbreviation_id`,`expansion_id`),
   KEY `expansion_id` (`expansion_id`)
-) ENGINE=MyISAM DEFAULT CHARSET=utf8mb4;
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
 --
 -- Table structure for table `abbreviations`
@@ -32,7 +32,7 @@ CREATE TABLE `abbreviations` (
   `value` varchar(12) COLLATE utf8mb4_unicode_ci,
   PRIMARY KEY (`id`),
   UNIQUE KEY `value` (`value`)
-) ENGINE=MyISAM DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
 INSERT INTO `abbreviations` (value) VALUES (NULL);
 
 --
@@ -49,7 +49,7 @@ CREATE TABLE `context` (
   PRIMARY KEY (`id`),
   UNIQUE KEY `ids` (`expansion_id`,`word_id`,`distance`),
   KEY `word_id` (`word_id`)
-) ENGINE=MyISAM DEFAULT CHARSET=utf8mb4;
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
 --
 -- Table structure for table `expansions`
@@ -61,18 +61,18 @@ CREATE TABLE `expansions` (
   `value` varchar(250) COLLATE utf8mb4_unicode_ci NOT NULL,
   PRIMARY KEY (`id`),
   UNIQUE KEY `value` (`value`)
-) ENGINE=MyISAM DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
 
 --
 -- Table structure for table `words`
 --
 
-DROP TABLE IF EXISTS `commmon_words`;
+DROP TABLE IF EXISTS `common_words`;
 CREATE TABLE `common_words` (
   `id` int(11) NOT NULL AUTO_INCREMENT,
   `value` varchar(64) COLLATE utf8mb4_unicode_ci NOT NULL,
   PRIMARY KEY (`id`)
-) ENGINE=MyISAM DEFAULT CHARSET=utf8mb4;
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
 --
 -- Table structure for table `examples`
@@ -85,5 +85,7 @@ CREATE TABLE `examples` (
   `expansion_id` int(11) NOT NULL,
   `words` TEXT COLLATE utf8mb4_unicode_ci NOT NULL,
   `abbr_index` int(11) NOT NULL,
-  PRIMARY KEY (`id`)
-) ENGINE=MyISAM DEFAULT CHARSET=utf8mb4;
\ No newline at end of file
+  `weight` int(11) NOT NULL DEFAULT 1,
+  PRIMARY KEY (`id`),
+  KEY `abbreviation_expansion` (`abbreviation_id`,`expansion_id`,`weight`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
\ No newline at end of file
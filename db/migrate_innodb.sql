@@ -0,0 +1,84 @@
+--
+-- Migrates a database created with the MyISAM version of build.sql to InnoDB.
+--
+-- Each table is copied into a new InnoDB table with the indexes from build.sql, then every table is
+-- swapped in a single RENAME so readers never see a partly migrated database. The MyISAM tables are
+-- kept with a _myisam suffix and can be dropped once the migration has been checked.
+--
+-- Reads may continue while this runs. Stop adding examples until it finishes, examples added during
+-- the copy are only in the MyISAM tables.
+--
+-- The examples keep their weight, so run add_weights.sql first on a database created before the
+-- weight column existed.
+--
+
+USE `atea`;
+
+DROP TABLE IF EXISTS `abbreviation_expansion_innodb`;
+CREATE TABLE `abbreviation_expansion_innodb` (
+  `abbreviation_id` int(11) NOT NULL,
+  `expansion_id` int(11) NOT NULL,
+  PRIMARY KEY (`abbreviation_id`,`expansion_id`),
+  KEY `expansion_id` (`expansion_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+INSERT INTO `abbreviation_expansion_innodb` SELECT `abbreviation_id`, `expansion_id` FROM `abbreviation_expansion`;
+
+DROP TABLE IF EXISTS `abbreviations_innodb`;
+CREATE TABLE `abbreviations_innodb` (
+  `id` int(11) NOT NULL AUTO_INCREMENT,
+  `value` varchar(12) COLLATE utf8mb4_unicode_ci,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `value` (`value`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+INSERT INTO `abbreviations_innodb` SELECT `id`, `value` FROM `abbreviations`;
+
+DROP TABLE IF EXISTS `context_innodb`;
+CREATE TABLE `context_innodb` (
+  `id` int(11) NOT NULL AUTO_INCREMENT,
+  `expansion_id` int(11) NOT NULL,
+  `word_id` int(11) NOT NULL,
+  `distance` int(11) NOT NULL,
+  `count` int(11) NOT NULL DEFAULT '0',
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `ids` (`expansion_id`,`word_id`,`distance`),
+  KEY `word_id` (`word_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+INSERT INTO `context_innodb` SELECT `id`, `expansion_id`, `word_id`, `distance`, `count` FROM `context`;
+
+DROP TABLE IF EXISTS `expansions_innodb`;
+CREATE TABLE `expansions_innodb` (
+  `id` int(11) NOT NULL AUTO_INCREMENT,
+  `value` varchar(250) COLLATE utf8mb4_unicode_ci NOT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `value` (`value`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+INSERT INTO `expansions_innodb` SELECT `id`, `value` FROM `expansions`;
+
+DROP TABLE IF EXISTS `common_words_innodb`;
+CREATE TABLE `common_words_innodb` (
+  `id` int(11) NOT NULL AUTO_INCREMENT,
+  `value` varchar(64) COLLATE utf8mb4_unicode_ci NOT NULL,
+  PRIMARY KEY (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+INSERT INTO `common_words_innodb` SELECT `id`, `value` FROM `common_words`;
+
+DROP TABLE IF EXISTS `examples_innodb`;
+CREATE TABLE `examples_innodb` (
+  `id` int(11) NOT NULL AUTO_INCREMENT,
+  `abbreviation_id` int(11) NOT NULL,
+  `expansion_id` int(11) NOT NULL,
+  `words` TEXT COLLATE utf8mb4_unicode_ci NOT NULL,
+  `abbr_index` int(11) NOT NULL,
+  `weight` int(11) NOT NULL DEFAULT 1,
+  PRIMARY KEY (`id`),
+  KEY `abbreviation_expansion` (`abbreviation_id`,`expansion_id`,`weight`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+INSERT INTO `examples_innodb` SELECT `id`, `abbreviation_id`, `expansion_id`, `words`, `abbr_index`, `weight` FROM `examples`;
+
+RENAME TABLE
+  `abbreviation_expansion` TO `abbreviation_expansion_myisam`, `abbreviation_expansion_innodb` TO `abbreviation_expansion`,
+  `abbreviations` TO `abbreviations_myisam`, `abbreviations_innodb` TO `abbreviations`,
+  `context` TO `context_myisam`, `context_innodb` TO `context`,
+  `expansions` TO `expansions_myisam`, `expansions_innodb` TO `expansions`,
+  `common_words` TO `common_words_myisam`, `common_words_innodb` TO `common_words`,
+  `examples` TO `examples_myisam`, `examples_innodb` TO `examples`;
@@ -56,7 +56,7 @@ INSERT INTO expansions(value) VALUES
 
 INSERT INTO abbreviation_expansion VALUES (1,1),(2,2),(3,3),(4,4),(5,5),(6,6),(7,7),(8,8),(9,9),(10,10),(11,11),(12,12),(13,13),(14,14),(15,15),(16,16),(17,17),(18,18),(19,19),(20,20),(21,21),(22,22),(23,23),(24,24),(25,25);
 
-INSERT INTO examples VALUES
+INSERT INTO examples (id, abbreviation_id, expansion_id, words, abbr_index) VALUES
 (1, 1, 1, ',An,abbr,is,a,shortened,form,of,a,word,DIY,and,misc,are,examples,of,abbreviations,', 1),
 (2, 7, 7, ',An,abbr,is,a,shortened,form,of,a,word,DIY,and,misc,are,examples,of,abbreviations,', 9),
 (3, 17, 17, ',An,abbr,is,a,shortened,form,of,a,word,DIY,and,misc,are,examples,of,abbreviations,', 11);